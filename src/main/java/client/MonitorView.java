@@ -0,0 +1,84 @@
+package client;
+
+import greenhouse.util.BinaryProtocol;
+import greenhouse.util.BinaryProtocol.MonitorUpdate;
+
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The client's own copy of the sensors and appliances of the greenhouse it monitors, built from
+ * a snapshot and kept up to date by applying the deltas the server sends after it.
+ * <p>
+ * Every delta names the sequence number of the update it applies to. A delta that does not apply
+ * to the last update applied means an update was missed, after which deltas are ignored until
+ * the client has asked for, and been sent, a new snapshot.
+ */
+final class MonitorView {
+  private final Map<Integer, String> sensors = new TreeMap<>();
+  private final Map<Integer, Byte> appliances = new TreeMap<>();
+  private int greenhouseId = -1;
+  private long sequence = -1;
+  private boolean resyncRequested = false;
+
+  /**
+   * Applies an update to the view. A snapshot always applies, and replaces the whole view.
+   *
+   * @param update the update from the server
+   * @return true if the update was applied, false if it does not follow the last update applied
+   */
+  synchronized boolean apply(MonitorUpdate update) {
+    if (update.isSnapshot()) {
+      sensors.clear();
+      appliances.clear();
+      greenhouseId = update.greenhouseId();
+      resyncRequested = false;
+    } else if (sequence < 0 || update.baseSequence() != sequence || update.greenhouseId() != greenhouseId) {
+      return false;
+    }
+    for (int i = 0; i < update.sensorIds().length; i++) {
+      sensors.put(update.sensorIds()[i], BinaryProtocol.sensorTypeName(update.sensorTypes()[i])
+              + "{id=" + update.sensorIds()[i] + ", reading=" + update.readings()[i] + "}");
+    }
+    for (int id : update.removedSensorIds()) {
+      sensors.remove(id);
+    }
+    for (int i = 0; i < update.applianceIds().length; i++) {
+      if (update.applianceStates()[i] == BinaryProtocol.APPLIANCE_REMOVED) {
+        appliances.remove(update.applianceIds()[i]);
+      } else {
+        appliances.put(update.applianceIds()[i], update.applianceStates()[i]);
+      }
+    }
+    sequence = update.sequence();
+    return true;
+  }
+
+  /**
+   * Notes that the client is asking for a new snapshot after missing an update.
+   *
+   * @return true if the client had not already asked since the last snapshot
+   */
+  synchronized boolean requestResync() {
+    if (resyncRequested) {
+      return false;
+    }
+    resyncRequested = true;
+    return true;
+  }
+
+  /**
+   * Renders the view as text: a line naming the greenhouse and the last update applied, then
+   * one line per sensor and per appliance.
+   *
+   * @return the view as text
+   */
+  synchronized String render() {
+    StringBuilder sb = new StringBuilder();
+    sb.append("Greenhouse ").append(greenhouseId).append(" at update #").append(sequence).append("\n");
+    sensors.values().forEach(sensor -> sb.append(sensor).append("\n"));
+    appliances.forEach((id, state) ->
+            sb.append("Appliance ").append(id).append(' ').append(BinaryProtocol.applianceStateName(state)).append("\n"));
+    return sb.toString();
+  }
+}
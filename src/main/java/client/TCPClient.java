@@ -1,42 +1,67 @@
 package client;
 
-import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
+import greenhouse.util.BinaryProtocol;
+import greenhouse.util.MessageCipher;
+
 import java.io.*;
 import java.net.Socket;
-import java.util.Base64;
-import java.util.Scanner;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 
 /**
  * TCPClient class represents a client that connects to a TCP server,
  * sends and receives messages, and can subscribe to server updates.
+ * <p>
+ * Unless told to use the text protocol, the client asks the server for the {@link BinaryProtocol}
+ * when it connects, and renders the frames it receives as text. A server that does not answer
+ * the handshake within {@link #HANDSHAKE_TIMEOUT_MS} of the connection is spoken to in the text
+ * protocol from then on, without waiting for the handshake again.
+ * <p>
+ * When monitoring over the binary protocol, the client keeps its own view of the greenhouse,
+ * applies the deltas the server sends to it and prints the whole view after each one. If it
+ * finds that it missed an update, it asks the server for a new snapshot.
  */
 public class TCPClient {
   private Socket socket;
-  private BufferedReader bufferedReader;
+  private DataInputStream inputStream;
+  private OutputStream outputStream;
   private BufferedWriter bufferedWriter;
   private volatile boolean isConnected = false;
   private volatile boolean shouldReconnect = true;
+  private volatile boolean isBinary = false;
+  private volatile CountDownLatch handshakeAnswered = new CountDownLatch(0);
+  private volatile long handshakeDeadline = 0;
+  private final Object handshakeLock = new Object();
   private static final int MAX_RECONNECT_ATTEMPTS = 5;
   private static final int INITIAL_DELAY_MS = 1000;
-  private static final String ENCRYPTION_ALGORITHM = "AES"; // Encryption functionality is made using AI
-  private static final SecretKey SECRET_KEY = new SecretKeySpec(Base64.getDecoder().decode("m0VxcSPFs+2cuMUfh6tjWMj90eihSDGpc1cLr/B9e1Y="), ENCRYPTION_ALGORITHM);
+  private static final int HANDSHAKE_TIMEOUT_MS = 2000;
+  private final MessageCipher messageCipher = MessageCipher.getInstance();
+  private final boolean useBinaryProtocol;
+  private final MonitorView monitorView = new MonitorView();
+
+  /**
+   * Constructs a TCPClient using the binary protocol when the server supports it.
+   */
+  public TCPClient() {
+    this(true);
+  }
 
   /**
-   * Constructs a TCPClient with the specified port, host, and server.
+   * Constructs a TCPClient.
+   *
+   * @param useBinaryProtocol false to always use the text protocol
    */
-  public TCPClient(){}
+  public TCPClient(boolean useBinaryProtocol) {
+    this.useBinaryProtocol = useBinaryProtocol;
+  }
 
   public void connectToServer(String host, int port) {
-      Scanner scanner = new Scanner(System.in);
+      BufferedReader console = new BufferedReader(new InputStreamReader(System.in));
 
       try {
-          socket = new Socket(host, port);
-          bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-          bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-          isConnected = true;
+          openConnection(host, port);
       } catch (IOException e) {
           System.err.println("Could not connect to server: " + e.getMessage());
           isConnected = false;
@@ -45,7 +70,15 @@ public class TCPClient {
       Thread listenerThread = createAndStartListenerIfConnected();
 
       while (shouldReconnect) {
-          String messageToSend = scanner.nextLine();
+          String messageToSend;
+          try {
+              messageToSend = console.readLine();
+          } catch (IOException e) {
+              messageToSend = null;
+          }
+          if (messageToSend == null) {
+              messageToSend = "exit"; // The input has ended, e.g. at the end of a script
+          }
 
           if (messageToSend.equalsIgnoreCase("reconnect")) {
               isConnected = false;
@@ -69,10 +102,8 @@ public class TCPClient {
 
           if (isConnected) {
               try {
-                  String encryptedMessage = encryptMessage(messageToSend);
-                  bufferedWriter.write(encryptedMessage);
-                  bufferedWriter.newLine();
-                  bufferedWriter.flush();
+                  // Commands typed or piped in ahead are sent together, without waiting for responses
+                  sendMessage(messageToSend, !console.ready());
               } catch (IOException e) {
                   System.err.println("Failed to send message: " + e.getMessage());
                   isConnected = false;
@@ -84,18 +115,104 @@ public class TCPClient {
       }
   }
 
+  /**
+   * Connects to the server, and asks it for the binary protocol unless told not to.
+   * @param host server hostname or IP
+   * @param port server port number
+   * @throws IOException if the connection could not be made
+   */
+  void openConnection(String host, int port) throws IOException {
+      socket = new Socket(host, port);
+      inputStream = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+      outputStream = new BufferedOutputStream(socket.getOutputStream());
+      bufferedWriter = new BufferedWriter(new OutputStreamWriter(outputStream));
+      isBinary = false;
+      isConnected = true;
+
+      if (useBinaryProtocol) {
+          handshakeAnswered = new CountDownLatch(1);
+          handshakeDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(HANDSHAKE_TIMEOUT_MS);
+          bufferedWriter.write(BinaryProtocol.HANDSHAKE);
+          bufferedWriter.newLine();
+          bufferedWriter.flush();
+      } else {
+          handshakeAnswered = new CountDownLatch(0);
+      }
+  }
+
+  /**
+   * Sends a message to the server, as a frame if the server accepted the binary protocol,
+   * and otherwise as a line.
+   * @param message the plaintext message to send
+   * @param flush false to hold the message back until a later message is flushed
+   * @throws IOException if the message could not be sent
+   */
+  synchronized void sendMessage(String message, boolean flush) throws IOException {
+      awaitHandshake();
+
+      if (isBinary) {
+          byte[] plaintext = message.getBytes(StandardCharsets.UTF_8);
+          try {
+              byte[] encrypted = messageCipher.encryptBytes(plaintext, 0, plaintext.length);
+              BinaryProtocol.writeFrame(outputStream, BinaryProtocol.TEXT, encrypted);
+          } catch (Exception e) {
+              System.err.println("Encryption failed: " + e.getMessage());
+              BinaryProtocol.writeFrame(outputStream, BinaryProtocol.PLAIN_TEXT, plaintext);
+          }
+          if (flush) {
+              outputStream.flush();
+          }
+      } else {
+          bufferedWriter.write(encryptMessage(message));
+          bufferedWriter.newLine();
+          if (flush) {
+              bufferedWriter.flush();
+          }
+      }
+  }
+
+  /**
+   * Waits until the server has answered the handshake, since it must not get anything else
+   * before. If the server has not answered by the deadline, it does not know the binary protocol,
+   * and the client falls back to the text protocol for the rest of the connection.
+   */
+  private void awaitHandshake() {
+      CountDownLatch answered = handshakeAnswered;
+      if (answered.getCount() == 0) {
+          return;
+      }
+      try {
+          long remaining = handshakeDeadline - System.nanoTime();
+          if (!answered.await(Math.max(remaining, 0), TimeUnit.NANOSECONDS)) {
+              synchronized (handshakeLock) {
+                  if (answered.getCount() > 0) {
+                      isBinary = false;
+                      answered.countDown(); // An answer arriving after this is read as an ordinary line
+                  }
+              }
+          }
+      } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+      }
+  }
+
   /**
    * Creates and starts a listener thread if connected.
    * @return the started thread, or null if not connected
    */
   private Thread createAndStartListenerIfConnected() {
-      if (!isConnected || bufferedReader == null) return null;
+      if (!isConnected || inputStream == null) return null;
 
       Thread listenerThread = new Thread(() -> {
           try {
-              String serverMessage;
-              while (isConnected && (serverMessage = bufferedReader.readLine()) != null) {
-                  System.out.println(decryptMessage(serverMessage));
+              while (isConnected) {
+                  String serverMessage = isBinary ? readFrame() : readTextMessage();
+                  if (serverMessage == null) {
+                      break;
+                  }
+                  if (!serverMessage.isEmpty()) {
+                      System.out.println(serverMessage);
+                  }
               }
           } catch (IOException e) {
               if (isConnected) {
@@ -109,6 +226,95 @@ public class TCPClient {
       return listenerThread;
   }
 
+  /**
+   * Reads the next line from the server and decrypts it. Switches to frames, and
+   * reads the first frame, if the line is the server accepting the binary protocol.
+   * @return the decrypted message, or null if the server closed the connection
+   * @throws IOException if the message could not be read
+   */
+  private String readTextMessage() throws IOException {
+      String line = readLine();
+      if (line == null) {
+          handshakeAnswered.countDown(); // Nothing is waiting for an answer from a closed connection
+          return null;
+      }
+      if (line.equals(BinaryProtocol.HANDSHAKE_ACCEPTED)) {
+          synchronized (handshakeLock) {
+              if (handshakeAnswered.getCount() > 0) {
+                  isBinary = true;
+                  handshakeAnswered.countDown();
+              }
+          }
+          if (isBinary) {
+              return readFrame();
+          }
+      }
+      return decryptMessage(line);
+  }
+
+  /**
+   * Reads a line from the server, byte by byte so that no frames after it are read.
+   * @return the line without its line separator, or null if the server closed the connection
+   * @throws IOException if the line could not be read
+   */
+  private String readLine() throws IOException {
+      ByteArrayOutputStream line = new ByteArrayOutputStream();
+      int b;
+      while ((b = inputStream.read()) != '\n') {
+          if (b < 0) {
+              return line.size() > 0 ? line.toString(StandardCharsets.ISO_8859_1) : null;
+          }
+          line.write(b);
+      }
+      String text = line.toString(StandardCharsets.ISO_8859_1);
+      return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+  }
+
+  /**
+   * Reads the next frame from the server and renders it as text.
+   * @return the text of the frame, or null if the server closed the connection
+   * @throws IOException if the frame could not be read
+   */
+  private String readFrame() throws IOException {
+      BinaryProtocol.Frame frame = BinaryProtocol.readFrame(inputStream);
+      if (frame == null) {
+          return null;
+      }
+      try {
+          return switch (frame.type()) {
+              case BinaryProtocol.TEXT -> new String(decryptBytes(frame.payload()), StandardCharsets.UTF_8);
+              case BinaryProtocol.PLAIN_TEXT -> new String(frame.payload(), StandardCharsets.UTF_8);
+              case BinaryProtocol.MONITOR_UPDATE ->
+                      applyMonitorUpdate(BinaryProtocol.decodeMonitorUpdate(decryptBytes(frame.payload())));
+              default -> "Unknown message type from server: " + frame.type();
+          };
+      } catch (Exception e) {
+          System.err.println("Decryption failed: " + e.getMessage());
+          return "";
+      }
+  }
+
+  /**
+   * Applies a monitor update to the view of the monitored greenhouse. If the update does not
+   * follow the last update applied, asks the server for a new snapshot, once.
+   * @param update the update from the server
+   * @return the whole view, a note that an update was missed, or an empty string
+   */
+  private String applyMonitorUpdate(BinaryProtocol.MonitorUpdate update) {
+      if (monitorView.apply(update)) {
+          return monitorView.render();
+      }
+      if (monitorView.requestResync()) {
+          try {
+              sendMessage("resync", true);
+          } catch (IOException e) {
+              return "Missed a monitor update, and could not ask for a new snapshot: " + e.getMessage();
+          }
+          return "Missed a monitor update, asking for a new snapshot...";
+      }
+      return "";
+  }
+
   /**
    * Attempts to reconnect to the server with exponential backoff.
    * @param host server hostname or IP
@@ -124,10 +330,7 @@ public class TCPClient {
               System.out.println("Reconnecting... Attempt " + (attempts + 1) + "/" + MAX_RECONNECT_ATTEMPTS);
               Thread.sleep(delay);
 
-              socket = new Socket(host, port);
-              bufferedReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-              bufferedWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-              isConnected = true;
+              openConnection(host, port);
 
               System.out.println("Reconnected successfully!");
               return true;
@@ -151,7 +354,7 @@ public class TCPClient {
   private void closeResources() {
       try {
           if (bufferedWriter != null) bufferedWriter.close();
-          if (bufferedReader != null) bufferedReader.close();
+          if (inputStream != null) inputStream.close();
           if (socket != null && !socket.isClosed()) socket.close();
       } catch (IOException e) {
           System.err.println("Error closing resources: " + e.getMessage());
@@ -171,10 +374,7 @@ public class TCPClient {
     }
 
     try {
-      Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-      cipher.init(Cipher.ENCRYPT_MODE, SECRET_KEY);
-      byte[] encryptedBytes = cipher.doFinal(message.getBytes());
-      return Base64.getEncoder().encodeToString(encryptedBytes);
+      return messageCipher.encrypt(message);
     } catch (Exception e) {
       System.err.println("Encryption failed: " + e.getMessage());
       return message;
@@ -193,17 +393,24 @@ public class TCPClient {
     }
 
     try {
-      Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-      cipher.init(Cipher.DECRYPT_MODE, SECRET_KEY);
-      byte[] decodedBytes = Base64.getDecoder().decode(encryptedMessage);
-      byte[] decryptedBytes = cipher.doFinal(decodedBytes);
-      return new String(decryptedBytes);
+      return messageCipher.decrypt(encryptedMessage);
     } catch (Exception e) {
       System.err.println("Decryption failed: " + e.getMessage());
       return encryptedMessage;
     }
   }
 
+  /**
+   * Decrypts the payload of a binary protocol frame.
+   *
+   * @param payload the encrypted payload
+   * @return the decrypted payload
+   * @throws Exception if the payload could not be decrypted
+   */
+  private byte[] decryptBytes(byte[] payload) throws Exception {
+    return messageCipher.decryptBytes(payload, 0, payload.length);
+  }
+
   /**
    * Subscribes this client to receive updates from the server by sending a subscribe command.
    * The server is expected to handle the subscription logic.
@@ -214,7 +421,7 @@ public class TCPClient {
       bufferedWriter.newLine();
       bufferedWriter.flush();
 
-      String response = bufferedReader.readLine();
+      String response = readLine();
       System.out.println("Subscription response from server: " + response);
     } catch (IOException e){
       System.err.println("Failed to subscribe to server: " + e.getMessage());
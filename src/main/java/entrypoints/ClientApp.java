@@ -2,6 +2,8 @@ package greenhouse.entrypoints;
 
 import client.TCPClient;
 
+import java.util.Arrays;
+
 /**
  * The program's entrypoint where the purpose is to start a clientside communication with a server.
  */
@@ -16,6 +18,8 @@ public class ClientApp {
    * - no arguments: use default host 127.0.0.1 and default port 5000
    * - one argument: treated as the server port (Integer); host defaults to 127.0.0.1
    * - two arguments: first is the host address, second is the server port (Integer)
+   * - "--text" may be added to any of the above, to use the text protocol even if the
+   *   server supports the binary protocol
    *
    * @param args commandline arguments specifying host and/or port as described above
    */
@@ -24,6 +28,8 @@ public class ClientApp {
     final int defaultServerPort = 5000;
     final String host;
     final int serverPort;
+    final boolean useBinaryProtocol = !Arrays.asList(args).contains("--text");
+    args = Arrays.stream(args).filter(arg -> !arg.equals("--text")).toArray(String[]::new);
 
     if (args.length == 1) {
       serverPort = Integer.parseInt(args[0]);
@@ -36,7 +42,7 @@ public class ClientApp {
       serverPort = defaultServerPort;
     }
 
-    TCPClient client = new TCPClient();
+    TCPClient client = new TCPClient(useBinaryProtocol);
     client.connectToServer(host, serverPort);
 
   }
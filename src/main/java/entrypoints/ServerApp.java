@@ -1,7 +1,14 @@
 package greenhouse.entrypoints;
 
+import greenhouse.filehandling.TimeSeriesStore;
+import greenhouse.filehandling.WriteAheadLog;
+import greenhouse.logic.ClientConnection;
+import greenhouse.logic.ServerMode;
 import greenhouse.logic.TCPServer;
 
+import java.io.IOException;
+import java.nio.file.Path;
+
 /**
  * The program's entrypoint where the purpose is to start a TCPServer and allow communication
  * with clients connecting to the server.
@@ -9,25 +16,93 @@ import greenhouse.logic.TCPServer;
 public class ServerApp {
   private static final int defaultServerPort = 5000;
   private static final String loopbackAddress = "127.0.0.1";
+  private static final String defaultDataDirectory = "src/main/resources/greenhouses";
+  private static final String writeAheadLogDirectory = "wal";
+  private static final String timeSeriesDirectory = "timeseries";
 
   /**
    * The ServerApp's main entry point.
+   * <p>
+   * Expected input order:
+   * - no arguments: use default port 5000, with a thread per client
+   * - one argument: treated as the server port (Integer)
+   * - two arguments: first is the server port, second is the server mode,
+   *   either "thread" (a platform thread per client), "virtual" (a virtual thread per client)
+   *   or "nio" (non-blocking event loops)
+   * - three arguments: the third is what happens to updates for a client that falls behind,
+   *   either "coalesce" (only the latest update is kept), "drop-oldest" or "disconnect"
+   * - four arguments: the fourth is the directory the greenhouses are loaded from and saved in,
+   *   src/main/resources/greenhouses by default
+   * - five arguments: the fifth is the greatest number of greenhouses kept in memory. Saved
+   *   greenhouses are then loaded when first used, and the ones used least recently are dropped
+   *   from memory. All greenhouses are kept in memory by default
    *
    * @param args The commandline arguments to pass upon starting the program.
    */
   public static void main(String[] args) {
     int serverPort;
+    ServerMode serverMode = ServerMode.THREAD_PER_CLIENT;
+    ClientConnection.OverflowPolicy overflowPolicy = ClientConnection.OverflowPolicy.COALESCE_LATEST;
 
-    if (args.length == 1) {
+    if (args.length >= 1) {
       serverPort = Integer.parseInt(args[0]);
     }
     else {
       serverPort = defaultServerPort;
     }
 
+    if (args.length >= 2) {
+      try {
+        serverMode = ServerMode.fromArgument(args[1]);
+      } catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage() + ". Use 'thread', 'virtual' or 'nio'.");
+        return;
+      }
+    }
+
+    if (args.length >= 3) {
+      try {
+        overflowPolicy = ClientConnection.OverflowPolicy.fromArgument(args[2]);
+      } catch (IllegalArgumentException e) {
+        System.err.println(e.getMessage() + ". Use 'coalesce', 'drop-oldest' or 'disconnect'.");
+        return;
+      }
+    }
+
+    Path dataDirectory = Path.of(args.length >= 4 ? args[3] : defaultDataDirectory);
+
+    int maxLoadedGreenHouses = 0;
+    if (args.length >= 5) {
+      try {
+        maxLoadedGreenHouses = Integer.parseInt(args[4]);
+      } catch (NumberFormatException e) {
+        maxLoadedGreenHouses = -1;
+      }
+      if (maxLoadedGreenHouses < 1) {
+        System.err.println("The greatest number of greenhouses in memory must be a whole number above 0, "
+                + "but it was: " + args[4]);
+        return;
+      }
+    }
+
     try {
 //      ServerSocket serverSocket = new ServerSocket(serverPort, 10);
-      TCPServer server = new TCPServer(serverPort);
+      TCPServer server = new TCPServer(serverPort, serverMode);
+      server.setOverflowPolicy(overflowPolicy);
+      server.useDataDirectory(dataDirectory);
+      if (maxLoadedGreenHouses > 0) {
+        server.useLazyLoading(maxLoadedGreenHouses);
+      }
+      try {
+        server.useWriteAheadLog(new WriteAheadLog(dataDirectory.resolve(writeAheadLogDirectory)));
+      } catch (IOException e) {
+        System.err.println("Could not open the write-ahead log, changes are only kept on save: " + e.getMessage());
+      }
+      try {
+        server.recordTimeSeries(new TimeSeriesStore(dataDirectory.resolve(timeSeriesDirectory)));
+      } catch (IOException e) {
+        System.err.println("Could not open the time-series store, sensor readings are not recorded: " + e.getMessage());
+      }
       server.run();
     } catch (IllegalArgumentException e){
       System.err.println("ServerPort needs to be within the range 0-65535, "
@@ -9,7 +9,7 @@ import greenhouse.logic.Air;
  * @param <T> The type of data the sensor reads.
  */
 public class HumiditySensor<T> extends Sensor<T> implements AirSubscriber {
-  private Float latestHumidityReading;
+  private float latestHumidityReading;
 
   /**
    * Creates an instance of the HumiditySensor.
@@ -42,8 +42,14 @@ public class HumiditySensor<T> extends Sensor<T> implements AirSubscriber {
   @Override
   public void update(Air air) {
     this.latestHumidityReading = air.getHumidity();
+    recordReading();
   }
   
+  @Override
+  public double getReading() {
+    return getHumidity();
+  }
+
   @Override
   public String toString() {
     return "HumiditySensor{" +
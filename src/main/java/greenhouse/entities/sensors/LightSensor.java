@@ -43,6 +43,12 @@ public class LightSensor<T> extends Sensor<T> implements AirSubscriber {
   @Override
   public void update(Air air) {
     this.latestLuxReading = air.getLux();
+    recordReading();
+  }
+
+  @Override
+  public double getReading() {
+    return getLux();
   }
 
   @Override
@@ -42,6 +42,12 @@ public class MoistureSensor<T> extends Sensor<T> implements SoilSubscriber {
   @Override
   public void update(Soil soil) {
     this.latestMoistureReading = soil.getSoilMoisture();
+    recordReading();
+  }
+
+  @Override
+  public double getReading() {
+    return getMoisture();
   }
 
   @Override
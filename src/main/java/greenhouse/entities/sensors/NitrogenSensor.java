@@ -41,6 +41,7 @@ public class NitrogenSensor<T> extends Sensor<T> implements SoilSubscriber {
   @Override
   public void update(Soil soil) {
     latestNitrogenReading = soil.getNitrogen();
+    recordReading();
   }
 
   /**
@@ -52,6 +53,11 @@ public class NitrogenSensor<T> extends Sensor<T> implements SoilSubscriber {
     return latestNitrogenReading;
   }
 
+  @Override
+  public double getReading() {
+    return getNitrogen();
+  }
+
   @Override
   public String toString() {
     return "NitrogenSensor{" +
@@ -41,6 +41,12 @@ public class PHSensor<T> extends Sensor<T> implements SoilSubscriber {
   @Override
   public void update(Soil soil) {
     this.latestPhReading = soil.getPhValue();
+    recordReading();
+  }
+
+  @Override
+  public double getReading() {
+    return getPh();
   }
 
   @Override
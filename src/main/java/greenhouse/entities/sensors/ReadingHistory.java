@@ -0,0 +1,83 @@
+package greenhouse.entities.sensors;
+
+/**
+ * The latest readings of a sensor, kept in a ring of fixed size.
+ * <p>
+ * The times and values are stored in two primitive arrays, which are created once, so recording
+ * a reading never allocates. When the ring is full, every new reading replaces the oldest one.
+ */
+public final class ReadingHistory {
+  private final long[] timestamps;
+  private final double[] values;
+  private int next = 0;
+  private int size = 0;
+
+  /**
+   * Creates an empty history keeping the given number of readings.
+   *
+   * @param capacity the number of readings to keep
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  public ReadingHistory(int capacity) throws IllegalArgumentException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("A reading history must keep at least one reading.");
+    }
+    this.timestamps = new long[capacity];
+    this.values = new double[capacity];
+  }
+
+  /**
+   * Records a reading, replacing the oldest reading if the history is full.
+   *
+   * @param timestamp the time of the reading, in milliseconds since the epoch
+   * @param value     the value read
+   */
+  public synchronized void record(long timestamp, double value) {
+    timestamps[next] = timestamp;
+    values[next] = value;
+    next = (next + 1) % values.length;
+    if (size < values.length) {
+      size++;
+    }
+  }
+
+  /**
+   * Copies the latest readings, oldest first, into the given arrays.
+   *
+   * @param timestampsOut the array to copy the times of the readings into
+   * @param valuesOut     the array to copy the values of the readings into
+   * @return the number of readings copied: the smallest of the length of the arrays
+   *     and the number of readings kept
+   */
+  public synchronized int copyLatest(long[] timestampsOut, double[] valuesOut) {
+    int count = Math.min(size, Math.min(timestampsOut.length, valuesOut.length));
+    int first = next - count;
+    if (first < 0) {
+      first += values.length;
+    }
+    for (int i = 0; i < count; i++) {
+      int index = (first + i) % values.length;
+      timestampsOut[i] = timestamps[index];
+      valuesOut[i] = values[index];
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of readings kept.
+   *
+   * @return the number of readings kept, at most the capacity
+   */
+  public synchronized int size() {
+    return size;
+  }
+
+  /**
+   * Returns the number of readings the history can keep.
+   *
+   * @return the capacity of the history
+   */
+  public int capacity() {
+    return values.length;
+  }
+}
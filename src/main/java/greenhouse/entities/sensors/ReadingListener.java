@@ -0,0 +1,17 @@
+package greenhouse.entities.sensors;
+
+/**
+ * Is told about every reading a sensor takes.
+ */
+@FunctionalInterface
+public interface ReadingListener {
+
+  /**
+   * Alerts the listener that the sensor has just taken a reading.
+   *
+   * @param sensor    the sensor that took the reading
+   * @param timestamp the time of the reading, in milliseconds since the epoch
+   * @param value     the value read
+   */
+  void onReading(Sensor<?> sensor, long timestamp, double value);
+}
@@ -11,6 +11,8 @@ package greenhouse.entities.sensors;
 public abstract class Sensor<T> {
   private int id;
   private final String type;
+  private volatile ReadingHistory history = null;
+  private volatile ReadingListener readingListener = null;
 
   /**
    * Constructs a new Sensor with the specified parameters.
@@ -51,6 +53,67 @@ public abstract class Sensor<T> {
     return this.type;
   }
 
+  /**
+   * Gets the latest reading of this sensor as a number.
+   *
+   * @return the latest reading
+   */
+  public abstract double getReading();
+
+  /**
+   * Starts keeping the latest readings of this sensor. Readings taken from then on
+   * are recorded until the history is full, after which the oldest readings are replaced.
+   * A history kept already is kept as it is.
+   *
+   * @param capacity the number of readings to keep
+   * @return the history of this sensor
+   * @throws IllegalArgumentException if the capacity is not positive
+   */
+  public synchronized ReadingHistory enableHistory(int capacity) throws IllegalArgumentException {
+    if (this.history == null) {
+      this.history = new ReadingHistory(capacity);
+    }
+    return this.history;
+  }
+
+  /**
+   * Gets the history of the readings of this sensor.
+   *
+   * @return the history, or null if this sensor keeps no history
+   */
+  public ReadingHistory getHistory() {
+    return this.history;
+  }
+
+  /**
+   * Sets the listener told about every reading this sensor takes.
+   *
+   * @param listener the listener, or null to stop telling anyone
+   */
+  public void setReadingListener(ReadingListener listener) {
+    this.readingListener = listener;
+  }
+
+  /**
+   * Records the latest reading in the history of this sensor, if it keeps one,
+   * and tells the reading listener about it, if there is one.
+   * Subclasses call this every time they take a reading.
+   */
+  protected void recordReading() {
+    ReadingHistory readings = this.history;
+    ReadingListener listener = this.readingListener;
+    if (readings == null && listener == null) {
+      return;
+    }
+    long timestamp = System.currentTimeMillis();
+    double reading = getReading();
+    if (readings != null) {
+      readings.record(timestamp, reading);
+    }
+    if (listener != null) {
+      listener.onReading(this, timestamp, reading);
+    }
+  }
 
   @Override
   public abstract String toString();
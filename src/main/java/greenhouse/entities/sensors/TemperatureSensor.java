@@ -41,6 +41,12 @@ public class TemperatureSensor<T> extends Sensor<T> implements AirSubscriber {
   @Override
   public void update(Air air) {
     this.latestTemperatureReading = air.getTemperature();
+    recordReading();
+  }
+
+  @Override
+  public double getReading() {
+    return latestTemperatureReading;
   }
 
   @Override
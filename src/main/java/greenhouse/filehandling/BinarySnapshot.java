@@ -0,0 +1,215 @@
+package greenhouse.filehandling;
+
+import greenhouse.entities.appliances.Appliance;
+import greenhouse.entities.sensors.Sensor;
+import greenhouse.logic.Air;
+import greenhouse.logic.GreenHouse;
+import greenhouse.logic.GreenHouseFactory;
+import greenhouse.logic.Soil;
+import greenhouse.util.BinaryProtocol;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.ObjLongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * A snapshot of every greenhouse in one compact binary file, laid out to be read from start to
+ * end. Loading maps the file into memory and builds the greenhouses straight from it, without
+ * parsing text or building DTOs first.
+ * <p>
+ * The file is laid out as:
+ * <pre>
+ *   [int magic "GHS1"][short version][int greenhouse count]
+ *   per greenhouse:
+ *     [int id][long log sequence][int next sensor id][int next appliance id]
+ *     [double temperature target][float humidity target][double lux target]
+ *     [double soil moisture][float ph][double nitrogen]
+ *     [short sensor count] then per sensor: [int id][byte type]
+ *     [short appliance count] then per appliance: [int id][byte type][byte on]
+ *   [int crc32 of everything before it]
+ * </pre>
+ * Sensor types have the codes of {@link BinaryProtocol#sensorTypeCode(String)}. A file of
+ * another version is not read.
+ */
+public final class BinarySnapshot {
+  static final int MAGIC = 0x47485331;
+  static final short VERSION = 1;
+  private static final String[] APPLIANCE_TYPES = {
+          "Aircondition", "Lamp", "Humidifier", "Sprinkler", "Fertilizer", "Limer"
+  };
+  private static final int HEADER_LENGTH = Integer.BYTES + Short.BYTES + Integer.BYTES;
+  private static final int GREENHOUSE_LENGTH = 3 * Integer.BYTES + Long.BYTES
+          + 2 * Double.BYTES + Float.BYTES + 2 * Double.BYTES + Float.BYTES + 2 * Short.BYTES;
+  private static final int SENSOR_LENGTH = Integer.BYTES + Byte.BYTES;
+  private static final int APPLIANCE_LENGTH = Integer.BYTES + 2 * Byte.BYTES;
+
+  private BinarySnapshot() {
+  }
+
+  /**
+   * Writes a snapshot of the given greenhouses. The file is written next to its place and then
+   * replaces the file in one step, so it never holds a half written snapshot. The directory is
+   * forced to disk afterwards, so the new snapshot is the one found after a power loss.
+   *
+   * @param file        the snapshot file
+   * @param greenHouses the copies of the greenhouses
+   * @throws IOException if the file could not be written
+   */
+  public static void write(Path file, List<GreenHouseDTO> greenHouses) throws IOException {
+    int length = HEADER_LENGTH + Integer.BYTES;
+    for (GreenHouseDTO greenHouse : greenHouses) {
+      length += GREENHOUSE_LENGTH + greenHouse.getSensors().size() * SENSOR_LENGTH
+              + greenHouse.getAppliances().size() * APPLIANCE_LENGTH;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    buffer.putInt(MAGIC).putShort(VERSION).putInt(greenHouses.size());
+    for (GreenHouseDTO greenHouse : greenHouses) {
+      AirDTO air = greenHouse.getAir();
+      SoilDTO soil = greenHouse.getSoil();
+      buffer.putInt(greenHouse.getGreenHouseId()).putLong(greenHouse.getLogSequence())
+              .putInt(greenHouse.getNextSensorId()).putInt(greenHouse.getNextApplianceId());
+      buffer.putDouble(air.getTargetTemperature()).putFloat(air.getTargetHumidity()).putDouble(air.getTargetLux());
+      buffer.putDouble(soil.getSoilMoisture()).putFloat(soil.getPhValue()).putDouble(soil.getNitrogen());
+      buffer.putShort((short) greenHouse.getSensors().size());
+      for (SensorDTO sensor : greenHouse.getSensors()) {
+        buffer.putInt(sensor.getId()).put(BinaryProtocol.sensorTypeCode(sensor.getType()));
+      }
+      buffer.putShort((short) greenHouse.getAppliances().size());
+      for (ApplianceDTO appliance : greenHouse.getAppliances()) {
+        buffer.putInt(appliance.getId()).put(applianceTypeCode(appliance.getType()))
+                .put((byte) (appliance.isOn() ? 1 : 0));
+      }
+    }
+    CRC32 crc = new CRC32();
+    crc.update(buffer.array(), 0, buffer.position());
+    buffer.putInt((int) crc.getValue());
+    buffer.flip();
+
+    Path parent = file.toAbsolutePath().getParent();
+    if (parent != null) {
+      Files.createDirectories(parent);
+    }
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    }
+    try {
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+    if (parent != null) {
+      FileSync.forceDirectory(parent);
+    }
+  }
+
+  /**
+   * Maps a snapshot into memory and builds its greenhouses, handing each one over with the
+   * sequence number of the last write-ahead log entry it includes. Sensors and appliances of
+   * unknown types are left out.
+   *
+   * @param file     the snapshot file
+   * @param consumer takes every greenhouse and its log sequence number, in the order they were saved
+   * @return the number of greenhouses read
+   * @throws IOException if the file could not be read, is of another version, or is corrupt
+   */
+  public static int read(Path file, ObjLongConsumer<GreenHouse> consumer) throws IOException {
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      if (channel.size() < HEADER_LENGTH + Integer.BYTES || channel.size() > Integer.MAX_VALUE) {
+        throw new IOException("Not a greenhouse snapshot: " + file);
+      }
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    }
+    int end = buffer.limit() - Integer.BYTES;
+    CRC32 crc = new CRC32();
+    crc.update(buffer.slice(0, end));
+    if (buffer.getInt(0) != MAGIC) {
+      throw new IOException("Not a greenhouse snapshot: " + file);
+    }
+    if (buffer.getShort(Integer.BYTES) != VERSION) {
+      throw new IOException("Unsupported greenhouse snapshot version " + buffer.getShort(Integer.BYTES));
+    }
+    if ((int) crc.getValue() != buffer.getInt(end)) {
+      throw new IOException("The greenhouse snapshot is corrupt: " + file);
+    }
+
+    buffer.position(Integer.BYTES + Short.BYTES);
+    buffer.limit(end);
+    try {
+      int count = buffer.getInt();
+      for (int i = 0; i < count; i++) {
+        readGreenHouse(buffer, consumer);
+      }
+      return count;
+    } catch (BufferUnderflowException e) {
+      throw new IOException("The greenhouse snapshot is cut short: " + file);
+    }
+  }
+
+  /**
+   * Builds the greenhouse at the position of the buffer and hands it over.
+   */
+  private static void readGreenHouse(ByteBuffer buffer, ObjLongConsumer<GreenHouse> consumer) {
+    int id = buffer.getInt();
+    long logSequence = buffer.getLong();
+    int nextSensorId = buffer.getInt();
+    int nextApplianceId = buffer.getInt();
+    Air air = new Air(buffer.getDouble(), buffer.getFloat(), buffer.getDouble());
+    Soil soil = new Soil(buffer.getDouble(), buffer.getFloat(), buffer.getDouble());
+
+    int sensorCount = buffer.getShort();
+    List<Sensor<?>> sensors = new ArrayList<>(sensorCount);
+    for (int i = 0; i < sensorCount; i++) {
+      int sensorId = buffer.getInt();
+      byte type = buffer.get();
+      if (type >= 1) {
+        Sensor<?> sensor = GreenHouseFactory.createSensor(BinaryProtocol.sensorTypeName(type), sensorId, air, soil);
+        if (sensor != null) {
+          sensors.add(sensor);
+        }
+      }
+    }
+    int applianceCount = buffer.getShort();
+    List<Appliance> appliances = new ArrayList<>(applianceCount);
+    for (int i = 0; i < applianceCount; i++) {
+      int applianceId = buffer.getInt();
+      byte type = buffer.get();
+      boolean on = buffer.get() != 0;
+      if (type >= 1 && type <= APPLIANCE_TYPES.length) {
+        appliances.add(GreenHouseFactory.createAppliance(APPLIANCE_TYPES[type - 1], applianceId, on, soil));
+      }
+    }
+    consumer.accept(new GreenHouse(id, soil, air, nextSensorId, nextApplianceId, sensors, appliances), logSequence);
+  }
+
+  /**
+   * Returns the code a type of appliance has in the snapshot.
+   *
+   * @param type the type of the appliance, e.g. "Lamp"
+   * @return the code of the appliance type, or 0 if the type is unknown
+   */
+  private static byte applianceTypeCode(String type) {
+    for (int i = 0; i < APPLIANCE_TYPES.length; i++) {
+      if (APPLIANCE_TYPES[i].equalsIgnoreCase(type)) {
+        return (byte) (i + 1);
+      }
+    }
+    return 0;
+  }
+}
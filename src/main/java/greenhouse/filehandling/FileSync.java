@@ -0,0 +1,33 @@
+package greenhouse.filehandling;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Forces the entries of a directory to disk, so that files created, renamed or deleted in it
+ * are still there after a power loss. Forcing a file only writes its contents, not its name.
+ */
+final class FileSync {
+  private static final boolean WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+  private FileSync() {
+  }
+
+  /**
+   * Forces the entries of a directory to disk. Does nothing on Windows, which cannot open
+   * a directory as a file, and keeps the entries of its directories in its own journal.
+   *
+   * @param directory the directory
+   * @throws IOException if the directory could not be opened or forced
+   */
+  static void forceDirectory(Path directory) throws IOException {
+    if (WINDOWS) {
+      return;
+    }
+    try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+      channel.force(true);
+    }
+  }
+}
@@ -15,6 +15,7 @@ public class GreenHouseDTO {
   private SoilDTO soil;
   private int nextSensorId;
   private int nextApplianceId;
+  private long logSequence;
 
   /**
    * Default constructor for Gson deserialization.
@@ -170,4 +171,22 @@ public class GreenHouseDTO {
   public int getNextSensorId() {
     return nextSensorId;
   }
+
+  /**
+   * Gets the sequence number of the last write-ahead log entry this state includes.
+   *
+   * @return The sequence number, or 0 if the state was saved without a log
+   */
+  public long getLogSequence() {
+    return logSequence;
+  }
+
+  /**
+   * Sets the sequence number of the last write-ahead log entry this state includes.
+   *
+   * @param logSequence The sequence number to set
+   */
+  public void setLogSequence(long logSequence) {
+    this.logSequence = logSequence;
+  }
 }
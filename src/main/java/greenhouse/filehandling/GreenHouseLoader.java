@@ -0,0 +1,177 @@
+package greenhouse.filehandling;
+
+import greenhouse.entities.appliances.Appliance;
+import greenhouse.entities.sensors.Sensor;
+import greenhouse.logic.Air;
+import greenhouse.logic.GreenHouse;
+import greenhouse.logic.GreenHouseFactory;
+import greenhouse.logic.Soil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.ObjLongConsumer;
+
+/**
+ * Loads the greenhouses saved as JSON files in a data directory.
+ * <p>
+ * The directory is listed once, and every file is read, parsed and built into a greenhouse as
+ * a task of its own on a bounded pool of threads. The greenhouses are then handed over on the
+ * calling thread, in the order of their ids, so whoever takes them needs no locking. A file
+ * that cannot be read is left out without stopping the others.
+ */
+public final class GreenHouseLoader {
+  private final JsonReader reader;
+  private final int threads;
+
+  /**
+   * How a load went.
+   *
+   * @param loaded       the number of greenhouses loaded
+   * @param failed       the number of files that could not be loaded
+   * @param bytes        the size of the files loaded
+   * @param elapsedNanos the time the load took, in nanoseconds
+   */
+  public record Report(int loaded, int failed, long bytes, long elapsedNanos) {
+
+    /**
+     * Returns the number of greenhouses loaded per second.
+     *
+     * @return the greenhouses per second, or 0 if none were loaded
+     */
+    public double greenHousesPerSecond() {
+      return elapsedNanos == 0 ? 0 : loaded * 1e9 / elapsedNanos;
+    }
+
+    /**
+     * Returns the number of megabytes of files loaded per second.
+     *
+     * @return the megabytes per second, or 0 if none were loaded
+     */
+    public double megabytesPerSecond() {
+      return elapsedNanos == 0 ? 0 : bytes / 1e6 * 1e9 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("Loaded %d greenhouses (%d failed) in %.1f ms, %.0f greenhouses/s, %.2f MB/s",
+              loaded, failed, elapsedNanos / 1e6, greenHousesPerSecond(), megabytesPerSecond());
+    }
+  }
+
+  /**
+   * A greenhouse built from a file, with the size of the file.
+   */
+  private record Loaded(GreenHouse greenHouse, long logSequence, long bytes) {
+  }
+
+  /**
+   * Creates a loader reading its files with the given reader.
+   *
+   * @param reader  the reader of the greenhouse files
+   * @param threads the greatest number of files loaded at once
+   * @throws IllegalArgumentException if the number of threads is less than 1
+   */
+  public GreenHouseLoader(JsonReader reader, int threads) throws IllegalArgumentException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("At least one thread is needed to load the files.");
+    }
+    this.reader = reader;
+    this.threads = threads;
+  }
+
+  /**
+   * Loads every greenhouse file of the directory, and hands each greenhouse over with the
+   * sequence number of the last write-ahead log entry its file includes.
+   *
+   * @param consumer takes every greenhouse loaded and its log sequence number, in the order of their ids
+   * @return how the load went
+   * @throws IOException if the directory could not be listed
+   */
+  public Report load(ObjLongConsumer<GreenHouse> consumer) throws IOException {
+    long start = System.nanoTime();
+    List<Path> files = reader.listGreenHouseFiles();
+    if (files.isEmpty()) {
+      return new Report(0, 0, 0, System.nanoTime() - start);
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, files.size()),
+            Thread.ofPlatform().name("greenhouse-loader-", 0).daemon().factory());
+    List<Future<Loaded>> tasks = new ArrayList<>(files.size());
+    try {
+      for (Path file : files) {
+        tasks.add(pool.submit(() -> {
+          GreenHouseDTO dto = reader.readGreenHouseFile(file);
+          return new Loaded(toGreenHouse(dto), dto.getLogSequence(), Files.size(file));
+        }));
+      }
+
+      int loaded = 0;
+      int failed = 0;
+      long bytes = 0;
+      for (int i = 0; i < tasks.size(); i++) {
+        try {
+          Loaded result = tasks.get(i).get();
+          consumer.accept(result.greenHouse(), result.logSequence());
+          loaded++;
+          bytes += result.bytes();
+        } catch (ExecutionException e) {
+          System.err.println("Skipping greenhouse file " + files.get(i).getFileName() + ": "
+                  + e.getCause().getMessage());
+          failed++;
+        }
+      }
+      return new Report(loaded, failed, bytes, System.nanoTime() - start);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while loading the greenhouses.", e);
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Builds a greenhouse from its saved state. The air starts at its targets, and sensors and
+   * appliances of unknown types are left out.
+   *
+   * @param dto the saved state of the greenhouse
+   * @return the greenhouse
+   */
+  public static GreenHouse toGreenHouse(GreenHouseDTO dto) {
+    AirDTO airDTO = dto.getAir();
+    Air air = new Air(airDTO.getTargetTemperature(), airDTO.getTargetHumidity(), airDTO.getTargetLux());
+    SoilDTO soilDTO = dto.getSoil();
+    Soil soil = new Soil(soilDTO.getSoilMoisture(), soilDTO.getPhValue(), soilDTO.getNitrogen());
+
+    List<Sensor<?>> sensors = new CopyOnWriteArrayList<>();
+    for (SensorDTO sensorDTO : dto.getSensors()) {
+      Sensor<?> sensor = GreenHouseFactory.createSensor(sensorDTO.getType(), sensorDTO.getId(), air, soil);
+      if (sensor == null) {
+        System.err.println("Unknown sensor type: " + sensorDTO.getType());
+      } else {
+        sensors.add(sensor);
+      }
+    }
+
+    List<Appliance> appliances = new CopyOnWriteArrayList<>();
+    for (ApplianceDTO applianceDTO : dto.getAppliances()) {
+      Appliance appliance = GreenHouseFactory.createAppliance(applianceDTO.getType(), applianceDTO.getId(),
+              applianceDTO.isOn(), soil);
+      if (appliance == null) {
+        System.err.println("Unknown appliance type: " + applianceDTO.getType());
+      } else {
+        appliances.add(appliance);
+      }
+    }
+
+    return new GreenHouse(dto.getGreenHouseId(), soil, air, dto.getNextSensorId(), dto.getNextApplianceId(),
+            sensors, appliances);
+  }
+}
@@ -1,77 +1,145 @@
 package greenhouse.filehandling;
 
 import com.google.gson.Gson;
-import java.io.FileNotFoundException;
+import com.google.gson.JsonParseException;
+
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 
 /**
  * Utility class for reading greenhouse data from JSON files using Gson.
- * Only reads from the resources/greenhouses directory.
+ * Reads the "greenhouse{id}.json" files of a data directory on disk, the same directory
+ * the {@link JsonWriter} saves them in.
  * Created using AI.
  */
 public class JsonReader {
 
+  private static final String RESOURCES_PATH = "src/main/resources/greenhouses";
+  private static final String FILE_PREFIX = "greenhouse";
+  private static final String FILE_SUFFIX = ".json";
+
   private final Gson gson;
+  private final Path directory;
 
+  /**
+   * Creates a new JsonReader reading from resources/greenhouses.
+   */
   public JsonReader() {
+    this(Path.of(RESOURCES_PATH));
+  }
+
+  /**
+   * Creates a new JsonReader reading the greenhouse files of the given directory.
+   *
+   * @param directory the directory the greenhouse files are saved in
+   */
+  public JsonReader(Path directory) {
     this.gson = new Gson();
+    this.directory = directory;
   }
 
   /**
-   * Reads a single greenhouse from a JSON file by ID from resources/greenhouses.
+   * Reads a single greenhouse from its JSON file by ID.
    *
    * @param greenHouseID The ID of the greenhouse to read
    * @return The GreenHouseDTO object
-   * @throws IOException If the file cannot be found or read
+   * @throws IOException If the file cannot be found, read or parsed
    */
   public GreenHouseDTO readGreenHouseFile(int greenHouseID) throws IOException {
-    String jsonContent = readJsonContent("/greenhouses/greenhouse" + greenHouseID + ".json");
-    return gson.fromJson(jsonContent, GreenHouseDTO.class);
+    return readGreenHouseFile(directory.resolve(FILE_PREFIX + greenHouseID + FILE_SUFFIX));
+  }
+
+  /**
+   * Reads a single greenhouse from the given JSON file.
+   *
+   * @param file The greenhouse file
+   * @return The GreenHouseDTO object
+   * @throws IOException If the file cannot be found, read or parsed
+   */
+  public GreenHouseDTO readGreenHouseFile(Path file) throws IOException {
+    try {
+      GreenHouseDTO greenHouse = gson.fromJson(Files.readString(file), GreenHouseDTO.class);
+      if (greenHouse == null) {
+        throw new IOException("The greenhouse file is empty: " + file);
+      }
+      return greenHouse;
+    } catch (JsonParseException e) {
+      throw new IOException("Could not parse the greenhouse file " + file + ": " + e.getMessage(), e);
+    }
   }
 
   /**
-   * Reads all greenhouse files from the resources/greenhouses directory.
-   * Tries greenhouse1.json through greenhouse20.json and stops when no more files are found.
+   * Lists the greenhouse files of the directory once, ordered by the id in their name.
+   * A missing directory has no greenhouse files.
+   *
+   * @return the greenhouse files
+   * @throws IOException If the directory cannot be listed
+   */
+  public List<Path> listGreenHouseFiles() throws IOException {
+    List<Path> files = new ArrayList<>();
+    try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, FILE_PREFIX + "*" + FILE_SUFFIX)) {
+      for (Path file : stream) {
+        if (greenHouseIdOf(file) >= 0) {
+          files.add(file);
+        }
+      }
+    } catch (NoSuchFileException e) {
+      return files;
+    }
+    files.sort(Comparator.comparingInt(JsonReader::greenHouseIdOf));
+    return files;
+  }
+
+  /**
+   * Lists the ids of the greenhouses with a file in the directory, without reading the files.
+   *
+   * @return the ids in order
+   * @throws IOException If the directory cannot be listed
+   */
+  public List<Integer> listGreenHouseIds() throws IOException {
+    List<Integer> ids = new ArrayList<>();
+    for (Path file : listGreenHouseFiles()) {
+      ids.add(greenHouseIdOf(file));
+    }
+    return ids;
+  }
+
+  /**
+   * Reads all greenhouse files of the directory, one after the other. A missing id does not
+   * hide the greenhouses after it.
    *
    * @return A list of all GreenHouseDTO objects found
    * @throws IOException If there's an error reading the files
    */
   public List<GreenHouseDTO> readAllGreenHouses() throws IOException {
     List<GreenHouseDTO> greenHouses = new ArrayList<>();
-    
-    // Keep reading greenhouse files starting from 0 until no more are found
-    int i = 0;
-    while (true) {
-      try {
-        GreenHouseDTO greenhouse = readGreenHouseFile(i);
-        greenHouses.add(greenhouse);
-        i++;
-      } catch (FileNotFoundException e) {
-        // File doesn't exist, stop searching
-        break;
-      }
+    for (Path file : listGreenHouseFiles()) {
+      greenHouses.add(readGreenHouseFile(file));
     }
-    
     return greenHouses;
   }
 
   /**
-   * Helper method to read JSON content from resources.
+   * Returns the id of the greenhouse in the name of a greenhouse file.
    *
-   * @param resourcePath The resource path to read from
-   * @return The JSON content as a string
-   * @throws IOException If the resource cannot be found or read
+   * @param file the greenhouse file
+   * @return the id, or -1 if the name is not of a greenhouse file
    */
-  private String readJsonContent(String resourcePath) throws IOException {
-    try (InputStream is = getClass().getResourceAsStream(resourcePath)) {
-      if (is == null) {
-        throw new FileNotFoundException("Could not find file: " + resourcePath);
-      }
-      return new String(is.readAllBytes(), StandardCharsets.UTF_8);
+  static int greenHouseIdOf(Path file) {
+    String name = file.getFileName().toString();
+    if (!name.startsWith(FILE_PREFIX) || !name.endsWith(FILE_SUFFIX)) {
+      return -1;
+    }
+    try {
+      return Integer.parseInt(name.substring(FILE_PREFIX.length(), name.length() - FILE_SUFFIX.length()));
+    } catch (NumberFormatException e) {
+      return -1;
     }
   }
 }
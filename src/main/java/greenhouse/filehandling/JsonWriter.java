@@ -10,9 +10,16 @@ import greenhouse.logic.Air;
 import greenhouse.logic.GreenHouse;
 import greenhouse.logic.Soil;
 
-import java.io.File;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -23,37 +30,86 @@ import java.util.List;
 public class JsonWriter {
 
   private final Gson gson;
+  private final Path directory;
   private static final String RESOURCES_PATH = "src/main/resources/greenhouses";
 
   /**
    * Creates a new JsonWriter with pretty printing enabled.
    */
   public JsonWriter() {
-    this.gson = new GsonBuilder().setPrettyPrinting().create();
+    this(true);
+  }
+
+  /**
+   * Creates a new JsonWriter.
+   *
+   * @param prettyPrinting false to write the files without indentation, which is faster
+   */
+  public JsonWriter(boolean prettyPrinting) {
+    this(Path.of(RESOURCES_PATH), prettyPrinting);
+  }
+
+  /**
+   * Creates a new JsonWriter saving its files in the given directory.
+   *
+   * @param directory      the directory the greenhouse files are saved in
+   * @param prettyPrinting false to write the files without indentation, which is faster
+   */
+  public JsonWriter(Path directory, boolean prettyPrinting) {
+    this.directory = directory;
+    GsonBuilder builder = new GsonBuilder();
+    if (prettyPrinting) {
+      builder.setPrettyPrinting();
+    }
+    this.gson = builder.create();
   }
 
   /**
    * Saves a greenhouse with its complete state (sensors, appliances, air, soil).
-   * File will be saved as "greenhouse{id}.json" in the resources/greenhouses directory.
-   * Overwrites existing files to prevent duplicates.
+   * File will be saved as "greenhouse{id}.json" in the directory of this writer,
+   * resources/greenhouses unless told otherwise. Overwrites existing files to prevent duplicates.
    *
    * @param greenhouse The greenhouse to save with its complete state
    * @throws IOException If an error occurs while writing to the file
    */
   public void saveGreenhouse(GreenHouse greenhouse) throws IOException {
-    String fileName = "greenhouse" + greenhouse.getID() + ".json";
-    String filePath = RESOURCES_PATH + "/" + fileName;
-    GreenHouseDTO dto = convertToDTO(greenhouse);
-    writeToFile(dto, filePath);
+    saveGreenhouse(convertToDTO(greenhouse));
   }
 
   /**
-   * Converts a GreenHouse object to a GreenHouseDTO with complete state.
+   * Saves the state of a greenhouse taken earlier by {@link #convertToDTO(GreenHouse)}.
+   * File will be saved as "greenhouse{id}.json" in the directory of this writer.
+   * The file is replaced in one step, so it never holds a half written greenhouse.
+   *
+   * @param dto The state of the greenhouse to save
+   * @throws IOException If an error occurs while writing to the file
+   */
+  public void saveGreenhouse(GreenHouseDTO dto) throws IOException {
+    String fileName = "greenhouse" + dto.getGreenHouseId() + ".json";
+    writeToFile(dto, directory.resolve(fileName));
+  }
+
+  /**
+   * Forces the entries of the directory of this writer to disk, so that the files it replaced
+   * are found after a power loss. Files replaced since then may otherwise be found as they were
+   * before, even though their contents are on disk.
+   *
+   * @throws IOException if the directory could not be forced
+   */
+  public void syncDirectory() throws IOException {
+    if (Files.isDirectory(directory)) {
+      FileSync.forceDirectory(directory);
+    }
+  }
+
+  /**
+   * Converts a GreenHouse object to a GreenHouseDTO with complete state. The DTO is a copy,
+   * so it can be written after the greenhouse has changed again.
    *
    * @param greenhouse The greenhouse to convert
    * @return A GreenHouseDTO containing all greenhouse data including air and soil state
    */
-  private GreenHouseDTO convertToDTO(GreenHouse greenhouse) {
+  public GreenHouseDTO convertToDTO(GreenHouse greenhouse) {
     GreenHouseDTO dto = new GreenHouseDTO();
     dto.setGreenHouseId(greenhouse.getID());
     
@@ -128,20 +184,32 @@ public class JsonWriter {
   /**
    * Writes a GreenHouseDTO to a JSON file.
    *
+   * The DTO is written to a temporary file next to the file, which is forced to disk and then
+   * replaces the file.
+   *
    * @param dto The greenhouse DTO to write
    * @param filePath The file path where the JSON should be saved
    * @throws IOException If an error occurs while writing to the file
    */
-  private void writeToFile(GreenHouseDTO dto, String filePath) throws IOException {
+  private void writeToFile(GreenHouseDTO dto, Path filePath) throws IOException {
     // Ensure the directory exists
-    File file = new File(filePath);
-    File parentDir = file.getParentFile();
-    if (parentDir != null && !parentDir.exists()) {
-      parentDir.mkdirs();
+    Path parentDir = filePath.getParent();
+    if (parentDir != null) {
+      Files.createDirectories(parentDir);
     }
 
-    try (FileWriter writer = new FileWriter(filePath)) {
+    Path temporary = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+         Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8)) {
       gson.toJson(dto, writer);
+      writer.flush();
+      channel.force(false);
+    }
+    try {
+      Files.move(temporary, filePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temporary, filePath, StandardCopyOption.REPLACE_EXISTING);
     }
   }
 
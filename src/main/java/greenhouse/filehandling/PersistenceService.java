@@ -0,0 +1,383 @@
+package greenhouse.filehandling;
+
+import greenhouse.logic.GreenHouse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntPredicate;
+import java.util.function.Supplier;
+
+/**
+ * Saves every greenhouse in the background, so that the thread asking for a save never waits
+ * for the files to be written.
+ * <p>
+ * A save first copies the state of every greenhouse into DTOs, which is quick, and then writes
+ * the DTOs to their files on several threads at once. Saves run one at a time. A save asked for
+ * while another one is waiting to start is merged into it, and a save asked for while another
+ * one runs waits for it and then takes a fresh copy, so a burst of requests costs at most two
+ * saves and every request sees a save that started after it was made.
+ * <p>
+ * Only the greenhouses whose {@link GreenHouse#getVersion() version} changed since they were
+ * last written are copied and written again, so a save costs in proportion to the greenhouses
+ * changed, not to the number of greenhouses. A greenhouse whose file could not be written is
+ * written again by the next save. The soil drifts on every tick without changing the version,
+ * so a {@link #requestSave(boolean) full save}, which writes every greenhouse, is used where the
+ * files must hold the latest readings, such as when the server is stopped.
+ * <p>
+ * With a {@link WriteAheadLog}, the copy is taken at a checkpoint of the log, every file records
+ * the last log entry it includes, and the log entries the save covers are deleted once every
+ * file, and the directory holding their names, has been forced to disk.
+ * <p>
+ * With a {@link BinarySnapshot} file, every save also writes all the copies to that file, on a
+ * writer thread of its own, so the greenhouses can be loaded from one file at the next start.
+ * The snapshot holds every greenhouse, so the copies last written are kept for it, and it is
+ * only written when a greenhouse changed.
+ * <p>
+ * A greenhouse about to be dropped from memory is written by {@link #storeIfSaved(GreenHouse)},
+ * never at the same time as a save writes the same greenhouse. A save whose copy of a greenhouse
+ * was taken before the greenhouse was stored does not write it, as the stored file is newer, and
+ * only the copies of greenhouses still in memory are kept.
+ * <p>
+ * Whoever asks for a save is told how it went through the future it is handed.
+ */
+public final class PersistenceService implements Closeable {
+  private static final int FILE_LOCKS = 64;
+
+  private final Supplier<? extends Collection<GreenHouse>> greenHouses;
+  private final JsonWriter writer;
+  private final ExecutorService coordinator = Executors.newSingleThreadExecutor(
+          Thread.ofPlatform().name("greenhouse-persistence").daemon().factory());
+  private final ExecutorService writers;
+  private final Object lock = new Object();
+  private CompletableFuture<Void> waiting = null; // The save asked for that has not started yet
+  private boolean waitingFull = false;
+  private CompletableFuture<Void> running = null;
+  private boolean closed = false;
+  private volatile WriteAheadLog log = null;
+  private volatile Path snapshot = null;
+  private final Map<Integer, Long> savedVersions = new ConcurrentHashMap<>();
+  private final Map<Integer, GreenHouseDTO> savedCopies = new ConcurrentHashMap<>();
+  private final Map<Integer, Long> stores = new ConcurrentHashMap<>(); // How often each was stored
+  private final Object[] fileLocks = new Object[FILE_LOCKS];
+  private volatile IntPredicate inMemory = id -> true;
+
+  /**
+   * Creates a service saving greenhouses with the given writer.
+   *
+   * @param greenHouses gives the greenhouses to save, asked anew by every save
+   * @param writer      the writer of the greenhouse files
+   * @param threads     the number of files written at once
+   * @throws IllegalArgumentException if the number of threads is less than 1
+   */
+  public PersistenceService(Supplier<? extends Collection<GreenHouse>> greenHouses, JsonWriter writer,
+                            int threads) throws IllegalArgumentException {
+    if (threads < 1) {
+      throw new IllegalArgumentException("At least one thread is needed to write the files.");
+    }
+    this.greenHouses = greenHouses;
+    this.writer = writer;
+    this.writers = Executors.newFixedThreadPool(threads,
+            Thread.ofPlatform().name("greenhouse-persistence-writer-", 0).daemon().factory());
+    for (int i = 0; i < FILE_LOCKS; i++) {
+      fileLocks[i] = new Object();
+    }
+  }
+
+  /**
+   * Only keeps the copies last written of the greenhouses the given check finds in memory, for
+   * when greenhouses are dropped from memory. By default every greenhouse is in memory.
+   *
+   * @param inMemory tells if the greenhouse with the given id is in memory
+   */
+  public void useMemoryCheck(IntPredicate inMemory) {
+    this.inMemory = inMemory;
+  }
+
+  /**
+   * Takes the copies of later saves at checkpoints of the given log, and deletes the entries
+   * they cover once they are written.
+   *
+   * @param log the log of the changes to the greenhouses
+   */
+  public void useWriteAheadLog(WriteAheadLog log) {
+    this.log = log;
+  }
+
+  /**
+   * Writes every greenhouse of later saves to the given binary snapshot file too.
+   *
+   * @param file the snapshot file, or null to stop writing a snapshot
+   */
+  public void useBinarySnapshot(Path file) {
+    this.snapshot = file;
+  }
+
+  /**
+   * Marks a greenhouse as saved as it is now, such as a greenhouse just loaded from its file,
+   * so that saves only write it again once it changes.
+   *
+   * @param greenHouse  the greenhouse that is saved
+   * @param logSequence the last write-ahead log entry its file includes
+   */
+  public void markSaved(GreenHouse greenHouse, long logSequence) {
+    long version = greenHouse.getVersion();
+    GreenHouseDTO dto = writer.convertToDTO(greenHouse);
+    dto.setLogSequence(logSequence);
+    savedCopies.put(greenHouse.getID(), dto);
+    savedVersions.put(greenHouse.getID(), version);
+  }
+
+  /**
+   * Writes a greenhouse that has not changed since it was last saved, with the soil it has now,
+   * and forgets it, so it can be dropped from memory. A greenhouse changed since it was last
+   * saved is not written, as its file must match the write-ahead log, and a save is asked for
+   * instead, after which it can be written.
+   *
+   * @param greenHouse the greenhouse
+   * @return true if the greenhouse was written, false if it has to be saved first
+   * @throws IOException if the file could not be written
+   */
+  public boolean storeIfSaved(GreenHouse greenHouse) throws IOException {
+    int id = greenHouse.getID();
+    synchronized (fileLock(id)) {
+      long version = greenHouse.getVersion();
+      Long saved = savedVersions.get(id);
+      GreenHouseDTO savedCopy = savedCopies.get(id);
+      if (saved != null && saved == version && savedCopy != null) {
+        GreenHouseDTO dto = writer.convertToDTO(greenHouse);
+        dto.setLogSequence(savedCopy.getLogSequence());
+        writer.saveGreenhouse(dto);
+        stores.merge(id, 1L, Long::sum); // A save holding an older copy must not write it over this file
+        savedVersions.remove(id);
+        savedCopies.remove(id);
+        return true;
+      }
+    }
+    requestSave();
+    return false;
+  }
+
+  /**
+   * Asks for every greenhouse changed since it was last saved to be saved, and returns at once.
+   *
+   * @return a future completed when a save that started after this call has written every file,
+   * or completed exceptionally with the IOException of the first file that could not be written
+   */
+  public CompletableFuture<Void> requestSave() {
+    return requestSave(false);
+  }
+
+  /**
+   * Asks for the greenhouses to be saved, and returns at once. A full save writes every
+   * greenhouse, with the soil it has now, even if it did not change since it was last saved.
+   * A full save merged with other requests makes the save they share full.
+   *
+   * @param full true to write every greenhouse, false to write the changed ones
+   * @return a future completed when a save that started after this call has written every file,
+   * or completed exceptionally with the IOException of the first file that could not be written
+   */
+  public CompletableFuture<Void> requestSave(boolean full) {
+    synchronized (lock) {
+      if (closed) {
+        return CompletableFuture.failedFuture(new IOException("The persistence service is closed."));
+      }
+      waitingFull |= full;
+      if (waiting != null) {
+        return waiting;
+      }
+      CompletableFuture<Void> result = new CompletableFuture<>();
+      waiting = result;
+      if (running == null) {
+        startWaitingSave();
+      }
+      return result;
+    }
+  }
+
+  /**
+   * Starts the save that is waiting. Must be called holding the lock.
+   */
+  private void startWaitingSave() {
+    CompletableFuture<Void> result = waiting;
+    boolean full = waitingFull;
+    waiting = null;
+    waitingFull = false;
+    running = result;
+    coordinator.execute(() -> {
+      try {
+        saveAll(full);
+        result.complete(null);
+      } catch (IOException | RuntimeException e) {
+        result.completeExceptionally(e);
+      } finally {
+        synchronized (lock) {
+          running = null;
+          if (waiting != null) {
+            startWaitingSave();
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Copies the state of every greenhouse changed since it was last written, or of every
+   * greenhouse for a full save, then writes the copies on the writer threads.
+   *
+   * @param full true to copy every greenhouse
+   * @throws IOException if a file could not be written, with the failures of the other files suppressed
+   */
+  private void saveAll(boolean full) throws IOException {
+    List<GreenHouseDTO> copies = new ArrayList<>();
+    Map<Integer, Long> versions = new HashMap<>();
+    Map<Integer, Long> storesBefore = new HashMap<>();
+    Runnable copy = () -> {
+      for (GreenHouse greenHouse : greenHouses.get()) {
+        int id = greenHouse.getID();
+        storesBefore.put(id, stores.getOrDefault(id, 0L));
+        long version = greenHouse.getVersion(); // Read before the copy, so a change during it is saved again
+        Long saved = savedVersions.get(id);
+        if (full || saved == null || saved != version) {
+          copies.add(writer.convertToDTO(greenHouse));
+          versions.put(id, version);
+        }
+      }
+    };
+    WriteAheadLog log = this.log;
+    long covered = 0;
+    if (log == null) {
+      copy.run();
+    } else {
+      covered = log.checkpoint(copy);
+    }
+
+    Map<GreenHouseDTO, Future<?>> writes = new LinkedHashMap<>();
+    for (GreenHouseDTO dto : copies) {
+      dto.setLogSequence(covered);
+      int id = dto.getGreenHouseId();
+      writes.put(dto, writers.submit(() -> {
+        write(dto, versions.get(id), storesBefore.get(id));
+        return null;
+      }));
+    }
+    Path snapshot = this.snapshot;
+    Future<?> snapshotWrite = null;
+    if (snapshot != null && !copies.isEmpty()) {
+      Map<Integer, GreenHouseDTO> all = new TreeMap<>(savedCopies);
+      copies.forEach(dto -> all.put(dto.getGreenHouseId(), dto));
+      List<GreenHouseDTO> everyCopy = new ArrayList<>(all.values());
+      snapshotWrite = writers.submit(() -> {
+        BinarySnapshot.write(snapshot, everyCopy);
+        return null;
+      });
+    }
+
+    IOException failure = null;
+    for (Map.Entry<GreenHouseDTO, Future<?>> write : writes.entrySet()) {
+      try {
+        write.getValue().get();
+      } catch (ExecutionException e) {
+        failure = addFailure(failure, e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while saving the greenhouses.", e);
+      }
+    }
+    if (snapshotWrite != null) {
+      try {
+        snapshotWrite.get();
+      } catch (ExecutionException e) {
+        failure = addFailure(failure, e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException("Interrupted while saving the greenhouses.", e);
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    if (log != null) {
+      writer.syncDirectory(); // The renamed files must survive a power loss before the entries are deleted
+      log.truncate(covered);
+    }
+  }
+
+  /**
+   * Writes the copy of a greenhouse taken by a save, and keeps it as the copy last written, unless
+   * the greenhouse was stored since the copy was taken, in which case its file is already newer.
+   * The copy is only kept while the greenhouse is in memory.
+   *
+   * @param dto          the copy of the greenhouse
+   * @param version      the version of the greenhouse when it was copied
+   * @param storesBefore how often the greenhouse had been stored when it was copied
+   * @throws IOException if the file could not be written
+   */
+  private void write(GreenHouseDTO dto, long version, long storesBefore) throws IOException {
+    int id = dto.getGreenHouseId();
+    synchronized (fileLock(id)) {
+      if (stores.getOrDefault(id, 0L) != storesBefore) {
+        return;
+      }
+      writer.saveGreenhouse(dto);
+      if (inMemory.test(id)) {
+        savedCopies.put(id, dto);
+        savedVersions.put(id, version);
+      }
+    }
+  }
+
+  /**
+   * Returns the lock held while a file of the greenhouse with the given id is written.
+   */
+  private Object fileLock(int id) {
+    return fileLocks[Math.floorMod(id, FILE_LOCKS)];
+  }
+
+  /**
+   * Adds the cause of a failed write to the failures of a save.
+   *
+   * @return the first failure of the save, with the later ones suppressed
+   */
+  private static IOException addFailure(IOException failure, ExecutionException e) {
+    IOException cause = e.getCause() instanceof IOException io ? io : new IOException(e.getCause());
+    if (failure == null) {
+      return cause;
+    }
+    failure.addSuppressed(cause);
+    return failure;
+  }
+
+  /**
+   * Stops taking save requests, and waits for the saves already asked for to finish.
+   */
+  @Override
+  public void close() {
+    CompletableFuture<Void> last;
+    synchronized (lock) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      last = waiting != null ? waiting : running;
+    }
+    if (last != null) {
+      last.exceptionally(e -> null).join();
+    }
+    coordinator.shutdown();
+    writers.shutdown();
+  }
+}
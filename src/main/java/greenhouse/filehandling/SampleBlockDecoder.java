@@ -0,0 +1,93 @@
+package greenhouse.filehandling;
+
+/**
+ * Reads back the samples of a block compressed by {@link SampleBlockEncoder}.
+ */
+final class SampleBlockDecoder {
+  private final byte[] bytes;
+  private long position = 0;
+
+  private SampleBlockDecoder(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  /**
+   * Decodes the samples of a block into the given arrays.
+   *
+   * @param block      the compressed block
+   * @param count      the number of samples in the block
+   * @param timestamps the array to decode the times of the samples into
+   * @param values     the array to decode the values of the samples into
+   * @param offset     the index in the arrays of the first sample
+   * @throws IllegalArgumentException if the block ends before all samples are read
+   */
+  static void decode(byte[] block, int count, long[] timestamps, double[] values, int offset)
+          throws IllegalArgumentException {
+    new SampleBlockDecoder(block).decodeInto(count, timestamps, values, offset);
+  }
+
+  private void decodeInto(int count, long[] timestamps, double[] values, int offset) {
+    if (count == 0) {
+      return;
+    }
+    long timestamp = readBits(64);
+    long valueBits = readBits(64);
+    timestamps[offset] = timestamp;
+    values[offset] = Double.longBitsToDouble(valueBits);
+    long delta = 0;
+    int leadingZeros = 0;
+    int trailingZeros = 0;
+    for (int i = 1; i < count; i++) {
+      delta += readDeltaOfDelta();
+      timestamp += delta;
+      if (readBits(1) == 1) {
+        if (readBits(1) == 1) {
+          leadingZeros = (int) readBits(5);
+          int significantBits = (int) readBits(6) + 1;
+          trailingZeros = 64 - leadingZeros - significantBits;
+        }
+        valueBits ^= readBits(64 - leadingZeros - trailingZeros) << trailingZeros;
+      }
+      timestamps[offset + i] = timestamp;
+      values[offset + i] = Double.longBitsToDouble(valueBits);
+    }
+  }
+
+  private long readDeltaOfDelta() {
+    if (readBits(1) == 0) {
+      return 0;
+    }
+    if (readBits(1) == 0) {
+      return readBits(7) - 63;
+    }
+    if (readBits(1) == 0) {
+      return readBits(9) - 255;
+    }
+    if (readBits(1) == 0) {
+      return readBits(12) - 2047;
+    }
+    return readBits(64);
+  }
+
+  /**
+   * Reads the given number of bits, highest bit first.
+   *
+   * @param bits the number of bits to read, from 0 to 64
+   * @return the bits read, in the lowest bits of the result
+   */
+  private long readBits(int bits) {
+    if (position + bits > (long) bytes.length * 8) {
+      throw new IllegalArgumentException("The block ends before all its samples are read.");
+    }
+    long result = 0;
+    while (bits > 0) {
+      int available = 8 - (int) (position & 7);
+      int take = Math.min(available, bits);
+      int chunk = ((bytes[(int) (position >>> 3)] & 0xFF) >>> (available - take)) & ((1 << take) - 1);
+      result = (result << take) | chunk;
+      bits -= take;
+      position += take;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,163 @@
+package greenhouse.filehandling;
+
+import java.util.Arrays;
+
+/**
+ * Compresses a block of (timestamp, value) samples of one sensor into a stream of bits.
+ * <p>
+ * The first timestamp and value are stored as they are. Every later timestamp is stored as the
+ * change in the time since the sample before, which is 0 for readings taken at a steady pace,
+ * and takes a single bit. Every later value is stored as its bits XOR the bits of the value
+ * before, of which only the bits that differ are written. Values that did not change take a
+ * single bit. The block is read back by {@link SampleBlockDecoder}.
+ */
+final class SampleBlockEncoder {
+  private byte[] bytes;
+  private long bitCount = 0;
+  private int count = 0;
+  private long firstTimestamp;
+  private long lastTimestamp;
+  private long lastDelta;
+  private long lastValueBits;
+  private int lastLeadingZeros = -1;
+  private int lastTrailingZeros;
+
+  /**
+   * Creates an empty block, with room for the given number of bytes before it grows.
+   *
+   * @param initialCapacity the number of bytes to reserve
+   */
+  SampleBlockEncoder(int initialCapacity) {
+    this.bytes = new byte[Math.max(16, initialCapacity)];
+  }
+
+  /**
+   * Adds a sample to the end of the block.
+   *
+   * @param timestamp the time of the sample, in milliseconds since the epoch
+   * @param value     the value of the sample
+   */
+  void add(long timestamp, double value) {
+    long valueBits = Double.doubleToRawLongBits(value);
+    if (count == 0) {
+      firstTimestamp = timestamp;
+      writeBits(timestamp, 64);
+      writeBits(valueBits, 64);
+    } else {
+      long delta = timestamp - lastTimestamp;
+      writeDeltaOfDelta(delta - lastDelta);
+      writeValueXor(valueBits ^ lastValueBits);
+      lastDelta = delta;
+    }
+    lastTimestamp = timestamp;
+    lastValueBits = valueBits;
+    count++;
+  }
+
+  /**
+   * Writes the change in the time between samples, using fewer bits for smaller changes.
+   *
+   * @param deltaOfDelta the change in the time between samples
+   */
+  private void writeDeltaOfDelta(long deltaOfDelta) {
+    if (deltaOfDelta == 0) {
+      writeBits(0b0, 1);
+    } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+      writeBits(0b10, 2);
+      writeBits(deltaOfDelta + 63, 7);
+    } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+      writeBits(0b110, 3);
+      writeBits(deltaOfDelta + 255, 9);
+    } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+      writeBits(0b1110, 4);
+      writeBits(deltaOfDelta + 2047, 12);
+    } else {
+      writeBits(0b1111, 4);
+      writeBits(deltaOfDelta, 64);
+    }
+  }
+
+  /**
+   * Writes the bits that differ from the value before. When they fit in the window of bits
+   * that differed last time, only the window is written, else a new window is described first.
+   *
+   * @param xor the bits of the value XOR the bits of the value before
+   */
+  private void writeValueXor(long xor) {
+    if (xor == 0) {
+      writeBits(0b0, 1);
+      return;
+    }
+    int leadingZeros = Math.min(31, Long.numberOfLeadingZeros(xor));
+    int trailingZeros = Long.numberOfTrailingZeros(xor);
+    if (lastLeadingZeros >= 0 && leadingZeros >= lastLeadingZeros && trailingZeros >= lastTrailingZeros) {
+      writeBits(0b10, 2);
+      writeBits(xor >>> lastTrailingZeros, 64 - lastLeadingZeros - lastTrailingZeros);
+    } else {
+      int significantBits = 64 - leadingZeros - trailingZeros;
+      writeBits(0b11, 2);
+      writeBits(leadingZeros, 5);
+      writeBits(significantBits - 1, 6);
+      writeBits(xor >>> trailingZeros, significantBits);
+      lastLeadingZeros = leadingZeros;
+      lastTrailingZeros = trailingZeros;
+    }
+  }
+
+  /**
+   * Writes the lowest bits of a value, highest bit first.
+   *
+   * @param value the value to write the bits of
+   * @param bits  the number of bits to write, from 0 to 64
+   */
+  private void writeBits(long value, int bits) {
+    long needed = (bitCount + bits + 7) >>> 3;
+    if (needed > bytes.length) {
+      bytes = Arrays.copyOf(bytes, (int) Math.max(needed, bytes.length * 2L));
+    }
+    while (bits > 0) {
+      int free = 8 - (int) (bitCount & 7);
+      int take = Math.min(free, bits);
+      int chunk = (int) (value >>> (bits - take)) & ((1 << take) - 1);
+      bytes[(int) (bitCount >>> 3)] |= (byte) (chunk << (free - take));
+      bits -= take;
+      bitCount += take;
+    }
+  }
+
+  /**
+   * Returns the number of samples in the block.
+   *
+   * @return the number of samples
+   */
+  int count() {
+    return count;
+  }
+
+  /**
+   * Returns the time of the first sample in the block.
+   *
+   * @return the first timestamp, undefined if the block is empty
+   */
+  long firstTimestamp() {
+    return firstTimestamp;
+  }
+
+  /**
+   * Returns the time of the last sample in the block.
+   *
+   * @return the last timestamp, undefined if the block is empty
+   */
+  long lastTimestamp() {
+    return lastTimestamp;
+  }
+
+  /**
+   * Returns a copy of the compressed samples, padded with zero bits to a whole byte.
+   *
+   * @return the compressed block
+   */
+  byte[] toByteArray() {
+    return Arrays.copyOf(bytes, (int) ((bitCount + 7) >>> 3));
+  }
+}
@@ -0,0 +1,506 @@
+package greenhouse.filehandling;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+
+/**
+ * An embedded store keeping every reading of every sensor, compressed, in append-only files.
+ * <p>
+ * The readings of each sensor are gathered in an open block of up to {@value #BLOCK_SAMPLES}
+ * samples, compressed as they come in by {@link SampleBlockEncoder}. A full block is appended
+ * to the current segment file, which is closed for writing once it grows past
+ * {@value #SEGMENT_BYTES} bytes, so the store only ever writes sequentially. Readings taken at a
+ * steady pace take a few bytes each.
+ * <p>
+ * Every block is written with a header naming its sensor and the times it covers, and a
+ * checksum. The index of the blocks of each sensor is kept in memory, and rebuilt from the
+ * headers when the store is opened. A block cut short by a crash is dropped at that point.
+ * <p>
+ * Open blocks are never appended to a segment before they are full, as a block of a few samples
+ * costs more in its header than in its samples. {@link #flush()} and {@link #close()} instead
+ * replace the tail file, which holds the open block of every sensor in the same form, and the
+ * open blocks are taken up again from it when the store is opened.
+ */
+public final class TimeSeriesStore implements Closeable {
+  static final int BLOCK_SAMPLES = 256;
+  static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+  private static final int BLOCK_MAGIC = 0x47545331; // "GTS1"
+  private static final int HEADER_BYTES = 40;
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".gts";
+  private static final String TAIL_FILE = "open-blocks.gts-tail";
+
+  private final Path directory;
+  private final Path tail;
+  private final Map<Long, Series> series = new ConcurrentHashMap<>();
+  private final Map<Integer, Path> segments = new ConcurrentHashMap<>();
+  private final ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+  private final CRC32 crc = new CRC32();
+  private FileChannel segment;
+  private int segmentNumber;
+  private long segmentSize;
+  private long tailSize;
+  private boolean closed = false;
+
+  /**
+   * Opens the store in the given directory, creating the directory if needed, rebuilds the
+   * index of the blocks already written and takes up the open blocks of the tail file.
+   *
+   * @param directory the directory of the segment files
+   * @throws IOException if the directory, a segment or the tail file cannot be read
+   */
+  public TimeSeriesStore(Path directory) throws IOException {
+    this.directory = directory;
+    this.tail = directory.resolve(TAIL_FILE);
+    Files.createDirectories(directory);
+
+    TreeMap<Integer, Path> found = new TreeMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory,
+            SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        try {
+          found.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(),
+                  name.length() - SEGMENT_SUFFIX.length())), file);
+        } catch (NumberFormatException e) {
+          System.out.println("Skipping unknown segment file: " + name);
+        }
+      }
+    }
+    segments.putAll(found);
+    for (Map.Entry<Integer, Path> entry : found.entrySet()) {
+      long validBytes = indexSegment(entry.getKey(), entry.getValue());
+      if (entry.getKey().equals(found.lastKey())) {
+        openSegment(entry.getKey(), validBytes);
+      }
+    }
+    if (segment == null) {
+      openSegment(0, 0);
+    }
+    restoreTail();
+  }
+
+  /**
+   * Appends a reading of a sensor. Readings of a sensor must be appended in the order
+   * they were taken.
+   *
+   * @param greenHouseId the id of the greenhouse of the sensor
+   * @param sensorId     the id of the sensor
+   * @param timestamp    the time of the reading, in milliseconds since the epoch
+   * @param value        the value read
+   * @throws IOException if a full block cannot be written
+   */
+  public void append(int greenHouseId, int sensorId, long timestamp, double value) throws IOException {
+    Series target = series.computeIfAbsent(key(greenHouseId, sensorId),
+            key -> new Series(greenHouseId, sensorId));
+    synchronized (target) {
+      target.open.add(timestamp, value);
+      if (target.open.count() >= BLOCK_SAMPLES) {
+        writeOpenBlock(target);
+      }
+    }
+  }
+
+  /**
+   * Reads the readings of a sensor taken between two times, oldest first.
+   *
+   * @param greenHouseId the id of the greenhouse of the sensor
+   * @param sensorId     the id of the sensor
+   * @param from         the earliest time to read, inclusive
+   * @param to           the latest time to read, inclusive
+   * @return the readings in the range, empty if the sensor has none
+   * @throws IOException if a block cannot be read
+   */
+  public Samples read(int greenHouseId, int sensorId, long from, long to) throws IOException {
+    Series source = series.get(key(greenHouseId, sensorId));
+    if (source == null) {
+      return new Samples(new long[0], new double[0]);
+    }
+    List<BlockRef> blocks;
+    byte[] openBlock;
+    int openCount;
+    synchronized (source) {
+      blocks = new ArrayList<>();
+      for (BlockRef block : source.blocks) {
+        if (block.lastTimestamp() >= from && block.firstTimestamp() <= to) {
+          blocks.add(block);
+        }
+      }
+      openCount = source.open.count();
+      boolean openInRange = openCount > 0
+              && source.open.lastTimestamp() >= from && source.open.firstTimestamp() <= to;
+      openBlock = openInRange ? source.open.toByteArray() : null;
+    }
+
+    int total = openBlock == null ? 0 : openCount;
+    for (BlockRef block : blocks) {
+      total += block.count();
+    }
+    long[] timestamps = new long[total];
+    double[] values = new double[total];
+    int decoded = 0;
+    Map<Integer, FileChannel> channels = new HashMap<>();
+    try {
+      for (BlockRef block : blocks) {
+        FileChannel channel = channels.get(block.segment());
+        if (channel == null) {
+          channel = FileChannel.open(segments.get(block.segment()), StandardOpenOption.READ);
+          channels.put(block.segment(), channel);
+        }
+        ByteBuffer payload = ByteBuffer.allocate(block.length());
+        readFully(channel, payload, block.offset());
+        SampleBlockDecoder.decode(payload.array(), block.count(), timestamps, values, decoded);
+        decoded += block.count();
+      }
+    } finally {
+      for (FileChannel channel : channels.values()) {
+        channel.close();
+      }
+    }
+    if (openBlock != null) {
+      SampleBlockDecoder.decode(openBlock, openCount, timestamps, values, decoded);
+    }
+
+    int kept = 0;
+    for (int i = 0; i < total; i++) {
+      if (timestamps[i] >= from && timestamps[i] <= to) {
+        timestamps[kept] = timestamps[i];
+        values[kept] = values[i];
+        kept++;
+      }
+    }
+    return kept == total ? new Samples(timestamps, values)
+            : new Samples(Arrays.copyOf(timestamps, kept), Arrays.copyOf(values, kept));
+  }
+
+  /**
+   * Forces the full blocks to disk and replaces the tail file with the open block of every
+   * sensor, so that every reading appended so far is on disk. The open blocks stay open.
+   * <p>
+   * The open blocks are copied before the segment is forced, so a reading is in the forced
+   * segment or in the new tail file, even if its block fills up in the meantime.
+   *
+   * @throws IOException if the segment or the tail file cannot be written
+   */
+  public void flush() throws IOException {
+    List<OpenBlock> open = new ArrayList<>();
+    for (Series target : series.values()) {
+      synchronized (target) {
+        SampleBlockEncoder block = target.open;
+        if (block.count() > 0) {
+          open.add(new OpenBlock(target.greenHouseId, target.sensorId, block.count(),
+                  block.firstTimestamp(), block.lastTimestamp(), block.toByteArray()));
+        }
+      }
+    }
+    synchronized (this) {
+      if (!closed) {
+        segment.force(false);
+        writeTail(open);
+      }
+    }
+  }
+
+  /**
+   * Returns the number of bytes written to the segment files and the tail file.
+   *
+   * @return the size of the store on disk
+   * @throws IOException if the size of a segment cannot be read
+   */
+  public synchronized long sizeOnDisk() throws IOException {
+    long size = tailSize;
+    for (Map.Entry<Integer, Path> entry : segments.entrySet()) {
+      size += entry.getKey() == segmentNumber ? segmentSize : Files.size(entry.getValue());
+    }
+    return size;
+  }
+
+  /**
+   * Writes the open blocks to the tail file and closes the current segment. The store cannot
+   * be used after.
+   *
+   * @throws IOException if the segment or the tail file cannot be written
+   */
+  @Override
+  public void close() throws IOException {
+    flush();
+    synchronized (this) {
+      if (!closed) {
+        closed = true;
+        segment.close();
+      }
+    }
+  }
+
+  /**
+   * Writes the open block of a series to the current segment and starts a new open block.
+   * The caller holds the lock of the series.
+   *
+   * @param target the series whose open block is written
+   * @throws IOException if the block cannot be written
+   */
+  private void writeOpenBlock(Series target) throws IOException {
+    SampleBlockEncoder block = target.open;
+    byte[] payload = block.toByteArray();
+    target.blocks.add(write(target, block, payload));
+    target.open = new SampleBlockEncoder(payload.length);
+  }
+
+  /**
+   * Appends a block with its header to the current segment, moving on to a new segment
+   * once the current one is full.
+   *
+   * @return the reference to the written block
+   */
+  private synchronized BlockRef write(Series target, SampleBlockEncoder block, byte[] payload) throws IOException {
+    if (closed) {
+      throw new IOException("The time-series store is closed.");
+    }
+    if (segmentSize >= SEGMENT_BYTES) {
+      // The next flush only forces the new segment
+      segment.force(false);
+      segment.close();
+      openSegment(segmentNumber + 1, 0);
+    }
+    header.clear();
+    putHeader(header, target.greenHouseId, target.sensorId, block.count(),
+            block.firstTimestamp(), block.lastTimestamp(), payload);
+    header.flip();
+    ByteBuffer[] record = {header, ByteBuffer.wrap(payload)};
+    long remaining = HEADER_BYTES + payload.length;
+    while (remaining > 0) {
+      remaining -= segment.write(record);
+    }
+    BlockRef ref = new BlockRef(segmentNumber, segmentSize + HEADER_BYTES, block.count(),
+            block.firstTimestamp(), block.lastTimestamp(), payload.length);
+    segmentSize += HEADER_BYTES + payload.length;
+    return ref;
+  }
+
+  /**
+   * Puts the header of a block, with the checksum of its payload. The caller holds the lock
+   * of the store.
+   */
+  private void putHeader(ByteBuffer buffer, int greenHouseId, int sensorId, int count,
+                         long firstTimestamp, long lastTimestamp, byte[] payload) {
+    crc.reset();
+    crc.update(payload);
+    buffer.putInt(BLOCK_MAGIC)
+            .putInt(greenHouseId)
+            .putInt(sensorId)
+            .putInt(count)
+            .putLong(firstTimestamp)
+            .putLong(lastTimestamp)
+            .putInt(payload.length)
+            .putInt((int) crc.getValue());
+  }
+
+  /**
+   * Replaces the tail file with the given open blocks. The new file is written next to it,
+   * forced to disk and moved over it, so a crash leaves either the old or the new file whole.
+   */
+  private void writeTail(List<OpenBlock> blocks) throws IOException {
+    int length = 0;
+    for (OpenBlock block : blocks) {
+      length += HEADER_BYTES + block.payload().length;
+    }
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    for (OpenBlock block : blocks) {
+      putHeader(buffer, block.greenHouseId(), block.sensorId(), block.count(),
+              block.firstTimestamp(), block.lastTimestamp(), block.payload());
+      buffer.put(block.payload());
+    }
+    buffer.flip();
+
+    Path temporary = tail.resolveSibling(TAIL_FILE + ".tmp");
+    try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      channel.force(false);
+    }
+    try {
+      Files.move(temporary, tail, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temporary, tail, StandardCopyOption.REPLACE_EXISTING);
+    }
+    FileSync.forceDirectory(directory);
+    tailSize = length;
+  }
+
+  /**
+   * Takes up the open blocks of the tail file, up to the first block that is cut short or does
+   * not match its checksum. Readings of a block that filled up and was appended to a segment
+   * after the tail file was written are in the segment already, and are skipped.
+   */
+  private void restoreTail() throws IOException {
+    if (!Files.exists(tail)) {
+      return;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(tail));
+    tailSize = buffer.capacity();
+    while (buffer.remaining() >= HEADER_BYTES) {
+      int magic = buffer.getInt();
+      int greenHouseId = buffer.getInt();
+      int sensorId = buffer.getInt();
+      int count = buffer.getInt();
+      buffer.getLong();
+      buffer.getLong();
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (magic != BLOCK_MAGIC || count < 0 || length < 0 || length > buffer.remaining()) {
+        buffer.position(buffer.position() - HEADER_BYTES);
+        break;
+      }
+      byte[] payload = new byte[length];
+      buffer.get(payload);
+      crc.reset();
+      crc.update(payload);
+      if ((int) crc.getValue() != checksum) {
+        buffer.position(buffer.position() - HEADER_BYTES - length);
+        break;
+      }
+      long[] timestamps = new long[count];
+      double[] values = new double[count];
+      SampleBlockDecoder.decode(payload, count, timestamps, values, 0);
+      Series target = series.computeIfAbsent(key(greenHouseId, sensorId),
+              key -> new Series(greenHouseId, sensorId));
+      long written = target.blocks.isEmpty() ? Long.MIN_VALUE
+              : target.blocks.get(target.blocks.size() - 1).lastTimestamp();
+      for (int i = 0; i < count; i++) {
+        if (timestamps[i] > written) {
+          target.open.add(timestamps[i], values[i]);
+        }
+      }
+    }
+    if (buffer.hasRemaining()) {
+      System.out.println("Dropping " + buffer.remaining() + " damaged bytes at the end of " + tail);
+    }
+  }
+
+  /**
+   * Opens a segment for appending, cutting off anything after the given number of bytes.
+   */
+  private void openSegment(int number, long validBytes) throws IOException {
+    Path file = directory.resolve(String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    segment = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    segment.truncate(validBytes);
+    segment.position(validBytes);
+    segments.put(number, file);
+    segmentNumber = number;
+    segmentSize = validBytes;
+  }
+
+  /**
+   * Adds the blocks of a segment to the index, up to the first block that is cut short
+   * or does not match its checksum.
+   *
+   * @return the number of bytes of whole blocks at the start of the segment
+   */
+  private long indexSegment(int number, Path file) throws IOException {
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      long position = 0;
+      while (position + HEADER_BYTES <= size) {
+        header.clear();
+        readFully(channel, header, position);
+        header.flip();
+        int magic = header.getInt();
+        int greenHouseId = header.getInt();
+        int sensorId = header.getInt();
+        int count = header.getInt();
+        long firstTimestamp = header.getLong();
+        long lastTimestamp = header.getLong();
+        int length = header.getInt();
+        int checksum = header.getInt();
+        if (magic != BLOCK_MAGIC || length < 0 || position + HEADER_BYTES + length > size) {
+          break;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(channel, payload, position + HEADER_BYTES);
+        crc.reset();
+        crc.update(payload.array());
+        if ((int) crc.getValue() != checksum) {
+          break;
+        }
+        series.computeIfAbsent(key(greenHouseId, sensorId), key -> new Series(greenHouseId, sensorId))
+                .blocks.add(new BlockRef(number, position + HEADER_BYTES, count,
+                        firstTimestamp, lastTimestamp, length));
+        position += HEADER_BYTES + length;
+      }
+      if (position < size) {
+        System.out.println("Dropping " + (size - position) + " damaged bytes at the end of " + file);
+      }
+      return position;
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position + buffer.position());
+      if (read < 0) {
+        throw new EOFException("The segment ends in the middle of a block.");
+      }
+    }
+  }
+
+  private static long key(int greenHouseId, int sensorId) {
+    return ((long) greenHouseId << 32) | (sensorId & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Readings of one sensor, oldest first.
+   *
+   * @param timestamps the times of the readings, in milliseconds since the epoch
+   * @param values     the values of the readings
+   */
+  public record Samples(long[] timestamps, double[] values) {
+  }
+
+  /**
+   * Where a written block is, and which readings it holds.
+   */
+  private record BlockRef(int segment, long offset, int count, long firstTimestamp, long lastTimestamp,
+                          int length) {
+  }
+
+  /**
+   * A copy of the open block of a sensor, to be written to the tail file.
+   */
+  private record OpenBlock(int greenHouseId, int sensorId, int count, long firstTimestamp,
+                           long lastTimestamp, byte[] payload) {
+  }
+
+  /**
+   * The index and open block of the readings of one sensor.
+   */
+  private static final class Series {
+    private final int greenHouseId;
+    private final int sensorId;
+    private final List<BlockRef> blocks = new ArrayList<>();
+    private SampleBlockEncoder open = new SampleBlockEncoder(BLOCK_SAMPLES * 2);
+
+    private Series(int greenHouseId, int sensorId) {
+      this.greenHouseId = greenHouseId;
+      this.sensorId = sensorId;
+    }
+  }
+}
@@ -0,0 +1,386 @@
+package greenhouse.filehandling;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * An append-only log of the commands that changed a greenhouse since it was last saved, so that
+ * the changes survive a crash of the server.
+ * <p>
+ * Every entry is given the next sequence number and added to a buffer in memory, which takes
+ * microseconds. Before the command is answered, its thread waits for the entry to be durable.
+ * One waiting thread writes the buffer and forces it to disk, and every thread whose entry was in
+ * that buffer returns when it is done, so many commands made at the same time share one fsync.
+ * <p>
+ * The log is kept in segment files named after the sequence number of their first entry. A save
+ * takes its copy of the greenhouses in {@link #checkpoint(Runnable)}, which keeps commands out
+ * only while the copy is taken. The entries after the copy go to a new segment, so the older
+ * segments only hold entries the save covers. They are deleted by {@link #truncate(long)} once
+ * the save has been written. The next write of the log moves on to the new segment, and the
+ * checkpoint waits for that write after letting commands in again.
+ * <p>
+ * Every entry is written as:
+ * <pre>
+ *   [int body length][int crc32 of the body]
+ *   body: [long sequence][byte type][int greenhouse id][UTF-8 command]
+ * </pre>
+ * A torn entry at the end of a segment, from a crash while it was written, ends that segment.
+ */
+public final class WriteAheadLog implements Closeable {
+  private static final String SEGMENT_PREFIX = "wal-";
+  private static final String SEGMENT_SUFFIX = ".log";
+  private static final int ENTRY_HEADER_LENGTH = 2 * Integer.BYTES;
+  private static final int BODY_HEADER_LENGTH = Long.BYTES + Byte.BYTES + Integer.BYTES;
+
+  private final Path directory;
+  private final ReentrantReadWriteLock mutations = new ReentrantReadWriteLock();
+  private final Object lock = new Object();
+  private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+  private FileChannel segment;
+  private long lastSequence;
+  private long durableSequence;
+  private boolean syncing = false;
+  private IOException failure = null;
+  private Rotation rotation = null; // Where the next write moves on to a new segment
+  private volatile CompletableFuture<Void> checkpointDone = CompletableFuture.completedFuture(null);
+
+  /**
+   * An entry of the log.
+   *
+   * @param sequence     the sequence number of the entry
+   * @param type         what kind of command the entry holds, as chosen by the writer of the log
+   * @param greenHouseId the id of the greenhouse the command changed
+   * @param command      the command
+   */
+  public record Entry(long sequence, byte type, int greenHouseId, String command) {
+  }
+
+  /**
+   * Opens the log in a directory, creating the directory if needed. Entries are appended to a new
+   * segment, numbered after the last entry already in the log.
+   *
+   * @param directory the directory of the segment files
+   * @throws IOException if the directory or the segments could not be read, or a segment created
+   */
+  public WriteAheadLog(Path directory) throws IOException {
+    this.directory = directory;
+    Files.createDirectories(directory);
+    List<Entry> entries = new ArrayList<>();
+    TreeMap<Long, Path> segments = segments();
+    for (Path file : segments.values()) {
+      long valid = readSegment(file, entries);
+      if (file.equals(segments.lastEntry().getValue()) && valid < Files.size(file)) {
+        try (FileChannel torn = FileChannel.open(file, StandardOpenOption.WRITE)) {
+          torn.truncate(valid); // So that entries appended to it after a restart can be read
+        }
+      }
+    }
+    lastSequence = entries.isEmpty()
+            ? (segments.isEmpty() ? 0 : segments.lastKey() - 1)
+            : entries.get(entries.size() - 1).sequence();
+    durableSequence = lastSequence;
+    segment = openSegment(lastSequence + 1);
+  }
+
+  /**
+   * Returns the lock every command changing a greenhouse holds while it changes the greenhouse
+   * and appends its entry, so that no save copies the greenhouse in between. Commands share it.
+   *
+   * @return the lock of the commands
+   */
+  public Lock mutationLock() {
+    return mutations.readLock();
+  }
+
+  /**
+   * Returns a future completed once the checkpoint taking its copy now, if any, lets commands
+   * in again. Used by threads that must not wait for the {@link #mutationLock()}, to try it again.
+   *
+   * @return the future, already completed if no checkpoint is taking its copy
+   */
+  public CompletableFuture<Void> whenCheckpointDone() {
+    return checkpointDone;
+  }
+
+  /**
+   * Adds an entry to the log, without waiting for it to be written.
+   *
+   * @param type         what kind of command the entry holds
+   * @param greenHouseId the id of the greenhouse the command changed
+   * @param command      the command
+   * @return the sequence number of the entry, to wait for with {@link #awaitDurable(long)}
+   */
+  public long append(byte type, int greenHouseId, String command) {
+    byte[] text = command.getBytes(StandardCharsets.UTF_8);
+    synchronized (lock) {
+      long sequence = ++lastSequence;
+      ByteBuffer body = ByteBuffer.allocate(BODY_HEADER_LENGTH + text.length);
+      body.putLong(sequence).put(type).putInt(greenHouseId).put(text);
+      CRC32 crc = new CRC32();
+      crc.update(body.array());
+      ByteBuffer header = ByteBuffer.allocate(ENTRY_HEADER_LENGTH);
+      header.putInt(body.capacity()).putInt((int) crc.getValue());
+      pending.writeBytes(header.array());
+      pending.writeBytes(body.array());
+      return sequence;
+    }
+  }
+
+  /**
+   * Waits until the entry with the given sequence number, and every entry before it, is on disk.
+   * Writes them if no other thread is writing already.
+   *
+   * @param sequence the sequence number of the entry
+   * @throws IOException if the log could not be written, now or before
+   */
+  public void awaitDurable(long sequence) throws IOException {
+    sync(sequence, false);
+  }
+
+  /**
+   * Takes the copying step of a save while no command changes a greenhouse, and has the entries
+   * after it go to a new segment, so the entries the copy covers are all in older segments.
+   * Commands are let in again before the entries the copy covers are written.
+   *
+   * @param copy takes the copy of the greenhouses
+   * @return the sequence number of the last entry the copy covers
+   * @throws IOException if the entries before the copy could not be written, or the new segment created
+   */
+  public long checkpoint(Runnable copy) throws IOException {
+    CompletableFuture<Void> done = new CompletableFuture<>();
+    checkpointDone = done;
+    long covered;
+    mutations.writeLock().lock();
+    try {
+      copy.run();
+      synchronized (lock) {
+        covered = lastSequence;
+        if (rotation == null) {
+          rotation = new Rotation(covered + 1, pending.size());
+        }
+      }
+    } finally {
+      mutations.writeLock().unlock();
+      done.complete(null);
+    }
+    sync(covered, true);
+    return covered;
+  }
+
+  /**
+   * Deletes the segments whose entries all have a sequence number up to the given one,
+   * once a save covering them has been written.
+   *
+   * @param sequence the sequence number of the last entry the save covers
+   * @throws IOException if a segment could not be deleted
+   */
+  public void truncate(long sequence) throws IOException {
+    synchronized (lock) {
+      TreeMap<Long, Path> segments = segments();
+      Long next = null;
+      for (Long first : segments.descendingKeySet()) {
+        if (next != null && next - 1 <= sequence) {
+          Files.deleteIfExists(segments.get(first));
+        }
+        next = first;
+      }
+    }
+  }
+
+  /**
+   * Reads every entry in the log, oldest first.
+   *
+   * @return the entries
+   * @throws IOException if a segment could not be read
+   */
+  public List<Entry> read() throws IOException {
+    List<Entry> entries = new ArrayList<>();
+    for (Path file : segments().values()) {
+      readSegment(file, entries);
+    }
+    return entries;
+  }
+
+  /**
+   * Writes the entries still in memory, and closes the current segment.
+   */
+  @Override
+  public void close() throws IOException {
+    long last;
+    synchronized (lock) {
+      last = lastSequence;
+    }
+    try {
+      sync(last, true);
+    } finally {
+      synchronized (lock) {
+        segment.close();
+      }
+    }
+  }
+
+  /**
+   * Waits until the entry with the given sequence number, and every entry before it, is on disk,
+   * and if asked to, until the log has moved on to the segment of the last checkpoint. Writes
+   * the entries if no other thread is writing already. Entries before the checkpoint are written
+   * to the old segment, which is closed, and the entries after it to the new one.
+   */
+  private void sync(long sequence, boolean rotated) throws IOException {
+    byte[] batch;
+    long batchEnd;
+    FileChannel channel;
+    Rotation rotate;
+    synchronized (lock) {
+      while (needsSync(sequence, rotated) && syncing && failure == null) {
+        try {
+          lock.wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("Interrupted while waiting for the log to be written.");
+        }
+      }
+      if (failure != null) {
+        throw new IOException("The write-ahead log could not be written.", failure);
+      }
+      if (!needsSync(sequence, rotated)) {
+        return;
+      }
+      syncing = true;
+      batch = pending.toByteArray();
+      pending.reset();
+      batchEnd = lastSequence;
+      channel = segment;
+      rotate = rotation;
+      rotation = null;
+    }
+
+    FileChannel next = channel;
+    try {
+      int split = rotate == null ? batch.length : rotate.offset();
+      write(channel, batch, 0, split);
+      if (rotate != null) {
+        next = openSegment(rotate.firstSequence());
+        channel.close();
+        write(next, batch, split, batch.length - split);
+      }
+    } catch (IOException e) {
+      synchronized (lock) {
+        failure = e;
+        syncing = false;
+        lock.notifyAll();
+      }
+      throw e;
+    }
+    synchronized (lock) {
+      segment = next;
+      durableSequence = batchEnd;
+      syncing = false;
+      lock.notifyAll();
+    }
+  }
+
+  /**
+   * Returns true if the entry with the given sequence number is not on disk yet, or if asked to,
+   * the log has not moved on to the segment of the last checkpoint. The caller holds the lock.
+   */
+  private boolean needsSync(long sequence, boolean rotated) {
+    return durableSequence < sequence || (rotated && rotation != null);
+  }
+
+  /**
+   * Writes part of a batch of entries to a segment and forces it to disk.
+   */
+  private static void write(FileChannel channel, byte[] batch, int offset, int length) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(batch, offset, length);
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+    channel.force(false);
+  }
+
+  /**
+   * Adds the entries of a segment to the list, up to the first torn or corrupt entry.
+   *
+   * @return the length of the entries read
+   */
+  private static long readSegment(Path file, List<Entry> entries) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+    while (buffer.remaining() >= ENTRY_HEADER_LENGTH) {
+      int start = buffer.position();
+      int length = buffer.getInt();
+      int checksum = buffer.getInt();
+      if (length < BODY_HEADER_LENGTH || length > buffer.remaining()) {
+        return start;
+      }
+      byte[] body = new byte[length];
+      buffer.get(body);
+      CRC32 crc = new CRC32();
+      crc.update(body);
+      if ((int) crc.getValue() != checksum) {
+        return start;
+      }
+      ByteBuffer fields = ByteBuffer.wrap(body);
+      long sequence = fields.getLong();
+      byte type = fields.get();
+      int greenHouseId = fields.getInt();
+      String command = new String(body, BODY_HEADER_LENGTH, length - BODY_HEADER_LENGTH, StandardCharsets.UTF_8);
+      entries.add(new Entry(sequence, type, greenHouseId, command));
+    }
+    return buffer.position();
+  }
+
+  /**
+   * Returns the segment files of the log, by the sequence number of their first entry.
+   */
+  private TreeMap<Long, Path> segments() throws IOException {
+    TreeMap<Long, Path> segments = new TreeMap<>();
+    try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+      for (Path file : files) {
+        String name = file.getFileName().toString();
+        try {
+          segments.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(),
+                  name.length() - SEGMENT_SUFFIX.length())), file);
+        } catch (NumberFormatException e) {
+          // Not a segment of this log
+        }
+      }
+    }
+    return segments;
+  }
+
+  /**
+   * Where the log moves on to a new segment: the sequence number of the first entry of the new
+   * segment, and how many of the bytes waiting to be written go to the old segment.
+   */
+  private record Rotation(long firstSequence, int offset) {
+  }
+
+  private FileChannel openSegment(long firstSequence) throws IOException {
+    Path file = directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, firstSequence, SEGMENT_SUFFIX));
+    FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND);
+    try {
+      FileSync.forceDirectory(directory); // So the entries forced to the segment are found after a power loss
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return channel;
+  }
+}
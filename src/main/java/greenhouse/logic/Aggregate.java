@@ -0,0 +1,122 @@
+package greenhouse.logic;
+
+import java.util.Locale;
+
+/**
+ * Summary statistics of the readings of one or more sensors over a window of time:
+ * how many there were, their minimum, maximum, mean and standard deviation, and estimates of
+ * their percentiles.
+ * <p>
+ * Aggregates are built up one reading at a time for the rollup buckets, and merged to answer
+ * a query over any number of buckets and sensors.
+ */
+public final class Aggregate {
+  private long count = 0;
+  private double mean = 0;
+  private double squaredDeviations = 0; // The sum of the squared differences from the mean
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+  private final QuantileSketch sketch = new QuantileSketch();
+
+  /**
+   * Adds a reading to the aggregate.
+   *
+   * @param value the value of the reading
+   */
+  void add(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+    count++;
+    double difference = value - mean;
+    mean += difference / count;
+    squaredDeviations += difference * (value - mean);
+    min = Math.min(min, value);
+    max = Math.max(max, value);
+    sketch.add(value);
+  }
+
+  /**
+   * Adds every reading of another aggregate to this one.
+   *
+   * @param other the aggregate to merge in
+   */
+  void merge(Aggregate other) {
+    if (other.count == 0) {
+      return;
+    }
+    long total = count + other.count;
+    double difference = other.mean - mean;
+    mean += difference * other.count / total;
+    squaredDeviations += other.squaredDeviations + difference * difference * count * other.count / total;
+    count = total;
+    min = Math.min(min, other.min);
+    max = Math.max(max, other.max);
+    sketch.merge(other.sketch);
+  }
+
+  /**
+   * Returns the number of readings.
+   *
+   * @return the number of readings
+   */
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Returns the smallest reading.
+   *
+   * @return the smallest reading, or NaN if there are none
+   */
+  public double getMin() {
+    return count == 0 ? Double.NaN : min;
+  }
+
+  /**
+   * Returns the largest reading.
+   *
+   * @return the largest reading, or NaN if there are none
+   */
+  public double getMax() {
+    return count == 0 ? Double.NaN : max;
+  }
+
+  /**
+   * Returns the mean of the readings.
+   *
+   * @return the mean, or NaN if there are no readings
+   */
+  public double getMean() {
+    return count == 0 ? Double.NaN : mean;
+  }
+
+  /**
+   * Returns the population standard deviation of the readings.
+   *
+   * @return the standard deviation, or NaN if there are no readings
+   */
+  public double getStandardDeviation() {
+    return count == 0 ? Double.NaN : Math.sqrt(squaredDeviations / count);
+  }
+
+  /**
+   * Estimates a percentile of the readings, to within one percent of its value.
+   *
+   * @param percentile the percentile, from 0 to 100
+   * @return the estimated percentile, or NaN if there are no readings
+   */
+  public double getPercentile(double percentile) {
+    return sketch.quantile(percentile / 100);
+  }
+
+  @Override
+  public String toString() {
+    if (count == 0) {
+      return "count=0";
+    }
+    return String.format(Locale.ROOT, "count=%d, min=%.2f, max=%.2f, mean=%.2f, stddev=%.2f, p50=%.2f, p90=%.2f, p99=%.2f",
+            count, getMin(), getMax(), getMean(), getStandardDeviation(),
+            getPercentile(50), getPercentile(90), getPercentile(99));
+  }
+}
@@ -1,26 +1,26 @@
 package greenhouse.logic;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import greenhouse.entities.AirSubscriber;
 import greenhouse.entities.Sensorable;
 
+/**
+ * The air of a greenhouse, with its humidity, light and temperature.
+ * <p>
+ * The values are not kept in the air itself, but in a slot of an {@link AirPage} in the
+ * {@link EnvironmentStore}, so the air of many greenhouses can be stepped in bulk.
+ */
 public class Air extends ClockSubscriber implements Sensorable {
 
-  private float humidity; // 0 <= x <= 1
-  private double lux; //The amount of light in lux. Lux is a unit of illuminance per square meter.
-  private double actualTemperature;
-  private Double temperatureTarget;
-  private final double defaultTemperature = 15;
-  private Float humidityTarget;
-  private final float defaultHumidity = 0.65f;
-  private Double luxTarget;
-  private boolean initialTempSet = false;
-  private boolean initialLightSet = false;
-  private boolean initialHumiditySet = false;
-  private int currentHour = 0;
+  private final AirPage page;
+  private final int slot;
+  private final int storeSlot;
   private ArrayList<AirSubscriber> subscribers;
-  
+  private RandomSource randomSource = RandomSource.THREAD_LOCAL;
+  private final AtomicLong version = new AtomicLong();
+
   /**
    * Creates an instance of the Air, with target temperature,
    * humidity and light level.
@@ -30,11 +30,15 @@ public class Air extends ClockSubscriber implements Sensorable {
    * @param luxTarget      The target light level of the air.
    */
   public Air(double tempTarget, float humidityTarget, double luxTarget) {
-    this.temperatureTarget = tempTarget;
-    this.humidityTarget = humidityTarget;
-    this.luxTarget = luxTarget;
+    EnvironmentStore store = EnvironmentStore.getInstance();
+    this.storeSlot = store.allocateAir();
+    this.page = store.airPage(storeSlot);
+    this.slot = storeSlot % AirPage.SIZE;
+    page.temperatureTarget[slot] = tempTarget;
+    page.humidityTarget[slot] = humidityTarget;
+    page.luxTarget[slot] = luxTarget;
     subscribers = new ArrayList<>();
-    subscribe();
+    store.attach(this, storeSlot);
   }
 
   @Override
@@ -45,161 +49,104 @@ public class Air extends ClockSubscriber implements Sensorable {
 
   /**
    * Interface method, to make all Sensorable objects update their state values.
+   * Moves the air one hour on, changing the light, humidity and temperature,
+   * and alerts the airSubscribers once.
    */
   @Override
   public void updateState() {
-    currentHour = (currentHour + 1) % 24;
-    // humidity: 0.0 - 1.0
-    if (humidity == 0.0f && !initialHumiditySet) {
-      humidity = (float) (Math.random());
-      initialHumiditySet = true;
-    }
-    // light (lux): 0.0 - 100000.0
-    if (lux == 0.0 && !initialLightSet) {
-      lux = Math.random() * 100000;
-      initialLightSet = true;
-    }
-    // temperature (°C): 0.0 - 40.0
-    if (actualTemperature == 0.0 && !initialTempSet) {
-      actualTemperature = Math.random() * 40;
-      initialTempSet = true;
-    }
-    updateLight();
-    humidityChangeProbability();
-    tempChangeProbability();
+    page.step(slot, slot + 1, randomSource.generator());
+    update();
   }
 
   /**
-   * Updates the light level based on a 24-hour sine wave pattern,
-   * and multiplying with a random value from 0.8 to 1.2,
-   * simulating natural daylight variations.
+   * Moves the air the given number of hours on at once, to where it is expected to be had it
+   * been stepped every hour, such as after its greenhouse was evicted from memory. Alerts the
+   * airSubscribers once.
+   *
+   * @param hours the number of hours to skip
    */
-  private void updateLight() {
-    // Calculate base lux from 24-hour sine wave (range: 20 to 70,020 lux)
-    double randomMultiplier = 0.8 + Math.random() * 0.4;
-    double sineValue = Math.sin((currentHour / 24.0) * 2 * Math.PI - Math.PI / 2);
-
-    // Map sine wave from [-1, 1] to [30, 40,000] lux
-    // Multiplied by random multiplier to simulate weather variations
-    this.lux = randomMultiplier * (20015 + 19985 * sineValue);
+  void catchUp(long hours) {
+    page.catchUp(slot, hours);
     update();
   }
 
   /**
-   * Simulates humidity change probability based on the difference
-   * between current humidity and target humidity.
+   * Sets the humidity, light and temperature of the air, such as the values it was saved with.
+   *
+   * @param humidity    the humidity of the air
+   * @param lux         the light of the air
+   * @param temperature the temperature of the air
    */
-
-  private void humidityChangeProbability() {
-    float humidityIncreaseChance;
-    if (Math.abs(humidity - humidityTarget) > 0.5) {
-      humidityIncreaseChance = 0.97f;
-    } else if (Math.abs(humidity - humidityTarget) > 0.2) {
-      humidityIncreaseChance = 0.92f;
-    } else if (Math.abs(humidity - humidityTarget) > 0.01) {
-      humidityIncreaseChance = 0.88f;
-    } else {
-      humidityIncreaseChance = 0.5f;
-    }
-    if (humidity < humidityTarget) {
-      changeHumidity(humidityIncreaseChance);
-    } else {
-      changeHumidity(1 - humidityIncreaseChance);
-    }
-  }
-
-  private void changeHumidity(float increaseChance) {
-    float humidityChange = (float) ((Math.random() * 0.03) + 0.005); // 0.5-3.5%
-    if (Math.random() < increaseChance) {
-      humidity += humidityChange;
-    } else {
-      humidity -= humidityChange;
-    }
-    humidity = Math.max(0.0f, Math.min(1.0f, humidity));
-    update();
+  void restore(float humidity, double lux, double temperature) {
+    page.restore(slot, humidity, lux, temperature);
   }
 
   /**
-   * Simulates temperature change probability based on the difference
-   * between current temperature and target temperature.
+   * Stops the air from being moved on by the clock. Its slot is given to the next air created
+   * once this air can no longer be reached, so a thread still holding it reads it as it was.
    */
-  private void tempChangeProbability() {
-    float tempIncreaseChance;
-    if (Math.abs(actualTemperature - temperatureTarget) > 20) {
-      tempIncreaseChance = 0.97f;
-    } else if (Math.abs(actualTemperature - temperatureTarget) > 10) {
-      tempIncreaseChance = 0.92f;
-    } else if (Math.abs(actualTemperature - temperatureTarget) > 2) {
-      tempIncreaseChance = 0.85f;
-    } else {
-      tempIncreaseChance = 0.5f;
-    }
-
-    if (actualTemperature < temperatureTarget) {
-      changeTemperature(tempIncreaseChance);
-    } else {
-      changeTemperature(1 - tempIncreaseChance);
-    }
+  void detach() {
+    EnvironmentStore.getInstance().detach(this, storeSlot);
   }
 
   /**
-   * Changes the temperature up or down based on the given chance to increase.
-   * If the temperature is lower than the target temperature, the chance to increase is higher,
-   * while if it's higher than the target temperature, the chance to decrease is higher.
+   * Sets the source of the random changes of this air, such as a seeded source
+   * to make the air change the same way on every run.
    *
-   * @param increaseChance The chance to increase the temperature.
+   * @param randomSource The source of random numbers.
    */
-  private void changeTemperature(float increaseChance) {
-    float temperatureChange = (float) (Math.random() + 0.25); // 0.25-1.25°C
-    if (Math.random() < increaseChance) {
-      actualTemperature += temperatureChange;
-    } else {
-      actualTemperature -= temperatureChange;
-    }
-    update();
+  public void setRandomSource(RandomSource randomSource) {
+    this.randomSource = randomSource;
   }
 
   /**
    * Sets the targetTemperature to a new desired temperature.
    */
   public void setTargetTemperature(double newTemperatureTarget) {
-    this.temperatureTarget = newTemperatureTarget;
+    page.temperatureTarget[slot] = newTemperatureTarget;
+    version.incrementAndGet();
   }
 
   /**
    * Sets the targetHumidity to a new desired humidity.
    */
   public void setTargetHumidity(Float newHumidityTarget) {
-    if (newHumidityTarget > 1.0f){
-      this.humidityTarget = 1.0f;
-    } else if (newHumidityTarget < 0.0f){
-      this.humidityTarget = 0.0f;
-    } else
-    this.humidityTarget = newHumidityTarget;
+    page.humidityTarget[slot] = Math.max(0.0f, Math.min(1.0f, newHumidityTarget));
+    version.incrementAndGet();
+  }
+
+  /**
+   * Returns a number that grows every time a target of the air is changed. The values the air
+   * moves to on its own every hour do not change it, as the air is saved by its targets.
+   *
+   * @return the version of the targets of the air
+   */
+  public long getVersion() {
+    return version.get();
   }
 
   public float getHumidity() {
-    return humidity;
+    return page.humidity[slot];
   }
 
   public double getLux() {
-    return lux;
+    return page.lux[slot];
   }
 
   public double getTemperature() {
-    return actualTemperature;
+    return page.temperature[slot];
   }
 
   public Float getTargetHumidity() {
-    return humidityTarget;
+    return page.humidityTarget[slot];
   }
 
   public Double getTargetTemperature() {
-    return temperatureTarget;
+    return page.temperatureTarget[slot];
   }
 
   public Double getLuxTarget() {
-    return luxTarget;
+    return page.luxTarget[slot];
   }
 
   /**
@@ -0,0 +1,177 @@
+package greenhouse.logic;
+
+import java.util.random.RandomGenerator;
+
+/**
+ * The state of the air of a fixed number of greenhouses, stored as one primitive array per value.
+ * <p>
+ * Every {@link Air} is a view over one slot of a page. The model of how the air changes every
+ * hour lives in {@link #step(int, int, RandomGenerator)}, which moves a range of slots on in a few
+ * tight loops, one per value, so a single Air and a whole page are stepped by the same code.
+ * Pages never grow or move, so a slot can be read and written while new pages are added.
+ */
+final class AirPage {
+  static final int SIZE = 4096;
+
+  // The expected drift towards the target per hour, by how far off the target the value is.
+  // Within the last band the value wanders around its target, and is not expected to move.
+  private static final double[] TEMPERATURE_BANDS = {20, 10, 2};
+  private static final double[] TEMPERATURE_DRIFT = {0.94 * 0.75, 0.84 * 0.75, 0.70 * 0.75};
+  private static final double[] HUMIDITY_BANDS = {0.5, 0.2, 0.01};
+  private static final double[] HUMIDITY_DRIFT = {0.94 * 0.02, 0.84 * 0.02, 0.76 * 0.02};
+
+  private static final byte HUMIDITY_SET = 1;
+  private static final byte LIGHT_SET = 2;
+  private static final byte TEMPERATURE_SET = 4;
+  private static final double[] DAYLIGHT = new double[24];
+
+  static {
+    // Base lux of every hour, from a 24-hour sine wave mapped from [-1, 1] to [30, 40,000] lux
+    for (int hour = 0; hour < DAYLIGHT.length; hour++) {
+      DAYLIGHT[hour] = 20015 + 19985 * Math.sin((hour / 24.0) * 2 * Math.PI - Math.PI / 2);
+    }
+  }
+
+  final float[] humidity = new float[SIZE]; // 0 <= x <= 1
+  final double[] lux = new double[SIZE]; // The amount of light in lux.
+  final double[] temperature = new double[SIZE];
+  final double[] temperatureTarget = new double[SIZE];
+  final float[] humidityTarget = new float[SIZE];
+  final double[] luxTarget = new double[SIZE];
+  final byte[] hour = new byte[SIZE];
+  final byte[] initialised = new byte[SIZE];
+  final Air[] views = new Air[SIZE];
+
+  /**
+   * Moves the air in the given slots one hour on: the light follows the time of day, and the
+   * humidity and temperature drift randomly, more likely towards their targets than away.
+   *
+   * @param from   the first slot to step
+   * @param to     the slot after the last slot to step
+   * @param random the random generator to draw the changes from
+   */
+  void step(int from, int to, RandomGenerator random) {
+    for (int i = from; i < to; i++) {
+      // The state starts out random the first time the air is stepped
+      if (humidity[i] == 0.0f && (initialised[i] & HUMIDITY_SET) == 0) {
+        humidity[i] = (float) random.nextDouble();
+        initialised[i] |= HUMIDITY_SET;
+      }
+      if (lux[i] == 0.0 && (initialised[i] & LIGHT_SET) == 0) {
+        lux[i] = random.nextDouble() * 100000;
+        initialised[i] |= LIGHT_SET;
+      }
+      if (temperature[i] == 0.0 && (initialised[i] & TEMPERATURE_SET) == 0) {
+        temperature[i] = random.nextDouble() * 40;
+        initialised[i] |= TEMPERATURE_SET;
+      }
+    }
+    for (int i = from; i < to; i++) {
+      hour[i] = (byte) ((hour[i] + 1) % 24);
+      // Multiplied by a random multiplier from 0.8 to 1.2 to simulate weather variations
+      lux[i] = (0.8 + random.nextDouble() * 0.4) * DAYLIGHT[hour[i]];
+    }
+    for (int i = from; i < to; i++) {
+      float distance = Math.abs(humidity[i] - humidityTarget[i]);
+      float increaseChance = distance > 0.5 ? 0.97f : distance > 0.2 ? 0.92f : distance > 0.01 ? 0.88f : 0.5f;
+      if (humidity[i] >= humidityTarget[i]) {
+        increaseChance = 1 - increaseChance;
+      }
+      float change = (float) ((random.nextDouble() * 0.03) + 0.005); // 0.5-3.5%
+      float changed = random.nextDouble() < increaseChance ? humidity[i] + change : humidity[i] - change;
+      humidity[i] = Math.max(0.0f, Math.min(1.0f, changed));
+    }
+    for (int i = from; i < to; i++) {
+      double distance = Math.abs(temperature[i] - temperatureTarget[i]);
+      float increaseChance = distance > 20 ? 0.97f : distance > 10 ? 0.92f : distance > 2 ? 0.85f : 0.5f;
+      if (temperature[i] >= temperatureTarget[i]) {
+        increaseChance = 1 - increaseChance;
+      }
+      float change = (float) (random.nextDouble() + 0.25); // 0.25-1.25°C
+      temperature[i] += random.nextDouble() < increaseChance ? change : -change;
+    }
+  }
+
+  /**
+   * Moves the air in a slot the given number of hours on at once, to where {@link #step} is
+   * expected to take it. The light is the daylight of the hour it ends on, and a temperature or
+   * humidity that has been set moves towards its target at the average drift of every band it
+   * passes through. Takes the same time however many hours are skipped.
+   *
+   * @param i     the slot to move on
+   * @param hours the number of hours to skip
+   */
+  void catchUp(int i, long hours) {
+    if (hours <= 0) {
+      return;
+    }
+    hour[i] = (byte) ((hour[i] + hours) % 24);
+    lux[i] = DAYLIGHT[hour[i]];
+    initialised[i] |= LIGHT_SET;
+    if ((initialised[i] & TEMPERATURE_SET) != 0) {
+      temperature[i] = approach(temperature[i], temperatureTarget[i], hours, TEMPERATURE_BANDS, TEMPERATURE_DRIFT);
+    }
+    if ((initialised[i] & HUMIDITY_SET) != 0) {
+      humidity[i] = (float) Math.max(0.0, Math.min(1.0,
+              approach(humidity[i], humidityTarget[i], hours, HUMIDITY_BANDS, HUMIDITY_DRIFT)));
+    }
+  }
+
+  /**
+   * Sets the current values of the air in a slot, such as values saved earlier.
+   *
+   * @param i           the slot
+   * @param humidity    the humidity of the air
+   * @param lux         the light of the air
+   * @param temperature the temperature of the air
+   */
+  void restore(int i, float humidity, double lux, double temperature) {
+    this.humidity[i] = humidity;
+    this.lux[i] = lux;
+    this.temperature[i] = temperature;
+    initialised[i] = HUMIDITY_SET | LIGHT_SET | TEMPERATURE_SET;
+  }
+
+  /**
+   * Resets a slot, so it can be given to a new air.
+   *
+   * @param i the slot
+   */
+  void clear(int i) {
+    humidity[i] = 0;
+    lux[i] = 0;
+    temperature[i] = 0;
+    temperatureTarget[i] = 0;
+    humidityTarget[i] = 0;
+    luxTarget[i] = 0;
+    hour[i] = 0;
+    initialised[i] = 0;
+    views[i] = null;
+  }
+
+  /**
+   * Returns where a value drifting towards its target is expected to be after the given hours.
+   * The value crosses each band at that band's drift, so the work is one step per band.
+   *
+   * @param value  the value now
+   * @param target the target of the value
+   * @param hours  the number of hours
+   * @param bands  the distances from the target where the drift changes, largest first
+   * @param drift  the drift per hour while the distance is above each band
+   * @return the expected value
+   */
+  private static double approach(double value, double target, long hours, double[] bands, double[] drift) {
+    double distance = Math.abs(value - target);
+    double left = hours;
+    for (int band = 0; band < bands.length && left > 0; band++) {
+      if (distance <= bands[band]) {
+        continue;
+      }
+      double needed = (distance - bands[band]) / drift[band];
+      double spent = Math.min(left, needed);
+      distance -= spent * drift[band];
+      left -= spent;
+    }
+    return value >= target ? target + distance : target - distance;
+  }
+}
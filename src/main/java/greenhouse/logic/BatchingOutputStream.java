@@ -0,0 +1,68 @@
+package greenhouse.logic;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Output stream to a blocking client which holds back flushes while a batch of pipelined
+ * commands is being handled. The menus flush after every response, so without this a client
+ * sending many commands without waiting would get one network write per response line.
+ * <p>
+ * The batch is started and ended by the {@link PipelinedReader} reading the client's commands.
+ * While the buffer is not full, the responses to the whole batch go out in a single write.
+ */
+class BatchingOutputStream extends BufferedOutputStream {
+  private static final int BUFFER_SIZE = 8192;
+
+  private volatile boolean batching = false;
+
+  /**
+   * Creates a stream buffering the output to the given stream.
+   *
+   * @param out the stream to the client
+   */
+  BatchingOutputStream(OutputStream out) {
+    super(out, BUFFER_SIZE);
+  }
+
+  /**
+   * Starts holding back flushes, until the batch ends.
+   */
+  void startBatch() {
+    batching = true;
+  }
+
+  /**
+   * Ends the batch, and writes everything held back to the client.
+   *
+   * @throws IOException if the output could not be written
+   */
+  void endBatch() throws IOException {
+    batching = false;
+    super.flush();
+  }
+
+  /**
+   * Writes the buffered output to the client, unless a batch is being handled.
+   *
+   * @throws IOException if the output could not be written
+   */
+  @Override
+  public void flush() throws IOException {
+    if (!batching) {
+      super.flush();
+    }
+  }
+
+  /**
+   * Ends the batch, writes everything held back to the client and closes the stream.
+   *
+   * @throws IOException if the output could not be written or the stream closed
+   */
+  @Override
+  public void close() throws IOException {
+    batching = false;
+    super.close();
+  }
+}
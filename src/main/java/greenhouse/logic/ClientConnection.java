@@ -0,0 +1,327 @@
+package greenhouse.logic;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A client receiving updates pushed by the server, such as monitoring updates.
+ * <p>
+ * Updates are not written by the thread producing them. They are put in a bounded outbound queue,
+ * which a writer thread of the connection's own drains to the client. A client that reads slowly
+ * therefore only fills its own queue, and never holds up the Clock or other clients. When the queue
+ * is full, the connection's {@link OverflowPolicy} decides what happens to the new update.
+ */
+public class ClientConnection {
+
+  /**
+   * What a connection does with a new update when its outbound queue is full.
+   */
+  public enum OverflowPolicy {
+    /**
+     * The oldest queued update is dropped to make room for the new one.
+     */
+    DROP_OLDEST("drop-oldest"),
+
+    /**
+     * All queued updates are dropped, leaving only the new one. Suited for updates that each
+     * hold the complete latest state. Monitor updates are deltas, each building on the one
+     * before, so the server offers a snapshot instead of a delta to a client whose queue is
+     * full, and the snapshot replaces the deltas dropped for it.
+     */
+    COALESCE_LATEST("coalesce"),
+
+    /**
+     * The client is disconnected.
+     */
+    DISCONNECT("disconnect");
+
+    private final String argument;
+
+    OverflowPolicy(String argument) {
+      this.argument = argument;
+    }
+
+    /**
+     * Returns the name used to select this policy from the command line.
+     *
+     * @return the command line name of the policy
+     */
+    public String getArgument() {
+      return argument;
+    }
+
+    /**
+     * Finds the overflow policy matching a command line argument.
+     *
+     * @param argument the command line argument, e.g. "coalesce"
+     * @return the matching overflow policy
+     * @throws IllegalArgumentException if no policy matches the argument
+     */
+    public static OverflowPolicy fromArgument(String argument) throws IllegalArgumentException {
+      for (OverflowPolicy policy : values()) {
+        if (policy.argument.equalsIgnoreCase(argument.trim())) {
+          return policy;
+        }
+      }
+      throw new IllegalArgumentException("Unknown overflow policy: " + argument);
+    }
+  }
+
+  private final Socket socket;
+  private final BufferedWriter writer;
+  private final int capacity;
+  private final OverflowPolicy overflowPolicy;
+  private final ArrayDeque<Frame> queue;
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition notEmpty = lock.newCondition();
+  private final AtomicLong droppedFrames = new AtomicLong();
+  private final Thread drainer;
+  private boolean closed = false;
+
+  /**
+   * Creates a connection and starts the thread writing its queued updates to the client.
+   *
+   * @param socket         the socket of the client, or null if the writer is all that is known
+   * @param writer         the writer the updates are written to
+   * @param capacity       the maximum number of updates waiting to be written
+   * @param overflowPolicy what to do with a new update when the queue is full
+   */
+  public ClientConnection(Socket socket, BufferedWriter writer, int capacity, OverflowPolicy overflowPolicy) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The outbound queue must hold at least one update.");
+    }
+    this.socket = socket;
+    this.writer = writer;
+    this.capacity = capacity;
+    this.overflowPolicy = overflowPolicy;
+    this.queue = new ArrayDeque<>(capacity);
+    this.drainer = Thread.ofVirtual().name("greenhouse-client-writer").start(this::drain);
+  }
+
+  /**
+   * An update waiting to be written to a client. The same update may be queued for many clients.
+   */
+  @FunctionalInterface
+  public interface Frame {
+
+    /**
+     * Writes the update to a client, without flushing it.
+     *
+     * @param writer the writer of the client
+     * @throws IOException if the update could not be written
+     */
+    void writeTo(BufferedWriter writer) throws IOException;
+
+    /**
+     * Creates an update consisting of an encrypted line of text.
+     *
+     * @param line the encrypted update, including its line separator
+     * @return the update
+     */
+    static Frame line(char[] line) {
+      return writer -> writer.write(line);
+    }
+  }
+
+  /**
+   * Queues an update to be written to the client. Never blocks on the client.
+   *
+   * @param frame the update
+   * @return false if the connection is closed, or was disconnected because its queue was full
+   */
+  public boolean offer(Frame frame) {
+    lock.lock();
+    try {
+      if (closed) {
+        return false;
+      }
+      if (queue.size() >= capacity) {
+        switch (overflowPolicy) {
+          case DROP_OLDEST -> {
+            queue.pollFirst();
+            droppedFrames.incrementAndGet();
+          }
+          case COALESCE_LATEST -> {
+            droppedFrames.addAndGet(queue.size());
+            queue.clear();
+          }
+          case DISCONNECT -> {
+            droppedFrames.incrementAndGet();
+            closeLocked();
+            return false;
+          }
+        }
+      }
+      queue.addLast(frame);
+      notEmpty.signal();
+      return true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Checks if the outbound queue is full, so the next update offered has the overflow policy
+   * drop updates, or the client disconnected.
+   *
+   * @return true if the queue holds as many updates as it can
+   */
+  public boolean isFull() {
+    lock.lock();
+    try {
+      return queue.size() >= capacity;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Writes the queued updates to the client until the connection is closed.
+   * A failed write closes the connection.
+   */
+  private void drain() {
+    while (true) {
+      Frame frame;
+      lock.lock();
+      try {
+        while (queue.isEmpty() && !closed) {
+          notEmpty.await();
+        }
+        if (closed) {
+          return;
+        }
+        frame = queue.pollFirst();
+      } catch (InterruptedException e) {
+        return;
+      } finally {
+        lock.unlock();
+      }
+
+      try {
+        if (writer instanceof BackPressure backPressure) {
+          backPressure.awaitCapacity();
+        }
+        frame.writeTo(writer);
+        writer.flush();
+      } catch (IOException | InterruptedException e) {
+        close();
+        return;
+      }
+    }
+  }
+
+  /**
+   * Stops the writer thread, dropping any queued updates. Does not close the client's socket.
+   */
+  public void stop() {
+    lock.lock();
+    try {
+      closed = true;
+      queue.clear();
+      notEmpty.signal();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Stops the writer thread and closes the connection to the client.
+   */
+  public void close() {
+    lock.lock();
+    try {
+      closeLocked();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void closeLocked() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    queue.clear();
+    notEmpty.signal();
+    drainer.interrupt();
+    try {
+      if (socket != null) {
+        socket.close();
+      } else {
+        writer.close();
+      }
+    } catch (IOException e) {
+      // The connection is being given up on, so there is nothing more to do
+    }
+  }
+
+  /**
+   * Checks if the connection has been closed or stopped.
+   *
+   * @return true if no more updates will be written to the client
+   */
+  public boolean isClosed() {
+    lock.lock();
+    try {
+      return closed;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Checks if the client uses the binary protocol.
+   *
+   * @return true if updates to the client can be sent as binary frames
+   */
+  public boolean isBinary() {
+    return writer instanceof FrameWriter;
+  }
+
+  /**
+   * Gets the socket connection to the client.
+   *
+   * @return the client socket, or null if it is not known
+   */
+  public Socket socket() {
+    return socket;
+  }
+
+  /**
+   * Gets the writer used to send messages to the client.
+   *
+   * @return the buffered writer
+   */
+  public BufferedWriter writer() {
+    return writer;
+  }
+
+  /**
+   * Returns the number of updates that were dropped because the client could not keep up.
+   *
+   * @return the number of dropped updates
+   */
+  public long getDroppedFrames() {
+    return droppedFrames.get();
+  }
+
+  /**
+   * A writer that can tell when the client has fallen behind, so that updates stay in the
+   * bounded outbound queue instead of piling up in the writer.
+   */
+  interface BackPressure {
+
+    /**
+     * Waits until the writer can take more output without its buffered output growing past its limit.
+     *
+     * @throws IOException          if the connection was closed while waiting
+     * @throws InterruptedException if the waiting thread was interrupted
+     */
+    void awaitCapacity() throws IOException, InterruptedException;
+  }
+}
@@ -2,64 +2,275 @@ package greenhouse.logic;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Represents a clock that ticks at a constant interval
  * measured in minutes. Tells a list of subscribers when
  * the clock has ticked. There exists only one instance of
  * the Clock.
- *
+ * <p>
+ * A tick has two phases. In the {@link Phase#UPDATE} phase the subscribers are split into
+ * shards by their shard key, such as the id of their greenhouse, and the shards are ticked in
+ * parallel. The {@link Phase#BROADCAST} phase starts when every shard is done, so subscribers
+ * sending out the state of the greenhouses see the state of the whole tick. If a tick is still
+ * running when the next one is due, the next one is skipped rather than run alongside it.
+ * <p>
+ * Every shard keeps its subscribers on a {@link TimingWheel}, so each subscriber can be ticked
+ * at its own period, a whole number of clock ticks, and only the subscribers due are looked at.
+ * <p>
+ * Every tick is one simulated hour, the step of the daylight cycle of {@link Air}. Besides
+ * ticking every few minutes of wall-clock time, the clock can run in virtual time, ticking as
+ * fast as the subscribers allow or at a chosen multiple of real time, to replay a long stretch
+ * of greenhouse behaviour in seconds. The ticks are run one after another in both modes.
  */
 public class Clock {
   private static final int NORMAL = 10;
   private static final int MODERATE = 5;
-  private static final int FAST = 3;
+  private static final int FAST = 1;
+  private static final int SHARDS_PER_THREAD = 4;
+  private static final double NANOS_PER_HOUR = TimeUnit.HOURS.toNanos(1);
+  private static final ThreadLocal<Boolean> TICKING_SUBSCRIBER = ThreadLocal.withInitial(() -> false);
   private ArrayList<Integer> speeds = new ArrayList<>(Arrays.asList(NORMAL, MODERATE, FAST));
   private int position;
   private int currentRate;
 
   private ScheduledExecutorService scheduler;
+  private ScheduledFuture<?> ticker;
   private boolean on;
   private static Clock clock = null;
-  private ArrayList<ClockSubscriber> subscribers;
+  private final List<TimingWheel> shards;
+  private final TimingWheel broadcasts = new TimingWheel();
+  private final ForkJoinPool shardPool;
+  private final ReentrantLock tickLock = new ReentrantLock();
+  private final LongAdder skippedTicks = new LongAdder();
+  private final AtomicLong simulatedHours = new AtomicLong();
+  private Thread virtualClock;
+  private List<Thread> stoppedVirtualClocks = new ArrayList<>();
+  private long virtualStartNanos;
+  private long virtualStartHours;
+  private double lastVirtualHoursPerSecond;
+
+  /**
+   * The phases of a tick, in the order they run.
+   */
+  public enum Phase {
+    /** Subscribers updating the state of a greenhouse. They are ticked in parallel, shard by shard. */
+    UPDATE,
+    /** Subscribers sending out the updated state. They are ticked one after another, after all updates. */
+    BROADCAST
+  }
 
   /**
    * Creates the instance of the clock.
    */
   private Clock() {
-    subscribers = new ArrayList<>();
+    int parallelism = Runtime.getRuntime().availableProcessors();
+    shardPool = new ForkJoinPool(parallelism);
+    shards = new ArrayList<>();
+    for (int i = 0; i < parallelism * SHARDS_PER_THREAD; i++) {
+      shards.add(new TimingWheel());
+    }
     on = false;
   }
 
   /**
    * Starts the clock with normal tick speed (10 min) as default.
+   * Starting a clock that is already on restarts it at normal speed.
    */
-  public void start() {
-    scheduler = Executors.newScheduledThreadPool(1);
-    scheduler.scheduleAtFixedRate(tick(), 0, FAST, TimeUnit.MINUTES); //can be changed to seconds/minutes for testing
+  public synchronized void start() {
+    stopTicking();
+    if (scheduler == null) {
+      scheduler = Executors.newScheduledThreadPool(1);
+    }
+    ticker = scheduler.scheduleAtFixedRate(scheduledTick(), 0, NORMAL, TimeUnit.MINUTES); //can be changed to seconds/minutes for testing
     position = 0;
-    currentRate = FAST;
+    currentRate = NORMAL;
+    on = true;
+  }
+
+  /**
+   * Starts the clock in virtual time. Simulated hours pass the given number of times faster
+   * than real hours, or as fast as the subscribers can be ticked if the multiplier is infinite.
+   * When a tick takes longer than its share of real time, the ticks after it follow at once
+   * to catch up, so no simulated hour is skipped.
+   *
+   * @param multiplier The number of simulated hours passing per real hour,
+   *                   or {@link Double#POSITIVE_INFINITY} for no limit.
+   * @throws IllegalArgumentException if the multiplier is not positive
+   */
+  public synchronized void startVirtualTime(double multiplier) {
+    if (!(multiplier > 0)) {
+      throw new IllegalArgumentException("Multiplier must be positive");
+    }
+    stopTicking();
+    long nanosPerTick = Double.isInfinite(multiplier) ? 0 : (long) (NANOS_PER_HOUR / multiplier);
+    virtualStartNanos = System.nanoTime();
+    virtualStartHours = simulatedHours.get();
+    virtualClock = Thread.ofPlatform().daemon().name("greenhouse-virtual-clock")
+            .start(() -> runVirtualTime(nanosPerTick));
     on = true;
   }
 
   /**
-   * Stops the clock.
+   * Ticks the clock until the virtual clock thread is interrupted, waiting between
+   * the ticks so they come the given number of nanoseconds apart.
+   *
+   * @param nanosPerTick The real time between two ticks, or 0 to not wait at all.
+   */
+  private void runVirtualTime(long nanosPerTick) {
+    Runnable tick = tick();
+    long nextTick = System.nanoTime();
+    while (!Thread.currentThread().isInterrupted()) {
+      tick.run();
+      if (nanosPerTick > 0) {
+        nextTick += nanosPerTick;
+        long wait = nextTick - System.nanoTime();
+        if (wait > 0) {
+          LockSupport.parkNanos(wait);
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs the given number of simulated hours on the calling thread, as fast as the subscribers
+   * can be ticked, and returns how fast they were run. The clock does not need to be on.
+   *
+   * @param hours The number of hours to simulate.
+   * @return The number of simulated hours per second of real time.
+   * @throws IllegalArgumentException if the number of hours is negative
+   */
+  public double simulate(long hours) {
+    if (hours < 0) {
+      throw new IllegalArgumentException("Hours cannot be negative");
+    }
+    Runnable tick = tick();
+    long start = System.nanoTime();
+    for (long hour = 0; hour < hours; hour++) {
+      tick.run();
+    }
+    return hoursPerSecond(hours, System.nanoTime() - start);
+  }
+
+  /**
+   * Returns the number of hours simulated since the clock was created, which is
+   * the number of times it has ticked.
+   *
+   * @return The number of simulated hours.
+   */
+  public long getSimulatedHours() {
+    return simulatedHours.get();
+  }
+
+  /**
+   * Returns how fast the clock has been running since it was last started in virtual time.
+   * Once virtual time is stopped, returns how fast it ran until then.
+   *
+   * @return The number of simulated hours per second of real time, or 0 if the clock
+   *  has never run in virtual time.
+   */
+  public synchronized double getSimulatedHoursPerSecond() {
+    if (virtualClock == null) {
+      return lastVirtualHoursPerSecond;
+    }
+    return hoursPerSecond(simulatedHours.get() - virtualStartHours, System.nanoTime() - virtualStartNanos);
+  }
+
+  /**
+   * Returns true if the clock is ticking in virtual time.
+   *
+   * @return true if the clock is ticking in virtual time, false otherwise.
+   */
+  public synchronized boolean isVirtualTime() {
+    return virtualClock != null;
+  }
+
+  private static double hoursPerSecond(long hours, long nanos) {
+    return nanos <= 0 ? 0 : hours * 1e9 / nanos;
+  }
+
+  /**
+   * Stops the clock. A wall-clock or virtual-time tick that is running is finished before this
+   * returns, so no subscriber is ticked by the clock afterwards. A subscriber stopping the clock
+   * from within a tick does not wait, as the tick would be waiting for itself.
    */
   public void stop() {
-    scheduler.shutdown();
-    on = false;
+    ScheduledExecutorService stoppedScheduler;
+    List<Thread> stoppedVirtualTime;
+    synchronized (this) {
+      stopTicking();
+      stoppedScheduler = scheduler;
+      scheduler = null;
+      if (stoppedScheduler != null) {
+        stoppedScheduler.shutdown();
+      }
+      stoppedVirtualTime = stoppedVirtualClocks;
+      stoppedVirtualClocks = new ArrayList<>();
+      on = false;
+    }
+    if (TICKING_SUBSCRIBER.get()) {
+      return;
+    }
+    try {
+      if (stoppedScheduler != null) {
+        stoppedScheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      }
+      for (Thread virtualTime : stoppedVirtualTime) {
+        virtualTime.join();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   /**
-   * Changes the rate at which the clock ticks.
+   * Stops the ticks of the running mode, both the wall-clock ticks and the virtual time thread.
+   */
+  private void stopTicking() {
+    if (ticker != null) {
+      ticker.cancel(false);
+      ticker = null;
+    }
+    if (virtualClock != null) {
+      lastVirtualHoursPerSecond = getSimulatedHoursPerSecond();
+      virtualClock.interrupt();
+      stoppedVirtualClocks.removeIf(stopped -> !stopped.isAlive());
+      stoppedVirtualClocks.add(virtualClock); // Waited for by stop(), as it may still be finishing a tick
+      virtualClock = null;
+    }
+  }
+
+  /**
+   * Changes the rate at which the clock ticks. The ticks at the old rate are cancelled,
+   * and the next tick comes one new period from now.
    *
    * @param newRate The new tick rate of the clock.
+   * @throws IllegalArgumentException if the rate is not positive
+   * @throws IllegalStateException if the clock is not on, or running in virtual time
    */
-  public void changeRate(int newRate) {
-    scheduler.scheduleAtFixedRate(tick(), 0, newRate, TimeUnit.MINUTES);
+  public synchronized void changeRate(int newRate) {
+    if (newRate < 1) {
+      throw new IllegalArgumentException("Rate must be at least one minute");
+    }
+    if (!on) {
+      throw new IllegalStateException("Clock is not on yet");
+    }
+    if (ticker == null) {
+      throw new IllegalStateException("Clock is running in virtual time");
+    }
+    ticker.cancel(false);
+    ticker = scheduler.scheduleAtFixedRate(scheduledTick(), newRate, newRate, TimeUnit.MINUTES);
     currentRate = newRate;
   }
 
@@ -70,7 +281,7 @@ public class Clock {
    * @param jump The jump increase between the predetermined tick rates.
    *             Can only be 1 or 2
    */
-  public void speedUp(int jump) {
+  public synchronized void speedUp(int jump) {
     if (jump < 1 || jump > 2) {
       throw new IllegalArgumentException("Rate of change must be 1 or 2");
     }
@@ -93,7 +304,7 @@ public class Clock {
    * @param jump The jump decrease between the predetermined tick rates.
    *             Can only be 1 or 2.
    */
-  public void slowDown(int jump) {
+  public synchronized void slowDown(int jump) {
     if (jump < 1 || jump > 2) {
       throw new IllegalArgumentException("Rate of change must be 1 or 2");
     }
@@ -126,7 +337,81 @@ public class Clock {
    *  has ticked.
    */
   public Runnable tick() {
-    return () -> subscribers.forEach(ClockSubscriber::tick);
+    return () -> {
+      tickLock.lock();
+      try {
+        runTick();
+      } finally {
+        tickLock.unlock();
+      }
+    };
+  }
+
+  /**
+   * Returns a runnable for the scheduler that ticks the clock, unless the previous tick
+   * is still running, in which case this tick is skipped.
+   *
+   * @return A runnable that ticks the clock if no tick is running.
+   */
+  private Runnable scheduledTick() {
+    return () -> {
+      if (!tickLock.tryLock()) {
+        skippedTicks.increment();
+        return;
+      }
+      try {
+        runTick();
+      } finally {
+        tickLock.unlock();
+      }
+    };
+  }
+
+  /**
+   * Moves the timing wheel of every shard one tick on and ticks the subscribers due in them,
+   * with the shards in parallel. When all shards are done, ticks the broadcast subscribers due.
+   */
+  private void runTick() {
+    List<Callable<Void>> shardTicks = new ArrayList<>();
+    for (TimingWheel shard : shards) {
+      if (shard.size() > 0) {
+        shardTicks.add(() -> {
+          shard.advance().forEach(Clock::tickSubscriber);
+          return null;
+        });
+      }
+    }
+    if (!shardTicks.isEmpty()) {
+      shardPool.invokeAll(shardTicks);
+    }
+    broadcasts.advance().forEach(Clock::tickSubscriber);
+    simulatedHours.incrementAndGet();
+  }
+
+  /**
+   * Ticks a single subscriber. A subscriber that fails is reported, and does not stop
+   * the rest of the tick or the ticks after it.
+   *
+   * @param subscriber The subscriber to tick.
+   */
+  private static void tickSubscriber(ClockSubscriber subscriber) {
+    TICKING_SUBSCRIBER.set(true);
+    try {
+      subscriber.tick();
+    } catch (RuntimeException e) {
+      e.printStackTrace();
+    } finally {
+      TICKING_SUBSCRIBER.set(false);
+    }
+  }
+
+  /**
+   * Returns the number of ticks skipped because the tick before them was still running.
+   *
+   * @return The number of skipped ticks.
+   */
+  public long getSkippedTicks() {
+    return skippedTicks.sum();
   }
 
   /**
@@ -144,13 +429,17 @@ public class Clock {
   }
 
   /**
-   * Adds a ClockSubscriber to the list of subscribers.
+   * Adds a ClockSubscriber to the subscribers ticked in its phase, at its own period.
+   * Update subscribers are added to the shard of their shard key. Adding a subscriber
+   * that is already subscribed does nothing.
    *
    * @param subscriber The ClockSubscriber being added to the list of
    *                   subscribers.
    */
-  public void subscribe(ClockSubscriber subscriber) {
-    subscribers.add(subscriber);
+  public synchronized void subscribe(ClockSubscriber subscriber) {
+    if (subscriber.timer == null) {
+      subscriber.timer = wheelOf(subscriber).schedule(subscriber, subscriber.tickPeriod, subscriber.tickPeriod);
+    }
   }
 
   /**
@@ -158,8 +447,62 @@ public class Clock {
    *
    * @param subscriber the ClockSubscriber to remove from the list of subscribers.
    */
-  public void removeSubscriber(ClockSubscriber subscriber) {
-    subscribers.remove(subscriber);
+  public synchronized void removeSubscriber(ClockSubscriber subscriber) {
+    if (subscriber.timer != null) {
+      wheelOf(subscriber).cancel(subscriber.timer);
+      subscriber.timer = null;
+    }
+  }
+
+  /**
+   * Changes the shard key of a subscriber, moving it to the shard of the new key
+   * if it is subscribed. The subscriber keeps the time left until its next tick.
+   *
+   * @param subscriber The subscriber to move.
+   * @param shardKey   The new shard key of the subscriber.
+   */
+  synchronized void changeShardKey(ClockSubscriber subscriber, int shardKey) {
+    if (subscriber.timer == null || subscriber.getPhase() != Phase.UPDATE) {
+      subscriber.shardKey = shardKey;
+      return;
+    }
+    TimingWheel from = wheelOf(subscriber);
+    int remaining = from.remainingTicks(subscriber.timer);
+    from.cancel(subscriber.timer);
+    subscriber.shardKey = shardKey;
+    subscriber.timer = wheelOf(subscriber).schedule(subscriber, subscriber.tickPeriod, remaining);
+  }
+
+  /**
+   * Changes the number of clock ticks between two ticks of a subscriber.
+   * If it is subscribed, it is next ticked one new period from now.
+   *
+   * @param subscriber The subscriber to change the period of.
+   * @param period     The new number of clock ticks between two ticks of the subscriber.
+   * @throws IllegalArgumentException if the period is less than one tick
+   */
+  synchronized void changeTickPeriod(ClockSubscriber subscriber, int period) throws IllegalArgumentException {
+    if (period < 1) {
+      throw new IllegalArgumentException("Period must be at least one tick");
+    }
+    subscriber.tickPeriod = period;
+    if (subscriber.timer != null) {
+      wheelOf(subscriber).reschedule(subscriber.timer, period);
+    }
+  }
+
+  /**
+   * Returns the timing wheel holding the subscriber: the broadcast wheel for broadcast
+   * subscribers, and the shard of its shard key for update subscribers.
+   *
+   * @param subscriber The subscriber.
+   * @return The timing wheel of the subscriber.
+   */
+  private TimingWheel wheelOf(ClockSubscriber subscriber) {
+    if (subscriber.getPhase() == Phase.BROADCAST) {
+      return broadcasts;
+    }
+    return shards.get(Math.floorMod(subscriber.getShardKey(), shards.size()));
   }
 
   /**
@@ -169,6 +512,10 @@ public class Clock {
    * @return The id of the last subscriber in the clock's list of subscribers.
    */
   public int getLastSubscriber() {
-    return subscribers.size() - 1;
+    int count = broadcasts.size();
+    for (TimingWheel shard : shards) {
+      count += shard.size();
+    }
+    return count - 1;
   }
 }
@@ -4,12 +4,65 @@ package greenhouse.logic;
  * Subscribes to the Clock and does an action when the clock ticks.
  */
 public abstract class ClockSubscriber {
+  volatile int shardKey = System.identityHashCode(this);
+  volatile int tickPeriod = 1;
+  TimingWheel.Timer timer;
 
   /**
    * Does an action when the Clock ticks.
    */
   abstract void tick();
 
+  /**
+   * Returns the phase of the tick in which this subscriber is ticked.
+   * Subscribers update state in the {@link Clock.Phase#UPDATE} phase by default.
+   *
+   * @return The phase this subscriber is ticked in.
+   */
+  Clock.Phase getPhase() {
+    return Clock.Phase.UPDATE;
+  }
+
+  /**
+   * Returns the key deciding which shard of the Clock ticks this subscriber.
+   * Subscribers with the same key are ticked one after another on the same thread.
+   *
+   * @return The shard key of this subscriber.
+   */
+  int getShardKey() {
+    return shardKey;
+  }
+
+  /**
+   * Sets the key deciding which shard of the Clock ticks this subscriber,
+   * such as the id of the greenhouse it belongs to.
+   *
+   * @param shardKey The new shard key.
+   */
+  public void setShardKey(int shardKey) {
+    Clock.getInstance().changeShardKey(this, shardKey);
+  }
+
+  /**
+   * Returns the number of clock ticks between two ticks of this subscriber.
+   *
+   * @return The tick period of this subscriber.
+   */
+  public int getTickPeriod() {
+    return tickPeriod;
+  }
+
+  /**
+   * Sets the number of clock ticks between two ticks of this subscriber,
+   * so it can be ticked less often than the Clock ticks.
+   *
+   * @param ticks The number of clock ticks between two ticks, at least one.
+   * @throws IllegalArgumentException if the period is less than one tick
+   */
+  public void setTickPeriod(int ticks) throws IllegalArgumentException {
+    Clock.getInstance().changeTickPeriod(this, ticks);
+  }
+
   /**
    * Subscribes to the Clock instance.
    */
@@ -0,0 +1,25 @@
+package greenhouse.logic;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Thrown instead of waiting, when a command made on an event loop would have to wait for another
+ * thread. The command has changed nothing, and can be made again once the future completes.
+ */
+class CommandWouldBlockException extends RuntimeException {
+  private final CompletableFuture<?> whenReady;
+
+  CommandWouldBlockException(CompletableFuture<?> whenReady) {
+    super("The command would have to wait for another thread.");
+    this.whenReady = whenReady;
+  }
+
+  /**
+   * Returns the future completed when the command can be made again.
+   *
+   * @return the future
+   */
+  CompletableFuture<?> whenReady() {
+    return whenReady;
+  }
+}
@@ -0,0 +1,342 @@
+package greenhouse.logic;
+
+import java.lang.ref.Cleaner;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.SplittableRandom;
+import java.util.function.Consumer;
+import java.util.stream.IntStream;
+
+/**
+ * Holds the state of the air and soil of every greenhouse in pages of primitive arrays,
+ * and chooses the engine that moves them on every tick of the Clock.
+ * <p>
+ * With the default engine every {@link Air} and {@link Soil} subscribes to the Clock and steps
+ * its own slot. With the bulk engine only this store is subscribed, and steps every page in
+ * parallel, each with its own split of one {@link SplittableRandom}, before alerting the
+ * subscribers of the air and soil that have any. Both engines run the same model, found in
+ * {@link AirPage} and {@link SoilPage}.
+ * <p>
+ * The slots of air and soil that are detached, such as those of an evicted greenhouse, are
+ * given to the next air and soil created once the detached air and soil can no longer be
+ * reached, so the pages only grow with the greenhouses in memory.
+ * <p>
+ * There exists only one instance of the store.
+ */
+public final class EnvironmentStore {
+  private static EnvironmentStore store = null;
+  private static final Cleaner SLOT_CLEANER =
+          Cleaner.create(Thread.ofPlatform().name("greenhouse-slot-cleaner").daemon().factory());
+
+  private AirPage[] airPages = new AirPage[0];
+  private SoilPage[] soilPages = new SoilPage[0];
+  private int airCount = 0;
+  private int soilCount = 0;
+  private final Deque<Integer> freeAirSlots = new ArrayDeque<>();
+  private final Deque<Integer> freeSoilSlots = new ArrayDeque<>();
+  private boolean bulkEngine = false;
+  private SplittableRandom random = new SplittableRandom();
+  private final BulkEngine engine = new BulkEngine();
+
+  /**
+   * Creates the instance of the store.
+   */
+  private EnvironmentStore() {
+  }
+
+  /**
+   * Returns the instance of the store.
+   *
+   * @return the store instance
+   */
+  public static synchronized EnvironmentStore getInstance() {
+    if (store == null) {
+      store = new EnvironmentStore();
+    }
+    return store;
+  }
+
+  /**
+   * Reserves a slot for a new air.
+   *
+   * @return the slot of the air
+   */
+  synchronized int allocateAir() {
+    if (!freeAirSlots.isEmpty()) {
+      return freeAirSlots.pop();
+    }
+    int slot = airCount++;
+    if (slot / AirPage.SIZE == airPages.length) {
+      airPages = Arrays.copyOf(airPages, airPages.length + 1);
+      airPages[airPages.length - 1] = new AirPage();
+    }
+    return slot;
+  }
+
+  /**
+   * Reserves a slot for a new soil.
+   *
+   * @return the slot of the soil
+   */
+  synchronized int allocateSoil() {
+    if (!freeSoilSlots.isEmpty()) {
+      return freeSoilSlots.pop();
+    }
+    int slot = soilCount++;
+    if (slot / SoilPage.SIZE == soilPages.length) {
+      soilPages = Arrays.copyOf(soilPages, soilPages.length + 1);
+      soilPages[soilPages.length - 1] = new SoilPage();
+    }
+    return slot;
+  }
+
+  /**
+   * Returns the page holding the given air slot.
+   *
+   * @param slot the slot of the air
+   * @return the page of the slot
+   */
+  synchronized AirPage airPage(int slot) {
+    return airPages[slot / AirPage.SIZE];
+  }
+
+  /**
+   * Returns the page holding the given soil slot.
+   *
+   * @param slot the slot of the soil
+   * @return the page of the slot
+   */
+  synchronized SoilPage soilPage(int slot) {
+    return soilPages[slot / SoilPage.SIZE];
+  }
+
+  /**
+   * Attaches a fully created air to its slot, and subscribes it to the Clock
+   * unless the bulk engine steps it.
+   *
+   * @param air  the air
+   * @param slot the slot of the air
+   */
+  synchronized void attach(Air air, int slot) {
+    airPages[slot / AirPage.SIZE].views[slot % AirPage.SIZE] = air;
+    if (!bulkEngine) {
+      air.subscribe();
+    }
+  }
+
+  /**
+   * Attaches a fully created soil to its slot, and subscribes it to the Clock
+   * unless the bulk engine steps it.
+   *
+   * @param soil the soil
+   * @param slot the slot of the soil
+   */
+  synchronized void attach(Soil soil, int slot) {
+    soilPages[slot / SoilPage.SIZE].views[slot % SoilPage.SIZE] = soil;
+    if (!bulkEngine) {
+      soil.subscribe();
+    }
+  }
+
+  /**
+   * Stops an air from being moved on. Its slot is released for a new air once the air
+   * can no longer be reached.
+   *
+   * @param air  the air
+   * @param slot the slot of the air
+   */
+  synchronized void detach(Air air, int slot) {
+    Clock.getInstance().removeSubscriber(air);
+    airPages[slot / AirPage.SIZE].views[slot % AirPage.SIZE] = null;
+    SLOT_CLEANER.register(air, () -> releaseAir(slot));
+  }
+
+  /**
+   * Stops a soil from being moved on. Its slot is released for a new soil once the soil
+   * can no longer be reached.
+   *
+   * @param soil the soil
+   * @param slot the slot of the soil
+   */
+  synchronized void detach(Soil soil, int slot) {
+    Clock.getInstance().removeSubscriber(soil);
+    soilPages[slot / SoilPage.SIZE].views[slot % SoilPage.SIZE] = null;
+    SLOT_CLEANER.register(soil, () -> releaseSoil(slot));
+  }
+
+  /**
+   * Releases the slot of a detached air that can no longer be reached, for a new air.
+   */
+  private synchronized void releaseAir(int slot) {
+    airPages[slot / AirPage.SIZE].clear(slot % AirPage.SIZE);
+    freeAirSlots.push(slot);
+  }
+
+  /**
+   * Releases the slot of a detached soil that can no longer be reached, for a new soil.
+   */
+  private synchronized void releaseSoil(int slot) {
+    soilPages[slot / SoilPage.SIZE].clear(slot % SoilPage.SIZE);
+    freeSoilSlots.push(slot);
+  }
+
+  /**
+   * Returns the number of air slots in use.
+   *
+   * @return the number of air
+   */
+  public synchronized int getAirCount() {
+    return airCount - freeAirSlots.size();
+  }
+
+  /**
+   * Returns the number of soil slots in use.
+   *
+   * @return the number of soil
+   */
+  public synchronized int getSoilCount() {
+    return soilCount - freeSoilSlots.size();
+  }
+
+  /**
+   * Returns true if the bulk engine steps the air and soil.
+   *
+   * @return true if the bulk engine is in use, false if every air and soil steps itself
+   */
+  public synchronized boolean isBulkEngine() {
+    return bulkEngine;
+  }
+
+  /**
+   * Seeds the random numbers of the bulk engine, so that it steps the same greenhouses
+   * the same way on every run. The seeds of single air and soil are not used by the
+   * bulk engine, which draws from one split of this seed per page.
+   *
+   * @param seed the seed of the bulk engine
+   */
+  public synchronized void setSeed(long seed) {
+    random = new SplittableRandom(seed);
+  }
+
+  /**
+   * Switches between the bulk engine and letting every air and soil step itself.
+   * The air and soil that exist are moved over to the chosen engine.
+   *
+   * @param useBulkEngine true to use the bulk engine
+   */
+  public synchronized void setBulkEngine(boolean useBulkEngine) {
+    if (useBulkEngine == bulkEngine) {
+      return;
+    }
+    Clock clock = Clock.getInstance();
+    forEachView(view -> {
+      if (useBulkEngine) {
+        clock.removeSubscriber(view);
+      } else {
+        clock.subscribe(view);
+      }
+    });
+    if (useBulkEngine) {
+      clock.subscribe(engine);
+    } else {
+      clock.removeSubscriber(engine);
+    }
+    bulkEngine = useBulkEngine;
+  }
+
+  /**
+   * Runs the action for every air and soil attached to the store.
+   *
+   * @param action the action to run
+   */
+  private void forEachView(Consumer<ClockSubscriber> action) {
+    for (int slot = 0; slot < airCount; slot++) {
+      Air view = airPages[slot / AirPage.SIZE].views[slot % AirPage.SIZE];
+      if (view != null) {
+        action.accept(view);
+      }
+    }
+    for (int slot = 0; slot < soilCount; slot++) {
+      Soil view = soilPages[slot / SoilPage.SIZE].views[slot % SoilPage.SIZE];
+      if (view != null) {
+        action.accept(view);
+      }
+    }
+  }
+
+  /**
+   * Steps every page of air and soil in parallel, then alerts their subscribers.
+   */
+  private void stepAll() {
+    AirPage[] air;
+    SoilPage[] soil;
+    int airSlots;
+    int soilSlots;
+    SplittableRandom[] randoms;
+    synchronized (this) {
+      air = airPages;
+      soil = soilPages;
+      airSlots = airCount;
+      soilSlots = soilCount;
+      randoms = new SplittableRandom[air.length + soil.length];
+      for (int i = 0; i < randoms.length; i++) {
+        randoms[i] = random.split();
+      }
+    }
+    IntStream.range(0, randoms.length).parallel().forEach(i -> {
+      if (i < air.length) {
+        AirPage page = air[i];
+        int used = Math.min(AirPage.SIZE, airSlots - i * AirPage.SIZE);
+        page.step(0, used, randoms[i]);
+        alert(page.views, used);
+      } else {
+        int p = i - air.length;
+        SoilPage page = soil[p];
+        int used = Math.min(SoilPage.SIZE, soilSlots - p * SoilPage.SIZE);
+        page.step(0, used, randoms[i]);
+        alert(page.views, used);
+      }
+    });
+  }
+
+  /**
+   * Alerts the subscribers of the air in the first slots of a page. Slots whose air
+   * is still being created have no view yet, and are skipped.
+   *
+   * @param views the views of a page
+   * @param used  the number of slots in use in the page
+   */
+  private static void alert(Air[] views, int used) {
+    for (int slot = 0; slot < used; slot++) {
+      if (views[slot] != null) {
+        views[slot].update();
+      }
+    }
+  }
+
+  /**
+   * Alerts the subscribers of the soil in the first slots of a page. Slots whose soil
+   * is still being created have no view yet, and are skipped.
+   *
+   * @param views the views of a page
+   * @param used  the number of slots in use in the page
+   */
+  private static void alert(Soil[] views, int used) {
+    for (int slot = 0; slot < used; slot++) {
+      if (views[slot] != null) {
+        views[slot].update();
+      }
+    }
+  }
+
+  /**
+   * The single clock subscriber of the bulk engine.
+   */
+  private final class BulkEngine extends ClockSubscriber {
+    @Override
+    void tick() {
+      stepAll();
+    }
+  }
+}
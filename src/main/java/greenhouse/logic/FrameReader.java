@@ -0,0 +1,85 @@
+package greenhouse.logic;
+
+import greenhouse.util.BinaryProtocol;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Reader for a client using the binary protocol.
+ * <p>
+ * Reads the frames sent by the client and turns each back into the line the text protocol
+ * would have sent, so the menus can read them the same way for both protocols.
+ */
+class FrameReader extends Reader {
+  private final DataInputStream in;
+  private String line = "";
+  private int position = 0;
+
+  /**
+   * Creates a reader of the frames on the given stream.
+   *
+   * @param in the stream to read the frames from
+   */
+  FrameReader(InputStream in) {
+    this.in = new DataInputStream(in);
+  }
+
+  @Override
+  public int read(char[] chars, int offset, int length) throws IOException {
+    if (length == 0) {
+      return 0;
+    }
+    if (position == line.length() && !readLine()) {
+      return -1;
+    }
+    int count = Math.min(length, line.length() - position);
+    line.getChars(position, position + count, chars, offset);
+    position += count;
+    return count;
+  }
+
+  /**
+   * Reads the next frame as a line.
+   *
+   * @return false if the client closed the connection
+   */
+  private boolean readLine() throws IOException {
+    BinaryProtocol.Frame frame = BinaryProtocol.readFrame(in);
+    if (frame == null) {
+      return false;
+    }
+    line = toLine(frame) + "\n";
+    position = 0;
+    return true;
+  }
+
+  /**
+   * Turns a frame from a client into the line the text protocol would have sent.
+   *
+   * @param frame the frame sent by the client
+   * @return the line, without its line separator
+   * @throws IOException if clients may not send frames of its type
+   */
+  static String toLine(BinaryProtocol.Frame frame) throws IOException {
+    return switch (frame.type()) {
+      case BinaryProtocol.TEXT -> Base64.getEncoder().encodeToString(frame.payload());
+      case BinaryProtocol.PLAIN_TEXT -> new String(frame.payload(), StandardCharsets.UTF_8);
+      default -> throw new IOException("Unexpected frame type from client: " + frame.type());
+    };
+  }
+
+  @Override
+  public boolean ready() throws IOException {
+    return position < line.length() || in.available() > 0;
+  }
+
+  @Override
+  public void close() throws IOException {
+    in.close();
+  }
+}
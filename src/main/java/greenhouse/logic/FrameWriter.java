@@ -0,0 +1,116 @@
+package greenhouse.logic;
+
+import greenhouse.util.BinaryProtocol;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Writer for a client using the binary protocol.
+ * <p>
+ * The menus write every message as a line of Base64 encoded ciphertext, as in the text protocol.
+ * This writer sends each such line as a {@link BinaryProtocol#TEXT} frame holding the ciphertext
+ * itself, so the menus work the same for both protocols. Frames that have no text form, such as
+ * monitor updates, are written with {@link #writeFrame(byte, byte[])}.
+ */
+class FrameWriter extends BufferedWriter {
+  private final LineFrameWriter frames;
+
+  /**
+   * Creates a writer sending frames to the given stream.
+   *
+   * @param out the stream to write the frames to
+   */
+  FrameWriter(OutputStream out) {
+    this(new LineFrameWriter(out), 8192);
+  }
+
+  /**
+   * Creates a writer sending frames to the given stream, buffering up to the given number of characters.
+   *
+   * @param out        the stream to write the frames to
+   * @param bufferSize the number of characters buffered before they are written as frames
+   */
+  FrameWriter(OutputStream out, int bufferSize) {
+    this(new LineFrameWriter(out), bufferSize);
+  }
+
+  private FrameWriter(LineFrameWriter frames, int bufferSize) {
+    super(frames, bufferSize);
+    this.frames = frames;
+  }
+
+  /**
+   * Writes a frame and flushes it, after any text written before it.
+   *
+   * @param type    the type of the frame
+   * @param payload the payload of the frame
+   * @throws IOException if the frame could not be written
+   */
+  void writeFrame(byte type, byte[] payload) throws IOException {
+    synchronized (lock) {
+      flush();
+      frames.writeFrame(type, payload);
+      frames.flush();
+    }
+  }
+
+  /**
+   * Cuts the text written to it into lines, and writes each line as a frame.
+   */
+  private static final class LineFrameWriter extends Writer {
+    private final OutputStream out;
+    private final StringBuilder line = new StringBuilder();
+
+    LineFrameWriter(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public void write(char[] chars, int offset, int length) throws IOException {
+      for (int i = offset; i < offset + length; i++) {
+        if (chars[i] == '\n') {
+          writeLine();
+        } else if (chars[i] != '\r') {
+          line.append(chars[i]);
+        }
+      }
+    }
+
+    /**
+     * Writes the completed line as a frame. A line which is not Base64 is a message the server
+     * could not encrypt, and is sent as plain text, like it would be in the text protocol.
+     */
+    private void writeLine() throws IOException {
+      byte[] payload;
+      byte type;
+      try {
+        payload = Base64.getDecoder().decode(line.toString());
+        type = BinaryProtocol.TEXT;
+      } catch (IllegalArgumentException e) {
+        payload = line.toString().getBytes(StandardCharsets.UTF_8);
+        type = BinaryProtocol.PLAIN_TEXT;
+      }
+      line.setLength(0);
+      writeFrame(type, payload);
+    }
+
+    void writeFrame(byte type, byte[] payload) throws IOException {
+      BinaryProtocol.writeFrame(out, type, payload);
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+}
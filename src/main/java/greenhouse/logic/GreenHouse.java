@@ -9,7 +9,9 @@ import greenhouse.entities.sensors.*;
 
 import java.util.List;
 import java.util.Map;
+import java.util.SplittableRandom;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a greenhouse with soil and air.
@@ -24,6 +26,8 @@ public class GreenHouse {
   private Air air;
   private int nextSensorId = 0;
   private int nextApplianceId = 0;
+  private volatile ReadingListener readingListener = null;
+  private final AtomicLong version = new AtomicLong();
 
   /**
    * Creates an instance of the GreenHouse.
@@ -35,6 +39,7 @@ public class GreenHouse {
     this.appliances = new ConcurrentHashMap<>();
     this.greenHouseID = greenHouseID;
     initiateAirAndSoil();
+    tickWithGreenHouse();
   }
 
   public GreenHouse(int greenHouseID, Soil soil, Air air, int nextSensorId, int nextApplianceId,
@@ -46,6 +51,7 @@ public class GreenHouse {
     this.air = air;
     this.nextSensorId = nextSensorId;
     this.nextApplianceId = nextApplianceId;
+    tickWithGreenHouse();
 
     // Add pre-created sensors with their original IDs
     for (Sensor<?> sensor : sensors) {
@@ -63,7 +69,9 @@ public class GreenHouse {
    * @param sensor The sensor being added to the green house.
    */
   public void addSensor(Sensor<?> sensor) {
+    sensor.setReadingListener(this.readingListener);
     this.sensors.put(sensor.getId(), sensor);
+    version.incrementAndGet();
 
     if (sensor instanceof AirSubscriber airSubscriber) {
       airSubscriber.subscribe(this.air);
@@ -125,6 +133,30 @@ public class GreenHouse {
       ((SoilAppliance) appliance).addSoil(this.soil);
     }
     this.appliances.put(appliance.getId(), appliance);
+    version.incrementAndGet();
+  }
+
+  /**
+   * Seeds the random changes of the air and soil of the green house, so that
+   * it behaves the same way on every run with the same seed.
+   *
+   * @param seed The seed of the green house.
+   */
+  public void setSeed(long seed) {
+    SplittableRandom seeds = new SplittableRandom(seed);
+    this.air.setRandomSource(RandomSource.seeded(seeds.nextLong()));
+    this.soil.setRandomSource(RandomSource.seeded(seeds.nextLong()));
+  }
+
+  /**
+   * Sets the listener told about every reading of every sensor in the green house,
+   * including the sensors added later.
+   *
+   * @param listener The listener, or null to stop telling anyone.
+   */
+  public void setReadingListener(ReadingListener listener) {
+    this.readingListener = listener;
+    this.sensors.values().forEach(sensor -> sensor.setReadingListener(listener));
   }
 
   /**
@@ -153,6 +185,16 @@ public class GreenHouse {
     this.soil = new Soil(50, 7, 20);
     this.air = new Air(20, 0.6f, 10000);
   }
+
+  /**
+   * Puts the Air and Soil of this green house in the same shard of the Clock,
+   * so a green house is always ticked by a single thread.
+   */
+  private void tickWithGreenHouse() {
+    this.soil.setShardKey(greenHouseID);
+    this.air.setShardKey(greenHouseID);
+  }
+
   /**
    * Due to zero-based indexing, the next available id is at the last id + 1.
    * Since sensors. Size doesn't care about zero based indexing, the next available id is just
@@ -209,7 +251,11 @@ public class GreenHouse {
    * @param sensorId The id of the sensor being removed.
    */
   public void removeSensor(int sensorId) {
-    sensors.remove(sensorId);
+    Sensor<?> removed = sensors.remove(sensorId);
+    if (removed != null) {
+      removed.setReadingListener(null);
+      version.incrementAndGet();
+    }
   }
 
   /**
@@ -217,7 +263,9 @@ public class GreenHouse {
    * @param applianceId The id of the appliance being removed.
    */
   public void removeAppliance(int applianceId) {
-    appliances.remove(applianceId);
+    if (appliances.remove(applianceId) != null) {
+      version.incrementAndGet();
+    }
   }
 
   /**
@@ -227,6 +275,42 @@ public class GreenHouse {
    */
   public void actuateAppliance(int id) {
     this.appliances.get(id).actuate();
+    version.incrementAndGet();
+  }
+
+  /**
+   * Moves the air and soil of the greenhouse the given number of hours on at once, to where
+   * they are expected to be had the clock ticked them every hour. Used when a greenhouse comes
+   * back into memory after being evicted.
+   *
+   * @param hours the number of hours the greenhouse was not ticked
+   */
+  public void catchUp(long hours) {
+    air.catchUp(hours);
+    soil.catchUp(hours);
+  }
+
+  /**
+   * Stops the clock from moving the air and soil of the greenhouse on, once the greenhouse is
+   * evicted from memory. The sensors stop reporting readings. The slots of the air and soil are
+   * freed once nothing can reach them, so a thread that still holds the greenhouse, such as a
+   * save copying it, reads it as it was evicted.
+   */
+  void detach() {
+    setReadingListener(null);
+    air.detach();
+    soil.detach();
+  }
+
+  /**
+   * Returns a number that grows every time the greenhouse is changed in a way that is saved:
+   * its sensors or appliances, the targets of its air, or its soil by an appliance. A save can
+   * compare it with the version it last wrote to tell if the greenhouse needs writing again.
+   *
+   * @return the version of the greenhouse
+   */
+  public long getVersion() {
+    return version.get() + air.getVersion() + soil.getVersion();
   }
 
   /**
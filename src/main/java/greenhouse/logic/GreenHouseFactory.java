@@ -0,0 +1,86 @@
+package greenhouse.logic;
+
+import greenhouse.entities.appliances.AirAppliance;
+import greenhouse.entities.appliances.Aircondition;
+import greenhouse.entities.appliances.Appliance;
+import greenhouse.entities.appliances.Fertilizer;
+import greenhouse.entities.appliances.Humidifier;
+import greenhouse.entities.appliances.Lamp;
+import greenhouse.entities.appliances.Limer;
+import greenhouse.entities.appliances.Sprinkler;
+import greenhouse.entities.sensors.HumiditySensor;
+import greenhouse.entities.sensors.LightSensor;
+import greenhouse.entities.sensors.MoistureSensor;
+import greenhouse.entities.sensors.NitrogenSensor;
+import greenhouse.entities.sensors.PHSensor;
+import greenhouse.entities.sensors.Sensor;
+import greenhouse.entities.sensors.TemperatureSensor;
+
+/**
+ * Creates the sensors and appliances of a saved greenhouse from their type and id, whichever
+ * format the greenhouse was saved in.
+ */
+public final class GreenHouseFactory {
+
+  private GreenHouseFactory() {
+  }
+
+  /**
+   * Creates a sensor of a saved greenhouse.
+   *
+   * @param type the type of the sensor in any case, e.g. "TemperatureSensor" or "temperature"
+   * @param id   the id of the sensor
+   * @param air  the air of the greenhouse
+   * @param soil the soil of the greenhouse
+   * @return the sensor, or null if the type is unknown
+   */
+  public static Sensor<?> createSensor(String type, int id, Air air, Soil soil) {
+    return switch (type.toLowerCase()) {
+      case "humidity", "humiditysensor" -> new HumiditySensor<>(id, air);
+      case "light", "lightsensor" -> new LightSensor<>(id, air);
+      case "ph", "phsensor" -> new PHSensor<>(id, soil);
+      case "temperature", "temperaturesensor" -> new TemperatureSensor<>(id, air);
+      case "moisture", "moisturesensor" -> new MoistureSensor<>(id, soil);
+      case "nitrogen", "nitrogensensor" -> new NitrogenSensor<>(id, soil);
+      default -> null;
+    };
+  }
+
+  /**
+   * Creates an appliance of a saved greenhouse. Appliances working on the soil are given the
+   * soil, and appliances that can be switched are switched on if they were on when saved.
+   *
+   * @param type the type of the appliance in any case, e.g. "Sprinkler"
+   * @param id   the id of the appliance
+   * @param on   true if the appliance was on
+   * @param soil the soil of the greenhouse
+   * @return the appliance, or null if the type is unknown
+   */
+  public static Appliance createAppliance(String type, int id, boolean on, Soil soil) {
+    Appliance appliance = switch (type.toLowerCase()) {
+      case "aircondition" -> new Aircondition(id);
+      case "lamp" -> new Lamp(id);
+      case "humidifier" -> new Humidifier(id);
+      case "sprinkler" -> {
+        Sprinkler sprinkler = new Sprinkler(id);
+        sprinkler.addSoil(soil);
+        yield sprinkler;
+      }
+      case "fertilizer" -> {
+        Fertilizer fertilizer = new Fertilizer(id);
+        fertilizer.addSoil(soil);
+        yield fertilizer;
+      }
+      case "limer" -> {
+        Limer limer = new Limer(id);
+        limer.addSoil(soil);
+        yield limer;
+      }
+      default -> null;
+    };
+    if (on && appliance instanceof AirAppliance airAppliance) {
+      airAppliance.togglePower();
+    }
+    return appliance;
+  }
+}
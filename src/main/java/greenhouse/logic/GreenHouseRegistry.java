@@ -0,0 +1,498 @@
+package greenhouse.logic;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The greenhouses of the server, indexed by their id.
+ * <p>
+ * Finding a greenhouse takes the same time however many greenhouses there are, and new
+ * greenhouses get their ids from an atomic counter, so clients creating greenhouses at the
+ * same time never get the same id. Ids of removed or skipped greenhouses are never reused.
+ * <p>
+ * With a {@link Storage}, the registry only keeps some of the greenhouses in memory. The others
+ * are stored, and the registry only holds their id and the hour they were stored at. A stored
+ * greenhouse is loaded the first time it is looked up, and moved on by the hours it spent
+ * stored. When more greenhouses are in memory than allowed, the ones looked up least recently
+ * are stored and dropped from memory by {@link #evictColdGreenHouses()}, which runs on the
+ * evictor given to the registry whenever a greenhouse created or loaded takes it over the limit.
+ * Threads that must never wait for a file, such as the event loops, have stored greenhouses
+ * loaded on the evictor instead, see {@link #deferLoads()}.
+ * <p>
+ * A command changing a greenhouse {@link #pin(int) pins} it for as long as it runs, and a pinned
+ * greenhouse is never evicted, so no change is made to a greenhouse after it was stored. A thread
+ * that only reads a greenhouse may still hold it after it was evicted, and reads it as it was.
+ */
+public class GreenHouseRegistry {
+  private final Map<Integer, GreenHouse> greenHouses = new ConcurrentHashMap<>();
+  private final AtomicInteger nextId = new AtomicInteger(0);
+  private final Map<Integer, Long> stored = new ConcurrentHashMap<>(); // The hour each was stored at
+  private final Map<Integer, Long> lastUsed = new ConcurrentHashMap<>();
+  private final Map<Integer, Integer> pins = new ConcurrentHashMap<>(); // Changed with the greenhouse locked
+  private final Map<Integer, CompletableFuture<GreenHouse>> loading = new ConcurrentHashMap<>();
+  private final ThreadLocal<Boolean> deferringLoads = new ThreadLocal<>();
+  private final AtomicLong uses = new AtomicLong();
+  private volatile Storage storage = null;
+  private volatile int maxLoaded = Integer.MAX_VALUE;
+  private volatile Executor evictor = null;
+  private final AtomicBoolean evicting = new AtomicBoolean(false);
+
+  /**
+   * Where greenhouses that are not in memory are kept.
+   */
+  public interface Storage {
+
+    /**
+     * Loads a stored greenhouse as it was stored.
+     *
+     * @param id the id of the greenhouse
+     * @return the greenhouse
+     * @throws IOException if the greenhouse could not be loaded
+     */
+    GreenHouse load(int id) throws IOException;
+
+    /**
+     * Stores a greenhouse that is about to be dropped from memory, if it can be stored now.
+     *
+     * @param greenHouse the greenhouse
+     * @return true if the greenhouse was stored, false if it has to stay in memory for now
+     * @throws IOException if the greenhouse could not be stored
+     */
+    boolean store(GreenHouse greenHouse) throws IOException;
+  }
+
+  /**
+   * Keeps at most the given number of greenhouses in memory after an eviction, and the others
+   * in the storage. Greenhouses are only evicted when {@link #evictColdGreenHouses()} is called.
+   *
+   * @param storage   where the greenhouses not in memory are kept
+   * @param maxLoaded the greatest number of greenhouses kept in memory after an eviction
+   * @throws IllegalArgumentException if the number of greenhouses is less than 1
+   */
+  public void useStorage(Storage storage, int maxLoaded) throws IllegalArgumentException {
+    useStorage(storage, maxLoaded, null);
+  }
+
+  /**
+   * Keeps at most the given number of greenhouses in memory, and the others in the storage.
+   * Whenever a greenhouse created or loaded takes the number in memory over the limit, the
+   * coldest greenhouses are evicted on the given evictor, so the thread creating or loading
+   * the greenhouse never waits for them to be stored.
+   *
+   * @param storage   where the greenhouses not in memory are kept
+   * @param maxLoaded the greatest number of greenhouses kept in memory after an eviction
+   * @param evictor   runs the evictions, or null to only evict when asked to
+   * @throws IllegalArgumentException if the number of greenhouses is less than 1
+   */
+  public void useStorage(Storage storage, int maxLoaded, Executor evictor) throws IllegalArgumentException {
+    if (maxLoaded < 1) {
+      throw new IllegalArgumentException("At least one greenhouse must fit in memory.");
+    }
+    this.maxLoaded = maxLoaded;
+    this.storage = storage;
+    this.evictor = evictor;
+    greenHouses.keySet().forEach(this::markUsed);
+    scheduleEviction();
+  }
+
+  /**
+   * Has the calling thread never wait for a stored greenhouse to be loaded. Looking one up on
+   * the thread starts loading it on the evictor and throws a {@link CommandWouldBlockException},
+   * completed when the greenhouse is loaded, so the command can be made again. Without an evictor,
+   * the greenhouse is loaded by the calling thread as usual.
+   */
+  void deferLoads() {
+    deferringLoads.set(true);
+  }
+
+  /**
+   * Creates a new greenhouse with the next free id, and adds it to the registry.
+   *
+   * @return the new greenhouse
+   */
+  public GreenHouse create() {
+    GreenHouse greenHouse = new GreenHouse(nextId.getAndIncrement());
+    greenHouses.put(greenHouse.getID(), greenHouse);
+    markUsed(greenHouse.getID());
+    scheduleEviction();
+    return greenHouse;
+  }
+
+  /**
+   * Creates a new greenhouse with the next free id, and adds it to the registry pinned, so it
+   * is not evicted before the command creating it is done with it.
+   *
+   * @return the new greenhouse, to be unpinned with {@link #unpin(int)}
+   */
+  public GreenHouse createPinned() {
+    GreenHouse greenHouse = new GreenHouse(nextId.getAndIncrement());
+    greenHouses.compute(greenHouse.getID(), (key, current) -> {
+      pins.merge(key, 1, Integer::sum);
+      return greenHouse;
+    });
+    markUsed(greenHouse.getID());
+    scheduleEviction();
+    return greenHouse;
+  }
+
+  /**
+   * Adds an existing greenhouse, such as one loaded from a file, to the registry.
+   * Greenhouses created afterwards get ids higher than the id of this greenhouse.
+   *
+   * @param greenHouse the greenhouse to add
+   * @throws IllegalArgumentException if a greenhouse with the same id is already registered
+   */
+  public void register(GreenHouse greenHouse) throws IllegalArgumentException {
+    int id = greenHouse.getID();
+    if (stored.containsKey(id) || greenHouses.putIfAbsent(id, greenHouse) != null) {
+      throw new IllegalArgumentException("A greenhouse with ID " + id + " already exists.");
+    }
+    nextId.accumulateAndGet(id + 1, Math::max);
+    markUsed(id);
+    scheduleEviction();
+  }
+
+  /**
+   * Adds a greenhouse that is in the storage without loading it. It is loaded the first time
+   * it is looked up, and moved on by the hours from now until then.
+   *
+   * @param id the id of the greenhouse
+   * @throws IllegalArgumentException if a greenhouse with the same id is already registered
+   * @throws IllegalStateException    if the registry has no storage
+   */
+  public void registerStored(int id) throws IllegalArgumentException, IllegalStateException {
+    if (storage == null) {
+      throw new IllegalStateException("The registry has no storage to load the greenhouse from.");
+    }
+    if (greenHouses.containsKey(id) || stored.putIfAbsent(id, Clock.getInstance().getSimulatedHours()) != null) {
+      throw new IllegalArgumentException("A greenhouse with ID " + id + " already exists.");
+    }
+    nextId.accumulateAndGet(id + 1, Math::max);
+  }
+
+  /**
+   * Returns the greenhouse with the given id, loading it from the storage if it is stored.
+   *
+   * @param id the id of the greenhouse
+   * @return the greenhouse, or null if no greenhouse has the given id or it could not be loaded
+   * @throws CommandWouldBlockException if the greenhouse is stored and the thread defers loads
+   */
+  public GreenHouse get(int id) {
+    GreenHouse greenHouse = greenHouses.get(id);
+    if (greenHouse == null && stored.containsKey(id)) {
+      greenHouse = load(id);
+    }
+    if (greenHouse != null && storage != null) {
+      markUsed(id);
+    }
+    return greenHouse;
+  }
+
+  /**
+   * Returns the greenhouse with the given id, loading it from the storage if it is stored.
+   *
+   * @param id the id of the greenhouse
+   * @return the greenhouse
+   * @throws NoExistingGreenHouseException if no greenhouse has the given id
+   * @throws CommandWouldBlockException    if the greenhouse is stored and the thread defers loads
+   */
+  public GreenHouse require(int id) throws NoExistingGreenHouseException {
+    GreenHouse greenHouse = get(id);
+    if (greenHouse == null) {
+      throw new NoExistingGreenHouseException("Greenhouse not found with ID: " + id);
+    }
+    return greenHouse;
+  }
+
+  /**
+   * Returns the greenhouse with the given id, loading it from the storage if it is stored, and
+   * keeps it in memory until it is unpinned as often as it was pinned. Used by commands changing
+   * the greenhouse, whose changes would be lost if it was stored while they ran.
+   *
+   * @param id the id of the greenhouse
+   * @return the greenhouse, to be unpinned with {@link #unpin(int)}
+   * @throws NoExistingGreenHouseException if no greenhouse has the given id
+   * @throws CommandWouldBlockException    if the greenhouse is stored and the thread defers loads
+   */
+  public GreenHouse pin(int id) throws NoExistingGreenHouseException {
+    while (true) {
+      GreenHouse greenHouse = greenHouses.computeIfPresent(id, (key, current) -> {
+        pins.merge(key, 1, Integer::sum);
+        return current;
+      });
+      if (greenHouse != null) {
+        markUsed(id);
+        scheduleEviction();
+        return greenHouse;
+      }
+      // Load it, then pin it, unless it was evicted again in between
+      if (!stored.containsKey(id) || load(id) == null) {
+        throw new NoExistingGreenHouseException("Greenhouse not found with ID: " + id);
+      }
+    }
+  }
+
+  /**
+   * Lets a pinned greenhouse be evicted again, once it is unpinned as often as it was pinned.
+   *
+   * @param id the id of the greenhouse
+   */
+  public void unpin(int id) {
+    pins.computeIfPresent(id, (key, count) -> count == 1 ? null : count - 1);
+  }
+
+  /**
+   * Returns true if there are no greenhouses.
+   *
+   * @return true if there are no greenhouses, false otherwise
+   */
+  public boolean isEmpty() {
+    return greenHouses.isEmpty() && stored.isEmpty();
+  }
+
+  /**
+   * Returns the number of greenhouses, in memory or stored.
+   *
+   * @return the number of greenhouses
+   */
+  public int size() {
+    return greenHouses.size() + stored.size();
+  }
+
+  /**
+   * Returns the number of greenhouses in memory.
+   *
+   * @return the number of greenhouses in memory
+   */
+  public int loadedSize() {
+    return greenHouses.size();
+  }
+
+  /**
+   * Returns true if the greenhouse with the given id is in memory, without loading it.
+   *
+   * @param id the id of the greenhouse
+   * @return true if the greenhouse is in memory, false if it is stored or does not exist
+   */
+  public boolean isLoaded(int id) {
+    return greenHouses.containsKey(id);
+  }
+
+  /**
+   * Returns the greenhouses in memory, in no particular order. Stored greenhouses are not
+   * loaded, as they are already kept in the storage.
+   *
+   * @return a live view of the greenhouses in memory
+   */
+  public Collection<GreenHouse> values() {
+    return greenHouses.values();
+  }
+
+  /**
+   * Returns the greenhouses in memory ordered by their id.
+   *
+   * @return a copy of the greenhouses in memory, ordered by id
+   */
+  public List<GreenHouse> sortedById() {
+    List<GreenHouse> sorted = new ArrayList<>(greenHouses.values());
+    sorted.sort(Comparator.comparingInt(GreenHouse::getID));
+    return sorted;
+  }
+
+  /**
+   * Returns the ids of every greenhouse, in memory or stored, for showing them to a client
+   * without loading them.
+   *
+   * @return the ids in order
+   */
+  public List<Integer> ids() {
+    TreeSet<Integer> ids = new TreeSet<>(greenHouses.keySet());
+    ids.addAll(stored.keySet());
+    return new ArrayList<>(ids);
+  }
+
+  /**
+   * Stores the greenhouses looked up least recently and drops them from memory, until no more
+   * greenhouses are in memory than allowed. A greenhouse the storage cannot take now, or that is
+   * pinned, looked up or changed while it is stored, stays in memory. A greenhouse dropped from
+   * memory is detached, so the clock no longer moves it on.
+   *
+   * @return the number of greenhouses dropped from memory
+   */
+  public int evictColdGreenHouses() {
+    Storage storage = this.storage;
+    int excess = greenHouses.size() - maxLoaded;
+    if (storage == null || excess <= 0) {
+      return 0;
+    }
+    List<Map.Entry<Integer, Long>> coldestFirst = new ArrayList<>(lastUsed.entrySet());
+    coldestFirst.sort(Map.Entry.comparingByValue());
+
+    int evicted = 0;
+    for (Map.Entry<Integer, Long> entry : coldestFirst) {
+      if (evicted == excess) {
+        break;
+      }
+      int id = entry.getKey();
+      GreenHouse greenHouse = greenHouses.get(id);
+      if (greenHouse == null || pins.containsKey(id)) {
+        continue;
+      }
+      long version = greenHouse.getVersion();
+      try {
+        if (!storage.store(greenHouse)) {
+          continue;
+        }
+      } catch (IOException e) {
+        System.err.println("Could not store greenhouse " + id + ": " + e.getMessage());
+        continue;
+      }
+      boolean[] dropped = {false};
+      greenHouses.computeIfPresent(id, (key, current) -> {
+        if (current != greenHouse || pins.containsKey(key) || current.getVersion() != version
+                || !entry.getValue().equals(lastUsed.get(key))) {
+          return current; // Used while it was being stored, so it stays
+        }
+        stored.put(key, Clock.getInstance().getSimulatedHours());
+        lastUsed.remove(key);
+        dropped[0] = true;
+        return null;
+      });
+      if (!dropped[0]) {
+        continue;
+      }
+      greenHouse.detach();
+      evicted++;
+    }
+    return evicted;
+  }
+
+  /**
+   * Evicts the greenhouses used least recently on the evictor, when more greenhouses are in
+   * memory than allowed and no eviction is running. An eviction that dropped greenhouses is
+   * followed by another if the registry is still over the limit, for the greenhouses created
+   * or loaded while it ran.
+   */
+  private void scheduleEviction() {
+    Executor evictor = this.evictor;
+    if (evictor == null || greenHouses.size() <= maxLoaded || !evicting.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      evictor.execute(() -> {
+        int evicted = 0;
+        try {
+          evicted = evictColdGreenHouses();
+        } finally {
+          evicting.set(false);
+        }
+        if (evicted > 0) {
+          scheduleEviction();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      evicting.set(false);
+    }
+  }
+
+  /**
+   * Loads a stored greenhouse and moves it on by the hours it spent stored. Threads looking up
+   * the same greenhouse at once wait for one load. A thread that defers loads has the greenhouse
+   * loaded on the evictor instead of waiting for it.
+   *
+   * @return the greenhouse, or null if it could not be loaded
+   * @throws CommandWouldBlockException if the thread defers loads and the greenhouse is not loaded yet
+   */
+  private GreenHouse load(int id) {
+    Executor evictor = this.evictor;
+    if (deferringLoads.get() == null || evictor == null) {
+      return startLoad(id, Runnable::run).join();
+    }
+    CompletableFuture<GreenHouse> load = startLoad(id, evictor);
+    if (!load.isDone()) {
+      throw new CommandWouldBlockException(load);
+    }
+    return load.join();
+  }
+
+  /**
+   * Starts loading a stored greenhouse on the given executor, unless it is being loaded already.
+   * The file is read outside the map of the greenhouses, so looking up and evicting other
+   * greenhouses goes on meanwhile, and the greenhouse is only added to the map once it is loaded.
+   *
+   * @return the load, completed with the greenhouse, or with null if it could not be loaded
+   */
+  private CompletableFuture<GreenHouse> startLoad(int id, Executor executor) {
+    CompletableFuture<GreenHouse> load = new CompletableFuture<>();
+    CompletableFuture<GreenHouse> running = loading.putIfAbsent(id, load);
+    if (running != null) {
+      return running;
+    }
+    Runnable task = () -> {
+      GreenHouse greenHouse = null;
+      try {
+        greenHouse = loadStored(id);
+      } finally {
+        loading.remove(id, load);
+        load.complete(greenHouse);
+      }
+    };
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      task.run(); // The evictor is shut down with the server
+    }
+    return load;
+  }
+
+  /**
+   * Loads a stored greenhouse and adds it to the registry, unless it is in memory already.
+   *
+   * @return the greenhouse, or null if it is neither in memory nor stored, or could not be loaded
+   */
+  private GreenHouse loadStored(int id) {
+    GreenHouse current = greenHouses.get(id);
+    Long storedAt = stored.get(id);
+    if (current != null || storedAt == null) {
+      return current;
+    }
+    GreenHouse greenHouse;
+    try {
+      greenHouse = storage.load(id);
+    } catch (IOException e) {
+      System.err.println("Could not load greenhouse " + id + ": " + e.getMessage());
+      return null;
+    }
+    greenHouse.catchUp(Clock.getInstance().getSimulatedHours() - storedAt);
+    current = greenHouses.putIfAbsent(id, greenHouse);
+    if (current != null) {
+      greenHouse.detach();
+      return current;
+    }
+    stored.remove(id);
+    scheduleEviction();
+    return greenHouse;
+  }
+
+  /**
+   * Records that a greenhouse was just used, when greenhouses are evicted by how recently
+   * they were used.
+   */
+  private void markUsed(int id) {
+    if (storage != null) {
+      lastUsed.put(id, uses.incrementAndGet());
+    }
+  }
+}
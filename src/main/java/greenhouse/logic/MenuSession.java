@@ -0,0 +1,57 @@
+package greenhouse.logic;
+
+/**
+ * Holds the menu position of a client whose input is handed to the MenuSystem one line at a time,
+ * instead of being read by the blocking menu loops.
+ */
+public class MenuSession {
+
+  /**
+   * The menus a client can be in.
+   */
+  public enum Level {
+    START,
+    GREENHOUSES,
+    GREENHOUSE_DETAILS,
+    MONITORING
+  }
+
+  private Level level = Level.START;
+  private GreenHouse greenHouse;
+
+  /**
+   * Returns the menu the client is currently in.
+   *
+   * @return the current menu level
+   */
+  public Level getLevel() {
+    return level;
+  }
+
+  /**
+   * Moves the client to another menu.
+   *
+   * @param level the new menu level
+   */
+  public void setLevel(Level level) {
+    this.level = level;
+  }
+
+  /**
+   * Returns the greenhouse whose details menu the client has opened.
+   *
+   * @return the selected greenhouse, or null if none has been selected
+   */
+  public GreenHouse getGreenHouse() {
+    return greenHouse;
+  }
+
+  /**
+   * Sets the greenhouse whose details menu the client has opened.
+   *
+   * @param greenHouse the selected greenhouse
+   */
+  public void setGreenHouse(GreenHouse greenHouse) {
+    this.greenHouse = greenHouse;
+  }
+}
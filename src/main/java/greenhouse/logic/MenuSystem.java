@@ -7,7 +7,6 @@ import greenhouse.entities.sensors.SensorNotAddedToGreenHouseException;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
-import java.util.List;
 
 /**
  * Manages the menu system for the greenhouse TCP server.
@@ -15,16 +14,16 @@ import java.util.List;
  * start menu, greenhouse listing, and greenhouse details.
  */
 public class MenuSystem {
-  private final List<GreenHouse> greenHouses;
+  private final GreenHouseRegistry greenHouses;
   private final TCPServer server;
 
   /**
    * Creates a new MenuSystem instance.
    *
-   * @param greenHouses the list of greenhouses to manage
+   * @param greenHouses the registry of greenhouses to manage
    * @param server      the TCP server instance
    */
-  public MenuSystem(List<GreenHouse> greenHouses, TCPServer server) {
+  public MenuSystem(GreenHouseRegistry greenHouses, TCPServer server) {
     this.greenHouses = greenHouses;
     this.server = server;
   }
@@ -67,13 +66,7 @@ public class MenuSystem {
     boolean hasShownMenu = false;
     while (server.isOn()) {
       if (!hasShownMenu) {
-        writer.write(server.encryptMessage("\nGreenhouses:"));
-        writer.newLine();
-        writer.write(server.encryptMessage("Available greenhouses:\n" + getGreenhouseList()));
-        writer.newLine();
-        writer.write(server.encryptMessage("type 'help' for commands."));
-        writer.newLine();
-        writer.flush();
+        showGreenhousesMenu(writer);
         hasShownMenu = true;
       }
 
@@ -85,52 +78,113 @@ public class MenuSystem {
         input = "back";
       }
 
-      switch (input) {
-        case "back" -> {
-          hasShownMenu = false;
-          return;
-        }
+      if (input.equals("back")) {
+        return;
+      }
 
-        case "help" -> {
-          writer.write(server.encryptMessage("Type the greenhouse ID to view details. E.g., '0' for Greenhouse 0."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'newgreenhouse' - Create a new greenhouse."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'back' - Return to the previous menu."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'listGreenhouses' - Show the list of greenhouses."));
-          writer.newLine();
-          writer.flush();
-        }
+      try {
+        int id = Integer.parseInt(input);
+        handleGreenhouseDetails(id, reader, writer);
+        hasShownMenu = false;
+      } catch (NumberFormatException e) {
+        handleGreenhousesCommand(input, writer);
+      }
+    }
+  }
 
-        case "newgreenhouse" -> {
-          server.createNewGreenhouse();
-          writer.write(server.encryptMessage("New greenhouse created."));
-          writer.newLine();
-          writer.flush();
-        }
+  /**
+   * Sends the greenhouses menu with the list of available greenhouses to the client.
+   *
+   * @param writer the buffered writer to send the menu through
+   * @throws IOException if an I/O error occurs while writing
+   */
+  private void showGreenhousesMenu(BufferedWriter writer) throws IOException {
+    writer.write(server.encryptMessage("\nGreenhouses:"));
+    writer.newLine();
+    writer.write(server.encryptMessage("Available greenhouses:\n" + getGreenhouseList()));
+    writer.newLine();
+    writer.write(server.encryptMessage("type 'help' for commands."));
+    writer.newLine();
+    writer.flush();
+  }
 
-        case "listgreenhouses" -> {
-          writer.write(server.encryptMessage(getGreenhouseList()));
-          writer.newLine();
-          writer.flush();
-        }
+  /**
+   * Handles a single command from the greenhouses menu that neither selects a greenhouse
+   * nor leaves the menu.
+   *
+   * @param input  the lower case, trimmed command from the client
+   * @param writer the buffered writer to send output to the client
+   * @throws IOException if an I/O error occurs during communication
+   */
+  private void handleGreenhousesCommand(String input, BufferedWriter writer) throws IOException {
+    switch (input) {
+      case "help" -> {
+        writer.write(server.encryptMessage("Type the greenhouse ID to view details. E.g., '0' for Greenhouse 0."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'newgreenhouse' - Create a new greenhouse."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'back' - Return to the previous menu."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'listGreenhouses' - Show the list of greenhouses."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'aggregate' - Statistics of a sensor type in all greenhouses. "
+                + "For further info, use 'man -aggregate'."));
+        writer.newLine();
+        writer.flush();
+      }
 
-        default -> {
-          try {
-            int id = Integer.parseInt(input.trim());
-            handleGreenhouseDetails(id, reader, writer);
-            hasShownMenu = false;
-          } catch (NumberFormatException e) {
-            writer.write(server.encryptMessage("Invalid command. Try again. Type 'help' for commands."));
-            writer.newLine();
-            writer.flush();
-          }
+      case "newgreenhouse" -> {
+        writer.write(server.encryptMessage(server.createNewGreenhouse()));
+        writer.newLine();
+        writer.flush();
+      }
+
+      case "listgreenhouses" -> {
+        writer.write(server.encryptMessage(getGreenhouseList()));
+        writer.newLine();
+        writer.flush();
+      }
+
+      default -> {
+        if (input.startsWith("aggregate")) {
+          handleAggregateAllCommand(input, writer);
+          return;
         }
+        writer.write(server.encryptMessage("Invalid command. Try again. Type 'help' for commands."));
+        writer.newLine();
+        writer.flush();
       }
     }
   }
 
+  /**
+   * Handles an aggregate command from the greenhouses menu, over the sensors of a type
+   * in every greenhouse.
+   *
+   * @param input  the lower case, trimmed command from the client
+   * @param writer the buffered writer to send output to the client
+   * @throws IOException if an I/O error occurs during communication
+   */
+  private void handleAggregateAllCommand(String input, BufferedWriter writer) throws IOException {
+      try {
+        writer.write(server.encryptMessage(server.handleAggregateRequest(input + " -a")));
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        writer.write(server.encryptMessage("Could not process aggregate request. Try 'man -aggregate' for help."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to aggregate readings from."));
+        writer.newLine();
+        writer.flush();
+      } catch (IllegalArgumentException e) {
+        writer.write(server.encryptMessage("Invalid sensor type, hours or window provided for aggregate. Try 'man -aggregate' for help."));
+        writer.newLine();
+        writer.flush();
+      }
+  }
+
   /**
    * Handles the details menu for a specific greenhouse.
    * Allows users to view sensors, add sensors, and read sensor data.
@@ -141,10 +195,7 @@ public class MenuSystem {
    * @throws IOException if an I/O error occurs during communication
    */
   private void handleGreenhouseDetails(int id, BufferedReader reader, BufferedWriter writer) throws IOException {
-    GreenHouse gh = greenHouses.stream()
-            .filter(g -> g.getID() == id)
-            .findFirst()
-            .orElse(null);
+    GreenHouse gh = findGreenHouse(id);
 
     if (gh == null) {
       writer.write(server.encryptMessage("Greenhouse not found."));
@@ -157,12 +208,7 @@ public class MenuSystem {
 
     while (server.isOn()) {
       if (!hasShownMenu) {
-        writer.write(server.encryptMessage("\nGreenhouse " + id));
-        writer.newLine();
-        writer.write(server.encryptMessage("Commands: 'help' | 'addsensor' | 'sensorreading' | "
-                + "'addappliance' | 'appliance' | 'monitor' | 'newtemptarget' | 'newhumiditytarget' | 'back'"));
-        writer.newLine();
-        writer.flush();
+        showGreenhouseDetailsMenu(id, writer);
         hasShownMenu = true;
       }
       String input = server.decryptMessage(reader.readLine());
@@ -171,230 +217,307 @@ public class MenuSystem {
       } else {
         input = input.toLowerCase().trim();
       }
-      if (input.startsWith("addsensor")) {
-        try {
-          server.addSensorsToGreenhouse(input + " -" + id);
-          writer.write(server.encryptMessage("Sensor(s) added successfully."));
-          writer.newLine();
-          writer.flush();
-        } catch (SensorNotAddedToGreenHouseException | IOException e) {
-          writer.write(server.encryptMessage("Could not add sensor. Try 'man -addsensor' for help."));
-          writer.newLine();
-          writer.flush();
-        } catch (NoExistingGreenHouseException e) {
-          writer.write(server.encryptMessage("Could not find greenhouse to add sensor to."));
-          writer.newLine();
-          writer.flush();
-        }
-      } else if (input.startsWith("removeappliance")) {
-        try {
-          server.removeApplianceFromGreenhouse(input + " -" + id);
-          writer.write(server.encryptMessage("Appliance removed successfully."));
-          writer.newLine();
-          writer.flush();
-        } catch (IOException e) {
-          writer.write(server.encryptMessage("Could not remove appliance. Try 'man -removeappliance' for help."));
-          writer.newLine();
-          writer.flush();
-        } catch (NoExistingGreenHouseException e) {
-          writer.write(server.encryptMessage("Could not find greenhouse to remove appliance from."));
-          writer.newLine();
-          writer.flush();
-        } catch (IllegalArgumentException e) {
-          writer.write(server.encryptMessage("Invalid appliance ID provided for removal. Try 'man -removeappliance' for help."));
-          writer.newLine();
-          writer.flush();
-        }
-      } else if (input.startsWith("removesensor")) {
-        try {
-          server.removeSensorFromGreenhouse(input + " -" + id);
-          writer.write(server.encryptMessage("Sensor removed successfully."));
-          writer.newLine();
-          writer.flush();
-        } catch (IOException e) {
-          writer.write(server.encryptMessage("Could not remove sensor. Try 'man -removesensor' for help."));
-          writer.newLine();
-          writer.flush();
-        } catch (NoExistingGreenHouseException e) {
-          writer.write(server.encryptMessage("Could not find greenhouse to remove sensor from."));
-          writer.newLine();
-          writer.flush();
-        } catch (IllegalArgumentException e) {
-          writer.write(server.encryptMessage("Invalid sensor ID provided for removal. Try 'man -removesensor' for help."));
-          writer.newLine();
-          writer.flush();
-        }
-      } else if (input.startsWith("sensorreading")) {
-        try {
-          writer.write(server.encryptMessage(server.handleSensorReadingRequest(input + " -" + id)));
-          writer.newLine();
-          writer.flush();
-        } catch (IOException e) {
-          writer.write(server.encryptMessage("Could not process sensor reading request. Try 'man -sensorreading' for help."));
-          writer.newLine();
-          writer.flush();
-        } catch (NoExistingGreenHouseException e) {
-          writer.write(server.encryptMessage("Could not find greenhouse to read sensor from."));
-          writer.newLine();
-          writer.flush();
-        } catch (IllegalArgumentException e) {
-          writer.write(server.encryptMessage("Invalid sensor ID provided for reading. Try 'man -sensorreading' for help."));
-          writer.newLine();
-          writer.flush();
-        }
-      } else if (input.startsWith("addappliance")) {
-        try {
-          server.addAppliancesToGreenhouse(input + " -" + id);
-          writer.write(server.encryptMessage("Appliance(s) added successfully."));
-          writer.newLine();
-          writer.flush();
-        } catch (ApplianceNotAddedToGreenHouseException | IOException e) {
-          writer.write(server.encryptMessage("Could not add appliance. Try 'man -addappliance' for help."));
-          writer.newLine();
-          writer.flush();
-        } catch (NoExistingGreenHouseException e) {
-          writer.write(server.encryptMessage("Could not find greenhouse to add appliance to."));
-          writer.newLine();
-          writer.flush();
-        }
-      } else if (input.startsWith("appliancereading")) {
-        try {
-          writer.write(server.encryptMessage(server.handleApplianceReadingRequest(input + " -" + id)));
-          writer.newLine();
-          writer.flush();
-        } catch (IOException e) {
-          writer.write(server.encryptMessage("Could not process appliance reading request. Try 'man -appliancereading' for help."));
-          writer.newLine();
-          writer.flush();
-        } catch (NoExistingGreenHouseException e) {
-          writer.write(server.encryptMessage("Could not find greenhouse to read appliance from."));
-          writer.newLine();
-          writer.flush();
-        } catch (IllegalArgumentException e) {
-          writer.write(server.encryptMessage("Invalid appliance ID provided for reading. Try 'man -appliancereading' for help."));
-          writer.newLine();
-          writer.flush();
-        }
-      } else if (input.startsWith("toggleappliance")) {
-        try {
-          server.toggleAppliance(input + " -" + id);
-          writer.write(server.encryptMessage("Appliance toggled successfully."));
-          writer.newLine();
-          writer.flush();
-        } catch (IOException e) {
-          writer.write(server.encryptMessage("Could not process appliance toggle request. Try 'man -toggleappliance' for help."));
-          writer.newLine();
-          writer.flush();
-        } catch (NoExistingGreenHouseException e) {
-          writer.write(server.encryptMessage("Could not find greenhouse to toggle appliance in."));
-          writer.newLine();
-          writer.flush();
-        } catch (IllegalArgumentException e) {
-          writer.write(server.encryptMessage("Invalid appliance ID provided for toggling. Try 'man -toggleappliance' for help."));
-          writer.newLine();
-          writer.flush();
-        }
-} else if (input.startsWith("newtemptarget")) {
-        try {
-          server.updateGreenhouseTempTarget(input + " -" + id);
-          writer.write(server.encryptMessage("Temperature target updated successfully."));
-          writer.newLine();
-          writer.flush();
-        } catch (IOException e) {
-          writer.write(server.encryptMessage("Could not process new temperature target request."));
-          writer.newLine();
-          writer.flush();
-        } catch (NoExistingGreenHouseException e) {
-          writer.write(server.encryptMessage("Could not find greenhouse to set temperature target in."));
-          writer.newLine();
-          writer.flush();
-        } catch (IllegalArgumentException e) {
-          writer.write(server.encryptMessage("Invalid temperature target provided. Try man -newtemptarget' for help."));
-          writer.newLine();
-          writer.flush();
-        }
-      } else if (input.startsWith("newhumiditytarget")) {
-        try {
-          server.updateGreenhouseHumidityTarget(input + " -" + id);
-          writer.write(server.encryptMessage("Humidity target updated successfully."));
-          writer.newLine();
-          writer.flush();
-        } catch (IOException e) {
-          writer.write(server.encryptMessage("Could not process new humidity target request."));
-          writer.newLine();
-          writer.flush();
-        } catch (NoExistingGreenHouseException e) {
-          writer.write(server.encryptMessage("Could not find greenhouse to set humidity target in."));
-          writer.newLine();
-          writer.flush();
-        } catch (IllegalArgumentException e) {
-          writer.write(server.encryptMessage("Invalid humidity target provided. Try man -newhumiditytarget' for help."));
-          writer.newLine();
-          writer.flush();
-        }      }else if (input.startsWith("man")) {
-        String manualResponse = CommandProcessor.handleManualRequest(input);
-        writer.write(server.encryptMessage(manualResponse));
-        writer.newLine();
-        writer.flush();
-      }
 
       switch (input) {
-        case "help" -> {
-          writer.write(server.encryptMessage("Commands:"));
-          writer.newLine();
-          writer.write(server.encryptMessage("'addsensor' For further info, use 'man -addsensor'."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'addappliance' For further info, use 'man -addappliance'."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'removesensor' For further info use 'man -removesensor'."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'removeappliance' For further info use 'man -removeappliance'."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'sensorreading' For further info, use 'man -sensorreading'."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'appliancereading' For further info, use 'man -appliancereading'."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'toggleappliance' For further info, use 'man -toggleappliance'."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'newtemptarget' For further info, use 'man -newtemptarget'."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'newhumiditytarget' For further info, use 'man -newhumiditytarget'."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'monitor' - Start monitoring all sensors data in real-time."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'help' - Show help message."));
-          writer.newLine();
-          writer.write(server.encryptMessage("'back' - Return to the previous menu."));
-          writer.newLine();
-          writer.flush();
-        }
         case "back" -> {
           return;
         }
 
-        case "monitor" -> handleGreenhouseSensorMonitoring(gh, writer, reader);
-
+        default -> {
+          if (input.startsWith("monitor")) {
+            handleGreenhouseSensorMonitoring(gh, input, writer, reader);
+          } else {
+            handleGreenhouseCommand(gh, input, writer);
+          }
+        }
       }
     }
   }
 
   /**
-   * Handles the sensor monitoring menu for a specific greenhouse.
-   * Allows users to get a continuous flow of sensor data.
+   * Sends the details menu of a greenhouse to the client.
    *
-   * @param gh     the greenhouse to display details from
-   * @param reader the buffered reader to read user input from
-   * @param writer the buffered writer to send output to the client
-   * @throws IOException if an I/O error occurs during communication
+   * @param id     the ID of the greenhouse the menu belongs to
+   * @param writer the buffered writer to send the menu through
+   * @throws IOException if an I/O error occurs while writing
    */
-  private void handleGreenhouseSensorMonitoring(GreenHouse gh, BufferedWriter writer, BufferedReader reader) throws IOException {
-    writer.write(server.encryptMessage("Sensor monitoring started for Greenhouse " + gh.getID()));
+  private void showGreenhouseDetailsMenu(int id, BufferedWriter writer) throws IOException {
+    writer.write(server.encryptMessage("\nGreenhouse " + id));
     writer.newLine();
-    writer.write(server.encryptMessage("Type 'stop' to stop monitoring."));
+    writer.write(server.encryptMessage("Commands: 'help' | 'addsensor' | 'sensorreading' | "
+            + "'sensorhistory' | 'aggregate' | 'addappliance' | 'appliance' | 'monitor' | 'newtemptarget' | 'newhumiditytarget' | 'back'"));
     writer.newLine();
     writer.flush();
+  }
+
+  /**
+   * Handles a single command from the details menu of a greenhouse, other than
+   * 'back' and 'monitor' which change the menu the client is in.
+   *
+   * @param gh     the greenhouse the command applies to
+   * @param input  the lower case, trimmed command from the client
+   * @param writer the buffered writer to send output to the client
+   * @throws IOException if an I/O error occurs during communication
+   */
+  private void handleGreenhouseCommand(GreenHouse gh, String input, BufferedWriter writer) throws IOException {
+    int id = gh.getID();
 
-    server.subscribeClientToGreenhouseUpdates(gh, writer);
+    if (input.startsWith("addsensor")) {
+      try {
+        server.addSensorsToGreenhouse(input + " -" + id);
+        writer.write(server.encryptMessage("Sensor(s) added successfully."));
+        writer.newLine();
+        writer.flush();
+      } catch (SensorNotAddedToGreenHouseException | IOException e) {
+        writer.write(server.encryptMessage("Could not add sensor. Try 'man -addsensor' for help."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to add sensor to."));
+        writer.newLine();
+        writer.flush();
+      }
+    } else if (input.startsWith("removeappliance")) {
+      try {
+        server.removeApplianceFromGreenhouse(input + " -" + id);
+        writer.write(server.encryptMessage("Appliance removed successfully."));
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        writer.write(server.encryptMessage("Could not remove appliance. Try 'man -removeappliance' for help."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to remove appliance from."));
+        writer.newLine();
+        writer.flush();
+      } catch (IllegalArgumentException e) {
+        writer.write(server.encryptMessage("Invalid appliance ID provided for removal. Try 'man -removeappliance' for help."));
+        writer.newLine();
+        writer.flush();
+      }
+    } else if (input.startsWith("removesensor")) {
+      try {
+        server.removeSensorFromGreenhouse(input + " -" + id);
+        writer.write(server.encryptMessage("Sensor removed successfully."));
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        writer.write(server.encryptMessage("Could not remove sensor. Try 'man -removesensor' for help."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to remove sensor from."));
+        writer.newLine();
+        writer.flush();
+      } catch (IllegalArgumentException e) {
+        writer.write(server.encryptMessage("Invalid sensor ID provided for removal. Try 'man -removesensor' for help."));
+        writer.newLine();
+        writer.flush();
+      }
+    } else if (input.startsWith("sensorreading")) {
+      try {
+        writer.write(server.encryptMessage(server.handleSensorReadingRequest(input + " -" + id)));
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        writer.write(server.encryptMessage("Could not process sensor reading request. Try 'man -sensorreading' for help."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to read sensor from."));
+        writer.newLine();
+        writer.flush();
+      } catch (IllegalArgumentException e) {
+        writer.write(server.encryptMessage("Invalid sensor ID provided for reading. Try 'man -sensorreading' for help."));
+        writer.newLine();
+        writer.flush();
+      }
+    } else if (input.startsWith("sensorhistory")) {
+      try {
+        writer.write(server.encryptMessage(server.handleSensorHistoryRequest(input + " -" + id)));
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        writer.write(server.encryptMessage("Could not process sensor history request. Try 'man -sensorhistory' for help."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to read sensor history from."));
+        writer.newLine();
+        writer.flush();
+      } catch (IllegalArgumentException e) {
+        writer.write(server.encryptMessage("Invalid sensor ID or count provided for history. Try 'man -sensorhistory' for help."));
+        writer.newLine();
+        writer.flush();
+      }
+    } else if (input.startsWith("aggregate")) {
+      try {
+        writer.write(server.encryptMessage(server.handleAggregateRequest(input + " -" + id)));
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        writer.write(server.encryptMessage("Could not process aggregate request. Try 'man -aggregate' for help."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to aggregate readings from."));
+        writer.newLine();
+        writer.flush();
+      } catch (IllegalArgumentException e) {
+        writer.write(server.encryptMessage("Invalid sensor, hours or window provided for aggregate. Try 'man -aggregate' for help."));
+        writer.newLine();
+        writer.flush();
+      }
+    } else if (input.startsWith("addappliance")) {
+      try {
+        server.addAppliancesToGreenhouse(input + " -" + id);
+        writer.write(server.encryptMessage("Appliance(s) added successfully."));
+        writer.newLine();
+        writer.flush();
+      } catch (ApplianceNotAddedToGreenHouseException | IOException e) {
+        writer.write(server.encryptMessage("Could not add appliance. Try 'man -addappliance' for help."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to add appliance to."));
+        writer.newLine();
+        writer.flush();
+      }
+    } else if (input.startsWith("appliancereading")) {
+      try {
+        writer.write(server.encryptMessage(server.handleApplianceReadingRequest(input + " -" + id)));
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        writer.write(server.encryptMessage("Could not process appliance reading request. Try 'man -appliancereading' for help."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to read appliance from."));
+        writer.newLine();
+        writer.flush();
+      } catch (IllegalArgumentException e) {
+        writer.write(server.encryptMessage("Invalid appliance ID provided for reading. Try 'man -appliancereading' for help."));
+        writer.newLine();
+        writer.flush();
+      }
+    } else if (input.startsWith("toggleappliance")) {
+      try {
+        server.toggleAppliance(input + " -" + id);
+        writer.write(server.encryptMessage("Appliance toggled successfully."));
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        writer.write(server.encryptMessage("Could not process appliance toggle request. Try 'man -toggleappliance' for help."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to toggle appliance in."));
+        writer.newLine();
+        writer.flush();
+      } catch (IllegalArgumentException e) {
+        writer.write(server.encryptMessage("Invalid appliance ID provided for toggling. Try 'man -toggleappliance' for help."));
+        writer.newLine();
+        writer.flush();
+      }
+} else if (input.startsWith("newtemptarget")) {
+      try {
+        server.updateGreenhouseTempTarget(input + " -" + id);
+        writer.write(server.encryptMessage("Temperature target updated successfully."));
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        writer.write(server.encryptMessage("Could not process new temperature target request."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to set temperature target in."));
+        writer.newLine();
+        writer.flush();
+      } catch (IllegalArgumentException e) {
+        writer.write(server.encryptMessage("Invalid temperature target provided. Try man -newtemptarget' for help."));
+        writer.newLine();
+        writer.flush();
+      }
+    } else if (input.startsWith("newhumiditytarget")) {
+      try {
+        server.updateGreenhouseHumidityTarget(input + " -" + id);
+        writer.write(server.encryptMessage("Humidity target updated successfully."));
+        writer.newLine();
+        writer.flush();
+      } catch (IOException e) {
+        writer.write(server.encryptMessage("Could not process new humidity target request."));
+        writer.newLine();
+        writer.flush();
+      } catch (NoExistingGreenHouseException e) {
+        writer.write(server.encryptMessage("Could not find greenhouse to set humidity target in."));
+        writer.newLine();
+        writer.flush();
+      } catch (IllegalArgumentException e) {
+        writer.write(server.encryptMessage("Invalid humidity target provided. Try man -newhumiditytarget' for help."));
+        writer.newLine();
+        writer.flush();
+      }      }else if (input.startsWith("man")) {
+      String manualResponse = CommandProcessor.handleManualRequest(input);
+      writer.write(server.encryptMessage(manualResponse));
+      writer.newLine();
+      writer.flush();
+    }
+
+    switch (input) {
+      case "help" -> {
+        writer.write(server.encryptMessage("Commands:"));
+        writer.newLine();
+        writer.write(server.encryptMessage("'addsensor' For further info, use 'man -addsensor'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'addappliance' For further info, use 'man -addappliance'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'removesensor' For further info use 'man -removesensor'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'removeappliance' For further info use 'man -removeappliance'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'sensorreading' For further info, use 'man -sensorreading'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'sensorhistory' For further info, use 'man -sensorhistory'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'aggregate' For further info, use 'man -aggregate'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'appliancereading' For further info, use 'man -appliancereading'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'toggleappliance' For further info, use 'man -toggleappliance'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'newtemptarget' For further info, use 'man -newtemptarget'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'newhumiditytarget' For further info, use 'man -newhumiditytarget'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'monitor' - Start monitoring all sensors data in real-time. "
+                + "For filters, use 'man -monitor'."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'help' - Show help message."));
+        writer.newLine();
+        writer.write(server.encryptMessage("'back' - Return to the previous menu."));
+        writer.newLine();
+        writer.flush();
+      }
+    }
+  }
+
+  /**
+   * Handles the sensor monitoring menu for a specific greenhouse.
+   * Allows users to get a continuous flow of sensor data.
+   *
+   * @param gh      the greenhouse to display details from
+   * @param command the lower case, trimmed monitor command, with the options of its filter
+   * @param writer  the buffered writer to send output to the client
+   * @param reader  the buffered reader to read user input from
+   * @throws IOException if an I/O error occurs during communication
+   */
+  private void handleGreenhouseSensorMonitoring(GreenHouse gh, String command, BufferedWriter writer,
+                                                BufferedReader reader) throws IOException {
+    if (!startMonitoring(gh, command, writer)) {
+      return;
+    }
 
     try {
       while (server.isOn()) {
@@ -402,18 +525,185 @@ public class MenuSystem {
         if (input == null) {
           break;
         }
-        if (input.toLowerCase().trim().equals("stop") || input.toLowerCase().trim().equals("back")) {
+        if (isStopMonitoringCommand(input)) {
           writer.write(server.encryptMessage("Sensor monitoring stopped."));
           writer.newLine();
           writer.flush();
           break;
         }
+        if (isResyncCommand(input)) {
+          server.requestMonitorResync(writer);
+        }
       }
     } finally {
       server.unsubscribeClientFromGreenhouseUpdates(writer);
     }
   }
 
+  /**
+   * Tells the client that monitoring has started and subscribes it to the updates of the greenhouse
+   * that pass the filter of the command. If the filter is not understood, tells the client instead.
+   *
+   * @param gh      the greenhouse to monitor
+   * @param command the lower case, trimmed monitor command, with the options of its filter
+   * @param writer  the buffered writer the updates are sent through
+   * @return true if monitoring has started
+   * @throws IOException if an I/O error occurs while writing
+   */
+  private boolean startMonitoring(GreenHouse gh, String command, BufferedWriter writer) throws IOException {
+    MonitorFilter filter;
+    try {
+      filter = MonitorFilter.parse(command);
+    } catch (IllegalArgumentException e) {
+      writer.write(server.encryptMessage("Invalid monitor filter. Try 'man -monitor' for help."));
+      writer.newLine();
+      writer.flush();
+      return false;
+    }
+    writer.write(server.encryptMessage("Sensor monitoring started for Greenhouse " + gh.getID()));
+    writer.newLine();
+    writer.write(server.encryptMessage("Type 'stop' to stop monitoring."));
+    writer.newLine();
+    writer.flush();
+
+    server.subscribeClientToGreenhouseUpdates(gh, writer, filter);
+    return true;
+  }
+
+  /**
+   * Checks if the input from a monitoring client asks to stop monitoring.
+   *
+   * @param input the decrypted input from the client
+   * @return true if the client wants to stop monitoring
+   */
+  private boolean isStopMonitoringCommand(String input) {
+    String command = input.toLowerCase().trim();
+    return command.equals("stop") || command.equals("back");
+  }
+
+  /**
+   * Checks if the input from a monitoring client asks for a snapshot of the greenhouse,
+   * after the client missed an update.
+   *
+   * @param input the decrypted input from the client
+   * @return true if the client wants a snapshot
+   */
+  private boolean isResyncCommand(String input) {
+    return input.toLowerCase().trim().equals("resync");
+  }
+
+  /**
+   * Handles one line of input from a client whose menu position is kept in a {@link MenuSession}
+   * instead of on the stack of the blocking menu loops. Gives the same responses as the blocking
+   * menus, and is used by the non-blocking server front-end.
+   *
+   * @param session the menu state of the client
+   * @param input   the decrypted input from the client, or null if the client disconnected
+   * @param writer  the buffered writer to send output to the client
+   * @return false if the client has left and the connection should be closed, true otherwise
+   * @throws IOException if an I/O error occurs during communication
+   */
+  public boolean handleSessionInput(MenuSession session, String input, BufferedWriter writer) throws IOException {
+    if (input == null) {
+      closeSession(session, writer);
+      return false;
+    }
+    String command = input.toLowerCase().trim();
+
+    switch (session.getLevel()) {
+      case START -> {
+        if (command.equals("exit")) {
+          return false;
+        }
+        if (command.equals("greenhouses")) {
+          session.setLevel(MenuSession.Level.GREENHOUSES);
+          showGreenhousesMenu(writer);
+        } else {
+          server.handleServerCommand(command, writer);
+          showStartMenu(writer);
+        }
+      }
+
+      case GREENHOUSES -> {
+        if (command.equals("back")) {
+          session.setLevel(MenuSession.Level.START);
+          showStartMenu(writer);
+          return true;
+        }
+        try {
+          int id = Integer.parseInt(command);
+          GreenHouse gh = findGreenHouse(id);
+          if (gh == null) {
+            writer.write(server.encryptMessage("Greenhouse not found."));
+            writer.newLine();
+            writer.flush();
+            showGreenhousesMenu(writer);
+          } else {
+            session.setGreenHouse(gh);
+            session.setLevel(MenuSession.Level.GREENHOUSE_DETAILS);
+            showGreenhouseDetailsMenu(id, writer);
+          }
+        } catch (NumberFormatException e) {
+          handleGreenhousesCommand(command, writer);
+        }
+      }
+
+      case GREENHOUSE_DETAILS -> {
+        switch (command) {
+          case "back" -> {
+            session.setLevel(MenuSession.Level.GREENHOUSES);
+            showGreenhousesMenu(writer);
+          }
+          default -> {
+            if (!command.startsWith("monitor")) {
+              handleGreenhouseCommand(session.getGreenHouse(), command, writer);
+            } else if (startMonitoring(session.getGreenHouse(), command, writer)) {
+              session.setLevel(MenuSession.Level.MONITORING);
+            }
+          }
+        }
+      }
+
+      case MONITORING -> {
+        if (isStopMonitoringCommand(command)) {
+          writer.write(server.encryptMessage("Sensor monitoring stopped."));
+          writer.newLine();
+          writer.flush();
+          server.unsubscribeClientFromGreenhouseUpdates(writer);
+          session.setLevel(MenuSession.Level.GREENHOUSE_DETAILS);
+        } else if (isResyncCommand(command)) {
+          server.requestMonitorResync(writer);
+        }
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Releases everything a session holds on to when its client disconnects,
+   * such as an active monitoring subscription.
+   *
+   * @param session the menu state of the client
+   * @param writer  the buffered writer of the client
+   */
+  public void closeSession(MenuSession session, BufferedWriter writer) {
+    if (session.getLevel() == MenuSession.Level.MONITORING) {
+      server.unsubscribeClientFromGreenhouseUpdates(writer);
+    }
+    session.setLevel(MenuSession.Level.START);
+  }
+
+  /**
+   * Finds the greenhouse with the given id.
+   *
+   * @param id the id of the greenhouse
+   * @return the greenhouse, or null if no greenhouse has the given id
+   */
+  private GreenHouse findGreenHouse(int id) {
+    return greenHouses.get(id);
+  }
+
+
   /**
    * Returns the name of all the green houses as one string
    *
@@ -424,8 +714,8 @@ public class MenuSystem {
       return "No greenhouses available. Use 'newgreenhouse' to create one.";
     }
     StringBuilder sb = new StringBuilder();
-    for (GreenHouse gh : greenHouses) {
-      sb.append("Greenhouse ").append(gh.getID()).append("\n");
+    for (int id : greenHouses.ids()) {
+      sb.append("Greenhouse ").append(id).append("\n");
     }
     return sb.toString();
   }
@@ -0,0 +1,155 @@
+package greenhouse.logic;
+
+import greenhouse.entities.sensors.Sensor;
+import greenhouse.util.BinaryProtocol.MonitorUpdate;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Chooses which sensor readings a monitoring client is sent on a tick.
+ * <p>
+ * A filter holds a dead-band per sensor type, either an absolute amount or a percentage of the
+ * reading last sent. A reading is only sent once it has moved further than its band from the
+ * reading last sent to the client. With only-on-change, readings of sensor types without a band
+ * are sent whenever they change at all. The first reading of every sensor is always sent.
+ * <p>
+ * Every monitoring client has a filter of its own, since it remembers what was sent to that
+ * client. A filter is used by the ticking thread only.
+ */
+public final class MonitorFilter {
+  private final List<Band> bands;
+  private final boolean onlyOnChange;
+  private final Map<Integer, Double> lastSent = new HashMap<>();
+
+  /**
+   * Creates a filter.
+   *
+   * @param bands        the dead-band of every sensor type, by the start of the lower case type
+   * @param onlyOnChange true to send the readings of the other sensor types only when they change
+   */
+  private MonitorFilter(List<Band> bands, boolean onlyOnChange) {
+    this.bands = bands;
+    this.onlyOnChange = onlyOnChange;
+  }
+
+  /**
+   * Creates a filter letting every reading through.
+   *
+   * @return a filter sending every reading on every tick
+   */
+  public static MonitorFilter none() {
+    return new MonitorFilter(List.of(), false);
+  }
+
+  /**
+   * Creates a filter from the options of a monitor command, in the format:
+   * "monitor [-onchange] [-<sensorType> <amount>[%]]..."
+   * <p>Examples:</p>
+   * <ul>
+   *   <li>"monitor -onchange" - sends the readings that changed</li>
+   *   <li>"monitor -temperature 0.5 -humidity 2%" - sends temperatures that moved more than 0.5
+   *   and humidities that moved more than 2%, and every other reading</li>
+   * </ul>
+   *
+   * @param command the lower case, trimmed monitor command
+   * @return the filter of the command
+   * @throws IllegalArgumentException if an option is not understood, or a band is negative
+   */
+  public static MonitorFilter parse(String command) throws IllegalArgumentException {
+    String[] parts = command.split("-");
+    List<Band> bands = new ArrayList<>();
+    boolean onlyOnChange = false;
+    for (int i = 1; i < parts.length; i++) {
+      String option = parts[i].trim();
+      if (option.equals("onchange")) {
+        onlyOnChange = true;
+        continue;
+      }
+      String[] typeAndAmount = option.split("\\s+");
+      if (typeAndAmount.length != 2) {
+        throw new IllegalArgumentException("Invalid monitor option: " + option);
+      }
+      String amount = typeAndAmount[1];
+      boolean percent = amount.endsWith("%");
+      double band = Double.parseDouble(percent ? amount.substring(0, amount.length() - 1) : amount);
+      if (!(band >= 0)) {
+        throw new IllegalArgumentException("A dead-band cannot be negative.");
+      }
+      bands.add(new Band(typeAndAmount[0], band, percent));
+    }
+    return new MonitorFilter(bands, onlyOnChange);
+  }
+
+  /**
+   * Returns true if the filter lets every reading through, so the client can be sent the same
+   * update as every other client without a filter.
+   *
+   * @return true if the filter has no bands and does not wait for changes
+   */
+  public boolean isPassThrough() {
+    return bands.isEmpty() && !onlyOnChange;
+  }
+
+  /**
+   * Chooses the sensors whose readings are sent on this tick, and remembers their readings
+   * as the readings last sent.
+   *
+   * @param sensors the sensors of the monitored greenhouse
+   * @return the sensors whose readings moved out of their band
+   */
+  public List<Sensor<?>> select(Collection<Sensor<?>> sensors) {
+    List<Sensor<?>> selected = new ArrayList<>();
+    for (Sensor<?> sensor : sensors) {
+      double reading = sensor.getReading();
+      Double last = lastSent.get(sensor.getId());
+      if (last == null || crossesBand(sensor.getType().toLowerCase(), last, reading)) {
+        lastSent.put(sensor.getId(), reading);
+        selected.add(sensor);
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Forgets the readings last sent, and remembers the readings of a snapshot instead.
+   *
+   * @param snapshot the snapshot sent to the client
+   */
+  void remember(MonitorUpdate snapshot) {
+    lastSent.clear();
+    for (int i = 0; i < snapshot.sensorIds().length; i++) {
+      lastSent.put(snapshot.sensorIds()[i], (double) snapshot.readings()[i]);
+    }
+  }
+
+  /**
+   * Forgets the readings last sent of sensors that were removed.
+   *
+   * @param sensorIds the ids of the sensors removed
+   */
+  void forget(int[] sensorIds) {
+    for (int id : sensorIds) {
+      lastSent.remove(id);
+    }
+  }
+
+  private boolean crossesBand(String type, double last, double reading) {
+    for (Band band : bands) {
+      if (type.startsWith(band.type())) {
+        double width = band.percent() ? Math.abs(last) * band.amount() / 100 : band.amount();
+        return Math.abs(reading - last) > width;
+      }
+    }
+    return !onlyOnChange || Double.compare(reading, last) != 0;
+  }
+
+  /**
+   * The dead-band of the sensors whose lower case type starts with the given type.
+   */
+  private record Band(String type, double amount, boolean percent) {
+  }
+}
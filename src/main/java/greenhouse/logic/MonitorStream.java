@@ -0,0 +1,127 @@
+package greenhouse.logic;
+
+import greenhouse.entities.appliances.AirAppliance;
+import greenhouse.entities.appliances.Appliance;
+import greenhouse.entities.sensors.Sensor;
+import greenhouse.util.BinaryProtocol;
+import greenhouse.util.BinaryProtocol.MonitorUpdate;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The monitor updates of one greenhouse, numbered in sequence.
+ * <p>
+ * The stream remembers the readings and appliance states it last sent. On every tick it compares
+ * them with the greenhouse and makes a delta of the sensors whose readings changed or that were
+ * added, the sensors that were removed, and the appliances whose state changed. The sequence
+ * number only moves on when something changed. A client joining, or one that missed an update,
+ * is sent a snapshot of what the stream last sent, which the following deltas apply to.
+ * <p>
+ * A stream is used by the ticking thread only.
+ */
+final class MonitorStream {
+  private final int greenHouseId;
+  private final Map<Integer, Float> readings = new HashMap<>();
+  private final Map<Integer, Byte> sensorTypes = new HashMap<>();
+  private final Map<Integer, Byte> applianceStates = new HashMap<>();
+  private long sequence = 0;
+
+  /**
+   * Creates a stream of a greenhouse that has sent nothing yet.
+   *
+   * @param greenHouseId the id of the greenhouse
+   */
+  MonitorStream(int greenHouseId) {
+    this.greenHouseId = greenHouseId;
+  }
+
+  /**
+   * Compares the greenhouse with what was last sent and moves the stream on to it.
+   *
+   * @param greenHouse the greenhouse of the stream
+   * @return the delta from the previous update, or null if nothing changed
+   */
+  MonitorUpdate advance(GreenHouse greenHouse) {
+    List<Sensor<?>> changed = new ArrayList<>();
+    Set<Integer> present = new HashSet<>();
+    for (Sensor<?> sensor : greenHouse.getAllSensors()) {
+      present.add(sensor.getId());
+      float reading = (float) sensor.getReading();
+      Float last = readings.put(sensor.getId(), reading);
+      if (last == null || Float.compare(last, reading) != 0) {
+        sensorTypes.put(sensor.getId(), BinaryProtocol.sensorTypeCode(sensor.getType()));
+        changed.add(sensor);
+      }
+    }
+    List<Integer> removed = new ArrayList<>();
+    readings.keySet().removeIf(id -> !present.contains(id) && removed.add(id));
+    sensorTypes.keySet().retainAll(present);
+
+    Map<Integer, Byte> appliances = new HashMap<>();
+    for (Appliance appliance : greenHouse.getAllAppliances()) {
+      byte state = appliance instanceof AirAppliance air && air.getPowerState()
+              ? BinaryProtocol.APPLIANCE_ON : BinaryProtocol.APPLIANCE_OFF;
+      Byte last = applianceStates.put(appliance.getId(), state);
+      if (last == null || last != state) {
+        appliances.put(appliance.getId(), state);
+      }
+    }
+    applianceStates.keySet().removeIf(id -> {
+      boolean gone = greenHouse.getAppliance(id) == null;
+      if (gone) {
+        appliances.put(id, BinaryProtocol.APPLIANCE_REMOVED);
+      }
+      return gone;
+    });
+
+    if (changed.isEmpty() && removed.isEmpty() && appliances.isEmpty()) {
+      return null;
+    }
+    long base = sequence++;
+    int[] sensorIds = new int[changed.size()];
+    byte[] types = new byte[changed.size()];
+    float[] values = new float[changed.size()];
+    for (int i = 0; i < sensorIds.length; i++) {
+      sensorIds[i] = changed.get(i).getId();
+      types[i] = sensorTypes.get(sensorIds[i]);
+      values[i] = readings.get(sensorIds[i]);
+    }
+    return new MonitorUpdate(greenHouseId, sequence, base, sensorIds, types, values,
+            removed.stream().mapToInt(Integer::intValue).toArray(),
+            appliances.keySet().stream().mapToInt(Integer::intValue).toArray(), toStates(appliances));
+  }
+
+  /**
+   * Returns everything the stream last sent, as a snapshot at its current sequence number.
+   *
+   * @return the snapshot
+   */
+  MonitorUpdate snapshot() {
+    int[] sensorIds = readings.keySet().stream().mapToInt(Integer::intValue).toArray();
+    byte[] types = new byte[sensorIds.length];
+    float[] values = new float[sensorIds.length];
+    for (int i = 0; i < sensorIds.length; i++) {
+      types[i] = sensorTypes.get(sensorIds[i]);
+      values[i] = readings.get(sensorIds[i]);
+    }
+    return new MonitorUpdate(greenHouseId, sequence, -1, sensorIds, types, values, new int[0],
+            applianceStates.keySet().stream().mapToInt(Integer::intValue).toArray(), toStates(applianceStates));
+  }
+
+  /**
+   * Returns the states of the appliances, in the order of the keys of the map.
+   */
+  private static byte[] toStates(Map<Integer, Byte> appliances) {
+    byte[] states = new byte[appliances.size()];
+    int i = 0;
+    for (byte state : appliances.values()) {
+      states[i++] = state;
+    }
+    return states;
+  }
+}
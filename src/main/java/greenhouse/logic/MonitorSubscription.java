@@ -0,0 +1,55 @@
+package greenhouse.logic;
+
+/**
+ * What the server knows of one monitoring client: the filter of the readings it is sent, the
+ * sequence number of the last update it was sent, and whether it waits for a snapshot.
+ * <p>
+ * A client waits for a snapshot when it starts monitoring, again when it asks for a resync
+ * after missing an update, and when its queue is too full to take a delta without dropping one.
+ */
+final class MonitorSubscription {
+  private final MonitorFilter filter;
+  private volatile boolean snapshotPending = true;
+  private long lastSequence = -1;
+
+  /**
+   * Creates the subscription of a client that has been sent nothing yet.
+   *
+   * @param filter the filter of the readings sent to the client
+   */
+  MonitorSubscription(MonitorFilter filter) {
+    this.filter = filter;
+  }
+
+  MonitorFilter getFilter() {
+    return filter;
+  }
+
+  /**
+   * Asks for the client to be sent a snapshot on the next tick.
+   */
+  void requestSnapshot() {
+    snapshotPending = true;
+  }
+
+  /**
+   * Returns true, once, if the client is to be sent a snapshot.
+   *
+   * @return true if a snapshot was asked for since the last call
+   */
+  boolean takeSnapshotRequest() {
+    if (!snapshotPending) {
+      return false;
+    }
+    snapshotPending = false;
+    return true;
+  }
+
+  long getLastSequence() {
+    return lastSequence;
+  }
+
+  void setLastSequence(long lastSequence) {
+    this.lastSequence = lastSequence;
+  }
+}
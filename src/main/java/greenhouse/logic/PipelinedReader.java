@@ -0,0 +1,49 @@
+package greenhouse.logic;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Reader of a blocking client's commands, which lets the client send many commands without
+ * waiting for the responses in between.
+ * <p>
+ * While more commands have already arrived, the responses are held back in the client's
+ * {@link BatchingOutputStream}. They are written together just before the reader would have
+ * to wait for the client, or when the client's connection is closed, so every batch of
+ * pipelined commands costs one flush.
+ */
+class PipelinedReader extends BufferedReader {
+  private final BatchingOutputStream out;
+
+  /**
+   * Creates a reader of the client's commands.
+   *
+   * @param in  the reader of the client's input
+   * @param out the stream the responses to the client are written to
+   */
+  PipelinedReader(Reader in, BatchingOutputStream out) {
+    super(in);
+    this.out = out;
+  }
+
+  /**
+   * Reads the next command. If no command has arrived yet, the responses held back so far
+   * are written first. The responses to the command read are held back until then too, so
+   * the responses to the last command of a batch go out in the same write as the others.
+   *
+   * @return the next line, or null if the client closed the connection
+   * @throws IOException if the line could not be read, or the held back responses not written
+   */
+  @Override
+  public String readLine() throws IOException {
+    if (!ready()) {
+      out.endBatch();
+    }
+    String line = super.readLine();
+    if (line != null) {
+      out.startBatch();
+    }
+    return line;
+  }
+}
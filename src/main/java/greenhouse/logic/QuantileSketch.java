@@ -0,0 +1,126 @@
+package greenhouse.logic;
+
+import java.util.Arrays;
+
+/**
+ * Estimates the percentiles of a stream of values without keeping the values.
+ * <p>
+ * Values are counted in buckets whose bounds grow by a fixed factor, so every estimate is
+ * within {@value #RELATIVE_ACCURACY} of the true value relative to it. Sketches are merged by
+ * adding their counts, which lets the rollups answer percentiles over any window. Positive and
+ * negative values are counted in buckets of their own, and values too close to zero to tell
+ * apart are counted as zero. NaN values are ignored.
+ */
+final class QuantileSketch {
+  static final double RELATIVE_ACCURACY = 0.01;
+  private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+  private static final double LOG_GAMMA = Math.log(GAMMA);
+  private static final double MIN_MAGNITUDE = 1e-9;
+
+  private final Bins positive = new Bins();
+  private final Bins negative = new Bins();
+  private long zeroCount = 0;
+  private long count = 0;
+
+  /**
+   * Counts a value.
+   *
+   * @param value the value
+   */
+  void add(double value) {
+    if (Double.isNaN(value)) {
+      return;
+    }
+    if (value > MIN_MAGNITUDE) {
+      positive.add(index(value), 1);
+    } else if (value < -MIN_MAGNITUDE) {
+      negative.add(index(-value), 1);
+    } else {
+      zeroCount++;
+    }
+    count++;
+  }
+
+  /**
+   * Adds the counts of another sketch to this one.
+   *
+   * @param other the sketch to merge in
+   */
+  void merge(QuantileSketch other) {
+    positive.merge(other.positive);
+    negative.merge(other.negative);
+    zeroCount += other.zeroCount;
+    count += other.count;
+  }
+
+  /**
+   * Estimates the value below which the given fraction of the counted values lie.
+   *
+   * @param quantile the fraction, from 0 to 1
+   * @return the estimated value, or NaN if no values were counted
+   */
+  double quantile(double quantile) {
+    if (count == 0) {
+      return Double.NaN;
+    }
+    long rank = (long) Math.floor(Math.max(0, Math.min(1, quantile)) * (count - 1));
+    long seen = 0;
+    for (int i = negative.counts.length - 1; i >= 0; i--) {
+      seen += negative.counts[i];
+      if (seen > rank) {
+        return -value(negative.offset + i);
+      }
+    }
+    seen += zeroCount;
+    if (seen > rank) {
+      return 0;
+    }
+    for (int i = 0; i < positive.counts.length; i++) {
+      seen += positive.counts[i];
+      if (seen > rank) {
+        return value(positive.offset + i);
+      }
+    }
+    return value(positive.offset + positive.counts.length - 1);
+  }
+
+  private static int index(double magnitude) {
+    return (int) Math.ceil(Math.log(magnitude) / LOG_GAMMA);
+  }
+
+  private static double value(int index) {
+    return 2 * Math.pow(GAMMA, index) / (GAMMA + 1);
+  }
+
+  /**
+   * The counts of a range of consecutive buckets, grown as needed.
+   */
+  private static final class Bins {
+    private long[] counts = new long[0];
+    private int offset = 0;
+
+    private void add(int index, long amount) {
+      if (counts.length == 0) {
+        counts = new long[8];
+        offset = index - 4;
+      } else if (index < offset) {
+        int grow = Math.max(offset - index, counts.length / 2);
+        long[] grown = new long[counts.length + grow];
+        System.arraycopy(counts, 0, grown, grow, counts.length);
+        counts = grown;
+        offset -= grow;
+      } else if (index >= offset + counts.length) {
+        counts = Arrays.copyOf(counts, Math.max(index - offset + 1, counts.length + counts.length / 2));
+      }
+      counts[index - offset] += amount;
+    }
+
+    private void merge(Bins other) {
+      for (int i = 0; i < other.counts.length; i++) {
+        if (other.counts[i] != 0) {
+          add(other.offset + i, other.counts[i]);
+        }
+      }
+    }
+  }
+}
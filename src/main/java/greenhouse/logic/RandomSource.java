@@ -0,0 +1,40 @@
+package greenhouse.logic;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
+/**
+ * Supplies the random numbers that drive the simulation of an {@link Air} or {@link Soil}.
+ * <p>
+ * By default every thread draws from its own {@link ThreadLocalRandom}, so greenhouses ticked
+ * in parallel never wait on each other for random numbers. A seeded source draws from a
+ * {@link SplittableRandom} of its own instead, which makes a greenhouse behave the same on every
+ * run, as long as it is ticked by one thread at a time, like the Clock does.
+ */
+@FunctionalInterface
+public interface RandomSource {
+
+  /**
+   * The default source, drawing from the random generator of the calling thread.
+   */
+  RandomSource THREAD_LOCAL = ThreadLocalRandom::current;
+
+  /**
+   * Returns the random generator to draw the next numbers from, on the calling thread.
+   *
+   * @return the random generator
+   */
+  RandomGenerator generator();
+
+  /**
+   * Returns a source giving the same numbers on every run for the same seed.
+   *
+   * @param seed the seed of the numbers
+   * @return a seeded source
+   */
+  static RandomSource seeded(long seed) {
+    SplittableRandom random = new SplittableRandom(seed);
+    return () -> random;
+  }
+}
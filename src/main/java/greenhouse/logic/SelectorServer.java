@@ -0,0 +1,755 @@
+package greenhouse.logic;
+
+import greenhouse.util.BinaryProtocol;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Non-blocking front-end for the TCPServer.
+ * <p>
+ * The accepting thread hands every new connection to one of a small, fixed number of event loops,
+ * each running its own {@link Selector}. An event loop reads whatever bytes are available on its
+ * channels, cuts them into lines and hands every complete line to the {@link MenuSystem}, with the
+ * menu position of the client kept in a {@link MenuSession}. An idle client therefore only costs
+ * its buffers and menu state, not a blocked thread.
+ * <p>
+ * A client whose first line is the {@link BinaryProtocol} handshake sends and receives frames
+ * instead of lines from then on. Its frames are turned into the lines of the text protocol
+ * before they reach the menus.
+ * <p>
+ * Commands that change a greenhouse are not answered before they are in the write-ahead log on
+ * disk. The event loops do not wait for the disk themselves: they hold back the output of the
+ * connection until the log sync thread reports the entries written. A command that would have to
+ * wait for another thread, such as a save taking its copy of the greenhouses, is turned away
+ * instead. The connection stops reading until the command can be made, and then makes it again
+ * before the commands after it.
+ */
+class SelectorServer {
+  private static final int READ_BUFFER_SIZE = 1024;
+  private static final int MAX_LINE_LENGTH = 64 * 1024;
+  private static final int WRITER_BUFFER_SIZE = 512;
+  private static final int MAX_PENDING_OUTPUT = 64 * 1024;
+  private static final long MIN_ACCEPT_BACKOFF_MS = 10;
+  private static final long MAX_ACCEPT_BACKOFF_MS = 1000;
+
+  private final TCPServer server;
+  private final MenuSystem menuSystem;
+  private final EventLoop[] eventLoops;
+  private int nextEventLoop = 0;
+
+  /**
+   * Creates the front-end and opens a selector for each event loop.
+   *
+   * @param server         the server whose greenhouses the clients work with
+   * @param menuSystem     the menu system the client input is handed to
+   * @param eventLoopCount the number of event loop threads
+   * @throws IOException if a selector could not be opened
+   */
+  SelectorServer(TCPServer server, MenuSystem menuSystem, int eventLoopCount) throws IOException {
+    if (eventLoopCount < 1) {
+      throw new IllegalArgumentException("There must be at least one event loop.");
+    }
+    this.server = server;
+    this.menuSystem = menuSystem;
+    this.eventLoops = new EventLoop[eventLoopCount];
+    for (int i = 0; i < eventLoopCount; i++) {
+      eventLoops[i] = new EventLoop(i);
+    }
+  }
+
+  /**
+   * Starts the event loops and accepts connections on the given channel until it is closed
+   * or the server stops. The event loops are stopped before this method returns.
+   * <p>
+   * A client that fails while it is being set up is closed on its own. A failing accept, such as
+   * when the process is out of file descriptors, is tried again after a pause that doubles with
+   * every failure in a row, so the clients already connected are kept.
+   *
+   * @param serverChannel the bound, blocking server channel to accept connections from
+   */
+  void run(ServerSocketChannel serverChannel) {
+    for (EventLoop eventLoop : eventLoops) {
+      eventLoop.start();
+    }
+    long backoffMs = MIN_ACCEPT_BACKOFF_MS;
+    try {
+      while (server.isOn()) {
+        SocketChannel channel;
+        try {
+          channel = serverChannel.accept();
+        } catch (ClosedChannelException e) {
+          break; // Closed when the server stops
+        } catch (IOException e) {
+          if (!server.isOn()) {
+            break;
+          }
+          System.err.println("Could not accept a client, trying again in " + backoffMs + " ms: " + e.getMessage());
+          Thread.sleep(backoffMs);
+          backoffMs = Math.min(backoffMs * 2, MAX_ACCEPT_BACKOFF_MS);
+          continue;
+        }
+        backoffMs = MIN_ACCEPT_BACKOFF_MS;
+        try {
+          channel.configureBlocking(false);
+          channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+          System.out.println("New client connected: " + channel.socket().getInetAddress().getHostAddress());
+        } catch (IOException e) {
+          System.err.println("Could not set up a new client: " + e.getMessage());
+          closeChannel(channel);
+          continue;
+        }
+        eventLoops[nextEventLoop].register(channel);
+        nextEventLoop = (nextEventLoop + 1) % eventLoops.length;
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      for (EventLoop eventLoop : eventLoops) {
+        eventLoop.stop();
+      }
+    }
+  }
+
+  /**
+   * Closes the channel of a client that could not be handed to an event loop.
+   */
+  private static void closeChannel(SocketChannel channel) {
+    try {
+      channel.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * A thread multiplexing a share of the client connections over one selector.
+   */
+  private final class EventLoop implements Runnable {
+    private final Selector selector;
+    private final Thread thread;
+    private final Queue<SocketChannel> pendingChannels = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> pendingWrites = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> pendingResumes = new ConcurrentLinkedQueue<>();
+    private volatile boolean running = true;
+
+    EventLoop(int index) throws IOException {
+      this.selector = Selector.open();
+      this.thread = new Thread(this, "greenhouse-event-loop-" + index);
+    }
+
+    void start() {
+      thread.start();
+    }
+
+    /**
+     * Stops the event loop, which closes every connection it holds.
+     */
+    void stop() {
+      running = false;
+      selector.wakeup();
+    }
+
+    /**
+     * Hands a newly accepted channel to this event loop.
+     */
+    void register(SocketChannel channel) {
+      pendingChannels.add(channel);
+      selector.wakeup();
+    }
+
+    /**
+     * Asks the event loop to write the queued output of a connection.
+     * Used when output is produced by another thread, e.g. the Clock ticking a monitor update.
+     */
+    void requestWrite(Connection connection) {
+      pendingWrites.add(connection);
+      selector.wakeup();
+    }
+
+    /**
+     * Asks the event loop to make the command a connection was suspended on again.
+     */
+    void requestResume(Connection connection) {
+      pendingResumes.add(connection);
+      selector.wakeup();
+    }
+
+    boolean isEventLoopThread() {
+      return Thread.currentThread() == thread;
+    }
+
+    @Override
+    public void run() {
+      server.deferDurableWaits();
+      try {
+        while (running) {
+          selector.select();
+          registerPendingChannels();
+          writePendingOutput();
+          resumePendingConnections();
+
+          Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+          while (keys.hasNext()) {
+            SelectionKey key = keys.next();
+            keys.remove();
+            Connection connection = (Connection) key.attachment();
+            if (key.isValid() && key.isReadable()) {
+              connection.read();
+            }
+            if (key.isValid() && key.isWritable()) {
+              connection.writeOutput();
+            }
+          }
+        }
+      } catch (IOException | ClosedSelectorException e) {
+        if (server.isOn()) {
+          e.printStackTrace();
+        }
+      } finally {
+        for (SelectionKey key : selector.keys()) {
+          ((Connection) key.attachment()).close();
+        }
+        try {
+          selector.close();
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    }
+
+    private void registerPendingChannels() {
+      SocketChannel channel;
+      while ((channel = pendingChannels.poll()) != null) {
+        Connection connection = new Connection(channel, this);
+        try {
+          connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+          connection.open();
+        } catch (IOException e) {
+          connection.close();
+        }
+      }
+    }
+
+    private void writePendingOutput() {
+      Connection connection;
+      while ((connection = pendingWrites.poll()) != null) {
+        connection.writeOutput();
+      }
+    }
+
+    private void resumePendingConnections() {
+      Connection connection;
+      while ((connection = pendingResumes.poll()) != null) {
+        connection.resume();
+      }
+    }
+  }
+
+  /**
+   * The state of one client connection: its channel, the bytes of a partly received line,
+   * the output waiting to be written and the client's menu position.
+   */
+  private final class Connection {
+    private final SocketChannel channel;
+    private final EventLoop eventLoop;
+    private final Queue<ByteBuffer> output = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pendingBytes = new AtomicInteger();
+    private final ReentrantLock outputLock = new ReentrantLock();
+    private final Condition outputDrained = outputLock.newCondition();
+    private final MenuSession session = new MenuSession();
+    private final ChannelOutputStream outputStream = new ChannelOutputStream(this);
+    private BufferedWriter writer;
+    private boolean firstLine = true;
+    private boolean binary = false;
+    private ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+    private final ByteArrayOutputStream continued = new ByteArrayOutputStream();
+    private SelectionKey key;
+    private volatile boolean closeRequested = false;
+    private volatile boolean closed = false;
+    private boolean closing = false;
+    private String suspendedMessage = null; // The command to make again before reading on, if any
+    private long durableBarrier = 0;
+    private volatile long durableSequence = 0;
+    private volatile boolean syncing = false;
+
+    Connection(SocketChannel channel, EventLoop eventLoop) {
+      this.channel = channel;
+      this.eventLoop = eventLoop;
+      this.writer = new ConnectionWriter(this);
+    }
+
+    /**
+     * Greets the client and shows it the start menu.
+     */
+    void open() throws IOException {
+      server.welcomeClient(writer);
+      menuSystem.showStartMenu(writer);
+      writeOutput();
+    }
+
+    /**
+     * Reads the available bytes from the channel and handles every complete line in them.
+     */
+    void read() {
+      int bytesRead;
+      try {
+        bytesRead = channel.read(readBuffer);
+      } catch (IOException e) {
+        close();
+        return;
+      }
+      if (bytesRead < 0) {
+        handleLine(null);
+        close();
+        return;
+      }
+      handleInput();
+    }
+
+    /**
+     * Makes the command the connection was suspended on again, and handles the lines read
+     * after it. Does nothing if the connection was closed in the meantime.
+     */
+    void resume() {
+      if (closed || suspendedMessage == null) {
+        return;
+      }
+      String message = suspendedMessage;
+      suspendedMessage = null;
+      dispatch(message);
+      handleInput();
+    }
+
+    /**
+     * Handles every complete line or frame in the read buffer. The responses to all of them
+     * are written together afterwards.
+     */
+    private void handleInput() {
+      readBuffer.flip();
+      if (binary) {
+        readFrames();
+      } else {
+        readLines();
+      }
+      holdOutputUntilDurable(server.takeDeferredLogSequence());
+      if (closed) {
+        return;
+      }
+      if (closing) {
+        writeOutput();
+        return;
+      }
+      readBuffer.compact();
+
+      if (!isSuspended() && !readBuffer.hasRemaining()) {
+        if (readBuffer.capacity() >= MAX_LINE_LENGTH) {
+          System.err.println("Closing client that sent a line longer than " + MAX_LINE_LENGTH + " bytes.");
+          close();
+          return;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(readBuffer.capacity() * 2);
+        readBuffer.flip();
+        larger.put(readBuffer);
+        readBuffer = larger;
+      }
+      writeOutput();
+    }
+
+    /**
+     * Handles every complete line in the read buffer, leaving the buffer positioned at the
+     * start of the first incomplete line. Switches to frames if the client's first line is the
+     * binary protocol handshake.
+     */
+    private void readLines() {
+      byte[] bytes = readBuffer.array();
+      int lineStart = readBuffer.position();
+      for (int i = lineStart; i < readBuffer.limit() && !closed && !closing && !isSuspended(); i++) {
+        if (bytes[i] == '\n') {
+          int lineEnd = (i > lineStart && bytes[i - 1] == '\r') ? i - 1 : i;
+          String line = new String(bytes, lineStart, lineEnd - lineStart, StandardCharsets.ISO_8859_1);
+          lineStart = i + 1;
+          if (firstLine && BinaryProtocol.HANDSHAKE.equals(line)) {
+            firstLine = false;
+            acceptBinaryProtocol();
+            readBuffer.position(lineStart);
+            readFrames();
+            return;
+          }
+          firstLine = false;
+          handleLine(line);
+        }
+      }
+      readBuffer.position(lineStart);
+    }
+
+    /**
+     * Handles every complete frame in the read buffer, leaving the buffer positioned at the
+     * start of the first incomplete frame. The parts of a payload cut into continuation frames
+     * are kept until its last frame arrives, up to the longest line a client may send.
+     */
+    private void readFrames() {
+      while (!closed && !closing && !isSuspended() && readBuffer.remaining() >= Integer.BYTES) {
+        int length = readBuffer.getInt(readBuffer.position());
+        if (length < 1 || length > BinaryProtocol.MAX_FRAME_LENGTH) {
+          System.err.println("Closing client that sent a frame of invalid length " + length + ".");
+          close();
+          return;
+        }
+        if (readBuffer.remaining() < Integer.BYTES + length) {
+          return;
+        }
+        readBuffer.position(readBuffer.position() + Integer.BYTES);
+        byte type = readBuffer.get();
+        byte[] payload = new byte[length - 1];
+        readBuffer.get(payload);
+        if (continued.size() + payload.length > MAX_LINE_LENGTH) {
+          System.err.println("Closing client that sent a line longer than " + MAX_LINE_LENGTH + " bytes.");
+          close();
+          return;
+        }
+        if (type == BinaryProtocol.CONTINUATION) {
+          continued.writeBytes(payload);
+          continue;
+        }
+        if (continued.size() > 0) {
+          continued.writeBytes(payload);
+          payload = continued.toByteArray();
+          continued.reset();
+        }
+        try {
+          handleLine(FrameReader.toLine(new BinaryProtocol.Frame(type, payload)));
+        } catch (IOException e) {
+          close();
+        }
+      }
+    }
+
+    /**
+     * Answers the binary protocol handshake, and sends frames instead of lines from then on.
+     */
+    private void acceptBinaryProtocol() {
+      try {
+        writer.write(BinaryProtocol.HANDSHAKE_ACCEPTED);
+        writer.newLine();
+        writer.flush();
+        writer = new ConnectionFrameWriter(this);
+        binary = true;
+      } catch (IOException e) {
+        close();
+      }
+    }
+
+    private void handleLine(String line) {
+      String message = server.decryptMessage(line);
+      if (session.getLevel() == MenuSession.Level.START && message != null) {
+        System.out.println(message);
+      }
+      dispatch(message);
+    }
+
+    /**
+     * Hands a decrypted line to the menus. If the command would have to wait for another thread,
+     * the connection is suspended on it instead, and stops reading until it can be made.
+     */
+    private void dispatch(String message) {
+      boolean keepOpen;
+      try {
+        keepOpen = menuSystem.handleSessionInput(session, message, writer);
+      } catch (CommandWouldBlockException e) {
+        suspendedMessage = message;
+        e.whenReady().whenComplete((result, failure) -> eventLoop.requestResume(this));
+        return;
+      } catch (IOException e) {
+        keepOpen = false;
+      }
+      if (!keepOpen) {
+        // The responses to the commands before this one are written first, and the rest is ignored
+        closing = true;
+      }
+    }
+
+    /**
+     * Holds back the output of the connection until the write-ahead log entry with the given
+     * sequence number is on disk, so that no command is answered before it would survive a crash.
+     * Starts waiting for the entry on the log sync thread, unless a wait is running already, in
+     * which case the next one is started when it is done. A connection whose entries could not be
+     * written is closed without its answers.
+     *
+     * @param sequence the sequence number of the entry, or 0 if the commands appended none
+     */
+    private void holdOutputUntilDurable(long sequence) {
+      durableBarrier = Math.max(durableBarrier, sequence);
+      if (syncing || durableBarrier <= durableSequence) {
+        return;
+      }
+      syncing = true;
+      long target = durableBarrier;
+      server.whenDurable(target).whenComplete((result, e) -> {
+        if (e == null) {
+          durableSequence = target;
+        } else {
+          System.err.println("Closing client whose changes could not be logged: " + e.getMessage());
+          closeRequested = true;
+        }
+        syncing = false;
+        eventLoop.requestWrite(this);
+      });
+    }
+
+    /**
+     * Queues bytes to be written to the client, and makes sure the event loop writes them.
+     *
+     * @throws IOException if the connection is closed
+     */
+    void queueOutput(ByteBuffer bytes) throws IOException {
+      if (closed || closeRequested) {
+        throw new IOException("Connection is closed");
+      }
+      pendingBytes.addAndGet(bytes.remaining());
+      output.add(bytes);
+      if (!eventLoop.isEventLoopThread()) {
+        eventLoop.requestWrite(this);
+      }
+    }
+
+    /**
+     * Waits until the output waiting to be written is below its limit. Only called by threads
+     * other than the event loop, which must never wait on its own clients.
+     *
+     * @throws IOException if the connection is closed while waiting
+     */
+    void awaitCapacity() throws IOException, InterruptedException {
+      outputLock.lock();
+      try {
+        while (pendingBytes.get() > MAX_PENDING_OUTPUT && !closed) {
+          outputDrained.await();
+        }
+      } finally {
+        outputLock.unlock();
+      }
+      if (closed) {
+        throw new IOException("Connection is closed");
+      }
+    }
+
+    private void signalDrained() {
+      outputLock.lock();
+      try {
+        outputDrained.signalAll();
+      } finally {
+        outputLock.unlock();
+      }
+    }
+
+    /**
+     * Asks the event loop to close this connection, from any thread.
+     */
+    void requestClose() {
+      closeRequested = true;
+      if (eventLoop.isEventLoopThread()) {
+        close();
+      } else {
+        eventLoop.requestWrite(this);
+      }
+    }
+
+    /**
+     * Writes as much of the queued output as the channel accepts. Listens for the channel
+     * becoming writable again if not everything could be written. A connection whose client
+     * has exited is closed once all its output is written.
+     */
+    void writeOutput() {
+      if (closeRequested) {
+        close();
+      }
+      if (closed) {
+        return;
+      }
+      if (durableBarrier > durableSequence) {
+        // Written once the log sync thread reports the entries of the answered commands on disk
+        holdOutputUntilDurable(0);
+        key.interestOps(readInterest());
+        return;
+      }
+      int pendingBefore = pendingBytes.get();
+      try {
+        outputStream.queueBuffered();
+        ByteBuffer bytes;
+        while ((bytes = output.peek()) != null) {
+          pendingBytes.addAndGet(-channel.write(bytes));
+          if (bytes.hasRemaining()) {
+            key.interestOps(readInterest() | SelectionKey.OP_WRITE);
+            break;
+          }
+          output.poll();
+        }
+        if (output.isEmpty()) {
+          if (closing) {
+            close();
+            return;
+          }
+          key.interestOps(readInterest());
+        }
+      } catch (IOException e) {
+        close();
+        return;
+      }
+      if (pendingBefore > MAX_PENDING_OUTPUT && pendingBytes.get() <= MAX_PENDING_OUTPUT) {
+        signalDrained();
+      }
+    }
+
+    private boolean isSuspended() {
+      return suspendedMessage != null;
+    }
+
+    /**
+     * Returns the read interest of the connection: none while it is closing, or suspended on a
+     * command it must make before reading on.
+     */
+    private int readInterest() {
+      return closing || isSuspended() ? 0 : SelectionKey.OP_READ;
+    }
+
+    /**
+     * Closes the connection and releases the client's menu session.
+     */
+    void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      menuSystem.closeSession(session, writer);
+      output.clear();
+      signalDrained();
+      if (key != null) {
+        key.cancel();
+      }
+      try {
+        System.out.println("Client disconnected: " + channel.socket().getInetAddress().getHostAddress());
+        channel.close();
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  /**
+   * The writer of a connection. Lets the writer thread of a {@link ClientConnection} wait for
+   * a slow client, so that its updates are held back in the connection's bounded queue instead
+   * of piling up as unwritten output.
+   */
+  private static final class ConnectionWriter extends BufferedWriter implements ClientConnection.BackPressure {
+    private final Connection connection;
+
+    ConnectionWriter(Connection connection) {
+      super(new OutputStreamWriter(connection.outputStream), WRITER_BUFFER_SIZE);
+      this.connection = connection;
+    }
+
+    @Override
+    public void awaitCapacity() throws IOException, InterruptedException {
+      connection.awaitCapacity();
+    }
+  }
+
+  /**
+   * The writer of a connection using the binary protocol, which lets the writer thread of a
+   * {@link ClientConnection} wait for a slow client like {@link ConnectionWriter} does.
+   */
+  private static final class ConnectionFrameWriter extends FrameWriter implements ClientConnection.BackPressure {
+    private final Connection connection;
+
+    ConnectionFrameWriter(Connection connection) {
+      super(connection.outputStream, WRITER_BUFFER_SIZE);
+      this.connection = connection;
+    }
+
+    @Override
+    public void awaitCapacity() throws IOException, InterruptedException {
+      connection.awaitCapacity();
+    }
+  }
+
+  /**
+   * Output stream collecting the bytes written to a connection, and handing them to the
+   * event loop as one buffer.
+   * <p>
+   * Flushes by other threads, such as the writer of a monitoring client, hand the bytes over at once.
+   * Flushes by the event loop itself are ignored: the menus flush after every response line, and the
+   * event loop instead hands over the responses to all the commands of a read together, so that
+   * pipelined commands are answered with one write.
+   */
+  private static final class ChannelOutputStream extends OutputStream {
+    private final Connection connection;
+    private byte[] buffer = new byte[256];
+    private int count = 0;
+
+    ChannelOutputStream(Connection connection) {
+      this.connection = connection;
+    }
+
+    @Override
+    public synchronized void write(int b) {
+      ensureCapacity(count + 1);
+      buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) {
+      ensureCapacity(count + length);
+      System.arraycopy(bytes, offset, buffer, count, length);
+      count += length;
+    }
+
+    @Override
+    public void flush() throws IOException {
+      if (!connection.eventLoop.isEventLoopThread()) {
+        queueBuffered();
+      }
+    }
+
+    /**
+     * Hands the bytes written so far to the event loop to be written to the channel.
+     *
+     * @throws IOException if the connection is closed
+     */
+    synchronized void queueBuffered() throws IOException {
+      if (count > 0) {
+        connection.queueOutput(ByteBuffer.wrap(Arrays.copyOf(buffer, count)));
+        count = 0;
+      }
+    }
+
+    @Override
+    public void close() {
+      connection.requestClose();
+    }
+
+    private void ensureCapacity(int capacity) {
+      if (capacity > buffer.length) {
+        buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+      }
+    }
+  }
+}
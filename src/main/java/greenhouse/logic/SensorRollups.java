@@ -0,0 +1,203 @@
+package greenhouse.logic;
+
+import greenhouse.entities.sensors.Sensor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Pre-aggregates the readings of every sensor into buckets of a minute, an hour and a day,
+ * so that statistics over a window of time are answered by merging a few buckets instead of
+ * scanning the readings.
+ * <p>
+ * Every reading is added to the bucket of each resolution it falls in. A query covers its
+ * window with the coarsest buckets that fit inside it, and finer buckets at its edges. Buckets
+ * older than the retention of their resolution are dropped, after which the edges of a window
+ * are rounded out to the next coarser resolution still kept.
+ */
+public final class SensorRollups {
+
+  /**
+   * Selects every greenhouse in a query by sensor type.
+   */
+  public static final int ALL_GREENHOUSES = -1;
+
+  /**
+   * The sizes of the rollup buckets, and how long they are kept.
+   */
+  public enum Resolution {
+    MINUTE(60_000L, 2 * 86_400_000L),
+    HOUR(3_600_000L, 90 * 86_400_000L),
+    DAY(86_400_000L, Long.MAX_VALUE);
+
+    private final long millis;
+    private final long retention;
+
+    Resolution(long millis, long retention) {
+      this.millis = millis;
+      this.retention = retention;
+    }
+
+    /**
+     * Returns the length of a bucket of this resolution.
+     *
+     * @return the length in milliseconds
+     */
+    public long getMillis() {
+      return millis;
+    }
+  }
+
+  private final Map<Long, Series> series = new ConcurrentHashMap<>();
+
+  /**
+   * Adds a reading of a sensor to its rollup buckets.
+   *
+   * @param greenHouseId the id of the greenhouse of the sensor
+   * @param sensor       the sensor that took the reading
+   * @param timestamp    the time of the reading, in milliseconds since the epoch
+   * @param value        the value read
+   */
+  public void record(int greenHouseId, Sensor<?> sensor, long timestamp, double value) {
+    Series target = series.computeIfAbsent(key(greenHouseId, sensor.getId()),
+            key -> new Series(greenHouseId, sensor.getType()));
+    synchronized (target) {
+      for (Resolution resolution : Resolution.values()) {
+        TreeMap<Long, Aggregate> buckets = target.buckets[resolution.ordinal()];
+        buckets.computeIfAbsent(Math.floorDiv(timestamp, resolution.millis) * resolution.millis,
+                start -> new Aggregate()).add(value);
+        long cutoff = resolution.retention == Long.MAX_VALUE ? Long.MIN_VALUE : timestamp - resolution.retention;
+        if (cutoff > target.keptFrom[resolution.ordinal()]) {
+          buckets.headMap(cutoff).clear();
+          target.keptFrom[resolution.ordinal()] =
+                  Math.floorDiv(cutoff + resolution.millis - 1, resolution.millis) * resolution.millis;
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the statistics of the readings of one sensor between two times.
+   *
+   * @param greenHouseId the id of the greenhouse of the sensor
+   * @param sensorId     the id of the sensor
+   * @param from         the start of the window, inclusive
+   * @param to           the end of the window, exclusive
+   * @return the statistics, with a count of 0 if there were no readings
+   */
+  public Aggregate aggregate(int greenHouseId, int sensorId, long from, long to) {
+    Aggregate result = new Aggregate();
+    Series source = series.get(key(greenHouseId, sensorId));
+    if (source != null) {
+      source.mergeInto(result, from, to);
+    }
+    return result;
+  }
+
+  /**
+   * Returns the statistics of the readings of every sensor of a type between two times,
+   * in one greenhouse or in all of them.
+   *
+   * @param greenHouseId the id of the greenhouse, or {@link #ALL_GREENHOUSES}
+   * @param sensorType   the type of the sensors, or the start of it, in any case
+   * @param from         the start of the window, inclusive
+   * @param to           the end of the window, exclusive
+   * @return the statistics, with a count of 0 if there were no readings
+   */
+  public Aggregate aggregate(int greenHouseId, String sensorType, long from, long to) {
+    Aggregate result = new Aggregate();
+    String type = sensorType.toLowerCase(Locale.ROOT);
+    for (Series source : series.values()) {
+      if ((greenHouseId == ALL_GREENHOUSES || source.greenHouseId == greenHouseId)
+              && source.type.startsWith(type)) {
+        source.mergeInto(result, from, to);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the start of every window of the given resolution between two times, aligned to
+   * the buckets of that resolution.
+   *
+   * @param from       the start of the first window, rounded down to the resolution
+   * @param to         the end of the last window, exclusive
+   * @param resolution the length of the windows
+   * @return the start of every window, oldest first
+   */
+  public static List<Long> windows(long from, long to, Resolution resolution) {
+    List<Long> starts = new ArrayList<>();
+    for (long start = Math.floorDiv(from, resolution.millis) * resolution.millis; start < to;
+         start += resolution.millis) {
+      starts.add(start);
+    }
+    return starts;
+  }
+
+  private static long key(int greenHouseId, int sensorId) {
+    return ((long) greenHouseId << 32) | (sensorId & 0xFFFFFFFFL);
+  }
+
+  /**
+   * The rollup buckets of one sensor, one map per resolution from the start of a bucket to it.
+   */
+  private static final class Series {
+    private final int greenHouseId;
+    private final String type;
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final TreeMap<Long, Aggregate>[] buckets = new TreeMap[Resolution.values().length];
+    private final long[] keptFrom = new long[Resolution.values().length]; // Buckets before were dropped
+
+    private Series(int greenHouseId, String type) {
+      this.greenHouseId = greenHouseId;
+      this.type = type.toLowerCase(Locale.ROOT);
+      for (int i = 0; i < buckets.length; i++) {
+        buckets[i] = new TreeMap<>();
+        keptFrom[i] = Long.MIN_VALUE;
+      }
+    }
+
+    /**
+     * Merges the buckets covering a window into the result, walking from the start of the
+     * window and taking the coarsest kept bucket that starts there and still fits in the window.
+     * Where no kept bucket fits, the finest kept bucket around the start is taken whole.
+     */
+    private synchronized void mergeInto(Aggregate result, long from, long to) {
+      long cursor = Math.floorDiv(from, Resolution.MINUTE.millis) * Resolution.MINUTE.millis;
+      while (cursor < to) {
+        Resolution chosen = null;
+        for (Resolution resolution : Resolution.values()) {
+          if (cursor >= keptFrom[resolution.ordinal()] && cursor % resolution.millis == 0
+                  && cursor + resolution.millis <= to) {
+            chosen = resolution;
+          }
+        }
+        if (chosen == null) {
+          chosen = finestKept(cursor);
+          cursor = Math.floorDiv(cursor, chosen.millis) * chosen.millis;
+        }
+        Aggregate bucket = buckets[chosen.ordinal()].get(cursor);
+        if (bucket != null) {
+          result.merge(bucket);
+        }
+        cursor += chosen.millis;
+      }
+    }
+
+    /**
+     * Returns the finest resolution whose buckets still go back to the given time.
+     */
+    private Resolution finestKept(long time) {
+      for (Resolution resolution : Resolution.values()) {
+        if (time >= keptFrom[resolution.ordinal()]) {
+          return resolution;
+        }
+      }
+      return Resolution.DAY;
+    }
+  }
+}
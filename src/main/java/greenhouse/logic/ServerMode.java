@@ -0,0 +1,53 @@
+package greenhouse.logic;
+
+/**
+ * The ways the TCPServer can serve its clients.
+ */
+public enum ServerMode {
+  /**
+   * Every client is handled by its own platform thread, blocking while it waits for input.
+   */
+  THREAD_PER_CLIENT("thread"),
+
+  /**
+   * Every client is handled by its own virtual thread, which only holds on to a carrier
+   * thread while it is not blocked waiting for input.
+   */
+  VIRTUAL_THREADS("virtual"),
+
+  /**
+   * All clients are multiplexed over a small pool of selector event loops.
+   */
+  NON_BLOCKING("nio");
+
+  private final String argument;
+
+  ServerMode(String argument) {
+    this.argument = argument;
+  }
+
+  /**
+   * Returns the name used to select this mode from the command line.
+   *
+   * @return the command line name of the mode
+   */
+  public String getArgument() {
+    return argument;
+  }
+
+  /**
+   * Finds the server mode matching a command line argument.
+   *
+   * @param argument the command line argument, e.g. "thread" or "nio"
+   * @return the matching server mode
+   * @throws IllegalArgumentException if no mode matches the argument
+   */
+  public static ServerMode fromArgument(String argument) throws IllegalArgumentException {
+    for (ServerMode mode : values()) {
+      if (mode.argument.equalsIgnoreCase(argument.trim())) {
+        return mode;
+      }
+    }
+    throw new IllegalArgumentException("Unknown server mode: " + argument);
+  }
+}
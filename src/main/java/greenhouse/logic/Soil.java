@@ -1,6 +1,7 @@
 package greenhouse.logic;
 
 import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import greenhouse.entities.Sensorable;
 import greenhouse.entities.SoilSubscriber;
@@ -9,12 +10,19 @@ import greenhouse.entities.SoilSubscriber;
  * <p>
  *   Represents a soil sample with a ph value,
  *   moisture level and nitrogen level.
+ * <p>
+ *   The values are not kept in the soil itself, but in a slot of a {@link SoilPage} in the
+ *   {@link EnvironmentStore}, so the soil of many greenhouses can be stepped in bulk.
  */
 public class Soil extends ClockSubscriber implements Sensorable {
-  private double soilMoisture; //The percentage of moisture of the soil
-  private float phValue; //The ph value of the soil.
-  private double nitrogen; //The amount of nitrogen in the soil, measured in ppm
+  private final SoilPage page;
+  private final int slot;
+  private final int storeSlot;
   private ArrayList<SoilSubscriber> subscribers;
+  private RandomSource randomSource = RandomSource.THREAD_LOCAL;
+  private int updateDepth = 0;
+  private boolean updatePending = false;
+  private final AtomicLong version = new AtomicLong();
 
   /**
    * Creates an instance of Soil.
@@ -24,11 +32,15 @@ public class Soil extends ClockSubscriber implements Sensorable {
    * @param nitrogen The initial amount of nitrogen in the soil.
    */
   public Soil(double soilMoisture, float phValue, double nitrogen) {
-    this.phValue = phValue;
-    this.soilMoisture = soilMoisture;
-    this.nitrogen = nitrogen;
+    EnvironmentStore store = EnvironmentStore.getInstance();
+    this.storeSlot = store.allocateSoil();
+    this.page = store.soilPage(storeSlot);
+    this.slot = storeSlot % SoilPage.SIZE;
+    page.ph[slot] = phValue;
+    page.moisture[slot] = soilMoisture;
+    page.nitrogen[slot] = nitrogen;
     subscribers = new ArrayList<>();
-    subscribe();
+    store.attach(this, storeSlot);
   }
 
   /**
@@ -37,14 +49,15 @@ public class Soil extends ClockSubscriber implements Sensorable {
    * @param moistureChange The value of the change in the soil humidity.
    */
   public void changeMoisture(double moistureChange) {
+    double soilMoisture = page.moisture[slot];
     if (soilMoisture + moistureChange < 0) {
-      soilMoisture = 0;
+      page.moisture[slot] = 0;
     }
     else if (soilMoisture + moistureChange > 100) {
-      soilMoisture = 100;
+      page.moisture[slot] = 100;
     }
     else {
-      soilMoisture += moistureChange;
+      page.moisture[slot] = soilMoisture + moistureChange;
     }
     update();
   }
@@ -55,11 +68,12 @@ public class Soil extends ClockSubscriber implements Sensorable {
    * @param nitrogenChange The amount of nitrogen being added to the soil.
    */
   public void changeNitrogen(double nitrogenChange) {
+    double nitrogen = page.nitrogen[slot];
     if (nitrogen + nitrogenChange < 0) {
-      nitrogen = 0;
+      page.nitrogen[slot] = 0;
     }
     else {
-      nitrogen += nitrogenChange;
+      page.nitrogen[slot] = nitrogen + nitrogenChange;
     }
     update();
   }
@@ -70,14 +84,15 @@ public class Soil extends ClockSubscriber implements Sensorable {
    * @param phChange The value being added to the ph value of the soil.
    */
   public void changePH(float phChange) {
+    float phValue = page.ph[slot];
     if (phValue + phChange < 0) {
-      phValue = 0;
+      page.ph[slot] = 0;
     }
     else if (phValue + phChange > 14) {
-      phValue = 14;
+      page.ph[slot] = 14;
     }
     else {
-      phValue += phChange;
+      page.ph[slot] = phValue + phChange;
     }
     update();
   }
@@ -89,8 +104,14 @@ public class Soil extends ClockSubscriber implements Sensorable {
    * @param amountWatered The amount of humidity being added to the soil.
    */
   public void waterSoil(double amountWatered) {
-    changeMoisture(amountWatered);
-    changeNitrogen(-amountWatered * 0.2 - Math.random());
+    version.incrementAndGet();
+    beginUpdate();
+    try {
+      changeMoisture(amountWatered);
+      changeNitrogen(-amountWatered * 0.2 - randomSource.generator().nextDouble());
+    } finally {
+      endUpdate();
+    }
   }
 
   /**
@@ -98,7 +119,7 @@ public class Soil extends ClockSubscriber implements Sensorable {
    * Used every time the clock ticks.
    */
   public void dry() {
-    changeMoisture(-5 + Math.random());
+    changeMoisture(-5 + randomSource.generator().nextDouble());
   }
 
   /**
@@ -110,8 +131,14 @@ public class Soil extends ClockSubscriber implements Sensorable {
    *                       in ppm.
    */
   public void fertilize(double nitrogenAmount) {
-    changeNitrogen(nitrogenAmount);
-    changePH( (float) ((-nitrogenAmount%7)*0.1));
+    version.incrementAndGet();
+    beginUpdate();
+    try {
+      changeNitrogen(nitrogenAmount);
+      changePH( (float) ((-nitrogenAmount%7)*0.1));
+    } finally {
+      endUpdate();
+    }
   }
 
   /**
@@ -128,7 +155,7 @@ public class Soil extends ClockSubscriber implements Sensorable {
    * Used every time the clock ticks.
    */
   public void phTick() {
-    changePH( (float) ((-nitrogen%14)*0.1));
+    changePH( (float) ((-page.nitrogen[slot]%14)*0.1));
   }
 
   /**
@@ -136,16 +163,47 @@ public class Soil extends ClockSubscriber implements Sensorable {
    * Used by a liming appliance.
    */
   public void lime() {
+    version.incrementAndGet();
     changePH((float) (0.5));
   }
 
+  /**
+   * Moves the soil the given number of hours on at once, to where it is expected to be had it
+   * been stepped every hour, such as after its greenhouse was evicted from memory. Alerts the
+   * soilSubscribers once.
+   *
+   * @param hours the number of hours to skip
+   */
+  void catchUp(long hours) {
+    page.catchUp(slot, hours);
+    update();
+  }
+
+  /**
+   * Stops the soil from being moved on by the clock. Its slot is given to the next soil created
+   * once this soil can no longer be reached, so a thread still holding it reads it as it was.
+   */
+  void detach() {
+    EnvironmentStore.getInstance().detach(this, storeSlot);
+  }
+
+  /**
+   * Sets the source of the random changes of this soil, such as a seeded source
+   * to make the soil change the same way on every run.
+   *
+   * @param randomSource The source of random numbers.
+   */
+  public void setRandomSource(RandomSource randomSource) {
+    this.randomSource = randomSource;
+  }
+
   /**
    * Returns the humidity of the soil.
    *
    * @return The humidity of the soil.
    */
   public double getSoilMoisture() {
-    return soilMoisture;
+    return page.moisture[slot];
   }
 
   /**
@@ -154,7 +212,7 @@ public class Soil extends ClockSubscriber implements Sensorable {
    * @return The ph of the soil.
    */
   public float getPhValue() {
-    return phValue;
+    return page.ph[slot];
   }
 
   /**
@@ -163,18 +221,27 @@ public class Soil extends ClockSubscriber implements Sensorable {
    * @return The amount of nitrogen in the soil in ppm.
    */
   public double getNitrogen() {
-    return nitrogen;
+    return page.nitrogen[slot];
+  }
+
+  /**
+   * Returns a number that grows every time an appliance works on the soil. The drying and
+   * the use of fertilizer every hour do not change it, so a greenhouse left alone does not
+   * need to be saved again.
+   *
+   * @return the version of the soil
+   */
+  public long getVersion() {
+    return version.get();
   }
 
   /**
    * Changes the value of soilMoisture, nitrogen and phValue, and alerts the
-   * soilSubscribers to the change.
+   * soilSubscribers to the change once, with the final values.
    */
   @Override
   public void updateState() {
-    phTick();
-    dry();
-    useFertilizer();
+    page.step(slot, slot + 1, randomSource.generator());
     update();
   }
 
@@ -197,9 +264,38 @@ public class Soil extends ClockSubscriber implements Sensorable {
   }
 
   /**
-   * Alerts the soilSubscribers that the soil has changed.
+   * Alerts the soilSubscribers that the soil has changed. Inside an update scope
+   * the alert is held back until the scope ends.
    */
   public void update() {
+    synchronized (this) {
+      if (updateDepth > 0) {
+        updatePending = true;
+        return;
+      }
+    }
+    subscribers.forEach(subscriber -> subscriber.update(this));
+  }
+
+  /**
+   * Starts an update scope. Changes made until the matching {@link #endUpdate()}
+   * alert the soilSubscribers once, when the outermost scope ends.
+   */
+  private synchronized void beginUpdate() {
+    updateDepth++;
+  }
+
+  /**
+   * Ends an update scope, and alerts the soilSubscribers if the soil changed in it.
+   */
+  private void endUpdate() {
+    synchronized (this) {
+      updateDepth--;
+      if (updateDepth > 0 || !updatePending) {
+        return;
+      }
+      updatePending = false;
+    }
     subscribers.forEach(subscriber -> subscriber.update(this));
   }
 }
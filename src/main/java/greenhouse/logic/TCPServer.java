@@ -2,55 +2,163 @@ package greenhouse.logic;
 
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.Base64;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import greenhouse.entities.appliances.*;
 import greenhouse.entities.sensors.*;
 import greenhouse.filehandling.AirDTO;
-import greenhouse.filehandling.ApplianceDTO;
+import greenhouse.filehandling.BinarySnapshot;
 import greenhouse.filehandling.GreenHouseDTO;
+import greenhouse.filehandling.GreenHouseLoader;
 import greenhouse.filehandling.JsonReader;
 import greenhouse.filehandling.JsonWriter;
-import greenhouse.filehandling.SensorDTO;
-import greenhouse.filehandling.SoilDTO;
-
-import javax.crypto.Cipher;
-import javax.crypto.SecretKey;
-import javax.crypto.spec.SecretKeySpec;
+import greenhouse.filehandling.PersistenceService;
+import greenhouse.filehandling.WriteAheadLog;
+import greenhouse.filehandling.TimeSeriesStore;
+import greenhouse.util.BinaryProtocol;
+import greenhouse.util.MessageCipher;
 
 public class TCPServer extends ClockSubscriber {
 
+  private static final int ACCEPT_BACKLOG = 1024;
+  private static final long CLIENT_DRAIN_TIMEOUT_SECONDS = 5;
+  private static final int DEFAULT_OUTBOUND_QUEUE_CAPACITY = 16;
+  private static final int SENSOR_HISTORY_CAPACITY = 64;
+  private static final long MAX_AGGREGATE_HOURS = 24L * 366 * 10;
+  private static final int MAX_AGGREGATE_WINDOWS = 1000;
+  private static final int PERSISTENCE_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+  private static final byte LOG_CREATE_GREENHOUSE = 1;
+  private static final byte LOG_ADD_SENSORS = 2;
+  private static final byte LOG_ADD_APPLIANCES = 3;
+  private static final byte LOG_TOGGLE_APPLIANCE = 4;
+  private static final byte LOG_TEMPERATURE_TARGET = 5;
+  private static final byte LOG_HUMIDITY_TARGET = 6;
+  private static final byte LOG_REMOVE_SENSOR = 7;
+  private static final byte LOG_REMOVE_APPLIANCE = 8;
+  private static final Path DEFAULT_DATA_DIRECTORY = Path.of("src/main/resources/greenhouses");
+  private static final String SNAPSHOT_FILE_NAME = "greenhouses.snapshot";
+  private static final int LOADER_THREADS = Runtime.getRuntime().availableProcessors();
+  private static final long TIME_SERIES_FLUSH_SECONDS = 60;
+  private static final Set<String> SENSOR_TYPES = Set.of(
+          "humiditysensor", "lightsensor", "phsensor", "temperaturesensor", "moisturesensor", "nitrogensensor");
+  private static final Set<String> APPLIANCE_TYPES = Set.of(
+          "aircondition", "fertilizer", "humidifier", "lamp", "limer", "sprinkler");
   private final int port;
+  private final ServerMode mode;
+  private final ExecutorService clientExecutor;
+  private final Set<Socket> clientSockets = ConcurrentHashMap.newKeySet();
+  private final Map<BufferedWriter, Socket> clientWriterSockets = new ConcurrentHashMap<>();
   private final List<ClientConnection> subscribedClients = new CopyOnWriteArrayList<>();
-  private final List<GreenHouse> greenHouses = new CopyOnWriteArrayList<>();
+  private final GreenHouseRegistry greenHouses = new GreenHouseRegistry();
   private volatile boolean isOn = false;
   private ServerSocket serverSocket;
   private final MenuSystem menuSystem;
-  private static final String ENCRYPTION_ALGORITHM = "AES"; //Encryption functionality is made using AI
-  private static final SecretKey SECRET_KEY = new SecretKeySpec(Base64.getDecoder().decode("m0VxcSPFs+2cuMUfh6tjWMj90eihSDGpc1cLr/B9e1Y="), ENCRYPTION_ALGORITHM);
+  private final MessageCipher messageCipher = MessageCipher.getInstance();
   private int activeMonitoringClients = 0;
+  private final Object monitorLock = new Object();
   private final Map<BufferedWriter, Integer> clientGreenhouseMap = new ConcurrentHashMap<>();
+  private final Map<BufferedWriter, ClientConnection> monitorConnections = new ConcurrentHashMap<>();
+  private final Map<Integer, Set<ClientConnection>> greenhouseMonitors = new ConcurrentHashMap<>();
+  private final Map<ClientConnection, MonitorSubscription> monitorSubscriptions = new ConcurrentHashMap<>();
+  private final Map<Integer, MonitorStream> monitorStreams = new ConcurrentHashMap<>();
+  private volatile int outboundQueueCapacity = DEFAULT_OUTBOUND_QUEUE_CAPACITY;
+  private volatile ClientConnection.OverflowPolicy overflowPolicy = ClientConnection.OverflowPolicy.COALESCE_LATEST;
+  private final LongAdder droppedFrames = new LongAdder();
+  private volatile TimeSeriesStore timeSeries = null;
+  private ScheduledExecutorService timeSeriesFlusher = null;
+  private final SensorRollups rollups = new SensorRollups();
+  private Path dataDirectory = DEFAULT_DATA_DIRECTORY;
+  private PersistenceService persistence = createPersistence(DEFAULT_DATA_DIRECTORY);
+  private WriteAheadLog writeAheadLog = null;
+  private int maxLoadedGreenHouses = 0;
+  private ExecutorService evictor = null;
+  private volatile Map<Integer, Long> startupLogSequences = null;
+  private volatile boolean loggingMutations = false;
+  private volatile ExecutorService logSyncer = null;
+  private final ThreadLocal<DeferredDurability> deferredDurability = new ThreadLocal<>();
 
 
   /**
-   * Constructs a TCP server that will listen on the specified port.
+   * Constructs a TCP server that will listen on the specified port,
+   * handling each client in its own thread.
    *
    * @param port the port number on which the server will listen for connections
    */
   public TCPServer(int port) throws IllegalArgumentException {
+    this(port, ServerMode.THREAD_PER_CLIENT);
+  }
+
+  /**
+   * Constructs a TCP server that will listen on the specified port,
+   * serving its clients in the given mode.
+   *
+   * @param port the port number on which the server will listen for connections
+   * @param mode the way the server serves its clients
+   */
+  public TCPServer(int port, ServerMode mode) throws IllegalArgumentException {
+    this(port, mode, createClientExecutor(mode));
+  }
+
+  /**
+   * Constructs a TCP server that will listen on the specified port,
+   * running the handling of each blocking client as a task on the given executor.
+   *
+   * @param port           the port number on which the server will listen for connections
+   * @param mode           the way the server serves its clients
+   * @param clientExecutor the executor running one task per connected client,
+   *                       or null when the mode does not use one
+   */
+  public TCPServer(int port, ServerMode mode, ExecutorService clientExecutor) throws IllegalArgumentException {
     if (port < 0 || port > 65535) {
       throw new IllegalArgumentException("Port number must be between 0 and 65535.");
     }
+    if (clientExecutor == null && mode != ServerMode.NON_BLOCKING) {
+      throw new IllegalArgumentException("A server mode with a thread per client needs an executor.");
+    }
     this.port = port;
+    this.mode = mode;
+    this.clientExecutor = clientExecutor;
     this.menuSystem = new MenuSystem(greenHouses, this);
   }
 
+  /**
+   * Creates the executor that runs one task per connected client in the given mode.
+   *
+   * @param mode the way the server serves its clients
+   * @return an executor starting a new thread of the right kind for every client,
+   * or null if the mode does not handle clients on their own threads
+   */
+  private static ExecutorService createClientExecutor(ServerMode mode) {
+    return switch (mode) {
+      case THREAD_PER_CLIENT -> Executors.newThreadPerTaskExecutor(
+              Thread.ofPlatform().name("greenhouse-client-", 0).factory());
+      case VIRTUAL_THREADS -> Executors.newThreadPerTaskExecutor(
+              Thread.ofVirtual().name("greenhouse-client-", 0).factory());
+      case NON_BLOCKING -> null;
+    };
+  }
+
   /**
    * Starts the server and begins accepting client connections.
    * This method runs in a loop while the server is on, accepting and handling clients.
@@ -59,18 +167,31 @@ public class TCPServer extends ClockSubscriber {
   public void run() {
     if (!isOn) {
       startServer();
-      initializeSavedGreenHouses();
+      replayWriteAheadLog(initializeSavedGreenHouses());
+      startupLogSequences = null;
+    }
+
+    if (mode == ServerMode.NON_BLOCKING) {
+      runNonBlocking();
+      return;
     }
 
-    try (ServerSocket ss = new ServerSocket(port)) {
+    try (ServerSocket ss = new ServerSocket(port, ACCEPT_BACKLOG)) {
       serverSocket = ss;
 
 
       while (isOn) {
         System.out.println("Server is listening on port " + port);
         Socket clientSocket = ss.accept();
+        clientSocket.setTcpNoDelay(true); // Responses are already coalesced per batch of commands
         System.out.println("New client connected: " + clientSocket.getInetAddress().getHostAddress());
-        new Thread(() -> handleClient(clientSocket)).start(); // Handle each client in a separate thread
+        clientSockets.add(clientSocket);
+        try {
+          clientExecutor.execute(() -> handleClient(clientSocket)); // Handle each client in a separate thread
+        } catch (RejectedExecutionException e) {
+          clientSockets.remove(clientSocket);
+          clientSocket.close();
+        }
       }
     } catch (IOException e) {
       if (isOn) {
@@ -82,42 +203,101 @@ public class TCPServer extends ClockSubscriber {
     }
   }
 
+  /**
+   * Accepts and serves clients through the non-blocking selector front-end,
+   * with one event loop per available processor.
+   */
+  private void runNonBlocking() {
+    try (ServerSocketChannel channel = ServerSocketChannel.open()) {
+      channel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+      serverSocket = channel.socket();
+      System.out.println("Server is listening on port " + port + " (non-blocking)");
+
+      SelectorServer selectorServer = new SelectorServer(this, menuSystem,
+              Runtime.getRuntime().availableProcessors());
+      selectorServer.run(channel);
+    } catch (IOException e) {
+      if (isOn) {
+        e.printStackTrace();
+      }
+    } finally {
+      serverSocket = null;
+    }
+  }
+
   /**
    * Handles communication with a connected client.
    * Reads messages from the client and processes them until the client disconnects
    * or sends an exit command.
    * <p>
+   * The client starts out in the text protocol. If its first line is the binary protocol
+   * handshake, the rest of the session uses binary frames instead. Either way the client may
+   * send commands without waiting for the responses, which are then written once per batch.
+   * <p>
    * Upon receiving an exit command or a null message, the client is removed from the list of subscribed clients.
    *
    * @param clientSocket the socket connection to the client
    */
   private void handleClient(Socket clientSocket) {
 
-    try (clientSocket; BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-         BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(clientSocket.getOutputStream()))) {
-
-      writer.write(encryptMessage("Welcome to the Greenhouse Server!"));
-      writer.newLine();
-
-
-        while (isOn && !clientSocket.isClosed()) {
-          menuSystem.showStartMenu(writer);
-
+    try (clientSocket; BatchingOutputStream output = new BatchingOutputStream(clientSocket.getOutputStream());
+         BufferedReader reader = new PipelinedReader(new InputStreamReader(clientSocket.getInputStream()), output);
+         BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output))) {
 
-          String encryptedMessage = reader.readLine(); // message is null if client abruptly disconnects
-          String decryptedMessage = decryptMessage(encryptedMessage);
-          System.out.println(decryptedMessage);
+      clientWriterSockets.put(writer, clientSocket);
+      welcomeClient(writer);
+      menuSystem.showStartMenu(writer);
 
-          if (decryptedMessage == null || decryptedMessage.equalsIgnoreCase("exit")) {
-            removeSubscriber(clientSocket);
-            break;
-          }
-          handleClientRequest(clientSocket, decryptedMessage, reader, writer);
-        }
-      } catch (IOException e) {
+      String encryptedMessage = reader.readLine(); // message is null if client abruptly disconnects
+      if (BinaryProtocol.HANDSHAKE.equals(encryptedMessage)) {
+        // The client sends nothing more until it has read the answer, so the reader holds nothing more
+        writer.write(BinaryProtocol.HANDSHAKE_ACCEPTED);
+        writer.newLine();
+        writer.flush();
+        BufferedWriter frameWriter = new FrameWriter(output);
+        clientWriterSockets.put(frameWriter, clientSocket);
+        BufferedReader frameReader = new PipelinedReader(new FrameReader(clientSocket.getInputStream()), output);
+        serveClient(clientSocket, frameReader, frameWriter, frameReader.readLine());
+      } else {
+        serveClient(clientSocket, reader, writer, encryptedMessage);
+      }
+    } catch (IOException e) {
       // Client disconnected abruptly (e.g., connection reset)
       removeSubscriber(clientSocket);
       System.out.println("Client disconnected: " + clientSocket.getInetAddress().getHostAddress());
+    } finally {
+      clientSockets.remove(clientSocket);
+      clientWriterSockets.values().remove(clientSocket);
+    }
+  }
+
+  /**
+   * Processes the messages of a client until the client disconnects or sends an exit command,
+   * showing the start menu before every message after the first.
+   *
+   * @param clientSocket The socket connection to the client
+   * @param reader The BufferedReader used to read messages from the client
+   * @param writer The BufferedWriter used to send responses back to the client
+   * @param encryptedMessage The first message of the client, already read
+   * @throws IOException If an I/O error occurs while communicating with the client
+   */
+  private void serveClient(Socket clientSocket, BufferedReader reader, BufferedWriter writer,
+                           String encryptedMessage) throws IOException {
+    while (true) {
+      String decryptedMessage = decryptMessage(encryptedMessage);
+      System.out.println(decryptedMessage);
+
+      if (decryptedMessage == null || decryptedMessage.equalsIgnoreCase("exit")) {
+        removeSubscriber(clientSocket);
+        break;
+      }
+      handleClientRequest(clientSocket, decryptedMessage, reader, writer);
+
+      if (!isOn || clientSocket.isClosed()) {
+        break;
+      }
+      menuSystem.showStartMenu(writer);
+      encryptedMessage = reader.readLine(); // message is null if client abruptly disconnects
     }
   }
 
@@ -133,15 +313,46 @@ public class TCPServer extends ClockSubscriber {
   private void handleClientRequest(Socket clientSocket, String message, BufferedReader reader, BufferedWriter writer) throws IOException{
     String command = message.toLowerCase().trim();
 
+    if (command.equals("greenhouses")) {
+      menuSystem.handleGreenhousesMenu(reader, writer);
+    } else {
+      handleServerCommand(command, writer);
+    }
+  }
+
+  /**
+   * Sends the welcome message to a newly connected client.
+   *
+   * @param writer The BufferedWriter used to send messages to the client
+   * @throws IOException If an I/O error occurs while writing
+   */
+  void welcomeClient(BufferedWriter writer) throws IOException {
+    writer.write(encryptMessage("Welcome to the Greenhouse Server!"));
+    writer.newLine();
+  }
+
+  /**
+   * Handles the commands of the start menu that do not open another menu.
+   *
+   * @param command The lower case, trimmed command received from the client
+   * @param writer The BufferedWriter used to send responses back to the client
+   * @throws IOException If an I/O error occurs while handling the command
+   */
+  void handleServerCommand(String command, BufferedWriter writer) throws IOException {
     switch (command) {
-      case "greenhouses" -> menuSystem.handleGreenhousesMenu(reader, writer);
       case "saveserverstate" -> {
-        try {
-          saveAllGreenHouses();
-          writer.write(encryptMessage("Successfully saved server state."));
-        } catch (IOException e) {
-          writer.write(encryptMessage("Failed to save server state. Please try again."));
-        }
+        writer.write(encryptMessage("Saving server state in the background."));
+        writer.newLine();
+        writer.flush();
+        persistence.requestSave(true).whenComplete((result, e) -> {
+          flushTimeSeries();
+          if (e != null) {
+            System.err.println("Failed to save server state: " + e.getMessage());
+            sendNotice(writer, "Failed to save server state. Please try again.");
+          } else {
+            sendNotice(writer, "Successfully saved server state.");
+          }
+        });
       }
       case "help" -> menuSystem.helpMessage(writer);
       default -> {
@@ -152,6 +363,24 @@ public class TCPServer extends ClockSubscriber {
     }
   }
 
+  /**
+   * Sends a message to a client from outside its session, such as the result of a background save.
+   * The message and its line separator are written in one call, so it is not cut into by output
+   * of the session that is written at the same time.
+   *
+   * @param writer The BufferedWriter of the client
+   * @param message The message to send
+   */
+  private void sendNotice(BufferedWriter writer, String message) {
+    char[] line = (encryptMessage(message) + System.lineSeparator()).toCharArray();
+    try {
+      writer.write(line);
+      writer.flush();
+    } catch (IOException e) {
+      // The client has disconnected, and the message was only for them
+    }
+  }
+
   /**
    * Handles a sensor reading request from the client and returns sensor data.
    *
@@ -172,7 +401,7 @@ public class TCPServer extends ClockSubscriber {
     }
     try {
       String[] parts = messageFromClient.split("-");
-      GreenHouse greenHouse = greenHouses.get(Integer.parseInt(parts[2].trim())); //This represents the greenhouse with the ID specified by the client.
+      GreenHouse greenHouse = greenHouses.require(Integer.parseInt(parts[2].trim())); //This represents the greenhouse with the ID specified by the client.
       parts[1] = parts[1].trim().toLowerCase(); //This represents the sensor(s)
 
       if (parts[1].equals("a")) {
@@ -194,6 +423,146 @@ public class TCPServer extends ClockSubscriber {
     }
   }
 
+  /**
+   * Handles a request for the latest readings of a sensor, oldest first, one reading per line.
+   *
+   * <p>Sensors keep no history until it is first requested, so the first request for a sensor
+   * starts recording its readings with room for {@value #SENSOR_HISTORY_CAPACITY} readings.</p>
+   *
+   * @param messageFromClient the command string in the format: "sensorHistory -<sensorId> [-<count>] -<greenhouseId>"
+   *                            <p>Examples:</p>
+   *                            <ul>
+   *                              <li>"sensorHistory -2 -0" - reads every kept reading of sensor 2 in greenhouse 0</li>
+   *                              <li>"sensorHistory -2 -10 -0" - reads the last 10 readings of sensor 2 in greenhouse 0</li>
+   *                            </ul>
+   * @return the readings of the sensor, or "Sensor not found with ID: <id>" if the sensor doesn't exist.
+   * @throws NoExistingGreenHouseException if there are no existing greenhouses in the list.
+   * @throws IOException if the message format is incorrect or cannot be parsed.
+   * @throws IllegalArgumentException if the sensor ID or count format is invalid.
+   */
+  public String handleSensorHistoryRequest(String messageFromClient) throws NoExistingGreenHouseException, IOException, IllegalArgumentException {
+    if (greenHouses.isEmpty()) {
+      throw new NoExistingGreenHouseException();
+    }
+    String[] parts = messageFromClient.split("-");
+    if (parts.length != 3 && parts.length != 4) {
+      throw new IOException("The user did not follow the example for input");
+    }
+    GreenHouse greenHouse = greenHouses.require(Integer.parseInt(parts[parts.length - 1].trim()));
+    int sensorId;
+    int count;
+    try {
+      sensorId = Integer.parseInt(parts[1].trim());
+      count = parts.length == 4 ? Integer.parseInt(parts[2].trim()) : SENSOR_HISTORY_CAPACITY;
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid sensor ID or count format.");
+    }
+    if (count < 1) {
+      throw new IllegalArgumentException("The count of readings must be positive.");
+    }
+
+    Sensor<?> sensor = greenHouse.getSensor(sensorId);
+    if (sensor == null) {
+      return "Sensor not found with ID: " + sensorId;
+    }
+    ReadingHistory history = sensor.getHistory();
+    if (history == null) {
+      sensor.enableHistory(SENSOR_HISTORY_CAPACITY);
+      return "Started recording the readings of sensor " + sensorId + ". Request its history again later.";
+    }
+
+    long[] timestamps = new long[Math.min(count, history.capacity())];
+    double[] values = new double[timestamps.length];
+    int read = history.copyLatest(timestamps, values);
+    if (read == 0) {
+      return "No readings recorded yet for sensor " + sensorId + ".";
+    }
+    StringBuilder sb = new StringBuilder();
+    for (int i = 0; i < read; i++) {
+      sb.append(Instant.ofEpochMilli(timestamps[i])).append(' ').append(values[i]).append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Handles a request for statistics of sensor readings over the last hours: their count,
+   * minimum, maximum, mean, standard deviation and percentiles. The statistics are merged from
+   * the rollup buckets, not computed from the readings.
+   *
+   * @param messageFromClient the command string in the format:
+   *                          "aggregate -<sensorId|sensorType> -<hours> [-<minute|hour|day>] -<greenhouseId|'a'>"
+   *                            <p>Examples:</p>
+   *                            <ul>
+   *                              <li>"aggregate -temperature -6 -12" - the temperature in greenhouse 12
+   *                              over the last 6 hours</li>
+   *                              <li>"aggregate -nitrogen -168 -day -a" - the nitrogen in all greenhouses
+   *                              per day over the last week</li>
+   *                              <li>"aggregate -2 -24 -hour -0" - sensor 2 of greenhouse 0 per hour
+   *                              over the last day</li>
+   *                            </ul>
+   * @return the statistics over the whole period, or one line of statistics per window.
+   * @throws NoExistingGreenHouseException if the greenhouse does not exist.
+   * @throws IOException if the message format is incorrect or cannot be parsed.
+   * @throws IllegalArgumentException if the hours or window are invalid, or a sensor ID is
+   *                                  given without a greenhouse.
+   */
+  public String handleAggregateRequest(String messageFromClient) throws NoExistingGreenHouseException, IOException, IllegalArgumentException {
+    String[] parts = messageFromClient.split("-");
+    if (parts.length != 4 && parts.length != 5) {
+      throw new IOException("The user did not follow the example for input");
+    }
+    String greenHousePart = parts[parts.length - 1].trim().toLowerCase();
+    int greenHouseId = SensorRollups.ALL_GREENHOUSES;
+    if (!greenHousePart.equals("a")) {
+      greenHouseId = greenHouses.require(Integer.parseInt(greenHousePart)).getID();
+    }
+    String target = parts[1].trim().toLowerCase();
+    Integer sensorId = null;
+    if (!target.isEmpty() && target.chars().allMatch(Character::isDigit)) {
+      if (greenHouseId == SensorRollups.ALL_GREENHOUSES) {
+        throw new IllegalArgumentException("A sensor ID needs a greenhouse.");
+      }
+      sensorId = Integer.parseInt(target);
+    }
+    long hours;
+    try {
+      hours = Long.parseLong(parts[2].trim());
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid number of hours.");
+    }
+    if (hours < 1 || hours > MAX_AGGREGATE_HOURS) {
+      throw new IllegalArgumentException("The number of hours must be between 1 and " + MAX_AGGREGATE_HOURS + ".");
+    }
+
+    long to = System.currentTimeMillis() + 1;
+    long from = to - hours * 3_600_000L;
+    if (parts.length == 4) {
+      return "Last " + hours + " hours: " + aggregate(greenHouseId, sensorId, target, from, to);
+    }
+    SensorRollups.Resolution window = SensorRollups.Resolution.valueOf(parts[3].trim().toUpperCase());
+    List<Long> starts = SensorRollups.windows(from, to, window);
+    if (starts.size() > MAX_AGGREGATE_WINDOWS) {
+      throw new IllegalArgumentException("Too many windows, choose a longer window.");
+    }
+    StringBuilder sb = new StringBuilder();
+    for (long start : starts) {
+      long end = start + window.getMillis();
+      sb.append(Instant.ofEpochMilli(start)).append(' ')
+              .append(aggregate(greenHouseId, sensorId, target, Math.max(start, from), Math.min(end, to)))
+              .append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Merges the rollups of one sensor, or of the sensors of a type, over a window.
+   */
+  private Aggregate aggregate(int greenHouseId, Integer sensorId, String sensorType, long from, long to) {
+    return sensorId != null
+            ? rollups.aggregate(greenHouseId, sensorId, from, to)
+            : rollups.aggregate(greenHouseId, sensorType, from, to);
+  }
+
   /**
    * Receive appliance status data from any sensor node.
    *
@@ -209,7 +578,7 @@ public class TCPServer extends ClockSubscriber {
     }
     try {
     String[] parts = message.split("-");
-      GreenHouse greenHouse = greenHouses.get(Integer.parseInt(parts[2].trim()));
+      GreenHouse greenHouse = greenHouses.require(Integer.parseInt(parts[2].trim()));
 
     parts[1] = parts[1].trim().toLowerCase();
 
@@ -245,14 +614,14 @@ public class TCPServer extends ClockSubscriber {
     if (greenHouses.isEmpty()) {
       throw new NoExistingGreenHouseException();
     }
-    try {
+    try (Mutation mutation = new Mutation(LOG_TOGGLE_APPLIANCE, message)) {
       String[] parts = message.split("-");
-      GreenHouse greenHouse = greenHouses.get(Integer.parseInt(parts[2].trim()));
+      GreenHouse greenHouse = mutation.pin(Integer.parseInt(parts[2].trim()));
       parts[1] = parts[1].trim().toLowerCase();
         try {
           Appliance appliance = greenHouse.getAppliance(Integer.parseInt(parts[1]));
           if (appliance != null) {
-            greenHouse.actuateAppliance(Integer.parseInt(parts[1]));
+            mutation.of(greenHouse).actuateAppliance(Integer.parseInt(parts[1]));
           } else {
             throw new IllegalArgumentException("Appliance not found with ID: " + parts[1]);
           }
@@ -265,23 +634,27 @@ public class TCPServer extends ClockSubscriber {
     }
 
   /**
-   * Creates a new greenhouse and adds it to the threadsafe array list.
+   * Creates a new greenhouse with the next free id and adds it to the registry.
+   *
+   * @return the message telling the client if the greenhouse was created, and if it was logged
    */
   public String createNewGreenhouse() {
+    Mutation mutation = new Mutation(LOG_CREATE_GREENHOUSE, "");
+    String result;
     try {
-      GreenHouse gh;
-      if (!greenHouses.isEmpty()) {
-        gh = new GreenHouse(greenHouses.getLast().getID() + 1);
-
-      } else {
-        gh = new GreenHouse(0);
-      }
-      this.greenHouses.add(gh);
-      return "GreenHouse created successfully.";
+      listenToReadings(mutation.create());
+      result = "GreenHouse created successfully.";
     } catch (Exception e) {
-      return "There was an error creating a new green house. Please try again.";
+      result = "There was an error creating a new green house. Please try again.";
     }
-
+    try {
+      mutation.close();
+    } catch (IOException e) {
+      // The greenhouse exists, so creating it again would make a second one
+      System.err.println("Could not log the new greenhouse: " + e.getMessage());
+      result = "GreenHouse created, but it could not be written to the log and may be lost if the server crashes.";
+    }
+    return result;
   }
 
   /**
@@ -299,16 +672,17 @@ public class TCPServer extends ClockSubscriber {
       throw new NoExistingGreenHouseException();
     }
 
-    try {
+    try (Mutation mutation = new Mutation(LOG_ADD_SENSORS, message)) {
       String[] parts = message.split("-");
       String[] sensors = parts[1].split(" ");
       int greenhouseId = Integer.parseInt(parts[2].trim());
+      for (String sensor : sensors) {
+        if (!SENSOR_TYPES.contains(sensor)) {
+          throw new SensorNotAddedToGreenHouseException(); // Before any sensor is added, so nothing is logged
+        }
+      }
 
-
-      GreenHouse targetGreenhouse = greenHouses.stream()
-              .filter(gh -> gh.getID() == greenhouseId)
-              .findFirst()
-              .orElseThrow(NoExistingGreenHouseException::new);
+      GreenHouse targetGreenhouse = mutation.require(greenhouseId);
 
       for (String sensor : sensors) {
 
@@ -343,15 +717,12 @@ public class TCPServer extends ClockSubscriber {
     if (greenHouses.isEmpty()) {
       throw new NoExistingGreenHouseException();
     }
-      try {
+      try (Mutation mutation = new Mutation(LOG_TEMPERATURE_TARGET, greenhouseAndTempTargetValue)) {
         String[] parts = greenhouseAndTempTargetValue.split("-");
         double temperatureTarget = Double.parseDouble(parts[1]);
         int greenhouseId = Integer.parseInt(parts[2].trim());
 
-        GreenHouse targetGreenhouse = greenHouses.stream()
-                .filter(gh -> gh.getID() == greenhouseId)
-                .findFirst()
-                .orElseThrow(NoExistingGreenHouseException::new);
+        GreenHouse targetGreenhouse = mutation.require(greenhouseId);
 
         targetGreenhouse.updateAirTemperatureTarget(temperatureTarget);
       } catch (NumberFormatException e) {
@@ -372,15 +743,12 @@ public class TCPServer extends ClockSubscriber {
     if (greenHouses.isEmpty()) {
       throw new NoExistingGreenHouseException();
     }
-    try {
+    try (Mutation mutation = new Mutation(LOG_HUMIDITY_TARGET, message)) {
       String[] parts = message.split("-");
       float humidityTarget = Float.parseFloat(parts[1].trim());
       int greenhouseId = Integer.parseInt(parts[2].trim());
 
-      GreenHouse targetGreenhouse = greenHouses.stream()
-              .filter(gh -> gh.getID() == greenhouseId)
-              .findFirst()
-              .orElseThrow(NoExistingGreenHouseException::new);
+      GreenHouse targetGreenhouse = mutation.require(greenhouseId);
 
       targetGreenhouse.updateAirHumidityTarget(humidityTarget);
     } catch (NumberFormatException e) {
@@ -401,21 +769,18 @@ public class TCPServer extends ClockSubscriber {
     if (greenHouses.isEmpty()) {
       throw new NoExistingGreenHouseException();
     }
-    try {
+    try (Mutation mutation = new Mutation(LOG_REMOVE_SENSOR, message)) {
       String[] parts = message.split("-");
       int sensorId = Integer.parseInt(parts[1].trim());
       int greenhouseId = Integer.parseInt(parts[2].trim());
 
-      GreenHouse targetGreenhouse = greenHouses.stream()
-              .filter(gh -> gh.getID() == greenhouseId)
-              .findFirst()
-              .orElseThrow(NoExistingGreenHouseException::new);
+      GreenHouse targetGreenhouse = mutation.pin(greenhouseId);
 
       if (targetGreenhouse.getSensor(sensorId) == null) {
         throw new IllegalArgumentException("Sensor not found with ID: " + sensorId);
       }
 
-      targetGreenhouse.removeSensor(sensorId);
+      mutation.of(targetGreenhouse).removeSensor(sensorId);
     } catch (NumberFormatException e) {
       throw new IllegalArgumentException("Invalid sensor ID format.");
     } catch (ArrayIndexOutOfBoundsException e) {
@@ -434,21 +799,18 @@ public class TCPServer extends ClockSubscriber {
     if (greenHouses.isEmpty()) {
       throw new NoExistingGreenHouseException();
     }
-    try {
+    try (Mutation mutation = new Mutation(LOG_REMOVE_APPLIANCE, message)) {
       String[] parts = message.split("-");
       int applianceId = Integer.parseInt(parts[1].trim());
       int greenhouseId = Integer.parseInt(parts[2].trim());
 
-      GreenHouse targetGreenhouse = greenHouses.stream()
-              .filter(gh -> gh.getID() == greenhouseId)
-              .findFirst()
-              .orElseThrow(NoExistingGreenHouseException::new);
+      GreenHouse targetGreenhouse = mutation.pin(greenhouseId);
 
       if (targetGreenhouse.getAppliance(applianceId) == null) {
         throw new IllegalArgumentException("Appliance not found with ID: " + applianceId);
       }
 
-      targetGreenhouse.removeAppliance(applianceId);
+      mutation.of(targetGreenhouse).removeAppliance(applianceId);
     } catch (NumberFormatException e) {
       throw new IllegalArgumentException("Invalid appliance ID format.");
     } catch (ArrayIndexOutOfBoundsException e) {
@@ -462,15 +824,17 @@ public class TCPServer extends ClockSubscriber {
       throw new NoExistingGreenHouseException();
     }
 
-    try {
+    try (Mutation mutation = new Mutation(LOG_ADD_APPLIANCES, message)) {
       String[] parts = message.split("-");
       String[] appliances = parts[1].split(" ");
       int greenhouseId = Integer.parseInt(parts[2].trim());
+      for (String appliance : appliances) {
+        if (!APPLIANCE_TYPES.contains(appliance)) {
+          throw new ApplianceNotAddedToGreenHouseException(); // Before any appliance is added, so nothing is logged
+        }
+      }
 
-      GreenHouse targetGreenhouse = greenHouses.stream()
-              .filter(gh -> gh.getID() == greenhouseId)
-              .findFirst()
-              .orElseThrow(NoExistingGreenHouseException::new);
+      GreenHouse targetGreenhouse = mutation.require(greenhouseId);
 
       for (String appliance : appliances) {
 
@@ -508,8 +872,8 @@ public class TCPServer extends ClockSubscriber {
    */
   public String getListOfAllGreenHouses() {
     StringBuilder result = new StringBuilder();
-    for (GreenHouse greenHouse : greenHouses) {
-      result.append("Greenhouse ").append(greenHouse.getID()).append(", ");
+    for (int id : greenHouses.ids()) {
+      result.append("Greenhouse ").append(id).append(", ");
     }
     return result.toString().trim();
   }
@@ -521,7 +885,7 @@ public class TCPServer extends ClockSubscriber {
    * @param subscriber the subscriber to be added
    */
   public void addSubscriber(Socket subscriber, BufferedWriter writer) {
-    this.subscribedClients.add(new ClientConnection(subscriber, writer));
+    this.subscribedClients.add(new ClientConnection(subscriber, writer, outboundQueueCapacity, overflowPolicy));
   }
 
   /**
@@ -530,8 +894,14 @@ public class TCPServer extends ClockSubscriber {
    * @param subscriber the subscriber to be removed
    */
   private void removeSubscriber(Socket subscriber) {
-    this.subscribedClients.removeIf(
-            clientConnection -> clientConnection.socket().equals(subscriber));
+    this.subscribedClients.removeIf(clientConnection -> {
+      if (!clientConnection.socket().equals(subscriber)) {
+        return false;
+      }
+      clientConnection.stop();
+      droppedFrames.add(clientConnection.getDroppedFrames());
+      return true;
+    });
   }
 
   public void sendMessageToClient(Socket clientSocket, BufferedWriter writer, String message) throws IOException {
@@ -553,10 +923,7 @@ public class TCPServer extends ClockSubscriber {
       return message;
     }
     try {
-      Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-      cipher.init(Cipher.ENCRYPT_MODE, SECRET_KEY);
-      byte[] encryptedBytes = cipher.doFinal(message.getBytes());
-      return Base64.getEncoder().encodeToString(encryptedBytes);
+      return messageCipher.encrypt(message);
     } catch (Exception e) {
       System.err.println("Encryption failed: " + e.getMessage());
       return message; // Return original message if encryption fails
@@ -574,11 +941,7 @@ public class TCPServer extends ClockSubscriber {
       return encryptedMessage;
     }
     try {
-      byte[] decodedBytes = Base64.getDecoder().decode(encryptedMessage);
-      Cipher cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
-      cipher.init(Cipher.DECRYPT_MODE, SECRET_KEY);
-      byte[] decryptedBytes = cipher.doFinal(decodedBytes);
-      return new String(decryptedBytes);
+      return messageCipher.decrypt(encryptedMessage);
     } catch (Exception e) {
       System.err.println("Decryption failed: " + e.getMessage());
       return encryptedMessage; // Return original message if decryption fails
@@ -587,25 +950,66 @@ public class TCPServer extends ClockSubscriber {
 
   /**
    * Notifies all registered subscribers with the provided update message.
-   * The message is sent to each subscriber's writer, and
-   * is sent over the network connection.
+   * The message is encrypted once and queued for each subscriber, whose own writer
+   * sends it over the network connection.
    * <p>
-   * If a notification fails to be sent to a subscriber,
+   * If a subscriber's connection has been closed, or it was disconnected for falling behind,
    * it's assumed the subscriber is no longer reachable and is removed from the list.
    */
   public void notifySubscribers(String updateMessage) {
+    ClientConnection.Frame update = ClientConnection.Frame.line(
+            (encryptMessage(updateMessage) + System.lineSeparator()).toCharArray());
     subscribedClients.removeIf(clientConnection -> {
-      try {
-        clientConnection.writer.write(encryptMessage(updateMessage));
-        clientConnection.writer.newLine();
-        clientConnection.writer.flush();
-        return false; // Notification sent successfully, i.e do not remove subscriber.
-      } catch (IOException e) {
-        return true; // There was an error in notifying the subscriber, so we remove it.
+      if (clientConnection.offer(update)) {
+        return false; // Notification queued successfully, i.e do not remove subscriber.
       }
+      droppedFrames.add(clientConnection.getDroppedFrames());
+      return true; // The subscriber is no longer reachable, so we remove it.
     });
   }
 
+  /**
+   * Sets how many updates may wait to be written to a subscribed or monitoring client.
+   * Applies to clients subscribing from now on.
+   *
+   * @param capacity the maximum number of updates waiting for each client
+   * @throws IllegalArgumentException if the capacity is less than one
+   */
+  public void setOutboundQueueCapacity(int capacity) throws IllegalArgumentException {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("The outbound queue must hold at least one update.");
+    }
+    this.outboundQueueCapacity = capacity;
+  }
+
+  /**
+   * Sets what happens to a new update for a client that already has a full queue of updates
+   * waiting to be written. Applies to clients subscribing from now on. Monitoring clients with a
+   * full queue are offered a snapshot rather than a delta, so what is dropped is not needed.
+   *
+   * @param overflowPolicy what to do with a new update when a client's queue is full
+   */
+  public void setOverflowPolicy(ClientConnection.OverflowPolicy overflowPolicy) {
+    this.overflowPolicy = overflowPolicy;
+  }
+
+  /**
+   * Returns the number of updates dropped because clients could not keep up with them,
+   * across all clients since the server was created.
+   *
+   * @return the number of dropped updates
+   */
+  public long getDroppedFrames() {
+    long dropped = droppedFrames.sum();
+    for (ClientConnection clientConnection : subscribedClients) {
+      dropped += clientConnection.getDroppedFrames();
+    }
+    for (ClientConnection clientConnection : monitorConnections.values()) {
+      dropped += clientConnection.getDroppedFrames();
+    }
+    return dropped;
+  }
+
   /**
    * Updates the server state to "on", allowing it to start accepting connections in the run loop.
    */
@@ -615,30 +1019,475 @@ public class TCPServer extends ClockSubscriber {
 
   /**
    * Updates the server state to "off", stopping it from accepting further connections in the run loop.
+   * Closes the connection of every client still being handled, and waits for their handlers
+   * and the saves they asked for to finish before returning.
    */
   public synchronized void stopServer() {
     this.isOn = false;
-    subscribedClients.forEach(clientConnection -> {
+    subscribedClients.forEach(ClientConnection::close);
+    subscribedClients.clear();
+    closeServer();
+    drainClients();
+    if (evictor != null) {
+      evictor.shutdown();
+    }
+    persistence.close();
+    closeWriteAheadLog();
+    closeTimeSeries();
+  }
+
+  /**
+   * Starts appending every reading of every sensor, in every greenhouse, to the given store.
+   * The readings gathered in memory are written every {@value #TIME_SERIES_FLUSH_SECONDS} seconds
+   * and after every save asked for by a client, so a crash loses at most the readings since then.
+   * The store is closed when the server is stopped.
+   *
+   * @param store the store to append the readings to
+   */
+  public synchronized void recordTimeSeries(TimeSeriesStore store) {
+    this.timeSeries = store;
+    if (timeSeriesFlusher == null) {
+      timeSeriesFlusher = Executors.newSingleThreadScheduledExecutor(
+              Thread.ofPlatform().name("greenhouse-timeseries-flush").daemon().factory());
+      timeSeriesFlusher.scheduleWithFixedDelay(this::flushTimeSeries,
+              TIME_SERIES_FLUSH_SECONDS, TIME_SERIES_FLUSH_SECONDS, TimeUnit.SECONDS);
+    }
+  }
+
+  /**
+   * Loads and saves the greenhouses in the given directory instead of resources/greenhouses.
+   * Must be called before the server is run.
+   *
+   * @param directory the directory of the greenhouse files and the binary snapshot
+   * @throws IllegalStateException if the server is already running
+   */
+  public void useDataDirectory(Path directory) throws IllegalStateException {
+    if (isOn) {
+      throw new IllegalStateException("The data directory cannot be changed while the server runs.");
+    }
+    persistence.close();
+    this.dataDirectory = directory;
+    this.persistence = createPersistence(directory);
+  }
+
+  /**
+   * Keeps at most the given number of greenhouses in memory. Saved greenhouses are only loaded
+   * from their files when a command or monitor first uses them, and moved on by the hours they
+   * were not loaded. When more greenhouses are in memory than allowed, the ones used least
+   * recently are written to their files and dropped from memory. A changed greenhouse is saved
+   * first. The binary snapshot is not used, as it would miss the greenhouses never loaded.
+   * Must be called before the server is run.
+   *
+   * @param maxLoaded the greatest number of greenhouses kept in memory
+   * @throws IllegalArgumentException if the number of greenhouses is less than 1
+   * @throws IllegalStateException    if the server is already running
+   */
+  public void useLazyLoading(int maxLoaded) throws IllegalArgumentException, IllegalStateException {
+    if (maxLoaded < 1) {
+      throw new IllegalArgumentException("At least one greenhouse must fit in memory.");
+    }
+    if (isOn) {
+      throw new IllegalStateException("Lazy loading cannot be turned on while the server runs.");
+    }
+    this.maxLoadedGreenHouses = maxLoaded;
+    if (evictor == null) {
+      evictor = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("greenhouse-evictor").daemon().factory());
+    }
+  }
+
+  /**
+   * Creates the service saving the greenhouses as JSON files and a binary snapshot in the given
+   * directory.
+   *
+   * @param directory the directory of the greenhouse files
+   * @return the persistence service
+   */
+  private PersistenceService createPersistence(Path directory) {
+    PersistenceService service =
+            new PersistenceService(greenHouses::values, new JsonWriter(directory, false), PERSISTENCE_THREADS);
+    service.useBinarySnapshot(directory.resolve(SNAPSHOT_FILE_NAME));
+    service.useMemoryCheck(greenHouses::isLoaded);
+    return service;
+  }
+
+  /**
+   * Logs every command that changes a greenhouse to the given write-ahead log before the command
+   * is answered, so the change survives a crash. When the server starts, the commands in the log
+   * that the saved greenhouses do not include are made again. Saves take their copy at a
+   * checkpoint of the log and delete the entries they cover. Must be called before the server
+   * is run. The log is closed when the server is stopped.
+   *
+   * @param log the log of the changes to the greenhouses
+   */
+  public void useWriteAheadLog(WriteAheadLog log) {
+    this.writeAheadLog = log;
+  }
+
+  /**
+   * Makes the commands in the write-ahead log again, after the saved greenhouses are loaded,
+   * skipping the commands a greenhouse's saved state already includes. Then starts logging
+   * new commands. Only commands that changed a greenhouse are logged, so an entry that fails
+   * to replay means the greenhouses differ from before the restart, which is reported.
+   *
+   * @param savedLogSequences the last log entry included by each saved greenhouse, by its id
+   */
+  private void replayWriteAheadLog(Map<Integer, Long> savedLogSequences) {
+    WriteAheadLog log = this.writeAheadLog;
+    if (log == null) {
+      return;
+    }
+    int replayed = 0;
+    int failed = 0;
+    try {
+      for (WriteAheadLog.Entry entry : log.read()) {
+        greenHouses.get(entry.greenHouseId()); // Loads a stored greenhouse and the entries its file includes
+        Long saved = savedLogSequences.get(entry.greenHouseId());
+        if (saved != null && entry.sequence() <= saved) {
+          continue;
+        }
+        replayed++;
+        try {
+          replay(entry);
+        } catch (Exception e) {
+          failed++;
+          System.err.println("Could not replay write-ahead log entry " + entry.sequence() + " of greenhouse "
+                  + entry.greenHouseId() + " (" + entry.command() + "):");
+          e.printStackTrace();
+        }
+      }
+    } catch (IOException e) {
+      System.err.println("Could not read the write-ahead log: " + e.getMessage());
+    }
+    if (replayed > 0) {
+      System.out.println("Replayed " + replayed + " logged changes to the greenhouses.");
+    }
+    if (failed > 0) {
+      System.err.println("WARNING: " + failed + " of the " + replayed + " logged changes could not be replayed, "
+              + "so the greenhouses they changed may differ from before the restart.");
+    }
+    persistence.useWriteAheadLog(log);
+    logSyncer = Executors.newSingleThreadExecutor(Thread.ofPlatform().name("greenhouse-log-sync").daemon().factory());
+    loggingMutations = true;
+  }
+
+  /**
+   * Lets the commands made by the calling thread return as soon as their write-ahead log entries
+   * are appended, instead of waiting for the entries to be on disk. The thread must collect the
+   * entries with {@link #takeDeferredLogSequence()} and hold back the answers to the commands
+   * until {@link #whenDurable(long)} completes. Stored greenhouses the commands look up are
+   * loaded in the background, see {@link GreenHouseRegistry#deferLoads()}. Used by the event
+   * loops, which must never wait for the disk.
+   */
+  void deferDurableWaits() {
+    deferredDurability.set(new DeferredDurability());
+    greenHouses.deferLoads();
+  }
+
+  /**
+   * Returns the last write-ahead log entry appended by the commands the calling thread made
+   * since this was last called, if it defers its durable waits.
+   *
+   * @return the sequence number of the entry, or 0 if no entry was appended
+   */
+  long takeDeferredLogSequence() {
+    DeferredDurability deferred = deferredDurability.get();
+    if (deferred == null) {
+      return 0;
+    }
+    long sequence = deferred.sequence;
+    deferred.sequence = 0;
+    return sequence;
+  }
+
+  /**
+   * Waits on the log sync thread until the given write-ahead log entry, and every entry before
+   * it, is on disk. The entries of many connections are written by the same fsync.
+   *
+   * @param sequence the sequence number of the entry
+   * @return a future completed when the entry is on disk, or completed exceptionally if the log
+   *         could not be written
+   */
+  CompletableFuture<Void> whenDurable(long sequence) {
+    WriteAheadLog log = this.writeAheadLog;
+    ExecutorService syncer = this.logSyncer;
+    if (log == null || syncer == null) {
+      return CompletableFuture.completedFuture(null); // The log was closed, which wrote every entry
+    }
+    try {
+      return CompletableFuture.runAsync(() -> {
+        try {
+          log.awaitDurable(sequence);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        }
+      }, syncer);
+    } catch (RejectedExecutionException e) {
+      return CompletableFuture.completedFuture(null); // The log is being closed, which writes every entry
+    }
+  }
+
+  /**
+   * The last write-ahead log entry appended by a thread that defers its durable waits.
+   */
+  private static final class DeferredDurability {
+    private long sequence = 0;
+  }
+
+  /**
+   * Makes a logged command again.
+   *
+   * @param entry the entry of the command
+   * @throws Exception if the command fails
+   */
+  private void replay(WriteAheadLog.Entry entry) throws Exception {
+    switch (entry.type()) {
+      case LOG_CREATE_GREENHOUSE -> {
+        if (greenHouses.get(entry.greenHouseId()) == null) {
+          GreenHouse greenHouse = new GreenHouse(entry.greenHouseId());
+          greenHouses.register(greenHouse);
+          listenToReadings(greenHouse);
+        }
+      }
+      case LOG_ADD_SENSORS -> addSensorsToGreenhouse(entry.command());
+      case LOG_ADD_APPLIANCES -> addAppliancesToGreenhouse(entry.command());
+      case LOG_TOGGLE_APPLIANCE -> toggleAppliance(entry.command());
+      case LOG_TEMPERATURE_TARGET -> updateGreenhouseTempTarget(entry.command());
+      case LOG_HUMIDITY_TARGET -> updateGreenhouseHumidityTarget(entry.command());
+      case LOG_REMOVE_SENSOR -> removeSensorFromGreenhouse(entry.command());
+      case LOG_REMOVE_APPLIANCE -> removeApplianceFromGreenhouse(entry.command());
+      default -> throw new IllegalStateException("Unknown write-ahead log entry type: " + entry.type());
+    }
+  }
+
+  /**
+   * A command changing a greenhouse, logged to the write-ahead log when it is closed. While it
+   * is open, no save takes its copy of the greenhouses. The command is only logged if it got as
+   * far as naming the greenhouse it changes, and closing waits until the entry is on disk,
+   * sharing the write with the other commands closed at the same time. On a thread that defers
+   * its durable waits, closing only records the entry, and the thread waits for it later. Such a
+   * thread does not wait for a save taking its copy either: the command is turned away with a
+   * {@link CommandWouldBlockException}, to be made again once the copy is taken.
+   * The greenhouse is pinned in the registry while the command runs, so it is not evicted
+   * before the change is made.
+   */
+  private final class Mutation implements AutoCloseable {
+    private final WriteAheadLog log;
+    private final byte type;
+    private final String command;
+    private int greenHouseId = -1;
+    private int pinnedId = -1;
+
+    private Mutation(byte type, String command) {
+      this.log = loggingMutations ? writeAheadLog : null;
+      this.type = type;
+      this.command = command;
+      if (log == null) {
+        return;
+      }
+      if (deferredDurability.get() == null) {
+        log.mutationLock().lock();
+      } else if (!log.mutationLock().tryLock()) {
+        throw new CommandWouldBlockException(log.whenCheckpointDone());
+      }
+    }
+
+    /**
+     * Finds the greenhouse the command changes and pins it, without naming it yet, for commands
+     * that may still find they have nothing to change.
+     *
+     * @param id the id of the greenhouse
+     * @return the greenhouse
+     * @throws NoExistingGreenHouseException if no greenhouse has the given id
+     */
+    private GreenHouse pin(int id) throws NoExistingGreenHouseException {
+      GreenHouse greenHouse = greenHouses.pin(id);
+      this.pinnedId = id;
+      return greenHouse;
+    }
+
+    /**
+     * Finds, pins and names the greenhouse the command changes.
+     *
+     * @param id the id of the greenhouse
+     * @return the greenhouse
+     * @throws NoExistingGreenHouseException if no greenhouse has the given id
+     */
+    private GreenHouse require(int id) throws NoExistingGreenHouseException {
+      return of(pin(id));
+    }
+
+    /**
+     * Creates a greenhouse, pins it and names it as the greenhouse the command changes.
+     *
+     * @return the new greenhouse
+     */
+    private GreenHouse create() {
+      GreenHouse greenHouse = greenHouses.createPinned();
+      this.pinnedId = greenHouse.getID();
+      return of(greenHouse);
+    }
+
+    /**
+     * Names the greenhouse the command changes.
+     *
+     * @param greenHouse the greenhouse
+     * @return the same greenhouse
+     */
+    private GreenHouse of(GreenHouse greenHouse) {
+      this.greenHouseId = greenHouse.getID();
+      return greenHouse;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        logCommand();
+      } finally {
+        if (pinnedId >= 0) {
+          greenHouses.unpin(pinnedId);
+        }
+      }
+    }
+
+    private void logCommand() throws IOException {
+      if (log == null) {
+        return;
+      }
+      long sequence;
+      try {
+        if (greenHouseId < 0) {
+          return;
+        }
+        sequence = log.append(type, greenHouseId, command);
+      } finally {
+        log.mutationLock().unlock();
+      }
+      DeferredDurability deferred = deferredDurability.get();
+      if (deferred != null) {
+        deferred.sequence = Math.max(deferred.sequence, sequence);
+        return;
+      }
+      log.awaitDurable(sequence);
+    }
+  }
+
+  /**
+   * Lets the sensors of a greenhouse add their readings to the rollups, and append them
+   * to the time-series store if the server records one.
+   *
+   * @param greenHouse the greenhouse whose readings are recorded
+   */
+  private void listenToReadings(GreenHouse greenHouse) {
+    int greenHouseId = greenHouse.getID();
+    greenHouse.setReadingListener((sensor, timestamp, value) -> {
+      rollups.record(greenHouseId, sensor, timestamp, value);
+      TimeSeriesStore store = this.timeSeries;
+      if (store != null) {
+        try {
+          store.append(greenHouseId, sensor.getId(), timestamp, value);
+        } catch (IOException e) {
+          e.printStackTrace();
+        }
+      }
+    });
+  }
+
+  /**
+   * Writes the entries still held in memory by the write-ahead log, and closes it.
+   */
+  private void closeWriteAheadLog() {
+    WriteAheadLog log = this.writeAheadLog;
+    if (log == null) {
+      return;
+    }
+    loggingMutations = false;
+    this.writeAheadLog = null;
+    ExecutorService syncer = this.logSyncer;
+    if (syncer != null) {
+      syncer.shutdown();
+      this.logSyncer = null;
+    }
+    try {
+      log.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Writes the readings held in memory by the time-series store, if the server records one.
+   */
+  private void flushTimeSeries() {
+    TimeSeriesStore store = this.timeSeries;
+    if (store == null) {
+      return;
+    }
+    try {
+      store.flush();
+    } catch (IOException e) {
+      System.err.println("Could not write the sensor readings: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Writes the readings still held in memory by the time-series store, and closes it.
+   */
+  private void closeTimeSeries() {
+    if (timeSeriesFlusher != null) {
+      timeSeriesFlusher.shutdown();
+      timeSeriesFlusher = null;
+    }
+    TimeSeriesStore store = this.timeSeries;
+    if (store == null) {
+      return;
+    }
+    this.timeSeries = null;
+    try {
+      store.close();
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+  }
+
+  /**
+   * Closes the sockets of all connected clients, which wakes up their handlers blocked in
+   * reading, and waits for the handlers to finish. Handlers still running after the drain
+   * timeout are interrupted.
+   */
+  private void drainClients() {
+    if (clientExecutor == null) {
+      return;
+    }
+    clientExecutor.shutdown();
+    clientSockets.forEach(clientSocket -> {
       try {
-        clientConnection.socket().close();
+        clientSocket.close();
       } catch (IOException e) {
         e.printStackTrace();
       }
     });
-    subscribedClients.clear();
-    closeServer();
+    try {
+      if (!clientExecutor.awaitTermination(CLIENT_DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+        clientExecutor.shutdownNow();
+      }
+    } catch (InterruptedException e) {
+      clientExecutor.shutdownNow();
+      Thread.currentThread().interrupt();
+    }
   }
 
   /**
-   * Closes the server socket to stop accepting new connections.
+   * Closes the server socket to stop accepting new connections, and saves every greenhouse,
+   * with the soil it has now, before returning.
    */
   private synchronized void closeServer() {
     try {
       if (serverSocket != null && !serverSocket.isClosed()) {
-        saveAllGreenHouses();
+        CompletableFuture<Void> save = persistence.requestSave(true);
         serverSocket.close();
+        save.join();
       }
-    } catch (IOException e) {
+    } catch (IOException | CompletionException e) {
       e.printStackTrace();
     }
   }
@@ -652,133 +1501,321 @@ public class TCPServer extends ClockSubscriber {
     return isOn;
   }
 
-  private void saveAllGreenHouses() throws IOException {
-    JsonWriter writer = new JsonWriter();
-    for (GreenHouse greenHouse : this.greenHouses) {
-      writer.saveGreenhouse(greenHouse);
+  /**
+   * Loads the saved greenhouses from the data directory and adds them to the registry. They are
+   * loaded from the binary snapshot when there is one that can be read, and from the JSON files
+   * otherwise. How long the load took is reported.
+   *
+   * @return the last write-ahead log entry included by each greenhouse loaded, by its id
+   */
+  private Map<Integer, Long> initializeSavedGreenHouses() {
+    Path snapshot = dataDirectory.resolve(SNAPSHOT_FILE_NAME);
+    if (maxLoadedGreenHouses > 0) {
+      return registerStoredGreenHouses(snapshot);
     }
+    Map<Integer, Long> savedLogSequences = new HashMap<>();
+    if (Files.exists(snapshot)) {
+      Map<GreenHouse, Long> loaded = new LinkedHashMap<>();
+      try {
+        long start = System.nanoTime();
+        BinarySnapshot.read(snapshot, loaded::put);
+        loaded.forEach((greenHouse, logSequence) -> addSavedGreenHouse(greenHouse, logSequence, savedLogSequences));
+        System.out.printf("Loaded %d greenhouses from the snapshot in %.1f ms%n",
+                loaded.size(), (System.nanoTime() - start) / 1e6);
+        return savedLogSequences;
+      } catch (IOException e) {
+        System.err.println("Could not read the greenhouse snapshot, loading the JSON files: " + e.getMessage());
+      }
+    }
+    try {
+      GreenHouseLoader loader = new GreenHouseLoader(new JsonReader(dataDirectory), LOADER_THREADS);
+      GreenHouseLoader.Report report = loader.load((greenHouse, logSequence) ->
+              addSavedGreenHouse(greenHouse, logSequence, savedLogSequences));
+      System.out.println(report);
+    } catch (IOException e) {
+      System.err.println("Could not load the saved greenhouses: " + e.getMessage());
+    }
+    return savedLogSequences;
   }
 
-  private void initializeSavedGreenHouses() {
+  /**
+   * Registers every greenhouse with a file in the data directory without loading it, for lazy
+   * loading. The binary snapshot is deleted, as the files are changed without it from now on.
+   *
+   * @param snapshot the binary snapshot file
+   * @return the map the last write-ahead log entry included by each greenhouse is put in when it
+   * is loaded, by its id
+   */
+  private Map<Integer, Long> registerStoredGreenHouses(Path snapshot) {
+    Map<Integer, Long> savedLogSequences = new ConcurrentHashMap<>();
+    startupLogSequences = savedLogSequences;
+    persistence.useBinarySnapshot(null);
+    greenHouses.useStorage(new DataDirectoryStorage(new JsonReader(dataDirectory)), maxLoadedGreenHouses, evictor);
     try {
-      JsonReader reader = new JsonReader();
-      List<GreenHouseDTO> greenhousesDTO = reader.readAllGreenHouses();
-
-      for (GreenHouseDTO greenhouseDTO : greenhousesDTO) {
-        AirDTO airDTO = greenhouseDTO.getAir();
-        Air air = new Air(airDTO.getTargetTemperature(),
-                airDTO.getTargetHumidity(),
-                airDTO.getTargetLux());
-
-        SoilDTO soilDTO = greenhouseDTO.getSoil();
-        Soil soil = new Soil(soilDTO.getSoilMoisture(),
-                soilDTO.getPhValue(),
-                soilDTO.getNitrogen());
-
-        int nextSensorId = greenhouseDTO.getNextSensorId();
-        int nextApplianceId = greenhouseDTO.getNextApplianceId();
-
-        // Create lists to hold sensors and appliances with their original IDs
-        List<Sensor<?>> sensorsToAdd = new CopyOnWriteArrayList<>();
-        List<Appliance> appliancesToAdd = new CopyOnWriteArrayList<>();
-
-        List<SensorDTO> sensors = greenhouseDTO.getSensors();
-        List<ApplianceDTO> appliances = greenhouseDTO.getAppliances();
-
-        for (SensorDTO sensorDTO : sensors) {
-          String sensorType = sensorDTO.getType().toLowerCase();
-          int sensorId = sensorDTO.getId();
-
-          switch (sensorType) {
-            case "humidity", "humiditysensor" -> sensorsToAdd.add(new HumiditySensor(sensorId, air));
-            case "light", "lightsensor" -> sensorsToAdd.add(new LightSensor(sensorId, air));
-            case "ph", "phsensor" -> sensorsToAdd.add(new PHSensor(sensorId, soil));
-            case "temperature", "temperaturesensor" -> sensorsToAdd.add(new TemperatureSensor(sensorId, air));
-            case "moisture", "moisturesensor" -> sensorsToAdd.add(new MoistureSensor(sensorId, soil));
-            case "nitrogen", "nitrogensensor" -> sensorsToAdd.add(new NitrogenSensor(sensorId, soil));
-            default -> System.err.println("Unknown sensor type: " + sensorType);
-          }
-        }
+      Files.deleteIfExists(snapshot);
+      List<Integer> ids = new JsonReader(dataDirectory).listGreenHouseIds();
+      for (int id : ids) {
+        greenHouses.registerStored(id);
+      }
+      System.out.println("Found " + ids.size() + " saved greenhouses, loading them when first used.");
+    } catch (IOException e) {
+      System.err.println("Could not list the saved greenhouses: " + e.getMessage());
+    }
+    return savedLogSequences;
+  }
 
-        for (ApplianceDTO applianceDTO : appliances) {
-          String applianceType = applianceDTO.getType().toLowerCase();
-          int applianceId = applianceDTO.getId();
-
-          switch (applianceType) {
-            case "aircondition" -> appliancesToAdd.add(new Aircondition(applianceId));
-            case "lamp" -> appliancesToAdd.add(new Lamp(applianceId));
-            case "humidifier" -> appliancesToAdd.add(new Humidifier(applianceId));
-            case "sprinkler" -> {
-              Sprinkler sprinkler = new Sprinkler(applianceId);
-              sprinkler.addSoil(soil);
-              appliancesToAdd.add(sprinkler);
-            }
-            case "fertilizer" -> {
-              Fertilizer fertilizer = new Fertilizer(applianceId);
-              fertilizer.addSoil(soil);
-              appliancesToAdd.add(fertilizer);
-            }
-            case "limer" -> {
-              Limer limer = new Limer(applianceId);
-              limer.addSoil(soil);
-              appliancesToAdd.add(limer);
-            }
-            default -> System.err.println("Unknown appliance type: " + applianceType);
-          }
-        }
+  /**
+   * Loads greenhouses from their files in the data directory, and writes them back when they
+   * are evicted from memory.
+   */
+  private final class DataDirectoryStorage implements GreenHouseRegistry.Storage {
+    private final JsonReader reader;
 
-        // Create greenhouse with pre-populated lists
-        GreenHouse greenHouse = new GreenHouse(greenhouseDTO.getGreenHouseId(),
-                soil, air, nextSensorId, nextApplianceId,
-                sensorsToAdd, appliancesToAdd);
+    private DataDirectoryStorage(JsonReader reader) {
+      this.reader = reader;
+    }
 
-        this.greenHouses.add(greenHouse);
+    /**
+     * Loads a greenhouse with the air it was saved with, so it can be moved on from there.
+     */
+    @Override
+    public GreenHouse load(int id) throws IOException {
+      GreenHouseDTO dto = reader.readGreenHouseFile(id);
+      GreenHouse greenHouse = GreenHouseLoader.toGreenHouse(dto);
+      AirDTO air = dto.getAir();
+      greenHouse.getAir().restore(air.getHumidity(), air.getLux(), air.getTemperature());
+      listenToReadings(greenHouse);
+      persistence.markSaved(greenHouse, dto.getLogSequence());
+      Map<Integer, Long> savedLogSequences = startupLogSequences;
+      if (savedLogSequences != null) {
+        savedLogSequences.put(id, dto.getLogSequence());
       }
+      return greenHouse;
+    }
 
-    } catch (IOException e) {
-      // Handle exception
+    @Override
+    public boolean store(GreenHouse greenHouse) throws IOException {
+      return persistence.storeIfSaved(greenHouse);
+    }
+  }
+
+  /**
+   * Adds a loaded greenhouse to the registry, starts listening to its readings, and marks it
+   * as saved so it is only written again once it changes.
+   *
+   * @param greenHouse        the loaded greenhouse
+   * @param logSequence       the last write-ahead log entry the greenhouse includes
+   * @param savedLogSequences the log entries included by the greenhouses loaded so far, by their id
+   */
+  private void addSavedGreenHouse(GreenHouse greenHouse, long logSequence, Map<Integer, Long> savedLogSequences) {
+    try {
+      this.greenHouses.register(greenHouse);
+      listenToReadings(greenHouse);
+      persistence.markSaved(greenHouse, logSequence);
+      savedLogSequences.put(greenHouse.getID(), logSequence);
+    } catch (IllegalArgumentException e) {
+      System.err.println("Skipping saved greenhouse: " + e.getMessage());
     }
   }
 
   /**
-   * Sends all sensor information of the greenhouse the client is listening to,
-   * to the client.
+   * Ticks the server after every greenhouse has been updated, so the updates sent to
+   * the monitoring clients show the state of the whole tick.
+   *
+   * @return the broadcast phase
+   */
+  @Override
+  Clock.Phase getPhase() {
+    return Clock.Phase.BROADCAST;
+  }
+
+  /**
+   * Sends what changed in every monitored greenhouse to the clients monitoring it. The delta of
+   * a greenhouse is worked out once per tick and holds the sensors whose readings changed or that
+   * were added, the sensors that were removed and the appliances whose state changed, numbered
+   * in sequence. It is built and encrypted once, and the same update is queued for every client
+   * monitoring that greenhouse without a filter. Clients with a filter are sent only the readings
+   * that moved out of their dead-band, and nothing if nothing did. A client that starts monitoring
+   * or asks for a resync is sent a snapshot instead, which the following deltas apply to, and so
+   * is a client whose queue is full, since queuing a delta would drop others. Clients
+   * using the binary protocol get the updates as numbers, the others as text. The tick never waits
+   * for a client to read its updates.
    */
   @Override
   public void tick() {
-    clientGreenhouseMap.entrySet().removeIf(entry -> {
-      try {
-        String sensorData = greenHouses.get(entry.getValue()).getAllSensorsInformation();
-        entry.getKey().write(encryptMessage(sensorData));
-        entry.getKey().newLine();
-        entry.getKey().flush();
-        return false; // Keep this client
-      } catch (IOException e) {
-        activeMonitoringClients--;
-        if (activeMonitoringClients == 0) {
-          stopListeningToGreenHouse();
+    greenhouseMonitors.forEach((greenhouseId, monitors) -> {
+      GreenHouse greenHouse = greenHouses.get(greenhouseId);
+      if (greenHouse == null) {
+        return;
+      }
+      MonitorStream stream = monitorStreams.computeIfAbsent(greenhouseId, MonitorStream::new);
+      BinaryProtocol.MonitorUpdate delta = stream.advance(greenHouse);
+      ClientConnection.Frame textUpdate = null;
+      ClientConnection.Frame binaryUpdate = null;
+
+      for (ClientConnection monitor : monitors) {
+        MonitorSubscription subscription = monitorSubscriptions.get(monitor);
+        if (subscription == null) {
+          continue;
+        }
+        MonitorFilter filter = subscription.getFilter();
+        BinaryProtocol.MonitorUpdate sent;
+        ClientConnection.Frame update;
+        if (delta != null && monitor.isFull()) {
+          // Queuing a delta now has queued updates dropped, leaving a gap in the deltas, so the
+          // client is sent a snapshot instead of having to notice the gap and ask for a resync
+          subscription.requestSnapshot();
+        }
+        if (subscription.takeSnapshotRequest()) {
+          sent = stream.snapshot();
+          filter.remember(sent);
+          update = createMonitorFrame(monitor, sent);
+        } else if (delta == null) {
+          continue;
+        } else if (!filter.isPassThrough()) {
+          sent = filterDelta(delta, filter, subscription.getLastSequence(), greenHouse);
+          if (sent == null) {
+            continue;
+          }
+          update = createMonitorFrame(monitor, sent);
+        } else if (monitor.isBinary()) {
+          sent = delta;
+          if (binaryUpdate == null) {
+            binaryUpdate = createMonitorFrame(monitor, delta);
+          }
+          update = binaryUpdate;
+        } else {
+          sent = delta;
+          if (textUpdate == null) {
+            textUpdate = createMonitorFrame(monitor, delta);
+          }
+          update = textUpdate;
+        }
+        subscription.setLastSequence(sent.sequence());
+        if (!monitor.offer(update)) {
+          // The client was disconnected or could not be written to, so we remove it
+          unsubscribeClientFromGreenhouseUpdates(monitor.writer());
         }
-        return true; // Remove this client
       }
     });
   }
 
+  /**
+   * Narrows the delta of a greenhouse down to what passes the filter of a client. Removed sensors
+   * and appliance changes are always kept.
+   *
+   * @param delta        the delta of the greenhouse on this tick
+   * @param filter       the filter of the client
+   * @param lastSequence the sequence number of the last update sent to the client
+   * @param greenHouse   the greenhouse
+   * @return the delta since the last update sent to the client, or null if nothing passed
+   */
+  private static BinaryProtocol.MonitorUpdate filterDelta(BinaryProtocol.MonitorUpdate delta, MonitorFilter filter,
+                                                          long lastSequence, GreenHouse greenHouse) {
+    filter.forget(delta.removedSensorIds());
+    List<Sensor<?>> changed = filter.select(greenHouse.getAllSensors());
+    if (changed.isEmpty() && delta.removedSensorIds().length == 0 && delta.applianceIds().length == 0) {
+      return null;
+    }
+    int[] sensorIds = new int[changed.size()];
+    byte[] sensorTypes = new byte[changed.size()];
+    float[] readings = new float[changed.size()];
+    for (int i = 0; i < sensorIds.length; i++) {
+      Sensor<?> sensor = changed.get(i);
+      sensorIds[i] = sensor.getId();
+      sensorTypes[i] = BinaryProtocol.sensorTypeCode(sensor.getType());
+      readings[i] = (float) sensor.getReading();
+    }
+    return new BinaryProtocol.MonitorUpdate(delta.greenhouseId(), delta.sequence(), lastSequence,
+            sensorIds, sensorTypes, readings, delta.removedSensorIds(), delta.applianceIds(), delta.applianceStates());
+  }
+
+  /**
+   * Creates the update of a monitoring client holding an encrypted monitor update, as a frame
+   * for clients using the binary protocol and as text for the others.
+   *
+   * @param monitor the client the update is for
+   * @param update  the monitor update
+   * @return the update, which writes nothing if it could not be encrypted
+   */
+  private ClientConnection.Frame createMonitorFrame(ClientConnection monitor, BinaryProtocol.MonitorUpdate update) {
+    if (!monitor.isBinary()) {
+      return createTextFrame(BinaryProtocol.renderMonitorUpdate(update));
+    }
+    try {
+      byte[] plaintext = BinaryProtocol.encodeMonitorUpdate(update);
+      byte[] payload = messageCipher.encryptBytes(plaintext, 0, plaintext.length);
+      return writer -> ((FrameWriter) writer).writeFrame(BinaryProtocol.MONITOR_UPDATE, payload);
+    } catch (Exception e) {
+      System.err.println("Encryption failed: " + e.getMessage());
+      return writer -> { };
+    }
+  }
+
+  /**
+   * Creates the text protocol update holding the given encrypted text.
+   *
+   * @param text the text of the update
+   * @return the update, written as one line
+   */
+  private ClientConnection.Frame createTextFrame(String text) {
+    return ClientConnection.Frame.line((encryptMessage(text) + System.lineSeparator()).toCharArray());
+  }
+
+  /**
+   * Asks for a monitoring client to be sent a snapshot of its greenhouse on the next tick,
+   * after it missed an update. Does nothing if the client is not monitoring.
+   *
+   * @param writer The BufferedWriter of the client
+   */
+  public void requestMonitorResync(BufferedWriter writer) {
+    ClientConnection monitor = monitorConnections.get(writer);
+    MonitorSubscription subscription = monitor == null ? null : monitorSubscriptions.get(monitor);
+    if (subscription != null) {
+      subscription.requestSnapshot();
+    }
+  }
+
 
   /**
    * Subscribes a client to receive real-time greenhouse sensor updates.
    * If this is the first client monitoring, subscribes the server to the Clock.
-   * Maps the client's writer to the specific greenhouse ID they are monitoring.
+   * Maps the client's writer to the specific greenhouse ID they are monitoring,
+   * and gives the client its own queue of updates waiting to be written.
    *
    * @param gh The greenhouse the client wants to monitor
    * @param writer The BufferedWriter used to send updates to the client
    */
   public void subscribeClientToGreenhouseUpdates(GreenHouse gh, BufferedWriter writer) {
-    clientGreenhouseMap.put(writer, gh.getID());
+    subscribeClientToGreenhouseUpdates(gh, writer, MonitorFilter.none());
+  }
 
-    if (activeMonitoringClients == 0) {
-      subscribe();
+  /**
+   * Subscribes a client to receive real-time greenhouse sensor updates that pass the given filter.
+   * The client is sent a snapshot of the greenhouse on the next tick, and deltas after that.
+   * If this is the first client monitoring, subscribes the server to the Clock.
+   *
+   * @param gh The greenhouse the client wants to monitor
+   * @param writer The BufferedWriter used to send updates to the client
+   * @param filter The filter choosing the readings sent to the client, used by this client only
+   */
+  public void subscribeClientToGreenhouseUpdates(GreenHouse gh, BufferedWriter writer, MonitorFilter filter) {
+    synchronized (monitorLock) {
+      if (clientGreenhouseMap.containsKey(writer)) {
+        unsubscribeClientFromGreenhouseUpdates(writer);
+      }
+      ClientConnection monitor = new ClientConnection(
+              clientWriterSockets.get(writer), writer, outboundQueueCapacity, overflowPolicy);
+      clientGreenhouseMap.put(writer, gh.getID());
+      monitorConnections.put(writer, monitor);
+      monitorSubscriptions.put(monitor, new MonitorSubscription(filter));
+      greenhouseMonitors.computeIfAbsent(gh.getID(), id -> ConcurrentHashMap.newKeySet()).add(monitor);
+
+      if (activeMonitoringClients == 0) {
+        subscribe();
+      }
+      activeMonitoringClients++;
     }
-    activeMonitoringClients++;
   }
 
   /**
@@ -789,12 +1826,22 @@ public class TCPServer extends ClockSubscriber {
    * @param writer The BufferedWriter of the client to unsubscribe
    */
   public void unsubscribeClientFromGreenhouseUpdates(BufferedWriter writer) {
-    Integer removed = clientGreenhouseMap.remove(writer);
-
-    if (removed != null) {
-      activeMonitoringClients--;
-      if (activeMonitoringClients == 0) {
-        stopListeningToGreenHouse();
+    synchronized (monitorLock) {
+      Integer removed = clientGreenhouseMap.remove(writer);
+      ClientConnection monitor = monitorConnections.remove(writer);
+
+      if (removed != null) {
+        monitor.stop();
+        monitorSubscriptions.remove(monitor);
+        droppedFrames.add(monitor.getDroppedFrames());
+        greenhouseMonitors.computeIfPresent(removed, (id, monitors) -> {
+          monitors.remove(monitor);
+          return monitors.isEmpty() ? null : monitors;
+        });
+        activeMonitoringClients--;
+        if (activeMonitoringClients == 0) {
+          stopListeningToGreenHouse();
+        }
       }
     }
   }
@@ -806,36 +1853,4 @@ public class TCPServer extends ClockSubscriber {
   public void stopListeningToGreenHouse() {
     Clock.getInstance().removeSubscriber(this);
   }
-
-  /**
-   * Record holding information about a client connection.
-   */
-  private record ClientConnection(Socket socket, BufferedWriter writer) {
-
-    /**
-     * Gets the socket connection to the client.
-     *
-     * @return the client socket
-     */
-    @Override
-    public Socket socket() {
-      return socket;
-    }
-
-    /**
-     * Gets the writer used to send messages to the client.
-     *
-     * @return the buffered writer
-     */
-    @Override
-    public BufferedWriter writer() {
-      return writer;
-    }
-
-
-  }
-
-
-
-
 }
@@ -0,0 +1,198 @@
+package greenhouse.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A hashed timing wheel deciding which clock subscribers are due on each tick of the Clock.
+ * <p>
+ * Every subscriber has a timer with its own period, counted in ticks of the Clock. The timers
+ * hang in a ring of slots, and each tick moves the wheel one slot on and only looks at the
+ * timers in that slot. Timers further away than one turn of the wheel count down the turns
+ * they have left. Scheduling, cancelling and changing the period of a timer take constant
+ * time, however many timers the wheel holds.
+ * <p>
+ * The wheel is not bound to a thread; every method locks the wheel while it runs.
+ */
+final class TimingWheel {
+  private static final int DEFAULT_SLOTS = 64;
+
+  private final Timer[] slots;
+  private final int mask;
+  private int cursor = 0;
+  private int size = 0;
+
+  /**
+   * The timer of one subscriber on the wheel.
+   */
+  static final class Timer {
+    private final ClockSubscriber subscriber;
+    private int period;
+    private int rounds;
+    private int slot = -1;
+    private Timer previous;
+    private Timer next;
+
+    private Timer(ClockSubscriber subscriber, int period) {
+      this.subscriber = subscriber;
+      this.period = period;
+    }
+
+    /**
+     * Returns the subscriber this timer is for.
+     *
+     * @return the subscriber
+     */
+    ClockSubscriber subscriber() {
+      return subscriber;
+    }
+  }
+
+  /**
+   * Creates a wheel with the default number of slots.
+   */
+  TimingWheel() {
+    this(DEFAULT_SLOTS);
+  }
+
+  /**
+   * Creates a wheel with the given number of slots.
+   *
+   * @param slots the number of slots, which must be a power of two
+   * @throws IllegalArgumentException if the number of slots is not a positive power of two
+   */
+  TimingWheel(int slots) throws IllegalArgumentException {
+    if (slots <= 0 || Integer.bitCount(slots) != 1) {
+      throw new IllegalArgumentException("The number of slots must be a power of two.");
+    }
+    this.slots = new Timer[slots];
+    this.mask = slots - 1;
+  }
+
+  /**
+   * Adds a timer for the subscriber, which first fires after the given number of ticks,
+   * and then once every period.
+   *
+   * @param subscriber the subscriber to tick
+   * @param period     the number of ticks between two ticks of the subscriber
+   * @param delay      the number of ticks until the subscriber is first ticked
+   * @return the timer of the subscriber
+   * @throws IllegalArgumentException if the period or delay is less than one tick
+   */
+  synchronized Timer schedule(ClockSubscriber subscriber, int period, int delay) throws IllegalArgumentException {
+    checkTicks(period);
+    checkTicks(delay);
+    Timer timer = new Timer(subscriber, period);
+    insert(timer, delay);
+    size++;
+    return timer;
+  }
+
+  /**
+   * Removes a timer from the wheel. Removing a timer that is not on the wheel does nothing.
+   *
+   * @param timer the timer to remove
+   */
+  synchronized void cancel(Timer timer) {
+    if (timer.slot >= 0) {
+      unlink(timer);
+      size--;
+    }
+  }
+
+  /**
+   * Changes the period of a timer. The timer next fires one new period from now.
+   *
+   * @param timer  the timer to change
+   * @param period the new number of ticks between two ticks of the subscriber
+   * @throws IllegalArgumentException if the period is less than one tick
+   */
+  synchronized void reschedule(Timer timer, int period) throws IllegalArgumentException {
+    checkTicks(period);
+    timer.period = period;
+    if (timer.slot >= 0) {
+      unlink(timer);
+      insert(timer, period);
+    }
+  }
+
+  /**
+   * Returns the number of ticks until a timer next fires.
+   *
+   * @param timer a timer on this wheel
+   * @return the number of ticks until the timer fires, at least one
+   */
+  synchronized int remainingTicks(Timer timer) {
+    int ahead = (timer.slot - cursor) & mask;
+    return (ahead == 0 ? slots.length : ahead) + timer.rounds * slots.length;
+  }
+
+  /**
+   * Moves the wheel one tick on, and returns the subscribers due on that tick.
+   * Their timers are put back on the wheel, one period further on.
+   *
+   * @return the subscribers to tick
+   */
+  synchronized List<ClockSubscriber> advance() {
+    cursor = (cursor + 1) & mask;
+    List<Timer> due = new ArrayList<>();
+    Timer timer = slots[cursor];
+    while (timer != null) {
+      Timer next = timer.next;
+      if (timer.rounds > 0) {
+        timer.rounds--;
+      } else {
+        unlink(timer);
+        due.add(timer);
+      }
+      timer = next;
+    }
+    List<ClockSubscriber> subscribers = new ArrayList<>(due.size());
+    for (Timer expired : due) {
+      insert(expired, expired.period);
+      subscribers.add(expired.subscriber);
+    }
+    return subscribers;
+  }
+
+  /**
+   * Returns the number of timers on the wheel.
+   *
+   * @return the number of timers
+   */
+  synchronized int size() {
+    return size;
+  }
+
+  private void insert(Timer timer, int delay) {
+    int slot = (cursor + delay) & mask;
+    timer.rounds = (delay - 1) / slots.length;
+    timer.slot = slot;
+    timer.previous = null;
+    timer.next = slots[slot];
+    if (timer.next != null) {
+      timer.next.previous = timer;
+    }
+    slots[slot] = timer;
+  }
+
+  private void unlink(Timer timer) {
+    if (timer.previous != null) {
+      timer.previous.next = timer.next;
+    } else {
+      slots[timer.slot] = timer.next;
+    }
+    if (timer.next != null) {
+      timer.next.previous = timer.previous;
+    }
+    timer.previous = null;
+    timer.next = null;
+    timer.slot = -1;
+  }
+
+  private static void checkTicks(int ticks) throws IllegalArgumentException {
+    if (ticks < 1) {
+      throw new IllegalArgumentException("A timer must be at least one tick long.");
+    }
+  }
+}
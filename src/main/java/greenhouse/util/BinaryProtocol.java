@@ -0,0 +1,364 @@
+package greenhouse.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * The binary version of the protocol between the server and its clients.
+ * <p>
+ * A connection starts out in the text protocol, where every message is a line of Base64 encoded
+ * AES ciphertext. A client that understands the binary protocol sends {@link #HANDSHAKE} as its
+ * first line, and sends nothing else until the server answers with {@link #HANDSHAKE_ACCEPTED}.
+ * The handshake contains a space, which is never part of Base64, so a server can not mistake it
+ * for a message. From then on both sides send frames instead of lines:
+ * <pre>
+ *   [int length][byte type][payload: length - 1 bytes]
+ * </pre>
+ * A payload too long for one frame is cut into {@link #CONTINUATION} frames followed by one frame
+ * of its own type holding the rest, which the reader joins back into one frame.
+ * The payload of a {@link #TEXT} frame is the AES ciphertext of a message, without Base64.
+ * The payload of a {@link #MONITOR_UPDATE} frame is the AES ciphertext of a snapshot or a delta
+ * of a monitored greenhouse:
+ * <pre>
+ *   [int greenhouse id][long sequence][long base sequence, or -1 for a snapshot]
+ *   [short sensor count] then per sensor: [int id][byte type][float reading]
+ *   [short removed sensor count] then per sensor: [int id]
+ *   [short appliance count] then per appliance: [int id][byte state]
+ * </pre>
+ */
+public final class BinaryProtocol {
+  /**
+   * The first line of a client asking for the binary protocol.
+   */
+  public static final String HANDSHAKE = "GREENHOUSE BINARY/1";
+
+  /**
+   * The line a server answers the handshake with, after which it only sends frames.
+   */
+  public static final String HANDSHAKE_ACCEPTED = "GREENHOUSE BINARY/1 OK";
+
+  /**
+   * A message, encrypted but not Base64 encoded.
+   */
+  public static final byte TEXT = 1;
+
+  // Type 2 carried the readings of all sensors in a greenhouse before monitor updates replaced it.
+  // It is not reused, so an older client fails on an unknown type instead of misreading a frame.
+
+  /**
+   * A message which could not be encrypted, as UTF-8 text.
+   */
+  public static final byte PLAIN_TEXT = 3;
+
+  /**
+   * A snapshot or delta of the sensors and appliances of a monitored greenhouse, encrypted.
+   */
+  public static final byte MONITOR_UPDATE = 4;
+
+  /**
+   * The first part of a payload too long for one frame. Its payload is joined with the payloads
+   * of the frames after it, up to and including the first frame of another type, which is
+   * the type of the whole payload.
+   */
+  public static final byte CONTINUATION = 5;
+
+  /**
+   * The state of an appliance that is switched off, or cannot be switched.
+   */
+  public static final byte APPLIANCE_OFF = 0;
+
+  /**
+   * The state of an appliance that is switched on.
+   */
+  public static final byte APPLIANCE_ON = 1;
+
+  /**
+   * The state of an appliance that has been removed from the greenhouse.
+   */
+  public static final byte APPLIANCE_REMOVED = 2;
+
+  /**
+   * The largest frame accepted, counting the type byte and the payload.
+   */
+  public static final int MAX_FRAME_LENGTH = 64 * 1024 - Integer.BYTES;
+
+  /**
+   * The longest payload accepted, after joining the frames it was cut into.
+   */
+  public static final int MAX_PAYLOAD_LENGTH = 16 * 1024 * 1024;
+
+  private static final String[] SENSOR_TYPES = {
+          "TemperatureSensor", "HumiditySensor", "LightSensor", "PHSensor", "MoistureSensor", "NitrogenSensor"
+  };
+  private static final int SENSOR_READING_LENGTH = Integer.BYTES + Byte.BYTES + Float.BYTES;
+  private static final int MONITOR_UPDATE_HEADER_LENGTH = Integer.BYTES + 2 * Long.BYTES;
+
+  private BinaryProtocol() {
+  }
+
+  /**
+   * A frame received from the other side.
+   *
+   * @param type    the type of the frame
+   * @param payload the payload of the frame
+   */
+  public record Frame(byte type, byte[] payload) {
+  }
+
+  /**
+   * A snapshot or delta of the sensors and appliances of a monitored greenhouse. A delta holds
+   * the sensors whose readings changed or that were added, the sensors that were removed, and
+   * the appliances whose state changed, since the update with the base sequence number.
+   *
+   * @param greenhouseId     the id of the greenhouse
+   * @param sequence         the sequence number of the update
+   * @param baseSequence     the sequence number of the update this delta applies to,
+   *                         or -1 if this is a snapshot replacing everything before it
+   * @param sensorIds        the ids of the sensors read
+   * @param sensorTypes      the type codes of the sensors read
+   * @param readings         the readings of the sensors read
+   * @param removedSensorIds the ids of the sensors removed
+   * @param applianceIds     the ids of the appliances whose state changed
+   * @param applianceStates  the new states of the appliances
+   */
+  public record MonitorUpdate(int greenhouseId, long sequence, long baseSequence,
+                              int[] sensorIds, byte[] sensorTypes, float[] readings, int[] removedSensorIds,
+                              int[] applianceIds, byte[] applianceStates) {
+
+    /**
+     * Returns true if the update replaces everything before it.
+     *
+     * @return true for a snapshot, false for a delta
+     */
+    public boolean isSnapshot() {
+      return baseSequence < 0;
+    }
+
+    /**
+     * Returns true if the update changes nothing.
+     *
+     * @return true if no sensor or appliance is in the update
+     */
+    public boolean isEmpty() {
+      return sensorIds.length == 0 && removedSensorIds.length == 0 && applianceIds.length == 0;
+    }
+  }
+
+  /**
+   * Writes a frame to the given stream, without flushing it. A payload too long for one frame
+   * is written as {@link #CONTINUATION} frames followed by a frame of the given type.
+   *
+   * @param out     the stream to write the frame to
+   * @param type    the type of the frame
+   * @param payload the payload of the frame
+   * @throws IOException if the frame could not be written, or the payload is longer than allowed
+   */
+  public static void writeFrame(OutputStream out, byte type, byte[] payload) throws IOException {
+    if (payload.length > MAX_PAYLOAD_LENGTH) {
+      throw new IOException("Payload of " + payload.length + " bytes is longer than " + MAX_PAYLOAD_LENGTH + " bytes.");
+    }
+    int part = MAX_FRAME_LENGTH - 1;
+    int offset = 0;
+    for (; payload.length - offset > part; offset += part) {
+      writeFramePart(out, CONTINUATION, payload, offset, part);
+    }
+    writeFramePart(out, type, payload, offset, payload.length - offset);
+  }
+
+  private static void writeFramePart(OutputStream out, byte type, byte[] payload, int offset, int count)
+          throws IOException {
+    int length = count + 1;
+    byte[] header = {(byte) (length >>> 24), (byte) (length >>> 16), (byte) (length >>> 8), (byte) length, type};
+    out.write(header);
+    out.write(payload, offset, count);
+  }
+
+  /**
+   * Reads the next frame from the given stream, waiting until it has arrived completely.
+   * A payload cut into {@link #CONTINUATION} frames is joined back into one frame.
+   *
+   * @param in the stream to read the frame from
+   * @return the frame, or null if the stream ended before a new frame started
+   * @throws IOException if the frame could not be read, or is longer than allowed
+   */
+  public static Frame readFrame(DataInputStream in) throws IOException {
+    Frame frame = readFramePart(in);
+    if (frame == null || frame.type() != CONTINUATION) {
+      return frame;
+    }
+    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+    while (frame.type() == CONTINUATION) {
+      payload.write(frame.payload());
+      frame = readFramePart(in);
+      if (frame == null) {
+        throw new EOFException("The stream ended inside a payload cut into frames.");
+      }
+      checkJoinedLength(payload.size() + frame.payload().length);
+    }
+    payload.write(frame.payload());
+    return new Frame(frame.type(), payload.toByteArray());
+  }
+
+  /**
+   * Checks the length of a payload joined from {@link #CONTINUATION} frames.
+   */
+  private static void checkJoinedLength(int length) throws IOException {
+    if (length > MAX_PAYLOAD_LENGTH) {
+      throw new IOException("Payload cut into frames is longer than " + MAX_PAYLOAD_LENGTH + " bytes.");
+    }
+  }
+
+  private static Frame readFramePart(DataInputStream in) throws IOException {
+    int length;
+    try {
+      length = in.readInt();
+    } catch (EOFException e) {
+      return null;
+    }
+    if (length < 1 || length > MAX_FRAME_LENGTH) {
+      throw new IOException("Invalid frame length: " + length);
+    }
+    byte type = in.readByte();
+    byte[] payload = new byte[length - 1];
+    in.readFully(payload);
+    return new Frame(type, payload);
+  }
+
+  /**
+   * Returns the code a type of sensor has in {@link #MONITOR_UPDATE} frames.
+   *
+   * @param type the type of the sensor, e.g. "TemperatureSensor"
+   * @return the code of the sensor type, or 0 if the type is unknown
+   */
+  public static byte sensorTypeCode(String type) {
+    for (int i = 0; i < SENSOR_TYPES.length; i++) {
+      if (SENSOR_TYPES[i].equals(type)) {
+        return (byte) (i + 1);
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * Returns the type of sensor with the given code in {@link #MONITOR_UPDATE} frames.
+   *
+   * @param code the code of the sensor type
+   * @return the type of the sensor, or "Sensor" if the code is unknown
+   */
+  public static String sensorTypeName(byte code) {
+    if (code < 1 || code > SENSOR_TYPES.length) {
+      return "Sensor";
+    }
+    return SENSOR_TYPES[code - 1];
+  }
+
+  /**
+   * Encodes a monitor update as the plaintext of a {@link #MONITOR_UPDATE} frame.
+   *
+   * @param update the update
+   * @return the encoded update
+   */
+  public static byte[] encodeMonitorUpdate(MonitorUpdate update) {
+    ByteBuffer buffer = ByteBuffer.allocate(MONITOR_UPDATE_HEADER_LENGTH + 3 * Short.BYTES
+            + update.sensorIds().length * SENSOR_READING_LENGTH
+            + update.removedSensorIds().length * Integer.BYTES
+            + update.applianceIds().length * (Integer.BYTES + Byte.BYTES));
+    buffer.putInt(update.greenhouseId()).putLong(update.sequence()).putLong(update.baseSequence());
+    buffer.putShort((short) update.sensorIds().length);
+    for (int i = 0; i < update.sensorIds().length; i++) {
+      buffer.putInt(update.sensorIds()[i]).put(update.sensorTypes()[i]).putFloat(update.readings()[i]);
+    }
+    buffer.putShort((short) update.removedSensorIds().length);
+    for (int id : update.removedSensorIds()) {
+      buffer.putInt(id);
+    }
+    buffer.putShort((short) update.applianceIds().length);
+    for (int i = 0; i < update.applianceIds().length; i++) {
+      buffer.putInt(update.applianceIds()[i]).put(update.applianceStates()[i]);
+    }
+    return buffer.array();
+  }
+
+  /**
+   * Decodes the plaintext of a {@link #MONITOR_UPDATE} frame.
+   *
+   * @param payload the encoded update
+   * @return the update
+   * @throws IllegalArgumentException if the update is not correctly encoded
+   */
+  public static MonitorUpdate decodeMonitorUpdate(byte[] payload) throws IllegalArgumentException {
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(payload);
+      int greenhouseId = buffer.getInt();
+      long sequence = buffer.getLong();
+      long baseSequence = buffer.getLong();
+      int sensorCount = buffer.getShort();
+      int[] sensorIds = new int[sensorCount];
+      byte[] sensorTypes = new byte[sensorCount];
+      float[] readings = new float[sensorCount];
+      for (int i = 0; i < sensorCount; i++) {
+        sensorIds[i] = buffer.getInt();
+        sensorTypes[i] = buffer.get();
+        readings[i] = buffer.getFloat();
+      }
+      int[] removedSensorIds = new int[buffer.getShort()];
+      for (int i = 0; i < removedSensorIds.length; i++) {
+        removedSensorIds[i] = buffer.getInt();
+      }
+      int applianceCount = buffer.getShort();
+      int[] applianceIds = new int[applianceCount];
+      byte[] applianceStates = new byte[applianceCount];
+      for (int i = 0; i < applianceCount; i++) {
+        applianceIds[i] = buffer.getInt();
+        applianceStates[i] = buffer.get();
+      }
+      return new MonitorUpdate(greenhouseId, sequence, baseSequence, sensorIds, sensorTypes, readings,
+              removedSensorIds, applianceIds, applianceStates);
+    } catch (java.nio.BufferUnderflowException | NegativeArraySizeException e) {
+      throw new IllegalArgumentException("Monitor update is too short.");
+    }
+  }
+
+  /**
+   * Renders a monitor update as text: a line naming the update, then one line per sensor
+   * read or removed and per appliance changed.
+   *
+   * @param update the update
+   * @return the update as text
+   */
+  public static String renderMonitorUpdate(MonitorUpdate update) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("Greenhouse ").append(update.greenhouseId()).append(" update #").append(update.sequence())
+            .append(update.isSnapshot() ? " (snapshot)" : " (since #" + update.baseSequence() + ")").append("\n");
+    for (int i = 0; i < update.sensorIds().length; i++) {
+      sb.append(sensorTypeName(update.sensorTypes()[i])).append("{id=").append(update.sensorIds()[i])
+              .append(", reading=").append(update.readings()[i]).append("}\n");
+    }
+    for (int id : update.removedSensorIds()) {
+      sb.append("Sensor ").append(id).append(" removed\n");
+    }
+    for (int i = 0; i < update.applianceIds().length; i++) {
+      sb.append("Appliance ").append(update.applianceIds()[i]).append(' ')
+              .append(applianceStateName(update.applianceStates()[i])).append("\n");
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Returns the name of an appliance state in {@link #MONITOR_UPDATE} frames.
+   *
+   * @param state the state
+   * @return "off", "on" or "removed"
+   */
+  public static String applianceStateName(byte state) {
+    return switch (state) {
+      case APPLIANCE_ON -> "on";
+      case APPLIANCE_REMOVED -> "removed";
+      default -> "off";
+    };
+  }
+}
@@ -24,6 +24,38 @@ public class CommandProcessor {
                 + "Example: 'sensorreading -2' will read the sensor with id 2 in the greenhouse you're in the menu of."
                 + "Likewise, 'sensorreading -a' will read all sensors in the greenhouse you're in the menu of.";
 
+        case "sensorhistory" -> "To see the latest readings of a sensor, use the command: "
+                + "sensorhistory -<id> -<count>\n"
+                + "Where <id> is the sensor id and <count> is the number of readings to show, oldest first.\n"
+                + "Leave out -<count> to show every reading kept, up to the last 64.\n"
+                + "Sensors start recording their readings the first time their history is requested.\n"
+                + "Example: 'sensorhistory -2 -10' will show the last 10 readings of the sensor with id 2 "
+                + "in the greenhouse you're in the menu of.";
+
+        case "aggregate" -> "To see statistics of sensor readings over the last hours, use the command: "
+                + "aggregate -<sensor> -<hours> -<window>\n"
+                + "Where <sensor> is a sensor id or a sensor type (e.g., temperature, nitrogen), "
+                + "and <window> is minute, hour or day.\n"
+                + "Shows the count, min, max, mean, standard deviation and the 50th, 90th and 99th percentiles.\n"
+                + "Leave out -<window> for the statistics of the whole period.\n"
+                + "Example: 'aggregate -temperature -6' shows the temperature over the last 6 hours "
+                + "in the greenhouse you're in the menu of.\n"
+                + "In the greenhouses menu, a sensor type covers all greenhouses.\n"
+                + "Example: 'aggregate -nitrogen -168 -day' shows the nitrogen in all greenhouses per day this week.";
+
+        case "monitor" -> "To monitor the sensors of a greenhouse in real-time, use the command: "
+                + "monitor -onchange -<type> <amount>\n"
+                + "Both options are optional and can be repeated for several sensor types.\n"
+                + "'-onchange' only sends readings that changed since they were last sent.\n"
+                + "'-<type> <amount>' only sends readings of that sensor type that moved more than the amount, "
+                + "or more than a percentage if the amount ends with '%'.\n"
+                + "Example: 'monitor -temperature 0.5 -humidity 2%' sends temperatures that moved more than 0.5 "
+                + "degrees and humidities that moved more than 2%.\n"
+                + "The first update is a snapshot of every sensor and appliance, the following updates only "
+                + "hold what changed, numbered in sequence.\n"
+                + "Type 'resync' to be sent a new snapshot, e.g. after missing an update.\n"
+                + "Type 'stop' to stop monitoring.";
+
         case "addsensor" -> "To add a sensor to a greenhouse, use the command: "
                 + "addsensor -<type>.\n"
                 + "Where <type> is the type of sensor (e.g., temperature, humidity), \n"
@@ -109,6 +141,8 @@ public class CommandProcessor {
        addsensor <type> <id> <greenhouse_id> - Add a sensor to a greenhouse
        sensorreadings -'number' - View sensor readings for this sensor.
        sensorreadings -'a' - View all sensor readings in this greenhouse.
+       sensorhistory -'number' -'count' - View the latest readings of this sensor.
+       aggregate -'number|type' -'hours' -'window' - View statistics of sensor readings.
        
         
       Navigation:
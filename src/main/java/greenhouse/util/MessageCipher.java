@@ -0,0 +1,319 @@
+package greenhouse.util;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Encrypts and decrypts the messages sent between the server and its clients with AES,
+ * encoded as Base64 for safe transmission. Shared by the server and the client.
+ * <p>
+ * Looking up and initialising a Cipher costs far more than encrypting one short line, so
+ * initialised ciphers are kept in a bounded pool, each together with reusable buffers for the
+ * plaintext, the ciphertext and its Base64 encoding. A message is encoded, encrypted and Base64
+ * encoded between these buffers without creating intermediate strings.
+ */
+public final class MessageCipher {
+  private static final String ENCRYPTION_ALGORITHM = "AES"; // Encryption functionality is made using AI
+  private static final SecretKey SECRET_KEY = new SecretKeySpec(
+          Base64.getDecoder().decode("m0VxcSPFs+2cuMUfh6tjWMj90eihSDGpc1cLr/B9e1Y="), ENCRYPTION_ALGORITHM);
+  private static final int POOL_SIZE = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+  private static final MessageCipher INSTANCE = new MessageCipher(SECRET_KEY, POOL_SIZE);
+
+  private static final char[] BASE64_ALPHABET =
+          "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+  private static final int[] BASE64_VALUES = new int[128];
+
+  static {
+    Arrays.fill(BASE64_VALUES, -1);
+    for (int i = 0; i < BASE64_ALPHABET.length; i++) {
+      BASE64_VALUES[BASE64_ALPHABET[i]] = i;
+    }
+  }
+
+  private final SecretKey key;
+  private final BlockingQueue<CipherContext> encryptors;
+  private final BlockingQueue<CipherContext> decryptors;
+
+  /**
+   * Creates a message cipher using the given key.
+   *
+   * @param key      the AES key used for both encryption and decryption
+   * @param poolSize the maximum number of idle ciphers kept for each direction
+   */
+  public MessageCipher(SecretKey key, int poolSize) {
+    this.key = key;
+    this.encryptors = new ArrayBlockingQueue<>(poolSize);
+    this.decryptors = new ArrayBlockingQueue<>(poolSize);
+  }
+
+  /**
+   * Returns the message cipher using the key shared by the server and its clients.
+   *
+   * @return the shared message cipher
+   */
+  public static MessageCipher getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Encrypts a message and encodes it in Base64.
+   *
+   * @param message the plaintext message to encrypt
+   * @return the encrypted message encoded in Base64
+   * @throws GeneralSecurityException if the message could not be encrypted
+   */
+  public String encrypt(CharSequence message) throws GeneralSecurityException {
+    CipherContext context = takeContext(encryptors, Cipher.ENCRYPT_MODE);
+    int length = context.encrypt(message);
+    String encrypted = new String(context.base64, 0, length, StandardCharsets.ISO_8859_1);
+    encryptors.offer(context);
+    return encrypted;
+  }
+
+  /**
+   * Encrypts a message and writes its Base64 encoding to the given writer,
+   * without a line separator.
+   *
+   * @param message the plaintext message to encrypt
+   * @param writer  the writer to write the encrypted message to
+   * @throws GeneralSecurityException if the message could not be encrypted
+   * @throws IOException              if an I/O error occurs while writing
+   */
+  public void encryptTo(CharSequence message, Writer writer) throws GeneralSecurityException, IOException {
+    CipherContext context = takeContext(encryptors, Cipher.ENCRYPT_MODE);
+    int length = context.encrypt(message);
+    char[] chars = context.chars(length);
+    for (int i = 0; i < length; i++) {
+      chars[i] = (char) context.base64[i];
+    }
+    writer.write(chars, 0, length);
+    encryptors.offer(context);
+  }
+
+  /**
+   * Encrypts a message and returns its Base64 encoding as ASCII bytes,
+   * ready to be written to a stream or channel.
+   *
+   * @param message the plaintext message to encrypt
+   * @return the encrypted message encoded in Base64, as ASCII bytes
+   * @throws GeneralSecurityException if the message could not be encrypted
+   */
+  public byte[] encryptToBytes(CharSequence message) throws GeneralSecurityException {
+    CipherContext context = takeContext(encryptors, Cipher.ENCRYPT_MODE);
+    int length = context.encrypt(message);
+    byte[] encrypted = Arrays.copyOf(context.base64, length);
+    encryptors.offer(context);
+    return encrypted;
+  }
+
+  /**
+   * Decrypts a Base64-encoded AES encrypted message.
+   *
+   * @param encryptedMessage the encrypted message in Base64 format
+   * @return the decrypted plaintext message
+   * @throws GeneralSecurityException if the message could not be decrypted
+   * @throws IllegalArgumentException if the message is not valid Base64
+   */
+  public String decrypt(CharSequence encryptedMessage) throws GeneralSecurityException {
+    CipherContext context = takeContext(decryptors, Cipher.DECRYPT_MODE);
+    int length = context.decrypt(encryptedMessage);
+    String decrypted = new String(context.plain.array(), 0, length, StandardCharsets.UTF_8);
+    decryptors.offer(context);
+    return decrypted;
+  }
+
+  /**
+   * Encrypts raw bytes, without encoding the result in Base64. Used by the binary protocol.
+   *
+   * @param data   the bytes to encrypt
+   * @param offset the index of the first byte to encrypt
+   * @param length the number of bytes to encrypt
+   * @return the encrypted bytes
+   * @throws GeneralSecurityException if the bytes could not be encrypted
+   */
+  public byte[] encryptBytes(byte[] data, int offset, int length) throws GeneralSecurityException {
+    CipherContext context = takeContext(encryptors, Cipher.ENCRYPT_MODE);
+    byte[] encrypted = context.cipher.doFinal(data, offset, length);
+    encryptors.offer(context);
+    return encrypted;
+  }
+
+  /**
+   * Decrypts raw encrypted bytes, which are not encoded in Base64. Used by the binary protocol.
+   *
+   * @param data   the bytes to decrypt
+   * @param offset the index of the first byte to decrypt
+   * @param length the number of bytes to decrypt
+   * @return the decrypted bytes
+   * @throws GeneralSecurityException if the bytes could not be decrypted
+   */
+  public byte[] decryptBytes(byte[] data, int offset, int length) throws GeneralSecurityException {
+    CipherContext context = takeContext(decryptors, Cipher.DECRYPT_MODE);
+    byte[] decrypted = context.cipher.doFinal(data, offset, length);
+    decryptors.offer(context);
+    return decrypted;
+  }
+
+  /**
+   * Takes an idle cipher from the pool, or creates a new one if the pool is empty.
+   * A context that fails during use is not given back, so a cipher left in an unknown
+   * state is never reused.
+   */
+  private CipherContext takeContext(BlockingQueue<CipherContext> pool, int mode) throws GeneralSecurityException {
+    CipherContext context = pool.poll();
+    if (context == null) {
+      context = new CipherContext(mode, key);
+    }
+    return context;
+  }
+
+  /**
+   * An initialised cipher together with the buffers it encrypts or decrypts between.
+   */
+  private static final class CipherContext {
+    private final Cipher cipher;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+    private ByteBuffer plain = ByteBuffer.allocate(256);
+    private byte[] encrypted = new byte[272];
+    private byte[] base64 = new byte[364];
+    private char[] chars = new char[0];
+
+    CipherContext(int mode, SecretKey key) throws GeneralSecurityException {
+      this.cipher = Cipher.getInstance(ENCRYPTION_ALGORITHM);
+      this.cipher.init(mode, key);
+    }
+
+    /**
+     * Encrypts the message into the Base64 buffer.
+     *
+     * @return the number of Base64 bytes
+     */
+    int encrypt(CharSequence message) throws GeneralSecurityException {
+      int maxPlainLength = (int) Math.ceil(message.length() * (double) encoder.maxBytesPerChar());
+      if (plain.capacity() < maxPlainLength) {
+        plain = ByteBuffer.allocate(maxPlainLength);
+      }
+      plain.clear();
+      encoder.reset();
+      encoder.encode(CharBuffer.wrap(message), plain, true);
+      encoder.flush(plain);
+      int plainLength = plain.position();
+
+      int encryptedLength = cipher.getOutputSize(plainLength);
+      if (encrypted.length < encryptedLength) {
+        encrypted = new byte[encryptedLength];
+      }
+      encryptedLength = cipher.doFinal(plain.array(), 0, plainLength, encrypted, 0);
+
+      int base64Length = 4 * ((encryptedLength + 2) / 3);
+      if (base64.length < base64Length) {
+        base64 = new byte[base64Length];
+      }
+      return encodeBase64(encrypted, encryptedLength, base64);
+    }
+
+    /**
+     * Decodes and decrypts the Base64 message into the plaintext buffer.
+     *
+     * @return the number of plaintext bytes
+     */
+    int decrypt(CharSequence message) throws GeneralSecurityException {
+      int maxEncryptedLength = 3 * (message.length() / 4) + 3;
+      if (encrypted.length < maxEncryptedLength) {
+        encrypted = new byte[maxEncryptedLength];
+      }
+      int encryptedLength = decodeBase64(message, encrypted);
+
+      int plainLength = cipher.getOutputSize(encryptedLength);
+      if (plain.capacity() < plainLength) {
+        plain = ByteBuffer.allocate(plainLength);
+      }
+      return cipher.doFinal(encrypted, 0, encryptedLength, plain.array(), 0);
+    }
+
+    char[] chars(int length) {
+      if (chars.length < length) {
+        chars = new char[length];
+      }
+      return chars;
+    }
+  }
+
+  /**
+   * Encodes bytes as padded Base64 into the destination array.
+   *
+   * @return the number of Base64 bytes written
+   */
+  private static int encodeBase64(byte[] source, int length, byte[] destination) {
+    int out = 0;
+    int i = 0;
+    for (; i + 2 < length; i += 3) {
+      int bits = (source[i] & 0xff) << 16 | (source[i + 1] & 0xff) << 8 | (source[i + 2] & 0xff);
+      destination[out++] = (byte) BASE64_ALPHABET[bits >>> 18];
+      destination[out++] = (byte) BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+      destination[out++] = (byte) BASE64_ALPHABET[(bits >>> 6) & 0x3f];
+      destination[out++] = (byte) BASE64_ALPHABET[bits & 0x3f];
+    }
+    int remaining = length - i;
+    if (remaining > 0) {
+      int bits = (source[i] & 0xff) << 16 | (remaining == 2 ? (source[i + 1] & 0xff) << 8 : 0);
+      destination[out++] = (byte) BASE64_ALPHABET[bits >>> 18];
+      destination[out++] = (byte) BASE64_ALPHABET[(bits >>> 12) & 0x3f];
+      destination[out++] = remaining == 2 ? (byte) BASE64_ALPHABET[(bits >>> 6) & 0x3f] : (byte) '=';
+      destination[out++] = (byte) '=';
+    }
+    return out;
+  }
+
+  /**
+   * Decodes padded Base64 text into the destination array.
+   *
+   * @return the number of bytes written
+   * @throws IllegalArgumentException if the text is not valid Base64
+   */
+  private static int decodeBase64(CharSequence source, byte[] destination) {
+    int length = source.length();
+    if (length % 4 != 0) {
+      throw new IllegalArgumentException("Base64 text must be a multiple of 4 characters long.");
+    }
+    int out = 0;
+    for (int i = 0; i < length; i += 4) {
+      int padding = 0;
+      int bits = 0;
+      for (int j = 0; j < 4; j++) {
+        char c = source.charAt(i + j);
+        int value;
+        if (c == '=' && i + 4 == length && j >= 2) {
+          padding++;
+          value = 0;
+        } else if (padding > 0 || c >= 128 || (value = BASE64_VALUES[c]) < 0) {
+          throw new IllegalArgumentException("Illegal Base64 character: " + c);
+        }
+        bits = bits << 6 | value;
+      }
+      destination[out++] = (byte) (bits >>> 16);
+      if (padding < 2) {
+        destination[out++] = (byte) (bits >>> 8);
+      }
+      if (padding < 1) {
+        destination[out++] = (byte) bits;
+      }
+    }
+    return out;
+  }
+}
@@ -0,0 +1,69 @@
+package client;
+
+import greenhouse.util.BinaryProtocol;
+import greenhouse.util.MessageCipher;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TCPClientTest {
+  private final MessageCipher messageCipher = MessageCipher.getInstance();
+
+  // -------------------------- POSITIVE TESTS --------------------------
+
+  @Test
+  public void serverIgnoringTheHandshakeIsSpokenToInText() throws Exception {
+    try (ServerSocket server = new ServerSocket(0)) {
+      TCPClient client = new TCPClient();
+      client.openConnection("localhost", server.getLocalPort());
+      try (Socket socket = server.accept();
+           BufferedReader reader = new BufferedReader(
+                   new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1))) {
+        assertEquals(BinaryProtocol.HANDSHAKE, reader.readLine());
+
+        client.sendMessage("greenhouses", true); // Waits for the handshake answer, once
+        long start = System.nanoTime();
+        client.sendMessage("help", true);
+        client.sendMessage("back", true);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis < 1000, "Commands after the fallback waited " + elapsedMillis + " ms");
+        assertEquals("greenhouses", messageCipher.decrypt(reader.readLine()));
+        assertEquals("help", messageCipher.decrypt(reader.readLine()));
+        assertEquals("back", messageCipher.decrypt(reader.readLine()));
+      }
+    }
+  }
+
+  // -------------------------- NEGATIVE TESTS --------------------------
+
+  @Test
+  public void handshakeTimeoutCountsFromTheConnection() throws Exception {
+    try (ServerSocket server = new ServerSocket(0)) {
+      TCPClient client = new TCPClient();
+      client.openConnection("localhost", server.getLocalPort());
+      try (Socket socket = server.accept();
+           BufferedReader reader = new BufferedReader(
+                   new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1))) {
+        assertEquals(BinaryProtocol.HANDSHAKE, reader.readLine());
+        Thread.sleep(2500); // Longer than the handshake timeout
+
+        long start = System.nanoTime();
+        client.sendMessage("greenhouses", true);
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(elapsedMillis < 1000, "The first command waited " + elapsedMillis + " ms");
+        assertEquals("greenhouses", messageCipher.decrypt(reader.readLine()));
+      }
+    }
+  }
+}
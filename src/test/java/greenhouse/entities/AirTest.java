@@ -5,6 +5,8 @@ package greenhouse.entities;
 import org.junit.jupiter.api.Test;
 
 import greenhouse.logic.Air;
+import greenhouse.logic.Clock;
+import greenhouse.logic.RandomSource;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -64,6 +66,22 @@ public class AirTest {
             "Temperature converged " + convergedResultsTemp + " times. >= 45 required.");
   }
 
+  @Test
+  public void sameSeedSameChanges() {
+    Air air = new Air(20, 0.5f, 10000);
+    Air other = new Air(20, 0.5f, 10000);
+    Clock.getInstance().removeSubscriber(air);
+    Clock.getInstance().removeSubscriber(other);
+    air.setRandomSource(RandomSource.seeded(7));
+    other.setRandomSource(RandomSource.seeded(7));
+
+    for (int i = 0; i < 48; i++) {
+      air.updateState();
+      other.updateState();
+    }
 
+    assertEquals(air.getHumidity(), other.getHumidity());
+    assertEquals(air.getLux(), other.getLux());
+    assertEquals(air.getTemperature(), other.getTemperature());
+  }
 }
-
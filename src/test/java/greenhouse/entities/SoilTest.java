@@ -3,7 +3,9 @@ package greenhouse.entities;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
+import greenhouse.logic.RandomSource;
 import greenhouse.logic.Soil;
+import greenhouse.logic.Clock;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
@@ -99,5 +101,56 @@ public class SoilTest {
     assertEquals(0, soil.getNitrogen());
   }
 
+  /**
+   * Checks that the subscribers of the soil are alerted once per tick, with the final values,
+   * and once per watering, even though both change several values.
+   */
+  @Test
+  public void alertSubscribersOncePerChange() {
+    int[] alerts = {0};
+    double[] alertedMoisture = {0};
+    soil.addSubscriber(new SoilSubscriber() {
+      @Override
+      public void subscribe(Soil soil) {
+        soil.addSubscriber(this);
+      }
+
+      @Override
+      public void update(Soil soil) {
+        alerts[0]++;
+        alertedMoisture[0] = soil.getSoilMoisture();
+      }
+    });
+
+    soil.updateState();
+    assertEquals(1, alerts[0]);
+    assertEquals(soil.getSoilMoisture(), alertedMoisture[0]);
+
+    soil.waterSoil(10);
+    assertEquals(2, alerts[0]);
+  }
 
+  /**
+   * Checks that two soils with the same seed change the same way. The soils are taken
+   * off the clock, so only the test changes them.
+   */
+  @Test
+  public void sameSeedSameChanges() {
+    Soil other = new Soil(50, 7, 20);
+    Clock.getInstance().removeSubscriber(soil);
+    Clock.getInstance().removeSubscriber(other);
+    soil.setRandomSource(RandomSource.seeded(42));
+    other.setRandomSource(RandomSource.seeded(42));
+
+    for (int i = 0; i < 10; i++) {
+      soil.updateState();
+      other.updateState();
+      soil.waterSoil(5);
+      other.waterSoil(5);
+    }
+
+    assertEquals(soil.getSoilMoisture(), other.getSoilMoisture());
+    assertEquals(soil.getNitrogen(), other.getNitrogen());
+    assertEquals(soil.getPhValue(), other.getPhValue());
+  }
 }
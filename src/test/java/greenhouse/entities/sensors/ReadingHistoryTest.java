@@ -0,0 +1,86 @@
+package greenhouse.entities.sensors;
+
+import org.junit.jupiter.api.Test;
+
+import greenhouse.logic.Clock;
+import greenhouse.logic.Soil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the ReadingHistory class and the history of a sensor.
+ */
+public class ReadingHistoryTest {
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a full history keeps only the latest readings, oldest first.
+   */
+  @Test
+  public void keepsLatestReadingsOldestFirst() {
+    ReadingHistory history = new ReadingHistory(3);
+    for (int i = 1; i <= 5; i++) {
+      history.record(i, i * 10);
+    }
+
+    long[] timestamps = new long[4];
+    double[] values = new double[4];
+    int read = history.copyLatest(timestamps, values);
+
+    assertEquals(3, read);
+    assertArrayEquals(new long[] {3, 4, 5, 0}, timestamps);
+    assertArrayEquals(new double[] {30, 40, 50, 0}, values);
+  }
+
+  /**
+   * Checks that asking for fewer readings than are kept gives the latest ones.
+   */
+  @Test
+  public void copiesOnlyTheLastReadings() {
+    ReadingHistory history = new ReadingHistory(4);
+    for (int i = 1; i <= 3; i++) {
+      history.record(i, i);
+    }
+
+    long[] timestamps = new long[2];
+    double[] values = new double[2];
+    history.copyLatest(timestamps, values);
+
+    assertArrayEquals(new long[] {2, 3}, timestamps);
+  }
+
+  /**
+   * Checks that a sensor records every reading it takes once its history is enabled.
+   */
+  @Test
+  public void sensorRecordsReadings() {
+    Soil soil = new Soil(50, 7, 20);
+    Clock.getInstance().removeSubscriber(soil);
+    MoistureSensor<?> sensor = new MoistureSensor<>(1, soil);
+    sensor.subscribe(soil);
+    assertNull(sensor.getHistory());
+
+    ReadingHistory history = sensor.enableHistory(8);
+    soil.waterSoil(10);
+    soil.waterSoil(10);
+
+    long[] timestamps = new long[8];
+    double[] values = new double[8];
+    assertEquals(2, history.copyLatest(timestamps, values));
+    assertEquals(sensor.getMoisture(), values[1]);
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a history must keep at least one reading.
+   */
+  @Test
+  public void rejectsEmptyCapacity() {
+    assertThrows(IllegalArgumentException.class, () -> new ReadingHistory(0));
+  }
+}
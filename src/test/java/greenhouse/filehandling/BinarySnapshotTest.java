@@ -0,0 +1,98 @@
+package greenhouse.filehandling;
+
+import greenhouse.entities.appliances.AirAppliance;
+import greenhouse.entities.appliances.Appliance;
+import greenhouse.entities.appliances.Lamp;
+import greenhouse.entities.appliances.Sprinkler;
+import greenhouse.entities.sensors.PHSensor;
+import greenhouse.entities.sensors.Sensor;
+import greenhouse.entities.sensors.TemperatureSensor;
+import greenhouse.logic.GreenHouse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the BinarySnapshot class.
+ */
+public class BinarySnapshotTest {
+
+  @TempDir
+  Path directory;
+
+  /**
+   * Writes a snapshot of one greenhouse with a sensor on the air, a sensor on the soil,
+   * a lamp that is on and a sprinkler.
+   */
+  private Path writeSnapshot() throws IOException {
+    GreenHouse greenHouse = new GreenHouse(7);
+    greenHouse.addSensor(new TemperatureSensor<>(greenHouse.getNextAvailableSensorId(), greenHouse.getAir()));
+    greenHouse.addSensor(new PHSensor<>(greenHouse.getNextAvailableSensorId(), greenHouse.getSoil()));
+    Lamp lamp = new Lamp(greenHouse.getNextAvailableApplianceId());
+    lamp.togglePower();
+    greenHouse.addAppliance(lamp);
+    Sprinkler sprinkler = new Sprinkler(greenHouse.getNextAvailableApplianceId());
+    greenHouse.addAppliance(sprinkler);
+
+    GreenHouseDTO dto = new JsonWriter(directory, false).convertToDTO(greenHouse);
+    dto.setLogSequence(42);
+    Path file = directory.resolve("greenhouses.snapshot");
+    BinarySnapshot.write(file, List.of(dto));
+    return file;
+  }
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a greenhouse read from a snapshot has the sensors, appliances, power states,
+   * targets and log sequence number it was written with.
+   */
+  @Test
+  public void roundTripKeepsGreenHouse() throws IOException {
+    Path file = writeSnapshot();
+    List<GreenHouse> read = new ArrayList<>();
+    List<Long> sequences = new ArrayList<>();
+
+    int count = BinarySnapshot.read(file, (greenHouse, sequence) -> {
+      read.add(greenHouse);
+      sequences.add(sequence);
+    });
+
+    assertEquals(1, count);
+    GreenHouse greenHouse = read.get(0);
+    assertEquals(7, greenHouse.getID());
+    assertEquals(List.of(42L), sequences);
+    assertEquals(List.of("TemperatureSensor", "PHSensor"),
+            greenHouse.getAllSensors().stream().map(Sensor::getType).toList());
+    List<Appliance> appliances = greenHouse.getAllAppliances();
+    assertEquals(List.of("Lamp", "Sprinkler"), appliances.stream().map(Appliance::getType).toList());
+    assertTrue(((AirAppliance) appliances.get(0)).getPowerState());
+    assertEquals(new GreenHouse(1).getAir().getTargetTemperature(), greenHouse.getAir().getTargetTemperature());
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a snapshot with a changed byte is refused instead of loaded.
+   */
+  @Test
+  public void corruptSnapshotIsRefused() throws IOException {
+    Path file = writeSnapshot();
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      channel.write(ByteBuffer.wrap(new byte[] {0x7f}), 12);
+    }
+
+    assertThrows(IOException.class, () -> BinarySnapshot.read(file, (greenHouse, sequence) -> { }));
+  }
+}
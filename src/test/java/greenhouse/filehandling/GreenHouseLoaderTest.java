@@ -0,0 +1,73 @@
+package greenhouse.filehandling;
+
+import greenhouse.logic.GreenHouse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the GreenHouseLoader class.
+ */
+public class GreenHouseLoaderTest {
+
+  @TempDir
+  Path directory;
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that every greenhouse file is loaded in the order of the ids, even when an id
+   * between them has no file.
+   */
+  @Test
+  public void missingIdDoesNotHideLaterGreenhouses() throws IOException {
+    JsonWriter writer = new JsonWriter(directory, false);
+    for (int id : new int[] {0, 1, 3, 12}) {
+      writer.saveGreenhouse(new GreenHouse(id));
+    }
+    List<Integer> ids = new ArrayList<>();
+
+    GreenHouseLoader.Report report = new GreenHouseLoader(new JsonReader(directory), 3)
+            .load((greenHouse, logSequence) -> ids.add(greenHouse.getID()));
+
+    assertEquals(List.of(0, 1, 3, 12), ids);
+    assertEquals(4, report.loaded());
+    assertEquals(0, report.failed());
+    assertTrue(report.bytes() > 0);
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a file that cannot be parsed is counted as failed without stopping the others.
+   */
+  @Test
+  public void brokenFileIsSkipped() throws IOException {
+    new JsonWriter(directory, false).saveGreenhouse(new GreenHouse(0));
+    Files.writeString(directory.resolve("greenhouse1.json"), "{ not json");
+    List<Integer> ids = new ArrayList<>();
+
+    GreenHouseLoader.Report report = new GreenHouseLoader(new JsonReader(directory), 2)
+            .load((greenHouse, logSequence) -> ids.add(greenHouse.getID()));
+
+    assertEquals(List.of(0), ids);
+    assertEquals(1, report.failed());
+  }
+
+  /**
+   * Checks that a loader without threads cannot be created.
+   */
+  @Test
+  public void noThreadsIsRefused() {
+    assertThrows(IllegalArgumentException.class, () -> new GreenHouseLoader(new JsonReader(directory), 0));
+  }
+}
@@ -0,0 +1,200 @@
+package greenhouse.filehandling;
+
+import greenhouse.logic.GreenHouse;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractCollection;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the PersistenceService class.
+ */
+public class PersistenceServiceTest {
+
+  @TempDir
+  Path directory;
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a save writes a file for every greenhouse.
+   */
+  @Test
+  public void saveWritesEveryGreenhouse() {
+    List<GreenHouse> greenHouses = List.of(new GreenHouse(0), new GreenHouse(1), new GreenHouse(2));
+    try (PersistenceService service = new PersistenceService(() -> greenHouses, new JsonWriter(directory, false), 2)) {
+      service.requestSave().join();
+    }
+
+    for (int id = 0; id < 3; id++) {
+      assertTrue(Files.exists(directory.resolve("greenhouse" + id + ".json")));
+    }
+  }
+
+  /**
+   * Checks that a save only writes the greenhouses changed since the last save.
+   */
+  @Test
+  public void saveWritesOnlyChangedGreenhouses() throws IOException {
+    GreenHouse changed = new GreenHouse(0);
+    GreenHouse unchanged = new GreenHouse(1);
+    List<GreenHouse> greenHouses = List.of(changed, unchanged);
+    try (PersistenceService service = new PersistenceService(() -> greenHouses, new JsonWriter(directory, false), 2)) {
+      service.requestSave().join();
+      Files.delete(directory.resolve("greenhouse0.json"));
+      Files.delete(directory.resolve("greenhouse1.json"));
+
+      changed.updateAirTemperatureTarget(30);
+      service.requestSave().join();
+    }
+
+    assertTrue(Files.exists(directory.resolve("greenhouse0.json")));
+    assertFalse(Files.exists(directory.resolve("greenhouse1.json")));
+  }
+
+  /**
+   * Checks that a full save writes the greenhouses that did not change since the last save,
+   * so that the soil drifting since then is saved too.
+   */
+  @Test
+  public void fullSaveWritesUnchangedGreenhouses() throws IOException {
+    List<GreenHouse> greenHouses = List.of(new GreenHouse(0), new GreenHouse(1));
+    try (PersistenceService service = new PersistenceService(() -> greenHouses, new JsonWriter(directory, false), 2)) {
+      service.requestSave().join();
+      Files.delete(directory.resolve("greenhouse0.json"));
+      Files.delete(directory.resolve("greenhouse1.json"));
+
+      service.requestSave(true).join();
+    }
+
+    assertTrue(Files.exists(directory.resolve("greenhouse0.json")));
+    assertTrue(Files.exists(directory.resolve("greenhouse1.json")));
+  }
+
+  /**
+   * Checks that requests made while a save runs are merged into one save after it.
+   */
+  @Test
+  public void requestsDuringSaveAreMerged() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger saves = new AtomicInteger();
+    try (PersistenceService service = new PersistenceService(() -> {
+      saves.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return List.of(new GreenHouse(0));
+    }, new JsonWriter(directory, false), 1)) {
+      CompletableFuture<Void> first = service.requestSave();
+      started.await();
+      CompletableFuture<Void> second = service.requestSave();
+      CompletableFuture<Void> third = service.requestSave();
+      release.countDown();
+      third.join();
+
+      assertNotSame(first, second);
+      assertSame(second, third);
+      assertTrue(first.isDone());
+    }
+    assertEquals(2, saves.get());
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a save whose copy of a greenhouse was taken before the greenhouse was stored
+   * neither writes the older copy over the stored file nor keeps it as the copy last written.
+   */
+  @Test
+  public void saveDoesNotOverwriteGreenhouseStoredDuringIt() throws Exception {
+    GreenHouse greenHouse = new GreenHouse(0);
+    greenHouse.getSoil().changeNitrogen(1000 - greenHouse.getSoil().getNitrogen());
+    CountDownLatch copied = new CountDownLatch(1);
+    CountDownLatch stored = new CountDownLatch(1);
+    Collection<GreenHouse> pausingAfterCopy = new AbstractCollection<>() {
+      @Override
+      public Iterator<GreenHouse> iterator() {
+        Iterator<GreenHouse> iterator = List.of(greenHouse).iterator();
+        return new Iterator<>() {
+          @Override
+          public boolean hasNext() {
+            if (iterator.hasNext()) {
+              return true;
+            }
+            copied.countDown();
+            try {
+              stored.await();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+            }
+            return false;
+          }
+
+          @Override
+          public GreenHouse next() {
+            return iterator.next();
+          }
+        };
+      }
+
+      @Override
+      public int size() {
+        return 1;
+      }
+    };
+
+    try (PersistenceService service = new PersistenceService(() -> pausingAfterCopy,
+            new JsonWriter(directory, false), 1)) {
+      service.markSaved(greenHouse, 0);
+      CompletableFuture<Void> save = service.requestSave(true);
+      copied.await();
+      greenHouse.getSoil().changeNitrogen(2000 - greenHouse.getSoil().getNitrogen()); // Drifts without a new version
+      assertTrue(service.storeIfSaved(greenHouse));
+      stored.countDown();
+      save.join();
+
+      assertTrue(Files.readString(directory.resolve("greenhouse0.json")).contains("2000"));
+      assertFalse(service.storeIfSaved(greenHouse)); // Forgotten when stored, not kept again by the save
+    }
+  }
+
+  /**
+   * Checks that a file that cannot be written fails the save, and that the service is closed
+   * for requests after it is closed.
+   */
+  @Test
+  public void failedSaveIsReported() throws IOException {
+    Path blocked = directory.resolve("blocked");
+    Files.createFile(blocked); // A file where the directory should be
+    PersistenceService service = new PersistenceService(() -> List.of(new GreenHouse(0)),
+            new JsonWriter(blocked, false), 1);
+
+    CompletionException e = assertThrows(CompletionException.class, () -> service.requestSave().join());
+    assertInstanceOf(IOException.class, e.getCause());
+
+    service.close();
+    assertTrue(service.requestSave().isCompletedExceptionally());
+  }
+}
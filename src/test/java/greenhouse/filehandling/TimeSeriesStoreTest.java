@@ -0,0 +1,166 @@
+package greenhouse.filehandling;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the TimeSeriesStore class and the compression of its blocks.
+ */
+public class TimeSeriesStoreTest {
+  private static final long START = 1_700_000_000_000L;
+  private static final long HOUR = 3_600_000L;
+  private static final long MINUTE = 60_000L;
+
+  @TempDir
+  Path directory;
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that any timestamps and values come back exactly as they were compressed.
+   */
+  @Test
+  public void blockRoundTrip() {
+    SplittableRandom random = new SplittableRandom(7);
+    long[] timestamps = new long[500];
+    double[] values = new double[500];
+    long timestamp = START;
+    for (int i = 0; i < timestamps.length; i++) {
+      timestamp += i % 50 == 0 ? random.nextLong(1, 1L << 40) : random.nextLong(0, 3000);
+      timestamps[i] = timestamp;
+      values[i] = i % 7 == 0 ? values[Math.max(0, i - 1)] : random.nextDouble(-1e6, 1e6);
+    }
+    values[3] = Double.NaN;
+    values[4] = Double.NEGATIVE_INFINITY;
+
+    SampleBlockEncoder encoder = new SampleBlockEncoder(16);
+    for (int i = 0; i < timestamps.length; i++) {
+      encoder.add(timestamps[i], values[i]);
+    }
+    long[] decodedTimestamps = new long[timestamps.length];
+    double[] decodedValues = new double[values.length];
+    SampleBlockDecoder.decode(encoder.toByteArray(), encoder.count(), decodedTimestamps, decodedValues, 0);
+
+    assertArrayEquals(timestamps, decodedTimestamps);
+    assertArrayEquals(values, decodedValues);
+  }
+
+  /**
+   * Checks that readings are kept across reopening the store, and that hourly readings
+   * of a slowly changing value take only a few bytes each.
+   */
+  @Test
+  public void readingsSurviveReopening() throws IOException {
+    int samples = TimeSeriesStore.BLOCK_SAMPLES * 10 + 17;
+    try (TimeSeriesStore store = new TimeSeriesStore(directory)) {
+      for (int i = 0; i < samples; i++) {
+        store.append(1, 2, START + i * HOUR, 20 + (i / 24) * 0.5);
+        store.append(1, 3, START + i * HOUR, i);
+      }
+    }
+
+    try (TimeSeriesStore store = new TimeSeriesStore(directory)) {
+      TimeSeriesStore.Samples all = store.read(1, 2, Long.MIN_VALUE, Long.MAX_VALUE);
+      assertEquals(samples, all.timestamps().length);
+      assertEquals(START + (samples - 1) * HOUR, all.timestamps()[samples - 1]);
+      assertEquals(20 + ((samples - 1) / 24) * 0.5, all.values()[samples - 1]);
+
+      TimeSeriesStore.Samples range = store.read(1, 3, START + 100 * HOUR, START + 109 * HOUR);
+      assertArrayEquals(new double[] {100, 101, 102, 103, 104, 105, 106, 107, 108, 109}, range.values());
+
+      assertTrue(store.sizeOnDisk() / (2.0 * samples) < 4, "Expected a few bytes per sample");
+    }
+  }
+
+  /**
+   * Checks that flushing after every reading, as the server does with readings taken once a
+   * minute and flushed every minute, leaves the blocks to fill up, so the readings still take
+   * a few bytes each.
+   */
+  @Test
+  public void flushingEveryReadingKeepsBlocksFull() throws IOException {
+    int samples = TimeSeriesStore.BLOCK_SAMPLES * 4 + 30;
+    try (TimeSeriesStore store = new TimeSeriesStore(directory)) {
+      for (int i = 0; i < samples; i++) {
+        store.append(1, 2, START + i * MINUTE, 20 + (i / 60) * 0.5);
+        store.append(1, 3, START + i * MINUTE, 55);
+        store.flush();
+      }
+      assertTrue(store.sizeOnDisk() / (2.0 * samples) < 4, "Expected a few bytes per sample");
+    }
+
+    try (TimeSeriesStore store = new TimeSeriesStore(directory)) {
+      TimeSeriesStore.Samples all = store.read(1, 2, Long.MIN_VALUE, Long.MAX_VALUE);
+      assertEquals(samples, all.timestamps().length);
+      assertEquals(20 + ((samples - 1) / 60) * 0.5, all.values()[samples - 1]);
+      store.append(1, 2, START + samples * MINUTE, 30);
+      assertTrue(store.sizeOnDisk() / (2.0 * samples) < 4, "Expected a few bytes per sample");
+    }
+    try (TimeSeriesStore store = new TimeSeriesStore(directory)) {
+      assertEquals(samples + 1, store.read(1, 2, Long.MIN_VALUE, Long.MAX_VALUE).timestamps().length);
+      assertEquals(samples, store.read(1, 3, Long.MIN_VALUE, Long.MAX_VALUE).timestamps().length);
+    }
+  }
+
+  /**
+   * Checks that readings flushed before a crash are found when the store is opened again,
+   * including the readings of a block that filled up after the flush, without doubles.
+   */
+  @Test
+  public void flushedReadingsSurviveCrash() throws IOException {
+    try (TimeSeriesStore crashed = new TimeSeriesStore(directory)) {
+      for (int i = 0; i < TimeSeriesStore.BLOCK_SAMPLES - 10; i++) {
+        crashed.append(0, 0, START + i * MINUTE, i);
+      }
+      crashed.flush();
+      for (int i = TimeSeriesStore.BLOCK_SAMPLES - 10; i < TimeSeriesStore.BLOCK_SAMPLES + 5; i++) {
+        crashed.append(0, 0, START + i * MINUTE, i);
+      }
+
+      try (TimeSeriesStore store = new TimeSeriesStore(directory)) {
+        TimeSeriesStore.Samples all = store.read(0, 0, Long.MIN_VALUE, Long.MAX_VALUE);
+        assertEquals(TimeSeriesStore.BLOCK_SAMPLES, all.timestamps().length);
+        assertEquals(TimeSeriesStore.BLOCK_SAMPLES - 1, all.values()[TimeSeriesStore.BLOCK_SAMPLES - 1]);
+      }
+    }
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a block cut short by a crash is dropped when the store is opened,
+   * while the whole blocks before it are kept, and that new blocks can be appended after it.
+   */
+  @Test
+  public void damagedTailIsDropped() throws IOException {
+    try (TimeSeriesStore store = new TimeSeriesStore(directory)) {
+      for (int i = 0; i < TimeSeriesStore.BLOCK_SAMPLES * 2; i++) {
+        store.append(0, 0, START + i * HOUR, i);
+      }
+    }
+    Path segment = directory.resolve("segment-000000.gts");
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    try (TimeSeriesStore store = new TimeSeriesStore(directory)) {
+      assertEquals(TimeSeriesStore.BLOCK_SAMPLES,
+              store.read(0, 0, Long.MIN_VALUE, Long.MAX_VALUE).timestamps().length);
+      store.append(0, 0, START + 1000 * HOUR, 1000);
+    }
+    try (TimeSeriesStore store = new TimeSeriesStore(directory)) {
+      assertEquals(TimeSeriesStore.BLOCK_SAMPLES + 1,
+              store.read(0, 0, Long.MIN_VALUE, Long.MAX_VALUE).timestamps().length);
+    }
+  }
+}
@@ -0,0 +1,141 @@
+package greenhouse.filehandling;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the WriteAheadLog class.
+ */
+public class WriteAheadLogTest {
+
+  @TempDir
+  Path directory;
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that entries written by many threads at once are all read back after the log is
+   * opened again, in the order of their sequence numbers.
+   */
+  @Test
+  public void concurrentEntriesSurviveReopening() throws Exception {
+    try (WriteAheadLog log = new WriteAheadLog(directory)) {
+      List<Thread> threads = new ArrayList<>();
+      for (int t = 0; t < 8; t++) {
+        int greenHouseId = t;
+        threads.add(Thread.ofPlatform().start(() -> {
+          for (int i = 0; i < 50; i++) {
+            try {
+              log.awaitDurable(log.append((byte) 1, greenHouseId, "command " + i));
+            } catch (IOException e) {
+              throw new RuntimeException(e);
+            }
+          }
+        }));
+      }
+      for (Thread thread : threads) {
+        thread.join();
+      }
+    }
+
+    try (WriteAheadLog reopened = new WriteAheadLog(directory)) {
+      List<WriteAheadLog.Entry> entries = reopened.read();
+      assertEquals(400, entries.size());
+      for (int i = 0; i < entries.size(); i++) {
+        assertEquals(i + 1, entries.get(i).sequence());
+      }
+      assertEquals(401, reopened.append((byte) 1, 0, "next"));
+    }
+  }
+
+  /**
+   * Checks that the entries covered by a checkpoint are deleted by truncating to it,
+   * and the entries after it are kept.
+   */
+  @Test
+  public void truncateDropsCoveredEntries() throws IOException {
+    try (WriteAheadLog log = new WriteAheadLog(directory)) {
+      log.append((byte) 1, 0, "before");
+      log.append((byte) 1, 0, "before");
+      long covered = log.checkpoint(() -> { });
+      log.awaitDurable(log.append((byte) 2, 0, "after"));
+      log.truncate(covered);
+
+      assertEquals(2, covered);
+      assertEquals(List.of(new WriteAheadLog.Entry(3, (byte) 2, 0, "after")), log.read());
+    }
+  }
+
+  /**
+   * Checks that commands are only kept out while the copy of a checkpoint is taken, and that
+   * a command turned away meanwhile is told when it can try again.
+   */
+  @Test
+  public void checkpointLetsCommandsInAfterTheCopy() throws IOException {
+    try (WriteAheadLog log = new WriteAheadLog(directory)) {
+      log.append((byte) 1, 0, "before");
+      List<CompletableFuture<Void>> duringCopy = new ArrayList<>();
+      boolean[] lockedDuringCopy = new boolean[1];
+      log.checkpoint(() -> {
+        duringCopy.add(log.whenCheckpointDone());
+        lockedDuringCopy[0] = CompletableFuture.supplyAsync(() -> log.mutationLock().tryLock()).join();
+        assertFalse(duringCopy.get(0).isDone());
+      });
+
+      assertFalse(lockedDuringCopy[0]);
+      assertTrue(duringCopy.get(0).isDone());
+      assertTrue(log.mutationLock().tryLock());
+      log.mutationLock().unlock();
+    }
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that an entry torn by a crash is dropped, and that entries appended after
+   * opening the log again can be read.
+   */
+  @Test
+  public void tornEntryIsDropped() throws IOException {
+    try (WriteAheadLog log = new WriteAheadLog(directory)) {
+      log.awaitDurable(log.append((byte) 1, 4, "kept"));
+      log.awaitDurable(log.append((byte) 1, 4, "torn"));
+    }
+    Path segment;
+    try (Stream<Path> files = Files.list(directory)) {
+      segment = files.filter(file -> {
+        try {
+          return Files.size(file) > 0;
+        } catch (IOException e) {
+          throw new RuntimeException(e);
+        }
+      }).findFirst().orElseThrow();
+    }
+    try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.WRITE)) {
+      channel.truncate(channel.size() - 3);
+    }
+
+    try (WriteAheadLog log = new WriteAheadLog(directory)) {
+      log.awaitDurable(log.append((byte) 1, 4, "again"));
+      List<WriteAheadLog.Entry> entries = log.read();
+
+      assertEquals(2, entries.size());
+      assertEquals("kept", entries.get(0).command());
+      assertEquals(new WriteAheadLog.Entry(2, (byte) 1, 4, "again"), entries.get(1));
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package greenhouse.logic;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class ClientConnectionTest {
+  private final CountDownLatch writeStarted = new CountDownLatch(1);
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final StringWriter written = new StringWriter();
+  private ClientConnection connection;
+
+  @AfterEach
+  public void tearDown() {
+    release.countDown();
+    connection.stop();
+  }
+
+  // -------------------------- POSITIVE TESTS --------------------------
+
+  @Test
+  public void writesQueuedFramesInOrder() throws InterruptedException {
+    release.countDown();
+    connection = new ClientConnection(null, slowWriter(), 4, ClientConnection.OverflowPolicy.DISCONNECT);
+    assertTrue(connection.offer(line("a\n")));
+    assertTrue(connection.offer(line("b\n")));
+
+    waitFor(() -> written.toString().equals("a\nb\n"));
+    assertEquals("a\nb\n", written.toString());
+    assertEquals(0, connection.getDroppedFrames());
+  }
+
+  @Test
+  public void dropOldestKeepsNewestFrames() throws InterruptedException {
+    connection = new ClientConnection(null, slowWriter(), 2, ClientConnection.OverflowPolicy.DROP_OLDEST);
+    blockDrainer();
+    assertTrue(connection.offer(line("b\n")));
+    assertTrue(connection.offer(line("c\n")));
+    assertTrue(connection.offer(line("d\n")));
+    release.countDown();
+
+    waitFor(() -> written.toString().equals("a\nc\nd\n"));
+    assertEquals("a\nc\nd\n", written.toString());
+    assertEquals(1, connection.getDroppedFrames());
+  }
+
+  @Test
+  public void coalesceLatestKeepsOnlyLatestFrame() throws InterruptedException {
+    connection = new ClientConnection(null, slowWriter(), 2, ClientConnection.OverflowPolicy.COALESCE_LATEST);
+    blockDrainer();
+    assertTrue(connection.offer(line("b\n")));
+    assertTrue(connection.offer(line("c\n")));
+    assertTrue(connection.offer(line("d\n")));
+    release.countDown();
+
+    waitFor(() -> written.toString().equals("a\nd\n"));
+    assertEquals("a\nd\n", written.toString());
+    assertEquals(2, connection.getDroppedFrames());
+  }
+
+  @Test
+  public void isFullOnceQueueHoldsCapacity() throws InterruptedException {
+    connection = new ClientConnection(null, slowWriter(), 2, ClientConnection.OverflowPolicy.COALESCE_LATEST);
+    blockDrainer();
+    assertFalse(connection.isFull());
+    assertTrue(connection.offer(line("b\n")));
+    assertFalse(connection.isFull());
+    assertTrue(connection.offer(line("c\n")));
+    assertTrue(connection.isFull());
+    release.countDown();
+
+    waitFor(() -> !connection.isFull());
+    assertFalse(connection.isFull());
+    assertEquals(0, connection.getDroppedFrames());
+  }
+
+  // -------------------------- NEGATIVE TESTS --------------------------
+
+  @Test
+  public void disconnectClosesSlowClient() throws InterruptedException {
+    connection = new ClientConnection(null, slowWriter(), 1, ClientConnection.OverflowPolicy.DISCONNECT);
+    blockDrainer();
+    assertTrue(connection.offer(line("b\n")));
+    assertFalse(connection.offer(line("c\n")));
+
+    assertTrue(connection.isClosed());
+    assertFalse(connection.offer(line("d\n")));
+    assertEquals(1, connection.getDroppedFrames());
+  }
+
+  /**
+   * Offers a first frame and waits until the drainer is blocked writing it.
+   */
+  private void blockDrainer() throws InterruptedException {
+    assertTrue(connection.offer(line("a\n")));
+    assertTrue(writeStarted.await(5, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Creates a writer whose writes wait until the test releases them.
+   */
+  private BufferedWriter slowWriter() {
+    Writer slow = new Writer() {
+      @Override
+      public void write(char[] chars, int offset, int length) {
+        writeStarted.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        written.write(chars, offset, length);
+      }
+
+      @Override
+      public void flush() {
+      }
+
+      @Override
+      public void close() {
+      }
+    };
+    return new BufferedWriter(slow, 1);
+  }
+
+  private ClientConnection.Frame line(String text) {
+    return ClientConnection.Frame.line(text.toCharArray());
+  }
+
+  private void waitFor(BooleanSupplier condition) throws InterruptedException {
+    for (int attempt = 0; attempt < 100 && !condition.getAsBoolean(); attempt++) {
+      Thread.sleep(20);
+    }
+  }
+}
@@ -0,0 +1,94 @@
+package greenhouse.logic;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the sharded ticking of the Clock class.
+ */
+public class ClockShardTest {
+  private final Clock clock = Clock.getInstance();
+  private final List<ClockSubscriber> subscribed = new ArrayList<>();
+
+  @AfterEach
+  public void unsubscribe() {
+    subscribed.forEach(clock::removeSubscriber);
+  }
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that the broadcast phase starts only after the subscribers of every shard are ticked.
+   */
+  @Test
+  public void broadcastAfterAllShards() {
+    AtomicInteger updated = new AtomicInteger();
+    for (int i = 0; i < 100; i++) {
+      ClockSubscriber update = new ClockSubscriber() {
+        @Override
+        void tick() {
+          updated.incrementAndGet();
+        }
+      };
+      update.setShardKey(i);
+      add(update);
+    }
+    AtomicInteger seenByBroadcast = new AtomicInteger();
+    add(new ClockSubscriber() {
+      @Override
+      void tick() {
+        seenByBroadcast.set(updated.get());
+      }
+
+      @Override
+      Clock.Phase getPhase() {
+        return Clock.Phase.BROADCAST;
+      }
+    });
+
+    clock.tick().run();
+
+    assertEquals(100, seenByBroadcast.get());
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a failing subscriber does not stop the other subscribers from being ticked.
+   */
+  @Test
+  public void failingSubscriberDoesNotStopTick() {
+    AtomicInteger ticks = new AtomicInteger();
+    ClockSubscriber failing = new ClockSubscriber() {
+      @Override
+      void tick() {
+        throw new IllegalStateException("failing on purpose");
+      }
+    };
+    ClockSubscriber counting = new ClockSubscriber() {
+      @Override
+      void tick() {
+        ticks.incrementAndGet();
+      }
+    };
+    failing.setShardKey(7);
+    counting.setShardKey(7);
+    add(failing);
+    add(counting);
+
+    clock.tick().run();
+
+    assertEquals(1, ticks.get());
+  }
+
+  private void add(ClockSubscriber subscriber) {
+    clock.subscribe(subscriber);
+    subscribed.add(subscriber);
+  }
+}
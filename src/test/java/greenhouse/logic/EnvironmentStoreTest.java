@@ -0,0 +1,85 @@
+package greenhouse.logic;
+
+import greenhouse.entities.SoilSubscriber;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the EnvironmentStore class and its bulk engine.
+ */
+public class EnvironmentStoreTest {
+  private final EnvironmentStore store = EnvironmentStore.getInstance();
+
+  @AfterEach
+  public void useDefaultEngine() {
+    store.setBulkEngine(false);
+  }
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that the bulk engine steps the soil by the same model as the soil itself,
+   * and alerts its subscribers once per tick.
+   */
+  @Test
+  public void bulkEngineStepsSoil() {
+    store.setBulkEngine(true);
+    Soil soil = new Soil(50, 7, 20);
+    int[] alerts = {0};
+    soil.addSubscriber(new SoilSubscriber() {
+      @Override
+      public void subscribe(Soil soil) {
+        soil.addSubscriber(this);
+      }
+
+      @Override
+      public void update(Soil soil) {
+        alerts[0]++;
+      }
+    });
+
+    Clock.getInstance().tick().run();
+
+    assertEquals(17, soil.getNitrogen());
+    assertTrue(soil.getSoilMoisture() < 46 && soil.getSoilMoisture() >= 45);
+    assertEquals(1, alerts[0]);
+  }
+
+  /**
+   * Checks that air created in a new page is stepped by the bulk engine.
+   */
+  @Test
+  public void bulkEngineStepsEveryPage() {
+    store.setBulkEngine(true);
+    Air last = null;
+    for (int i = 0; i < AirPage.SIZE + 1; i++) {
+      last = new Air(20, 0.5f, 10000);
+    }
+
+    Clock.getInstance().tick().run();
+
+    assertNotEquals(0, last.getLux());
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that air created while the bulk engine is in use is not also ticked on its own
+   * once the engine is switched back, by counting its subscriptions to the clock.
+   */
+  @Test
+  public void switchingEnginesDoesNotTickTwice() {
+    store.setBulkEngine(true);
+    Soil soil = new Soil(50, 7, 100);
+    store.setBulkEngine(false);
+    store.setBulkEngine(false);
+
+    Clock.getInstance().tick().run();
+
+    assertEquals(97, soil.getNitrogen());
+  }
+}
@@ -0,0 +1,55 @@
+package greenhouse.logic;
+
+import greenhouse.util.BinaryProtocol;
+import greenhouse.util.MessageCipher;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the FrameWriter class.
+ */
+public class FrameWriterTest {
+  private final MessageCipher messageCipher = MessageCipher.getInstance();
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a reply longer than a frame, such as an aggregate over a thousand windows, is sent
+   * in continuation frames and read back as the same message, instead of ending the session.
+   */
+  @Test
+  public void replyLongerThanAFrameIsSent() throws Exception {
+    StringBuilder reply = new StringBuilder();
+    for (int window = 0; window < 1000; window++) {
+      reply.append("Window ").append(window)
+              .append(": min 12.50, max 27.30, mean 19.84, p50 19.80, p95 26.10, p99 27.00, samples 60\n");
+    }
+    assertTrue(reply.length() > BinaryProtocol.MAX_FRAME_LENGTH);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    FrameWriter writer = new FrameWriter(out);
+
+    writer.write(messageCipher.encrypt(reply.toString()));
+    writer.newLine();
+    writer.write(messageCipher.encrypt("next"));
+    writer.newLine();
+    writer.flush();
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+    BinaryProtocol.Frame first = BinaryProtocol.readFrame(in);
+    BinaryProtocol.Frame second = BinaryProtocol.readFrame(in);
+    assertEquals(BinaryProtocol.TEXT, first.type());
+    assertEquals(reply.toString(),
+            new String(messageCipher.decryptBytes(first.payload(), 0, first.payload().length), StandardCharsets.UTF_8));
+    assertEquals("next",
+            new String(messageCipher.decryptBytes(second.payload(), 0, second.payload().length), StandardCharsets.UTF_8));
+    assertNull(BinaryProtocol.readFrame(in));
+  }
+}
@@ -0,0 +1,294 @@
+package greenhouse.logic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the GreenHouseRegistry class.
+ */
+public class GreenHouseRegistryTest {
+
+  /**
+   * Keeps stored greenhouses in a map, and refuses to store the greenhouses it is told to.
+   */
+  private static final class MapStorage implements GreenHouseRegistry.Storage {
+    private final Map<Integer, GreenHouse> greenHouses = new HashMap<>();
+    private final List<Integer> refused;
+
+    private MapStorage(List<Integer> refused) {
+      this.refused = refused;
+    }
+
+    @Override
+    public GreenHouse load(int id) {
+      return greenHouses.remove(id);
+    }
+
+    @Override
+    public boolean store(GreenHouse greenHouse) {
+      if (refused.contains(greenHouse.getID())) {
+        return false;
+      }
+      greenHouses.put(greenHouse.getID(), greenHouse);
+      return true;
+    }
+  }
+
+  /**
+   * Keeps only the temperature target of stored greenhouses, and loads them as new greenhouses,
+   * so a change made to a greenhouse after it was stored is lost.
+   */
+  private static final class TargetStorage implements GreenHouseRegistry.Storage {
+    private final Map<Integer, Double> targets = new ConcurrentHashMap<>();
+
+    @Override
+    public GreenHouse load(int id) {
+      GreenHouse greenHouse = new GreenHouse(id);
+      greenHouse.updateAirTemperatureTarget(targets.remove(id));
+      return greenHouse;
+    }
+
+    @Override
+    public boolean store(GreenHouse greenHouse) {
+      targets.put(greenHouse.getID(), greenHouse.getAir().getTargetTemperature());
+      return true;
+    }
+  }
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that created greenhouses get increasing ids and are found by them.
+   */
+  @Test
+  public void createThenFind() throws NoExistingGreenHouseException {
+    GreenHouseRegistry registry = new GreenHouseRegistry();
+
+    GreenHouse first = registry.create();
+    GreenHouse second = registry.create();
+
+    assertEquals(0, first.getID());
+    assertEquals(1, second.getID());
+    assertSame(second, registry.require(1));
+    assertEquals(2, registry.size());
+  }
+
+  /**
+   * Checks that greenhouses created after loading saved ones, with gaps between the ids,
+   * get ids after the highest loaded id, and that the greenhouses are listed by id.
+   */
+  @Test
+  public void createAfterRegisteringSavedGreenHouses() {
+    GreenHouseRegistry registry = new GreenHouseRegistry();
+    registry.register(new GreenHouse(7));
+    registry.register(new GreenHouse(2));
+
+    GreenHouse created = registry.create();
+
+    assertEquals(8, created.getID());
+    assertEquals(List.of(2, 7, 8), registry.sortedById().stream().map(GreenHouse::getID).toList());
+  }
+
+  /**
+   * Checks that the greenhouses used least recently are stored and dropped from memory, and are
+   * loaded again when looked up.
+   */
+  @Test
+  public void coldGreenhousesAreEvictedAndLoadedAgain() {
+    GreenHouseRegistry registry = new GreenHouseRegistry();
+    MapStorage storage = new MapStorage(List.of());
+    registry.useStorage(storage, 2);
+    GreenHouse first = registry.create();
+    registry.create();
+    registry.create();
+    registry.get(0);
+
+    assertEquals(1, registry.evictColdGreenHouses());
+
+    assertEquals(2, registry.loadedSize());
+    assertEquals(3, registry.size());
+    assertEquals(List.of(0, 1, 2), registry.ids());
+    assertTrue(storage.greenHouses.containsKey(1));
+    assertSame(first, registry.get(0));
+    assertEquals(1, registry.get(1).getID());
+    assertFalse(storage.greenHouses.containsKey(1));
+    assertEquals(3, registry.loadedSize());
+  }
+
+  /**
+   * Checks that creating or loading a greenhouse over the limit evicts the coldest greenhouses
+   * on the evictor, without anyone asking for an eviction.
+   */
+  @Test
+  public void goingOverTheLimitEvicts() {
+    GreenHouseRegistry registry = new GreenHouseRegistry();
+    MapStorage storage = new MapStorage(List.of());
+    registry.useStorage(storage, 2, Runnable::run);
+    registry.create();
+    registry.create();
+    registry.create();
+
+    assertEquals(2, registry.loadedSize());
+    assertTrue(storage.greenHouses.containsKey(0));
+
+    registry.get(0);
+
+    assertEquals(2, registry.loadedSize());
+    assertTrue(storage.greenHouses.containsKey(1));
+  }
+
+  /**
+   * Checks that a pinned greenhouse stays in memory while another thread keeps evicting,
+   * so that no change made while it is pinned is lost.
+   */
+  @Test
+  public void pinnedGreenhouseIsNotEvicted() throws NoExistingGreenHouseException, InterruptedException {
+    GreenHouseRegistry registry = new GreenHouseRegistry();
+    registry.useStorage(new TargetStorage(), 1);
+    registry.create();
+    registry.create();
+    AtomicBoolean done = new AtomicBoolean(false);
+    Thread evictor = new Thread(() -> {
+      while (!done.get()) {
+        registry.get(1);
+        registry.evictColdGreenHouses();
+      }
+    });
+    evictor.start();
+
+    try {
+      for (int i = 1; i <= 10000; i++) {
+        GreenHouse greenHouse = registry.pin(0);
+        try {
+          greenHouse.updateAirTemperatureTarget(i);
+          assertSame(greenHouse, registry.get(0));
+        } finally {
+          registry.unpin(0);
+        }
+      }
+    } finally {
+      done.set(true);
+      evictor.join();
+    }
+
+    assertEquals(10000, registry.get(0).getAir().getTargetTemperature());
+  }
+
+  /**
+   * Checks that a greenhouse registered as stored is only loaded when looked up, and that
+   * greenhouses created afterwards get ids after it.
+   */
+  @Test
+  public void storedGreenhouseIsLoadedWhenLookedUp() throws NoExistingGreenHouseException {
+    GreenHouseRegistry registry = new GreenHouseRegistry();
+    MapStorage storage = new MapStorage(List.of());
+    registry.useStorage(storage, 1);
+    storage.store(new GreenHouse(4));
+    registry.registerStored(4);
+
+    assertEquals(0, registry.loadedSize());
+    assertEquals(5, registry.create().getID());
+    assertEquals(4, registry.require(4).getID());
+    assertEquals(2, registry.loadedSize());
+  }
+
+  /**
+   * Checks that a thread deferring loads has a stored greenhouse loaded on the evictor instead of
+   * waiting for it, is told when it is loaded, and finds it in memory afterwards.
+   */
+  @Test
+  public void storedGreenhouseIsLoadedOnTheEvictorForDeferringThread() {
+    GreenHouseRegistry registry = new GreenHouseRegistry();
+    MapStorage storage = new MapStorage(List.of());
+    List<Runnable> evictorTasks = new ArrayList<>();
+    registry.useStorage(storage, 1, evictorTasks::add);
+    storage.store(new GreenHouse(4));
+    registry.registerStored(4);
+    registry.deferLoads();
+
+    CommandWouldBlockException first = assertThrows(CommandWouldBlockException.class, () -> registry.get(4));
+    CommandWouldBlockException second = assertThrows(CommandWouldBlockException.class, () -> registry.pin(4));
+    assertSame(first.whenReady(), second.whenReady());
+    assertFalse(first.whenReady().isDone());
+    assertEquals(0, registry.loadedSize());
+
+    assertEquals(1, evictorTasks.size());
+    evictorTasks.remove(0).run();
+
+    assertTrue(first.whenReady().isDone());
+    assertEquals(1, registry.loadedSize());
+    assertEquals(4, registry.get(4).getID());
+  }
+
+  /**
+   * Checks that a greenhouse is moved on by the hours it spent stored when caught up.
+   */
+  @Test
+  public void catchUpMovesSoilOn() {
+    GreenHouse greenHouse = new GreenHouse(0);
+    double moisture = greenHouse.getSoil().getSoilMoisture();
+    double nitrogen = greenHouse.getSoil().getNitrogen();
+
+    greenHouse.catchUp(3);
+
+    assertEquals(Math.max(0, moisture - 13.5), greenHouse.getSoil().getSoilMoisture(), 1e-9);
+    assertEquals(Math.max(0, nitrogen - 9), greenHouse.getSoil().getNitrogen(), 1e-9);
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that looking up an id in a gap between ids finds no greenhouse.
+   */
+  @Test
+  public void findMissingId() {
+    GreenHouseRegistry registry = new GreenHouseRegistry();
+    registry.register(new GreenHouse(0));
+    registry.register(new GreenHouse(2));
+
+    assertNull(registry.get(1));
+    assertThrows(NoExistingGreenHouseException.class, () -> registry.require(1));
+  }
+
+  /**
+   * Checks that a second greenhouse with the same id is rejected.
+   */
+  @Test
+  public void registerDuplicateId() {
+    GreenHouseRegistry registry = new GreenHouseRegistry();
+    registry.register(new GreenHouse(3));
+
+    assertThrows(IllegalArgumentException.class, () -> registry.register(new GreenHouse(3)));
+  }
+
+  /**
+   * Checks that a greenhouse the storage cannot take stays in memory, and that stored
+   * greenhouses cannot be registered without a storage.
+   */
+  @Test
+  public void refusedGreenhouseStaysLoaded() {
+    GreenHouseRegistry registry = new GreenHouseRegistry();
+    assertThrows(IllegalStateException.class, () -> registry.registerStored(0));
+    registry.useStorage(new MapStorage(List.of(0)), 1);
+    registry.create();
+    registry.create();
+
+    assertEquals(1, registry.evictColdGreenHouses());
+
+    assertEquals(List.of(0), registry.sortedById().stream().map(GreenHouse::getID).toList());
+    assertThrows(IllegalArgumentException.class, () -> registry.register(new GreenHouse(1)));
+  }
+}
@@ -0,0 +1,107 @@
+package greenhouse.logic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Load test holding a large number of idle client sessions open against the TCPServer,
+ * and reporting the number of platform threads and the resident memory of the process.
+ * <p>
+ * Only runs when asked for, e.g.:
+ * {@code mvn test -Dgreenhouse.loadtest=true -Dgreenhouse.loadtest.sessions=20000
+ * -Dgreenhouse.loadtest.mode=virtual}
+ * <p>
+ * Both the clients and the server live in this JVM, so every session costs two sockets,
+ * and the open file limit ({@code ulimit -n}) must be above twice the number of sessions.
+ */
+@EnabledIfSystemProperty(named = "greenhouse.loadtest", matches = "true")
+public class IdleSessionLoadTest {
+  private static final int PORT = Integer.getInteger("greenhouse.loadtest.port", 5099);
+  private static final int SESSIONS = Integer.getInteger("greenhouse.loadtest.sessions", 20000);
+  private static final ServerMode MODE =
+          ServerMode.fromArgument(System.getProperty("greenhouse.loadtest.mode", "virtual"));
+
+  @Test
+  public void idleSessions() throws Exception {
+    TCPServer server = new TCPServer(PORT, MODE);
+    Thread serverThread = new Thread(server::run, "load-test-server");
+    serverThread.start();
+    waitForServer();
+
+    long baselineRss = readResidentMemoryKb();
+    int baselineThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+
+    List<Socket> clients = new ArrayList<>(SESSIONS);
+    try {
+      for (int i = 0; i < SESSIONS; i++) {
+        clients.add(new Socket("127.0.0.1", PORT));
+      }
+      // Every session has been greeted and is now blocked waiting for its next command
+      Thread.sleep(2000);
+      System.gc();
+
+      int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+      long rss = readResidentMemoryKb();
+      System.out.printf("Mode: %s, idle sessions: %d%n", MODE.getArgument(), clients.size());
+      System.out.printf("Platform threads: %d (before connecting: %d)%n", threads, baselineThreads);
+      System.out.printf("Resident memory: %d MB (before connecting: %d MB, %.1f KB per session)%n",
+              rss / 1024, baselineRss / 1024, (rss - baselineRss) / (double) clients.size());
+
+      assertEquals(SESSIONS, clients.size());
+      if (MODE != ServerMode.THREAD_PER_CLIENT) {
+        assertTrue(threads - baselineThreads < SESSIONS / 10,
+                "Idle sessions should not each hold on to a platform thread");
+      }
+    } finally {
+      for (Socket client : clients) {
+        client.close();
+      }
+      server.stopServer();
+      serverThread.join(10000);
+    }
+  }
+
+  /**
+   * Waits until the server accepts connections.
+   */
+  private void waitForServer() throws InterruptedException {
+    for (int attempt = 0; attempt < 50; attempt++) {
+      try {
+        new Socket("127.0.0.1", PORT).close();
+        return;
+      } catch (IOException e) {
+        Thread.sleep(100);
+      }
+    }
+    throw new IllegalStateException("Server did not start on port " + PORT);
+  }
+
+  /**
+   * Reads the resident set size of this process, as reported by Linux.
+   *
+   * @return the resident memory in KB, or -1 if it could not be read
+   */
+  private long readResidentMemoryKb() throws IOException {
+    Path status = Path.of("/proc/self/status");
+    if (!Files.exists(status)) {
+      return -1;
+    }
+    for (String line : Files.readAllLines(status)) {
+      if (line.startsWith("VmRSS:")) {
+        return Long.parseLong(line.replaceAll("[^0-9]", ""));
+      }
+    }
+    return -1;
+  }
+}
@@ -0,0 +1,102 @@
+package greenhouse.logic;
+
+import greenhouse.entities.sensors.MoistureSensor;
+import greenhouse.entities.sensors.NitrogenSensor;
+import greenhouse.entities.sensors.Sensor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the MonitorFilter class.
+ */
+public class MonitorFilterTest {
+  private Soil soil;
+  private List<Sensor<?>> sensors;
+  private MoistureSensor<?> moisture;
+
+  @BeforeEach
+  public void init() {
+    soil = new Soil(50, 7, 20);
+    Clock.getInstance().removeSubscriber(soil);
+    moisture = new MoistureSensor<>(0, soil);
+    moisture.subscribe(soil);
+    NitrogenSensor<?> nitrogen = new NitrogenSensor<>(1, soil);
+    nitrogen.subscribe(soil);
+    sensors = List.of(moisture, nitrogen);
+  }
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that the first readings are always sent, and afterwards only the readings that
+   * changed, when only-on-change is asked for. Watering also lowers the nitrogen, which is
+   * kept out by a wide band.
+   */
+  @Test
+  public void onlyOnChange() {
+    MonitorFilter filter = MonitorFilter.parse("monitor -onchange -nitrogen 100");
+
+    assertEquals(2, filter.select(sensors).size());
+    assertTrue(filter.select(sensors).isEmpty());
+    soil.waterSoil(1);
+    assertEquals(List.of(moisture), filter.select(sensors));
+  }
+
+  /**
+   * Checks that a reading is only sent once it has moved further than its absolute band
+   * from the reading last sent, even when it moves in small steps.
+   */
+  @Test
+  public void absoluteDeadBand() {
+    MonitorFilter filter = MonitorFilter.parse("monitor -moisture 2.5 -nitrogen 100");
+    filter.select(sensors);
+
+    soil.waterSoil(1);
+    soil.waterSoil(1);
+    assertTrue(filter.select(sensors).isEmpty());
+    soil.waterSoil(1);
+    assertEquals(List.of(moisture), filter.select(sensors));
+  }
+
+  /**
+   * Checks that a percentage band is taken of the reading last sent.
+   */
+  @Test
+  public void percentDeadBand() {
+    MonitorFilter filter = MonitorFilter.parse("monitor -moisture 10%");
+    filter.select(sensors);
+
+    soil.waterSoil(4);
+    assertEquals(1, filter.select(sensors).size()); // Only nitrogen, which has no band
+    soil.waterSoil(2);
+    assertTrue(filter.select(sensors).contains(moisture));
+  }
+
+  /**
+   * Checks that a plain monitor command lets every reading through.
+   */
+  @Test
+  public void plainMonitorIsPassThrough() {
+    assertTrue(MonitorFilter.parse("monitor").isPassThrough());
+    assertFalse(MonitorFilter.parse("monitor -onchange").isPassThrough());
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that options that are not understood are rejected.
+   */
+  @Test
+  public void rejectsInvalidOptions() {
+    assertThrows(IllegalArgumentException.class, () -> MonitorFilter.parse("monitor -moisture"));
+    assertThrows(IllegalArgumentException.class, () -> MonitorFilter.parse("monitor -moisture much"));
+    assertThrows(IllegalArgumentException.class, () -> MonitorFilter.parse("monitor -moisture 1 2"));
+  }
+}
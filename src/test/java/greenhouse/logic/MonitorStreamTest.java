@@ -0,0 +1,98 @@
+package greenhouse.logic;
+
+import greenhouse.entities.appliances.Lamp;
+import greenhouse.util.BinaryProtocol;
+import greenhouse.util.BinaryProtocol.MonitorUpdate;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the MonitorStream class and the encoding of the updates it makes.
+ */
+public class MonitorStreamTest {
+  private GreenHouse greenHouse;
+  private MonitorStream stream;
+  private Lamp lamp;
+
+  /**
+   * Creates a greenhouse with a moisture and a nitrogen sensor and a lamp, whose air and soil
+   * are taken off the clock so their readings only change when the test changes them.
+   */
+  @BeforeEach
+  public void init() {
+    greenHouse = new GreenHouse(3);
+    Clock.getInstance().removeSubscriber(greenHouse.getAir());
+    Clock.getInstance().removeSubscriber(greenHouse.getSoil());
+    greenHouse.addMoistureSensor();
+    greenHouse.addNitrogenSensor();
+    lamp = new Lamp(greenHouse.getNextAvailableApplianceId());
+    greenHouse.addAppliance(lamp);
+    stream = new MonitorStream(greenHouse.getID());
+  }
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that the first delta holds everything, and that later deltas only hold what changed
+   * and apply to the update before them.
+   */
+  @Test
+  public void deltasHoldOnlyChanges() {
+    MonitorUpdate first = stream.advance(greenHouse);
+    assertEquals(0, first.baseSequence());
+    assertEquals(2, first.sensorIds().length);
+    assertArrayEquals(new byte[] {BinaryProtocol.APPLIANCE_OFF}, first.applianceStates());
+    assertNull(stream.advance(greenHouse));
+
+    lamp.togglePower();
+    greenHouse.removeSensor(1);
+    MonitorUpdate second = stream.advance(greenHouse);
+
+    assertEquals(first.sequence(), second.baseSequence());
+    assertEquals(0, second.sensorIds().length);
+    assertArrayEquals(new int[] {1}, second.removedSensorIds());
+    assertArrayEquals(new byte[] {BinaryProtocol.APPLIANCE_ON}, second.applianceStates());
+  }
+
+  /**
+   * Checks that a snapshot holds what the stream last sent at its current sequence number,
+   * and survives being encoded and decoded.
+   */
+  @Test
+  public void snapshotRoundTrip() {
+    stream.advance(greenHouse);
+    greenHouse.getSoil().waterSoil(5);
+    MonitorUpdate delta = stream.advance(greenHouse);
+
+    MonitorUpdate snapshot = BinaryProtocol.decodeMonitorUpdate(
+            BinaryProtocol.encodeMonitorUpdate(stream.snapshot()));
+
+    assertTrue(snapshot.isSnapshot());
+    assertEquals(delta.sequence(), snapshot.sequence());
+    assertEquals(3, snapshot.greenhouseId());
+    assertEquals(2, snapshot.sensorIds().length);
+    assertEquals(1, snapshot.applianceIds().length);
+    assertTrue(BinaryProtocol.renderMonitorUpdate(snapshot).startsWith("Greenhouse 3 update #2 (snapshot)\n"));
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a cut-off update is rejected.
+   */
+  @Test
+  public void decodeTruncatedUpdate() {
+    byte[] encoded = BinaryProtocol.encodeMonitorUpdate(stream.advance(greenHouse));
+
+    assertThrows(IllegalArgumentException.class,
+            () -> BinaryProtocol.decodeMonitorUpdate(Arrays.copyOf(encoded, encoded.length - 1)));
+  }
+}
@@ -0,0 +1,134 @@
+package greenhouse.logic;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+public class PipelinedReaderTest {
+  private final ByteArrayOutputStream client = new ByteArrayOutputStream();
+  private final BatchingOutputStream out = new BatchingOutputStream(client);
+
+  // -------------------------- POSITIVE TESTS --------------------------
+
+  @Test
+  public void responsesToPipelinedCommandsAreHeldBack() throws IOException {
+    PipelinedReader reader = new PipelinedReader(input("first\nsecond\n"), out);
+
+    assertEquals("first", reader.readLine());
+    respond("one");
+    assertEquals("", written());
+
+    assertEquals("second", reader.readLine());
+    respond("two");
+    assertEquals("", written());
+
+    assertNull(reader.readLine());
+    assertEquals("one\ntwo\n", written());
+  }
+
+  @Test
+  public void responseToSingleCommandIsWrittenBeforeWaitingForTheNext() throws IOException {
+    PipelinedReader reader = new PipelinedReader(input("only\n"), out);
+
+    assertEquals("only", reader.readLine());
+    respond("one");
+    assertEquals("", written());
+
+    assertNull(reader.readLine());
+    assertEquals("one\n", written());
+  }
+
+  @Test
+  public void batchIsAnsweredWithOneWrite() throws IOException {
+    int[] writes = {0};
+    BatchingOutputStream counted = new BatchingOutputStream(new OutputStream() {
+      @Override
+      public void write(int b) {
+        writes[0]++;
+      }
+
+      @Override
+      public void write(byte[] bytes, int offset, int length) {
+        writes[0]++;
+      }
+    });
+    PipelinedReader reader = new PipelinedReader(input("first\nsecond\nthird\n"), counted);
+
+    for (int i = 0; i < 3; i++) {
+      reader.readLine();
+      respond(counted, "line one");
+      respond(counted, "line two");
+    }
+    assertNull(reader.readLine());
+    assertEquals(1, writes[0]);
+  }
+
+  @Test
+  public void heldBackResponsesAreWrittenWhenClosed() throws IOException {
+    PipelinedReader reader = new PipelinedReader(input("exit\n"), out);
+
+    assertEquals("exit", reader.readLine());
+    respond("bye");
+    out.close();
+    assertEquals("bye\n", written());
+  }
+
+  // -------------------------- NEGATIVE TESTS --------------------------
+
+  @Test
+  public void heldBackResponsesAreWrittenWhenInputEnds() throws IOException {
+    PipelinedReader reader = new PipelinedReader(input("first\nsecond"), out);
+
+    assertEquals("first", reader.readLine());
+    respond("one");
+    assertEquals("second", reader.readLine());
+    assertNull(reader.readLine());
+    assertEquals("one\n", written());
+  }
+
+  /**
+   * Writes a response line and flushes it, like the menus do.
+   */
+  private void respond(String response) throws IOException {
+    respond(out, response);
+  }
+
+  private void respond(BatchingOutputStream stream, String response) throws IOException {
+    stream.write((response + "\n").getBytes(StandardCharsets.UTF_8));
+    stream.flush();
+  }
+
+  /**
+   * Creates a reader of input which has all arrived. Unlike a plain StringReader,
+   * it is only ready while there is input left.
+   */
+  private Reader input(String text) {
+    return new StringReader(text) {
+      private int left = text.length();
+
+      @Override
+      public int read(char[] chars, int offset, int length) throws IOException {
+        int count = super.read(chars, offset, length);
+        left -= Math.max(count, 0);
+        return count;
+      }
+
+      @Override
+      public boolean ready() {
+        return left > 0;
+      }
+    };
+  }
+
+  private String written() {
+    return client.toString(StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,112 @@
+package greenhouse.logic;
+
+import greenhouse.entities.sensors.NitrogenSensor;
+import greenhouse.entities.sensors.PHSensor;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Tests the SensorRollups class and the Aggregate it answers with.
+ */
+public class SensorRollupsTest {
+  private static final long MINUTE = 60_000L;
+  private static final long HOUR = 3_600_000L;
+  private static final long START = 1_700_000_000_000L / (24 * HOUR) * (24 * HOUR);
+
+  private final SensorRollups rollups = new SensorRollups();
+  private Soil soil;
+  private NitrogenSensor<?> nitrogen;
+  private PHSensor<?> ph;
+
+  @BeforeEach
+  public void init() {
+    soil = new Soil(50, 7, 20);
+    Clock.getInstance().removeSubscriber(soil);
+    nitrogen = new NitrogenSensor<>(0, soil);
+    ph = new PHSensor<>(1, soil);
+  }
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a window covered by day, hour and minute buckets gives the same statistics
+   * as the readings in it, and percentiles within one percent.
+   */
+  @Test
+  public void aggregateMatchesReadings() {
+    int minutes = 2 * 24 * 60 + 120;
+    double[] values = new double[minutes];
+    for (int i = 0; i < minutes; i++) {
+      values[i] = 10 + (i * 37 % 101) / 4.0;
+      rollups.record(0, nitrogen, START + i * MINUTE + 1000, values[i]);
+    }
+
+    int first = 150;
+    int last = minutes - 1;
+    Aggregate aggregate = rollups.aggregate(0, 0, START + first * MINUTE, START + (last + 1) * MINUTE);
+
+    double[] window = Arrays.copyOfRange(values, first, last + 1);
+    double mean = Arrays.stream(window).average().orElseThrow();
+    double variance = Arrays.stream(window).map(v -> (v - mean) * (v - mean)).sum() / window.length;
+    Arrays.sort(window);
+    assertEquals(window.length, aggregate.getCount());
+    assertEquals(window[0], aggregate.getMin());
+    assertEquals(window[window.length - 1], aggregate.getMax());
+    assertEquals(mean, aggregate.getMean(), 1e-9);
+    assertEquals(Math.sqrt(variance), aggregate.getStandardDeviation(), 1e-9);
+    double median = window[(window.length - 1) / 2];
+    assertEquals(median, aggregate.getPercentile(50), median * QuantileSketch.RELATIVE_ACCURACY);
+  }
+
+  /**
+   * Checks that a query by sensor type merges the sensors of that type in every greenhouse,
+   * and leaves out sensors of other types.
+   */
+  @Test
+  public void aggregateByTypeAcrossGreenhouses() {
+    rollups.record(0, nitrogen, START, 10);
+    rollups.record(1, nitrogen, START, 30);
+    rollups.record(1, ph, START, 7);
+
+    Aggregate all = rollups.aggregate(SensorRollups.ALL_GREENHOUSES, "nitrogen", START, START + HOUR);
+    Aggregate one = rollups.aggregate(1, "nitrogen", START, START + HOUR);
+
+    assertEquals(2, all.getCount());
+    assertEquals(20, all.getMean());
+    assertEquals(1, one.getCount());
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that once the minute buckets of a window are dropped, its edges are rounded out
+   * to whole hours instead of losing readings.
+   */
+  @Test
+  public void droppedMinutesRoundToHours() {
+    for (int i = 0; i < 60; i++) {
+      rollups.record(0, nitrogen, START + i * MINUTE, i);
+    }
+    rollups.record(0, nitrogen, START + 5 * 24 * HOUR, 100);
+
+    Aggregate aggregate = rollups.aggregate(0, 0, START + 10 * MINUTE, START + 20 * MINUTE);
+
+    assertEquals(60, aggregate.getCount());
+    assertEquals(0, aggregate.getMin());
+  }
+
+  /**
+   * Checks that a window without readings has a count of 0 and no statistics.
+   */
+  @Test
+  public void emptyWindow() {
+    Aggregate aggregate = rollups.aggregate(0, 0, START, START + HOUR);
+
+    assertEquals(0, aggregate.getCount());
+    assertEquals(Double.NaN, aggregate.getMean());
+  }
+}
@@ -0,0 +1,98 @@
+package greenhouse.logic;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the TimingWheel class.
+ */
+public class TimingWheelTest {
+  private final ClockSubscriber subscriber = new ClockSubscriber() {
+    @Override
+    void tick() {
+    }
+  };
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a timer with a period longer than a turn of the wheel fires once every period.
+   */
+  @Test
+  public void fireEveryPeriodLongerThanWheel() {
+    TimingWheel wheel = new TimingWheel(4);
+    wheel.schedule(subscriber, 10, 10);
+
+    assertEquals(List.of(10, 20, 30), firingTicks(wheel, 30));
+  }
+
+  /**
+   * Checks that changing the period of a timer moves its next tick, and never ticks it twice.
+   */
+  @Test
+  public void rescheduleToNewPeriod() {
+    TimingWheel wheel = new TimingWheel(8);
+    TimingWheel.Timer timer = wheel.schedule(subscriber, 3, 3);
+    assertEquals(List.of(3), firingTicks(wheel, 4));
+
+    wheel.reschedule(timer, 5);
+
+    assertEquals(List.of(5, 10), firingTicks(wheel, 10));
+  }
+
+  /**
+   * Checks that the remaining ticks of a timer count the turns of the wheel it has left.
+   */
+  @Test
+  public void remainingTicksOverManyTurns() {
+    TimingWheel wheel = new TimingWheel(4);
+    TimingWheel.Timer timer = wheel.schedule(subscriber, 11, 11);
+    wheel.advance();
+
+    assertEquals(10, wheel.remainingTicks(timer));
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a cancelled timer never fires.
+   */
+  @Test
+  public void cancelledTimerDoesNotFire() {
+    TimingWheel wheel = new TimingWheel(4);
+    TimingWheel.Timer timer = wheel.schedule(subscriber, 1, 1);
+
+    wheel.cancel(timer);
+
+    assertTrue(firingTicks(wheel, 8).isEmpty());
+    assertEquals(0, wheel.size());
+  }
+
+  /**
+   * Checks that timers shorter than one tick and wheels which are not a power of two are rejected.
+   */
+  @Test
+  public void rejectInvalidTimers() {
+    assertThrows(IllegalArgumentException.class, () -> new TimingWheel(6));
+    assertThrows(IllegalArgumentException.class, () -> new TimingWheel(4).schedule(subscriber, 0, 1));
+  }
+
+  /**
+   * Advances the wheel the given number of ticks, and returns the ticks the subscriber fired on.
+   */
+  private List<Integer> firingTicks(TimingWheel wheel, int ticks) {
+    List<Integer> firing = new ArrayList<>();
+    for (int tick = 1; tick <= ticks; tick++) {
+      if (wheel.advance().contains(subscriber)) {
+        firing.add(tick);
+      }
+    }
+    return firing;
+  }
+}
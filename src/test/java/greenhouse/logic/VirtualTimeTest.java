@@ -0,0 +1,181 @@
+package greenhouse.logic;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests running the Clock in virtual time.
+ */
+public class VirtualTimeTest {
+  private final Clock clock = Clock.getInstance();
+  private final List<ClockSubscriber> subscribed = new ArrayList<>();
+
+  @AfterEach
+  public void restoreClock() {
+    subscribed.forEach(clock::removeSubscriber);
+    clock.start();
+  }
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that simulating a number of hours ticks every subscriber once per hour, or once
+   * per period for a subscriber with a longer period, and reports the throughput.
+   * The clock is stopped first, so no wall-clock tick comes in between.
+   */
+  @Test
+  public void simulateHours() {
+    clock.stop();
+    List<Long> hourly = new ArrayList<>();
+    List<Long> daily = new ArrayList<>();
+    long start = clock.getSimulatedHours();
+    add(new ClockSubscriber() {
+      @Override
+      void tick() {
+        hourly.add(clock.getSimulatedHours() - start);
+      }
+    }, 1);
+    add(new ClockSubscriber() {
+      @Override
+      void tick() {
+        daily.add(clock.getSimulatedHours() - start);
+      }
+    }, 24);
+
+    double hoursPerSecond = clock.simulate(72);
+
+    assertEquals(72, hourly.size());
+    assertEquals(List.of(23L, 47L, 71L), daily);
+    assertTrue(hoursPerSecond > 0);
+  }
+
+  /**
+   * Checks that the clock keeps ticking in virtual time without being driven.
+   */
+  @Test
+  public void virtualTimeTicksOnItsOwn() throws InterruptedException {
+    CountDownLatch ticks = new CountDownLatch(100);
+    add(new ClockSubscriber() {
+      @Override
+      void tick() {
+        ticks.countDown();
+      }
+    }, 1);
+
+    clock.startVirtualTime(Double.POSITIVE_INFINITY);
+
+    assertTrue(ticks.await(5, TimeUnit.SECONDS));
+    assertTrue(clock.isVirtualTime());
+    assertTrue(clock.getSimulatedHoursPerSecond() > 0);
+  }
+
+  /**
+   * Checks that stopping the clock waits for the virtual-time tick that is running, so no
+   * subscriber is ticked after the clock has stopped.
+   */
+  @Test
+  public void stopWaitsForRunningTick() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    AtomicBoolean ticking = new AtomicBoolean();
+    AtomicInteger ticks = new AtomicInteger();
+    add(new ClockSubscriber() {
+      @Override
+      void tick() {
+        ticking.set(true);
+        started.countDown();
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(20));
+        ticks.incrementAndGet();
+        ticking.set(false);
+      }
+    }, 1);
+    clock.startVirtualTime(Double.POSITIVE_INFINITY);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    clock.stop();
+    int ticksAtStop = ticks.get();
+    Thread.sleep(50);
+
+    assertFalse(ticking.get());
+    assertEquals(ticksAtStop, ticks.get());
+  }
+
+  /**
+   * Checks that stopping the clock also waits for a virtual-time tick left running by an earlier
+   * switch of mode, not only for the tick of the mode it stops.
+   */
+  @Test
+  public void stopWaitsForTickOfEarlierMode() throws InterruptedException {
+    CountDownLatch started = new CountDownLatch(1);
+    AtomicBoolean ticking = new AtomicBoolean();
+    add(new ClockSubscriber() {
+      @Override
+      void tick() {
+        ticking.set(true);
+        started.countDown();
+        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(50));
+        ticking.set(false);
+      }
+    }, 1);
+    clock.startVirtualTime(Double.POSITIVE_INFINITY);
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+
+    clock.start();
+    clock.startVirtualTime(Double.POSITIVE_INFINITY);
+    clock.stop();
+
+    assertFalse(ticking.get());
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a subscriber stopping the clock from within its tick is not left waiting for
+   * the tick it is part of.
+   */
+  @Test
+  public void stopFromWithinTick() throws InterruptedException {
+    CountDownLatch stopped = new CountDownLatch(1);
+    add(new ClockSubscriber() {
+      @Override
+      void tick() {
+        clock.stop();
+        stopped.countDown();
+      }
+    }, 1);
+
+    clock.startVirtualTime(Double.POSITIVE_INFINITY);
+
+    assertTrue(stopped.await(5, TimeUnit.SECONDS));
+  }
+
+  /**
+   * Checks that the wall-clock rate cannot be changed while the clock runs in virtual time,
+   * and that a multiplier which is not positive is rejected.
+   */
+  @Test
+  public void changeRateInVirtualTime() {
+    clock.startVirtualTime(3600);
+
+    assertThrows(IllegalStateException.class, () -> clock.speedUp(1));
+    assertThrows(IllegalArgumentException.class, () -> clock.startVirtualTime(0));
+  }
+
+  private void add(ClockSubscriber subscriber, int period) {
+    subscriber.setTickPeriod(period);
+    clock.subscribe(subscriber);
+    subscribed.add(subscriber);
+  }
+}
@@ -0,0 +1,96 @@
+package greenhouse.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the BinaryProtocol class.
+ */
+public class BinaryProtocolTest {
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that frames written one after another are read back the same, and that the end
+   * of the stream is reported after the last frame.
+   */
+  @Test
+  public void writeThenReadFrames() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryProtocol.writeFrame(out, BinaryProtocol.TEXT, new byte[] {1, 2, 3});
+    BinaryProtocol.writeFrame(out, BinaryProtocol.PLAIN_TEXT, new byte[0]);
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+    BinaryProtocol.Frame first = BinaryProtocol.readFrame(in);
+    BinaryProtocol.Frame second = BinaryProtocol.readFrame(in);
+
+    assertEquals(BinaryProtocol.TEXT, first.type());
+    assertArrayEquals(new byte[] {1, 2, 3}, first.payload());
+    assertEquals(BinaryProtocol.PLAIN_TEXT, second.type());
+    assertEquals(0, second.payload().length);
+    assertNull(BinaryProtocol.readFrame(in));
+  }
+
+  /**
+   * Checks that a payload too long for one frame is cut into continuation frames that are
+   * each short enough, and joined back into one frame of its own type when read.
+   */
+  @Test
+  public void longPayloadIsCutIntoFrames() throws IOException {
+    byte[] payload = new byte[2 * BinaryProtocol.MAX_FRAME_LENGTH + 100];
+    for (int i = 0; i < payload.length; i++) {
+      payload[i] = (byte) i;
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryProtocol.writeFrame(out, BinaryProtocol.TEXT, payload);
+    BinaryProtocol.writeFrame(out, BinaryProtocol.PLAIN_TEXT, new byte[] {7});
+
+    DataInputStream raw = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+    assertEquals(BinaryProtocol.MAX_FRAME_LENGTH, raw.readInt());
+    assertEquals(BinaryProtocol.CONTINUATION, raw.readByte());
+
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+    BinaryProtocol.Frame joined = BinaryProtocol.readFrame(in);
+    assertEquals(BinaryProtocol.TEXT, joined.type());
+    assertArrayEquals(payload, joined.payload());
+    assertArrayEquals(new byte[] {7}, BinaryProtocol.readFrame(in).payload());
+    assertNull(BinaryProtocol.readFrame(in));
+  }
+
+  //------------------------------- NEGATIVE TESTS ----------------------------------
+
+  /**
+   * Checks that a frame claiming to be longer than allowed is rejected before it is read.
+   */
+  @Test
+  public void readFrameTooLong() {
+    byte[] header = {0x7f, 0, 0, 0, BinaryProtocol.TEXT};
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(header));
+
+    assertThrows(IOException.class, () -> BinaryProtocol.readFrame(in));
+  }
+
+  /**
+   * Checks that a stream ending between the continuation frames of a payload is reported,
+   * instead of being taken for the end of the last frame.
+   */
+  @Test
+  public void streamEndingInsideCutPayload() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    BinaryProtocol.writeFrame(out, BinaryProtocol.TEXT, new byte[BinaryProtocol.MAX_FRAME_LENGTH + 10]);
+    byte[] firstFrameOnly = Arrays.copyOf(out.toByteArray(), Integer.BYTES + BinaryProtocol.MAX_FRAME_LENGTH);
+    DataInputStream in = new DataInputStream(new ByteArrayInputStream(firstFrameOnly));
+
+    assertThrows(IOException.class, () -> BinaryProtocol.readFrame(in));
+  }
+}
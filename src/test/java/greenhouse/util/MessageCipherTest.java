@@ -0,0 +1,65 @@
+package greenhouse.util;
+
+import org.junit.jupiter.api.Test;
+
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Tests the MessageCipher class.
+ */
+public class MessageCipherTest {
+  private static final SecretKey KEY = new SecretKeySpec(
+          Base64.getDecoder().decode("m0VxcSPFs+2cuMUfh6tjWMj90eihSDGpc1cLr/B9e1Y="), "AES");
+  private final MessageCipher messageCipher = MessageCipher.getInstance();
+
+  //------------------------------- POSITIVE TESTS ----------------------------------
+
+  /**
+   * Checks that messages of different lengths survive being encrypted and decrypted,
+   * also when the pooled ciphers and buffers are reused.
+   */
+  @Test
+  public void encryptThenDecrypt() throws Exception {
+    for (String message : new String[] {"a", "Greenhouse 0", "\nMenu:", "x".repeat(5000), "Temperatur 21°C"}) {
+      assertEquals(message, messageCipher.decrypt(messageCipher.encrypt(message)));
+    }
+  }
+
+  /**
+   * Checks that the encrypted messages are the same as those made with a plain Cipher
+   * and the Base64 encoder of the JDK, so old clients and servers still understand them.
+   */
+  @Test
+  public void matchesPlainCipherAndBase64() throws Exception {
+    String message = "HumiditySensor{id=0, humidityLevel=0.61}";
+    Cipher cipher = Cipher.getInstance("AES");
+    cipher.init(Cipher.ENCRYPT_MODE, KEY);
+    String expected = Base64.getEncoder().encodeToString(cipher.doFinal(message.getBytes(StandardCharsets.UTF_8)));
+
+    assertEquals(expected, messageCipher.encrypt(message));
+    assertArrayEquals(expected.getBytes(StandardCharsets.US_ASCII), messageCipher.encryptToBytes(message));
+
+    StringWriter writer = new StringWriter();
+    messageCipher.encryptTo(message, writer);
+    assertEquals(expected, writer.toString());
+  }
+
+  //--------------------------------- NEGATIVE TESTS ------------------------------------
+
+  /**
+   * Checks that text which is not Base64 is rejected.
+   */
+  @Test
+  public void decryptInvalidBase64() {
+    assertThrows(IllegalArgumentException.class, () -> messageCipher.decrypt("not base64!"));
+  }
+}